@@ -2,7 +2,6 @@ package com.github.paulpv.testapp
 
 import android.app.Activity
 import android.app.Application
-import android.bluetooth.le.ScanFilter
 import com.github.paulpv.androidbletool.*
 import com.github.paulpv.androidbletool.BleTool.BleToolConfiguration
 
@@ -31,12 +30,10 @@ class MainApp : Application(), BleTool.BleToolApplication {
     private val bleToolConfiguration = object : BleToolConfiguration() {
         override val scanningNotificationInfo: BleTool.BleToolScanningNotificationInfo
             get() = this@MainApp.scanningNotificationInfo
-        override val SCAN_FILTERS: List<ScanFilter>
-            get() = BuildConfig.SCAN_FILTERS
         override val DEBUG_DEVICE_ADDRESS_FILTER: Set<String>?
             get() = BuildConfig.DEBUG_DEVICE_ADDRESS_FILTER
-        override val SCAN_PARSERS: List<BleToolParser.BleDeviceParser>
-            get() = BuildConfig.SCAN_PARSERS
+        override val SCAN_PARSER_DESCRIPTORS: List<BleParserDescriptor>
+            get() = BuildConfig.SCAN_PARSER_DESCRIPTORS
         override val DEVICE_FACTORY: BleDeviceFactory<*>
             get() = BuildConfig.DEVICE_FACTORY
     }
@@ -0,0 +1,336 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+
+/**
+ * Flyweight cursor over the raw AD structures of an advertisement ([android.bluetooth.le.ScanRecord.getBytes]).
+ *
+ * Nothing is decoded until asked for, and nothing is allocated: a single instance is [reset] onto each
+ * advertisement, and [moveToNext] steps over the `length | type | data` structures in place.
+ * Depends on no Android framework types, so parsers built on it run on a plain JVM with byte array fixtures.
+ *
+ * Per Bluetooth Core Specification Supplement, Part A, Section 1.
+ *
+ * Not thread safe.
+ */
+class AdStructureCursor {
+    @Suppress("unused")
+    object Types {
+        const val FLAGS = 0x01
+        const val SERVICE_UUIDS_16_BIT_PARTIAL = 0x02
+        const val SERVICE_UUIDS_16_BIT_COMPLETE = 0x03
+        const val SERVICE_UUIDS_32_BIT_PARTIAL = 0x04
+        const val SERVICE_UUIDS_32_BIT_COMPLETE = 0x05
+        const val SERVICE_UUIDS_128_BIT_PARTIAL = 0x06
+        const val SERVICE_UUIDS_128_BIT_COMPLETE = 0x07
+        const val LOCAL_NAME_SHORT = 0x08
+        const val LOCAL_NAME_COMPLETE = 0x09
+        const val TX_POWER_LEVEL = 0x0A
+        const val SERVICE_DATA_16_BIT = 0x16
+        const val SERVICE_DATA_32_BIT = 0x20
+        const val SERVICE_DATA_128_BIT = 0x21
+        const val MANUFACTURER_SPECIFIC_DATA = 0xFF
+    }
+
+    companion object {
+        private val EMPTY = ByteArray(0)
+
+        /**
+         * Least significant bits of the Bluetooth Base UUID, 00000000-0000-1000-8000-00805F9B34FB
+         */
+        private const val BASE_UUID_LEAST_SIGNIFICANT_BITS = -0x7fffff7fa064cb05L
+        private const val BASE_UUID_MOST_SIGNIFICANT_BITS = 0x1000L
+
+        private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+    }
+
+    private var bytes = EMPTY
+    private var start = 0
+    private var limit = 0
+    private var next = 0
+
+    /**
+     * AD type of the current structure; -1 before the first [moveToNext]
+     */
+    var type = -1
+        private set
+
+    /**
+     * Offset in the raw bytes of the current structure's data (after the type byte)
+     */
+    var dataOffset = 0
+        private set
+
+    var dataLength = 0
+        private set
+
+    fun reset(bytes: ByteArray?): AdStructureCursor {
+        return reset(bytes ?: EMPTY, 0, bytes?.size ?: 0)
+    }
+
+    fun reset(bytes: ByteArray, offset: Int, length: Int): AdStructureCursor {
+        this.bytes = bytes
+        start = offset
+        limit = offset + length
+        moveToStart()
+        return this
+    }
+
+    fun moveToStart() {
+        next = start
+        type = -1
+        dataOffset = start
+        dataLength = 0
+    }
+
+    /**
+     * @return false at the end of the advertisement, at zero length padding, or at a malformed structure
+     */
+    fun moveToNext(): Boolean {
+        val i = next
+        if (i >= limit) {
+            return false
+        }
+        val length = bytes[i].toInt() and 0xFF
+        if (length == 0 || i + 1 + length > limit) {
+            next = limit
+            return false
+        }
+        type = bytes[i + 1].toInt() and 0xFF
+        dataOffset = i + 2
+        dataLength = length - 1
+        next = i + 1 + length
+        return true
+    }
+
+    /**
+     * Offset of the current structure; pass to [moveTo] to come back to it.
+     * The whole-advertisement queries ([isLocalName], [hasServiceUuid]) preserve the position, so they can be
+     * called while iterating.
+     */
+    val position: Int
+        get() = dataOffset - 2
+
+    /**
+     * @param position a value previously returned by [position]
+     */
+    fun moveTo(position: Int) {
+        if (position < start) {
+            moveToStart()
+            return
+        }
+        next = position
+        if (!moveToNext()) {
+            moveToStart()
+        }
+    }
+
+    /**
+     * Moves to the first structure of the given type, starting from the beginning of the advertisement
+     */
+    fun moveToFirst(type: Int): Boolean {
+        moveToStart()
+        while (moveToNext()) {
+            if (this.type == type) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * @param index index in the current structure's data
+     */
+    fun getByte(index: Int): Int {
+        if (index < 0 || index >= dataLength) {
+            throw IndexOutOfBoundsException("index=$index, dataLength=$dataLength")
+        }
+        return bytes[dataOffset + index].toInt() and 0xFF
+    }
+
+    private fun getUInt16(index: Int): Int {
+        return getByte(index) or (getByte(index + 1) shl 8)
+    }
+
+    /**
+     * @return the manufacturer ID of the current [Types.MANUFACTURER_SPECIFIC_DATA] structure, or -1
+     */
+    val manufacturerId: Int
+        get() = if (type == Types.MANUFACTURER_SPECIFIC_DATA && dataLength >= 2) getUInt16(0) else -1
+
+    /**
+     * Points reader at the current [Types.MANUFACTURER_SPECIFIC_DATA] structure's data, after the manufacturer ID;
+     * same content as [android.bluetooth.le.ScanRecord.getManufacturerSpecificData]
+     */
+    fun readManufacturerSpecificData(reader: ByteArrayReader): ByteArrayReader {
+        return reader.reset(bytes, dataOffset + 2, dataLength - 2)
+    }
+
+    /**
+     * @return the 16 bit service UUID of the current [Types.SERVICE_DATA_16_BIT] structure, or -1
+     */
+    val serviceDataUuid16: Int
+        get() = if (type == Types.SERVICE_DATA_16_BIT && dataLength >= 2) getUInt16(0) else -1
+
+    /**
+     * Points reader at the current [Types.SERVICE_DATA_16_BIT] structure's data, after the service UUID;
+     * same content as [android.bluetooth.le.ScanRecord.getServiceData]
+     */
+    fun readServiceData(reader: ByteArrayReader): ByteArrayReader {
+        return reader.reset(bytes, dataOffset + 2, dataLength - 2)
+    }
+
+    /**
+     * @return true if the advertisement has a local name (short or complete)
+     */
+    fun hasLocalName(): Boolean {
+        val position = position
+        try {
+            moveToStart()
+            while (moveToNext()) {
+                if (type == Types.LOCAL_NAME_COMPLETE || type == Types.LOCAL_NAME_SHORT) {
+                    return true
+                }
+            }
+            return false
+        } finally {
+            moveTo(position)
+        }
+    }
+
+    /**
+     * Compares the advertised local name (short or complete) to name, without decoding it to a String.
+     * Compares ASCII case insensitively; non-ASCII names never match.
+     */
+    fun isLocalName(name: String, ignoreCase: Boolean = true): Boolean {
+        val position = position
+        try {
+            moveToStart()
+            while (moveToNext()) {
+                if (type != Types.LOCAL_NAME_COMPLETE && type != Types.LOCAL_NAME_SHORT) {
+                    continue
+                }
+                if (dataLength != name.length) {
+                    continue
+                }
+                var i = 0
+                while (i < dataLength) {
+                    val c = getByte(i).toChar()
+                    val n = name[i]
+                    if (c != n && !(ignoreCase && c.toLowerCase() == n.toLowerCase())) {
+                        break
+                    }
+                    i++
+                }
+                if (i == dataLength) {
+                    return true
+                }
+            }
+            return false
+        } finally {
+            moveTo(position)
+        }
+    }
+
+    /**
+     * @return true if any service UUID list (16, 32, or 128 bit; partial or complete) contains the UUID
+     */
+    fun hasServiceUuid(mostSignificantBits: Long, leastSignificantBits: Long): Boolean {
+        val isBase = leastSignificantBits == BASE_UUID_LEAST_SIGNIFICANT_BITS &&
+                (mostSignificantBits and 0xFFFFFFFFL) == BASE_UUID_MOST_SIGNIFICANT_BITS
+        val shortUuid = (mostSignificantBits ushr 32).toInt()
+        val position = position
+        try {
+            moveToStart()
+            loop@ while (moveToNext()) {
+                when (type) {
+                    Types.SERVICE_UUIDS_16_BIT_PARTIAL, Types.SERVICE_UUIDS_16_BIT_COMPLETE -> {
+                        if (!isBase || shortUuid ushr 16 != 0) continue@loop
+                        var i = 0
+                        while (i + 2 <= dataLength) {
+                            if (getUInt16(i) == shortUuid) {
+                                return true
+                            }
+                            i += 2
+                        }
+                    }
+                    Types.SERVICE_UUIDS_32_BIT_PARTIAL, Types.SERVICE_UUIDS_32_BIT_COMPLETE -> {
+                        if (!isBase) continue@loop
+                        var i = 0
+                        while (i + 4 <= dataLength) {
+                            if ((getUInt16(i) or (getUInt16(i + 2) shl 16)) == shortUuid) {
+                                return true
+                            }
+                            i += 4
+                        }
+                    }
+                    Types.SERVICE_UUIDS_128_BIT_PARTIAL, Types.SERVICE_UUIDS_128_BIT_COMPLETE -> {
+                        var i = 0
+                        while (i + 16 <= dataLength) {
+                            if (getLongLittleEndian(i) == leastSignificantBits && getLongLittleEndian(i + 8) == mostSignificantBits) {
+                                return true
+                            }
+                            i += 16
+                        }
+                    }
+                }
+            }
+            return false
+        } finally {
+            moveTo(position)
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of what identifies the kind of advertisement, but not its changing values: the type and length
+     * of every structure, the whole local name and service UUID lists, the manufacturer ID of manufacturer specific
+     * data, and the service UUID and first (frame type) byte of 16 bit service data.
+     * Successive advertisements of the same kind from the same device (ex: only a counter or battery level changed)
+     * have the same signature; see [BleIdentificationCache].
+     * Preserves the position.
+     */
+    val signature: Long
+        get() {
+            val position = position
+            try {
+                var hash = FNV_OFFSET_BASIS
+                moveToStart()
+                while (moveToNext()) {
+                    hash = (hash xor type.toLong()) * FNV_PRIME
+                    hash = (hash xor dataLength.toLong()) * FNV_PRIME
+                    val signedLength = when (type) {
+                        Types.SERVICE_UUIDS_16_BIT_PARTIAL,
+                        Types.SERVICE_UUIDS_16_BIT_COMPLETE,
+                        Types.SERVICE_UUIDS_32_BIT_PARTIAL,
+                        Types.SERVICE_UUIDS_32_BIT_COMPLETE,
+                        Types.SERVICE_UUIDS_128_BIT_PARTIAL,
+                        Types.SERVICE_UUIDS_128_BIT_COMPLETE,
+                        Types.LOCAL_NAME_SHORT,
+                        Types.LOCAL_NAME_COMPLETE -> dataLength
+                        Types.MANUFACTURER_SPECIFIC_DATA -> Math.min(dataLength, 2)
+                        Types.SERVICE_DATA_16_BIT -> Math.min(dataLength, 3)
+                        else -> 0
+                    }
+                    for (i in dataOffset until dataOffset + signedLength) {
+                        hash = (hash xor (bytes[i].toLong() and 0xFF)) * FNV_PRIME
+                    }
+                }
+                return hash
+            } finally {
+                moveTo(position)
+            }
+        }
+
+    private fun getLongLittleEndian(index: Int): Long {
+        var value = 0L
+        for (j in 7 downTo 0) {
+            value = value shl 8 or getByte(index + j).toLong()
+        }
+        return value
+    }
+
+    override fun toString(): String {
+        return "{ type=0x${Integer.toHexString(type)}, dataOffset=$dataOffset, dataLength=$dataLength }"
+    }
+}
@@ -0,0 +1,315 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import com.github.paulpv.androidbletool.utils.Utils
+
+/**
+ * Declarative layout of a manufacturer specific data payload: fields, bit fields, byte order, and length rules.
+ *
+ * [Builder.build] compiles the layout once into a flat op table of absolute offsets, so [decode] is one bounds check
+ * per section followed by straight reads out of the backing array into a primitive [Record]; no per field position
+ * bookkeeping, no per field bounds checks, no allocation.
+ *
+ * Fields are laid out back to back in declaration order. The payload is a required section followed by zero or more
+ * [Builder.optional] sections; each optional section is decoded all or nothing, if enough bytes remain.
+ * A [Builder.exactLength] schema also rejects any payload that does not end exactly at the end of a section.
+ *
+ * Ex:
+ * ```
+ * val SCHEMA = AdvertisementSchema.Builder("Finder2", isLittleEndian = true)
+ *     .field("macAddress", Type.UINT32, isLittleEndian = false)
+ *     .field("macAddressExtra", Type.UINT8)
+ *     .optional()
+ *     .field("actionSequenceAndData", Type.UINT8)
+ *     .bits("actionSequence", "actionSequenceAndData", 4, 4)
+ *     ...
+ *     .build()
+ * val ACTION_SEQUENCE = SCHEMA.indexOf("actionSequence")
+ * ```
+ */
+class AdvertisementSchema private constructor(
+    val name: String,
+    private val names: Array<String>,
+    private val sections: IntArray,
+    private val ops: IntArray,
+    val minLength: Int,
+    val maxLength: Int,
+    val isExactLength: Boolean
+) {
+    companion object {
+        private const val OP_SECTION = 0
+        private const val OP_INT8 = 1
+        private const val OP_UINT8 = 2
+        private const val OP_INT16_BE = 3
+        private const val OP_INT16_LE = 4
+        private const val OP_UINT16_BE = 5
+        private const val OP_UINT16_LE = 6
+        private const val OP_INT32_BE = 7
+        private const val OP_INT32_LE = 8
+        private const val OP_UINT32_BE = 9
+        private const val OP_UINT32_LE = 10
+        private const val OP_INT64_BE = 11
+        private const val OP_INT64_LE = 12
+        private const val OP_BITS = 13
+
+        /**
+         * Each op is OP_WIDTH ints: opcode, offset (or source index for OP_BITS, or section end for OP_SECTION),
+         * destination index, argument (shift | width << 8 for OP_BITS)
+         */
+        private const val OP_WIDTH = 4
+    }
+
+    enum class Type(val size: Int) {
+        INT8(1),
+        UINT8(1),
+        INT16(2),
+        UINT16(2),
+        INT32(4),
+        UINT32(4),
+        INT64(8)
+    }
+
+    class Builder(private val name: String, private val isLittleEndian: Boolean = false) {
+        private val names = mutableListOf<String>()
+        private val sections = mutableListOf<Int>()
+        private val ops = mutableListOf<Int>()
+        private var section = 0
+        private var sectionOp = 0
+        private var offset = 0
+        private var minLength = -1
+        private var isExactLength = false
+
+        init {
+            ops.addAll(listOf(OP_SECTION, 0, section, 0))
+        }
+
+        private fun add(name: String): Int {
+            require(!names.contains(name)) { "duplicate field name ${Utils.quote(name)}" }
+            names.add(name)
+            sections.add(section)
+            return names.size - 1
+        }
+
+        /**
+         * Reads the next type.size bytes
+         */
+        @JvmOverloads
+        fun field(name: String, type: Type, isLittleEndian: Boolean = this.isLittleEndian): Builder {
+            val opcode = when (type) {
+                Type.INT8 -> OP_INT8
+                Type.UINT8 -> OP_UINT8
+                Type.INT16 -> if (isLittleEndian) OP_INT16_LE else OP_INT16_BE
+                Type.UINT16 -> if (isLittleEndian) OP_UINT16_LE else OP_UINT16_BE
+                Type.INT32 -> if (isLittleEndian) OP_INT32_LE else OP_INT32_BE
+                Type.UINT32 -> if (isLittleEndian) OP_UINT32_LE else OP_UINT32_BE
+                Type.INT64 -> if (isLittleEndian) OP_INT64_LE else OP_INT64_BE
+            }
+            ops.addAll(listOf(opcode, offset, add(name), 0))
+            offset += type.size
+            return this
+        }
+
+        /**
+         * Extracts width bits, starting at bit shift (0 = least significant), of an already declared field;
+         * consumes no bytes
+         */
+        fun bits(name: String, fieldName: String, shift: Int, width: Int): Builder {
+            val source = names.indexOf(fieldName)
+            require(source != -1) { "unknown field ${Utils.quote(fieldName)}" }
+            require(shift in 0..63 && width in 1..63 && shift + width <= 64) { "invalid shift=$shift, width=$width" }
+            ops.addAll(listOf(OP_BITS, source, add(name), shift or (width shl 8)))
+            return this
+        }
+
+        /**
+         * Skips count reserved or ignored bytes
+         */
+        fun skip(count: Int): Builder {
+            require(count > 0) { "count must be > 0" }
+            offset += count
+            return this
+        }
+
+        /**
+         * Ends the current section; the fields that follow are only decoded if the payload is long enough for all of
+         * them
+         */
+        fun optional(): Builder {
+            endSection()
+            section++
+            sectionOp = ops.size
+            ops.addAll(listOf(OP_SECTION, 0, section, 0))
+            return this
+        }
+
+        /**
+         * Rejects payloads with bytes left over after the last section that fits, instead of leaving them unread;
+         * ex: a payload cut off partway through an optional section
+         */
+        fun exactLength(): Builder {
+            isExactLength = true
+            return this
+        }
+
+        private fun endSection() {
+            // Patch the current section's OP_SECTION with the payload length it requires
+            ops[sectionOp + 1] = offset
+            if (minLength == -1) {
+                minLength = offset
+            }
+        }
+
+        fun build(): AdvertisementSchema {
+            endSection()
+            return AdvertisementSchema(name, names.toTypedArray(), sections.toIntArray(), ops.toIntArray(), minLength, offset, isExactLength)
+        }
+    }
+
+    /**
+     * Primitive result of [decode]; reuse one per parser
+     */
+    class Record(val schema: AdvertisementSchema) {
+        internal val values = LongArray(schema.size)
+
+        /**
+         * Number of sections decoded; at least 1 after a successful [decode]
+         */
+        var sectionCount = 0
+            internal set
+
+        /**
+         * Number of payload bytes decoded
+         */
+        var length = 0
+            internal set
+
+        fun isPresent(index: Int): Boolean {
+            return schema.sections[index] < sectionCount
+        }
+
+        fun getLong(index: Int): Long {
+            return values[index]
+        }
+
+        fun getInt(index: Int): Int {
+            return values[index].toInt()
+        }
+
+        fun getShort(index: Int): Short {
+            return values[index].toShort()
+        }
+
+        fun getByte(index: Int): Byte {
+            return values[index].toByte()
+        }
+
+        fun getBoolean(index: Int): Boolean {
+            return values[index] != 0L
+        }
+
+        override fun toString(): String {
+            val sb = StringBuilder(schema.name).append("{ length=").append(length)
+            for (i in 0 until schema.size) {
+                if (isPresent(i)) {
+                    sb.append(", ").append(schema.names[i]).append("=").append(values[i])
+                            .append(" (0x").append(java.lang.Long.toHexString(values[i])).append(')')
+                }
+            }
+            return sb.append(" }").toString()
+        }
+    }
+
+    /**
+     * Number of fields, including bit fields
+     */
+    val size: Int
+        get() = names.size
+
+    /**
+     * @return the index of the named field, for the [Record] getters; resolve once, not per advertisement
+     */
+    fun indexOf(name: String): Int {
+        val index = names.indexOf(name)
+        require(index != -1) { "unknown field ${Utils.quote(name)}" }
+        return index
+    }
+
+    /**
+     * Decodes from the reader's position, and advances it past the decoded sections.
+     *
+     * @return false, leaving the reader untouched, if the payload is shorter than [minLength], or, if [isExactLength],
+     * does not end exactly at the end of a section
+     */
+    fun decode(reader: ByteArrayReader, record: Record): Boolean {
+        val remaining = reader.remaining()
+        if (remaining < minLength) {
+            return false
+        }
+        val bytes = reader.array
+        val base = reader.position
+        val values = record.values
+        val ops = ops
+        var sectionCount = 0
+        var length = 0
+        var i = 0
+        loop@ while (i < ops.size) {
+            val offset = base + ops[i + 1]
+            val index = ops[i + 2]
+            when (ops[i]) {
+                OP_SECTION -> {
+                    val end = ops[i + 1]
+                    if (remaining < end) {
+                        break@loop
+                    }
+                    sectionCount++
+                    length = end
+                }
+                OP_INT8 -> values[index] = bytes[offset].toLong()
+                OP_UINT8 -> values[index] = bytes[offset].toLong() and 0xFF
+                OP_INT16_BE -> values[index] = readBigEndian(bytes, offset, 2).toShort().toLong()
+                OP_INT16_LE -> values[index] = readLittleEndian(bytes, offset, 2).toShort().toLong()
+                OP_UINT16_BE -> values[index] = readBigEndian(bytes, offset, 2)
+                OP_UINT16_LE -> values[index] = readLittleEndian(bytes, offset, 2)
+                OP_INT32_BE -> values[index] = readBigEndian(bytes, offset, 4).toInt().toLong()
+                OP_INT32_LE -> values[index] = readLittleEndian(bytes, offset, 4).toInt().toLong()
+                OP_UINT32_BE -> values[index] = readBigEndian(bytes, offset, 4)
+                OP_UINT32_LE -> values[index] = readLittleEndian(bytes, offset, 4)
+                OP_INT64_BE -> values[index] = readBigEndian(bytes, offset, 8)
+                OP_INT64_LE -> values[index] = readLittleEndian(bytes, offset, 8)
+                OP_BITS -> {
+                    val arg = ops[i + 3]
+                    val width = arg ushr 8
+                    values[index] = (values[ops[i + 1]] ushr (arg and 0xFF)) and ((1L shl width) - 1)
+                }
+            }
+            i += OP_WIDTH
+        }
+        if (isExactLength && length != remaining) {
+            return false
+        }
+        record.sectionCount = sectionCount
+        record.length = length
+        reader.skip(length)
+        return true
+    }
+
+    private fun readBigEndian(bytes: ByteArray, offset: Int, count: Int): Long {
+        var value = 0L
+        for (j in 0 until count) {
+            value = value shl 8 or (bytes[offset + j].toLong() and 0xFF)
+        }
+        return value
+    }
+
+    private fun readLittleEndian(bytes: ByteArray, offset: Int, count: Int): Long {
+        var value = 0L
+        for (j in count - 1 downTo 0) {
+            value = value shl 8 or (bytes[offset + j].toLong() and 0xFF)
+        }
+        return value
+    }
+
+    override fun toString(): String {
+        return "$name{ size=$size, minLength=$minLength, maxLength=$maxLength, isExactLength=$isExactLength }"
+    }
+}
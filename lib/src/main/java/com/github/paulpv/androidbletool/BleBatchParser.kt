@@ -0,0 +1,307 @@
+package com.github.paulpv.androidbletool
+
+import android.bluetooth.BluetoothDevice
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+
+/**
+ * Parallel parse stage for batches of scan results ([android.bluetooth.le.ScanCallback.onBatchScanResults] and
+ * PendingIntent deliveries), which can carry hundreds of advertisements at once.
+ *
+ * A batch is partitioned by mac address hash into one shard per worker, and every worker owns a [BleToolParser] over
+ * its own parsers ([BleToolParser.newWorker]), so no parsing state is shared between threads.
+ * Only [BleToolParser.parseAdvertisement] runs on the workers; the caller then walks the parsed entries in [indexAt]
+ * order and applies them to the devices itself, with [BleToolParser.apply], on the one thread that owns them.
+ *
+ * All entries of a mac address are in the same shard, and each shard is in timestamp order, so every device's entries
+ * are applied in timestamp order; entries of different devices may be reordered.
+ *
+ * Not thread safe; everything but the workers runs on the BleTool looper.
+ *
+ * @param parser used as is by the first worker, which runs on the calling thread; the other workers use
+ * [BleToolParser.newWorker]s of it
+ * @param workerCount the maximum number of threads, including the calling thread, parsing a batch; 1 if parser can
+ * not create workers (ex: one of its parsers does not support [BleToolParser.RawBleDeviceParser.newInstance])
+ */
+class BleBatchParser<T>(
+    parser: BleToolParser,
+    workerCount: Int
+) {
+    constructor(
+        deviceFactory: BleDeviceFactory<*>,
+        parsers: List<BleToolParser.BleDeviceParser>,
+        workerCount: Int
+    ) : this(BleToolParser(deviceFactory, parsers), workerCount)
+
+    companion object {
+        /**
+         * Smaller batches are parsed on the calling thread only; handing them to the workers costs more than it saves
+         */
+        const val PARALLEL_SIZE_MIN = 32
+
+        /**
+         * @return the shard, 0 until shardCount, of every entry of the macAddress
+         */
+        fun getShard(macAddress: Long, shardCount: Int): Int {
+            val hash = (macAddress xor (macAddress ushr 32)).toInt() * -0x61c88647
+            return (hash ushr 1) % shardCount
+        }
+    }
+
+    private val workers: Array<BleToolParser>
+
+    init {
+        require(workerCount >= 1) { "workerCount must be >= 1" }
+        val workers = mutableListOf(parser)
+        while (workers.size < workerCount) {
+            workers.add(parser.newWorker() ?: break)
+        }
+        this.workers = workers.toTypedArray()
+    }
+
+    val workerCount: Int
+        get() = workers.size
+
+    /**
+     * workerCount - 1 threads; the calling thread parses the first shard itself
+     */
+    private var executor: ExecutorService? = null
+    private var isClosed = false
+
+    private val tasks = Array(workers.size) { shard -> Runnable { runShard(shard) } }
+    private var latch: CountDownLatch? = null
+    @Volatile
+    private var error: Throwable? = null
+
+    //
+    // One entry per add, reused from batch to batch
+    //
+    private var items = arrayOfNulls<Any>(0)
+    private var macAddresses = LongArray(0)
+    private var timestampNanos = LongArray(0)
+    private var advertisements = arrayOfNulls<ByteArray>(0)
+    private var bluetoothDevices = arrayOfNulls<BluetoothDevice>(0)
+    private var shards = IntArray(0)
+    private var recognizedParsers = arrayOfNulls<BleToolParser.BleDeviceParser>(0)
+    private var frames = emptyArray<TriggerFrame>()
+
+    /**
+     * Entry indexes grouped by shard, each shard in timestamp order
+     */
+    private var order = IntArray(0)
+    private val shardStarts = IntArray(workers.size + 1)
+
+    var size = 0
+        private set
+
+    /**
+     * Stops the workers; a batch can still be parsed afterwards, on the calling thread only
+     */
+    fun close() {
+        isClosed = true
+        executor?.shutdown()
+        executor = null
+    }
+
+    /**
+     * Forgets the entries of the last batch, without holding on to their items
+     */
+    fun clear() {
+        items.fill(null, 0, size)
+        advertisements.fill(null, 0, size)
+        bluetoothDevices.fill(null, 0, size)
+        recognizedParsers.fill(null, 0, size)
+        size = 0
+    }
+
+    private fun grow() {
+        val capacity = Math.max(16, items.size * 2)
+        items = items.copyOf(capacity)
+        macAddresses = macAddresses.copyOf(capacity)
+        timestampNanos = timestampNanos.copyOf(capacity)
+        advertisements = advertisements.copyOf(capacity)
+        bluetoothDevices = bluetoothDevices.copyOf(capacity)
+        shards = shards.copyOf(capacity)
+        recognizedParsers = recognizedParsers.copyOf(capacity)
+        val frames = frames
+        this.frames = Array(capacity) { i -> if (i < frames.size) frames[i] else TriggerFrame() }
+        order = order.copyOf(capacity)
+    }
+
+    /**
+     * @param item anything the caller needs back to apply the entry; see [getItem]
+     * @param timestampNanos same as [android.bluetooth.le.ScanResult.getTimestampNanos]
+     * @param advertisementBytes same as [android.bluetooth.le.ScanRecord.getBytes]
+     * @param bluetoothDevice same as [android.bluetooth.le.ScanResult.getDevice]; only used to identify a device whose
+     * advertisement has no name, see [BleToolParser.RawBleDeviceParser.identify]
+     * @return the index of the new entry
+     */
+    fun add(item: T, macAddress: Long, timestampNanos: Long, advertisementBytes: ByteArray?, bluetoothDevice: BluetoothDevice? = null): Int {
+        if (size == items.size) {
+            grow()
+        }
+        val index = size++
+        items[index] = item
+        macAddresses[index] = macAddress
+        this.timestampNanos[index] = timestampNanos
+        advertisements[index] = advertisementBytes
+        bluetoothDevices[index] = bluetoothDevice
+        return index
+    }
+
+    /**
+     * Parses every entry added since the last [clear], in parallel if the batch is large enough; returns when all are
+     * parsed.
+     */
+    fun parse() {
+        val size = size
+        val shardCount = if (isClosed || size < PARALLEL_SIZE_MIN) 1 else workers.size
+
+        //
+        // Counting sort of the entry indexes by shard
+        //
+        val shardStarts = shardStarts
+        shardStarts.fill(0)
+        for (i in 0 until size) {
+            val shard = getShard(macAddresses[i], shardCount)
+            shards[i] = shard
+            shardStarts[shard + 1]++
+        }
+        for (shard in 1..shardCount) {
+            shardStarts[shard] += shardStarts[shard - 1]
+        }
+        for (shard in shardCount + 1 until shardStarts.size) {
+            shardStarts[shard] = size
+        }
+        for (i in 0 until size) {
+            // Borrows shardStarts[shard] as the shard's next position; the loop below shifts them back
+            order[shardStarts[shards[i]]++] = i
+        }
+        for (shard in shardCount downTo 1) {
+            shardStarts[shard] = shardStarts[shard - 1]
+        }
+        shardStarts[0] = 0
+
+        if (shardCount == 1) {
+            runShard(0)
+            return
+        }
+
+        var executor = this.executor
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(workers.size - 1, object : ThreadFactory {
+                private var count = 0
+
+                override fun newThread(runnable: Runnable): Thread {
+                    val thread = Thread(runnable, "BleBatchParser-${++count}")
+                    thread.isDaemon = true
+                    return thread
+                }
+            })!!
+            this.executor = executor
+        }
+
+        val latch = CountDownLatch(shardCount - 1)
+        this.latch = latch
+        error = null
+        for (shard in 1 until shardCount) {
+            executor.execute(tasks[shard])
+        }
+        try {
+            runShard(0)
+        } finally {
+            var interrupted = false
+            while (true) {
+                try {
+                    latch.await()
+                    break
+                } catch (e: InterruptedException) {
+                    // Must not return while the workers are still writing to this batch
+                    interrupted = true
+                }
+            }
+            this.latch = null
+            if (interrupted) {
+                Thread.currentThread().interrupt()
+            }
+        }
+        val error = error
+        if (error != null) {
+            throw RuntimeException("BleBatchParser worker failed", error)
+        }
+    }
+
+    private fun runShard(shard: Int) {
+        try {
+            val start = shardStarts[shard]
+            val end = shardStarts[shard + 1]
+            val order = order
+            val timestampNanos = timestampNanos
+
+            // Insertion sort; stable, and nearly linear for a batch that is already (nearly) in timestamp order
+            for (i in start + 1 until end) {
+                val index = order[i]
+                val timestamp = timestampNanos[index]
+                var j = i - 1
+                while (j >= start && timestampNanos[order[j]] > timestamp) {
+                    order[j + 1] = order[j]
+                    j--
+                }
+                order[j + 1] = index
+            }
+
+            val worker = workers[shard]
+            for (i in start until end) {
+                val index = order[i]
+                recognizedParsers[index] = worker.parseAdvertisement(macAddresses[index], advertisements[index], frames[index], bluetoothDevice = bluetoothDevices[index])
+            }
+        } catch (e: Throwable) {
+            if (shard == 0) {
+                throw e
+            }
+            error = e
+        } finally {
+            if (shard != 0) {
+                latch!!.countDown()
+            }
+        }
+    }
+
+    /**
+     * @param position 0 until [size], in the order the entries should be applied
+     * @return the index of the entry at position
+     */
+    fun indexAt(position: Int): Int {
+        return order[position]
+    }
+
+    fun getItem(index: Int): T {
+        @Suppress("UNCHECKED_CAST")
+        return items[index] as T
+    }
+
+    fun getMacAddress(index: Int): Long {
+        return macAddresses[index]
+    }
+
+    fun getTimestampNanos(index: Int): Long {
+        return timestampNanos[index]
+    }
+
+    /**
+     * @return the parser that recognized the entry, or null if none did
+     */
+    fun getParser(index: Int): BleToolParser.BleDeviceParser? {
+        return recognizedParsers[index]
+    }
+
+    /**
+     * @return the entry's parsed values; valid until the next [parse]
+     */
+    fun getFrame(index: Int): TriggerFrame {
+        return frames[index]
+    }
+}
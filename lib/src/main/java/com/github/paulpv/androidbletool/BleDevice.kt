@@ -3,12 +3,25 @@ package com.github.paulpv.androidbletool
 import android.os.Handler
 import android.os.Looper
 import android.os.Message
+import android.os.SystemClock
+import com.github.paulpv.androidbletool.devices.Features
 import com.github.paulpv.androidbletool.gatt.GattHandler
 import com.github.paulpv.androidbletool.utils.MyHandler
 import com.github.paulpv.androidbletool.utils.ReflectionUtils
 
 open class BleDevice(val gattHandler: GattHandler, looper: Looper? = null) {
     companion object {
+        /**
+         * Rough heap cost of a device, its [GattHandler], and their handlers and listener managers; see
+         * [estimatedSizeBytes]
+         */
+        const val ESTIMATED_SIZE_BYTES = 4 * 1024
+
+        /**
+         * [absentSinceElapsedMillis] of a device that is in BleTool's recently nearby devices
+         */
+        const val NEARBY = -1L
+
         fun toString(device: BleDevice?, suffix: String? = null): String {
             if (device == null) {
                 return "null"
@@ -40,6 +53,52 @@ open class BleDevice(val gattHandler: GattHandler, looper: Looper? = null) {
     private val looper = looper ?: Looper.getMainLooper()
     protected val handler = MyHandler(this.looper, Handler.Callback { msg -> this@BleDevice.handleMessage(msg) })
 
+    /**
+     * [SystemClock.elapsedRealtime] when the device was last removed from BleTool's recently nearby devices (or
+     * created, if it has never been nearby), or [NEARBY]; only accessed on the BleTool looper, and by the thread that
+     * creates the device.
+     * See [BleDeviceFactory.evict]
+     */
+    internal var absentSinceElapsedMillis = SystemClock.elapsedRealtime()
+
+    /**
+     * true if [BleDeviceFactory.evict] must keep the device no matter how long it has been absent; by default while
+     * its [GattHandler] is connecting, connected, disconnecting, or has an operation pending
+     */
+    open val isPinned: Boolean
+        get() = gattHandler.isPinned
+
+    /**
+     * Counted against [BleDeviceFactory.EvictionPolicy.maxBytes]; override if a subclass holds significantly more
+     */
+    open val estimatedSizeBytes: Int
+        get() = ESTIMATED_SIZE_BYTES
+
+    /**
+     * Called on the BleTool looper after [BleDeviceFactory.evict] dropped the device; it is no longer returned by
+     * [BleDeviceFactory.getDevice], which creates a new one if the device comes back
+     */
+    open fun onEvicted() {
+        handler.removeCallbacksAndMessages(null)
+        for (feature in timeoutFeatures) {
+            feature.timerStop()
+        }
+    }
+
+    /**
+     * Every [Features.TimeoutFeature] of this device, so that [onEvicted] can stop their timers; the shared
+     * [com.github.paulpv.androidbletool.devices.FeatureTimers] would otherwise keep firing them, and keep this device
+     * reachable
+     */
+    private val timeoutFeatures = ArrayList<Features.TimeoutFeature>(1)
+
+    /**
+     * Called by each [Features.TimeoutFeature] as it is constructed
+     */
+    internal fun addTimeoutFeature(feature: Features.TimeoutFeature) {
+        timeoutFeatures.add(feature)
+    }
+
     override fun toString(): String {
         return toString(this)
     }
@@ -0,0 +1,601 @@
+package com.github.paulpv.androidbletool
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.github.paulpv.androidbletool.collections.LongIntHashMap
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Binary checkpoint of [BleDeviceFactory]'s devices and their [TriggerFrameDevice] state: the merged frame (beeping,
+ * click sequence numbers, telemetry, model number) and the smoothed RSSI. A restarted process gets its devices back
+ * where they left off, instead of treating every device's first advertisement as all new (ex: alerting a click that was
+ * already handled).
+ *
+ * The file is a [HEADER_BYTES] header followed by one fixed size [RECORD_BYTES] record per row:
+ * * Loading is one sequential read of the whole file on ioExecutor, decoded into one primitive array per field, then
+ * handed to looperExecutor; until then [restore] finds nothing, and what [update] and [remove] change wins over the
+ * file
+ * * Devices are restored lazily: the factory calls [restore] as each device is created, normally by its first
+ * advertisement after the restart
+ * * [update] only marks a row dirty if one of its values changed; dirty rows are written behind on ioExecutor, in place,
+ * coalesced into one write per run of adjacent rows, [FLUSH_DELAY_MILLIS] after the first change
+ * * Each record carries a checksum, so one torn by a crash mid-write is dropped instead of restored; so are records
+ * older than [RECORD_MAX_AGE_MILLIS]
+ * * A file of any other [FORMAT_VERSION] is discarded and rewritten
+ *
+ * The realtime RSSI is not kept: it changes with nearly every advertisement, and is stale after a restart anyway.
+ *
+ * Thread safe. Call [flush] with sync = true when the rows must be durable before continuing (ex: shutdown).
+ */
+class BleDeviceCheckpoint(
+    private val file: File,
+    private val ioExecutor: ScheduledExecutorService,
+    private val looperExecutor: Executor
+) {
+    companion object {
+        private val TAG = TAG(BleDeviceCheckpoint::class.java)
+
+        @Suppress("SimplifyBooleanWithConstants")
+        private val LOG_FLUSH = false && BuildConfig.DEBUG
+
+        /**
+         * "BLDC"
+         */
+        const val MAGIC = 0x424C4443
+
+        /**
+         * Increment on any change to the header or record layout
+         */
+        const val FORMAT_VERSION: Short = 1
+
+        /**
+         * magic (int), version (short), record bytes (short), written millis (long)
+         */
+        const val HEADER_BYTES = 16
+
+        /**
+         * mac address (long), updated millis (long), present (int), model number (int), temperature (short), battery
+         * (short), smoothed RSSI (byte), flags (byte), click sequence (byte), click counter (byte), reserved (int),
+         * checksum (int); a free row is all zeros
+         */
+        const val RECORD_BYTES = 40
+
+        private const val OFFSET_MAC_ADDRESS = 0
+        private const val OFFSET_UPDATED_MILLIS = 8
+        private const val OFFSET_PRESENT = 16
+        private const val OFFSET_MODEL_NUMBER = 20
+        private const val OFFSET_TEMPERATURE_CELSIUS = 24
+        private const val OFFSET_BATTERY_LEVEL_MILLI_VOLTS = 26
+        private const val OFFSET_SIGNAL_LEVEL_RSSI_SMOOTHED = 28
+        private const val OFFSET_FLAGS = 29
+        private const val OFFSET_CLICK_SEQUENCE = 30
+        private const val OFFSET_CLICK_COUNTER = 31
+        private const val OFFSET_CHECKSUM = 36
+
+        private const val FLAG_ADVERTISEMENT_SPEED_SLOW = 1 shl 0
+        private const val FLAG_BEEPING_AND_FLASHING = 1 shl 1
+        private const val FLAG_SHORT_CLICKED = 1 shl 2
+        private const val FLAG_LONG_CLICKED = 1 shl 3
+        private const val FLAG_DOUBLE_CLICKED = 1 shl 4
+        private const val FLAG_MOTION = 1 shl 5
+
+        private const val CLICKS = TriggerFrame.SHORT_CLICK or TriggerFrame.LONG_CLICK or TriggerFrame.DOUBLE_CLICK
+
+        /**
+         * The [TriggerFrame] values a record holds
+         */
+        const val PERSISTED = TriggerFrame.ADVERTISEMENT_SPEED or
+                TriggerFrame.BEEPING_AND_FLASHING or
+                CLICKS or
+                TriggerFrame.TEMPERATURE_CELSIUS or
+                TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS or
+                TriggerFrame.MOTION or
+                TriggerFrame.MODEL_NUMBER
+
+        const val FLUSH_DELAY_MILLIS = 10 * 1000L
+
+        const val RECORD_MAX_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L
+
+        private const val CAPACITY_INITIAL = 16
+
+        private fun newIoExecutor(): ScheduledExecutorService {
+            return Executors.newSingleThreadScheduledExecutor { runnable ->
+                val thread = Thread(runnable, "BleDeviceCheckpoint")
+                thread.isDaemon = true
+                thread
+            }
+        }
+
+        private fun newLooperExecutor(looper: Looper?): Executor {
+            val handler = Handler(looper ?: Looper.getMainLooper())
+            return Executor { handler.post(it) }
+        }
+
+        /**
+         * FNV-1a of the record, up to its checksum
+         */
+        private fun checksum(bytes: ByteArray, offset: Int): Int {
+            var hash = -0x7ee3623b
+            for (i in offset until offset + OFFSET_CHECKSUM) {
+                hash = (hash xor (bytes[i].toInt() and 0xFF)) * 0x01000193
+            }
+            return hash
+        }
+    }
+
+    /**
+     * Loads and flushes on a background thread, and hands the loaded rows to looper (normally the BleTool looper)
+     */
+    constructor(file: File, looper: Looper? = null) : this(file, newIoExecutor(), newLooperExecutor(looper))
+
+    /**
+     * One primitive array per field, and which rows are free and dirty; not thread safe
+     */
+    private class Rows(capacity: Int) {
+        val rowsByMacAddress = LongIntHashMap()
+        var macAddresses = LongArray(capacity)
+        var updatedMillis = LongArray(capacity)
+        var presents = IntArray(capacity)
+        var modelNumbers = IntArray(capacity)
+        var temperaturesCelsius = ShortArray(capacity)
+        var batteryLevelsMilliVolts = ShortArray(capacity)
+        var signalLevelRssisSmoothed = ByteArray(capacity)
+        var flags = ByteArray(capacity)
+        var clickSequences = ByteArray(capacity)
+        var clickCounters = ByteArray(capacity)
+        var isDirty = BooleanArray(capacity)
+        var dirtyRows = IntArray(capacity)
+        var dirtyRowCount = 0
+        var freeRows = IntArray(capacity)
+        var freeRowCount = 0
+        var rowCount = 0
+
+        fun allocate(macAddress: Long): Int {
+            val row = if (freeRowCount > 0) {
+                freeRows[--freeRowCount]
+            } else {
+                if (rowCount == macAddresses.size) {
+                    grow(rowCount * 2)
+                }
+                rowCount++
+            }
+            macAddresses[row] = macAddress
+            rowsByMacAddress.put(macAddress, row)
+            return row
+        }
+
+        fun free(row: Int) {
+            macAddresses[row] = 0L
+            freeRows[freeRowCount++] = row
+        }
+
+        fun markDirty(row: Int) {
+            if (!isDirty[row]) {
+                isDirty[row] = true
+                dirtyRows[dirtyRowCount++] = row
+            }
+        }
+
+        /**
+         * Copies every value but the mac address
+         */
+        fun copy(from: Rows, fromRow: Int, row: Int) {
+            updatedMillis[row] = from.updatedMillis[fromRow]
+            presents[row] = from.presents[fromRow]
+            modelNumbers[row] = from.modelNumbers[fromRow]
+            temperaturesCelsius[row] = from.temperaturesCelsius[fromRow]
+            batteryLevelsMilliVolts[row] = from.batteryLevelsMilliVolts[fromRow]
+            signalLevelRssisSmoothed[row] = from.signalLevelRssisSmoothed[fromRow]
+            flags[row] = from.flags[fromRow]
+            clickSequences[row] = from.clickSequences[fromRow]
+            clickCounters[row] = from.clickCounters[fromRow]
+        }
+
+        fun grow(capacity: Int) {
+            if (capacity <= macAddresses.size) {
+                return
+            }
+            macAddresses = macAddresses.copyOf(capacity)
+            updatedMillis = updatedMillis.copyOf(capacity)
+            presents = presents.copyOf(capacity)
+            modelNumbers = modelNumbers.copyOf(capacity)
+            temperaturesCelsius = temperaturesCelsius.copyOf(capacity)
+            batteryLevelsMilliVolts = batteryLevelsMilliVolts.copyOf(capacity)
+            signalLevelRssisSmoothed = signalLevelRssisSmoothed.copyOf(capacity)
+            flags = flags.copyOf(capacity)
+            clickSequences = clickSequences.copyOf(capacity)
+            clickCounters = clickCounters.copyOf(capacity)
+            isDirty = isDirty.copyOf(capacity)
+            dirtyRows = dirtyRows.copyOf(capacity)
+            freeRows = freeRows.copyOf(capacity)
+        }
+    }
+
+    private val flushRunnable = Runnable { flush(false) }
+
+    /**
+     * Held while writing, outside of the lock on this, so that [update] never waits on the disk
+     */
+    private val fileLock = Any()
+
+    //
+    // All guarded by the lock on this
+    //
+    private var rows = Rows(CAPACITY_INITIAL)
+    private var flushFuture: ScheduledFuture<*>? = null
+    private var isLoaded = false
+
+    /**
+     * Removed before the file was loaded; null once it is
+     */
+    private var removedWhileLoading: MutableList<Long>? = ArrayList()
+
+    /**
+     * false until the file is known to have a current header; the next flush then rewrites it from scratch
+     */
+    private var isFileValid = false
+
+    /**
+     * Reused by [restore]
+     */
+    private val frame = TriggerFrame()
+
+    init {
+        ioExecutor.execute { load() }
+    }
+
+    val size: Int
+        get() = synchronized(this) {
+            rows.rowsByMacAddress.size()
+        }
+
+    /**
+     * Called by [BleDeviceFactory] when it creates a device
+     *
+     * @return true if the device had a row and was restored from it; false until the file is loaded
+     */
+    fun restore(macAddress: Long, device: TriggerFrameDevice): Boolean {
+        synchronized(this) {
+            val rows = rows
+            val row = rows.rowsByMacAddress.get(macAddress, -1)
+            if (row == -1) {
+                return false
+            }
+            toFrame(rows, row, frame)
+            device.restore(frame, rows.signalLevelRssisSmoothed[row].toInt())
+            return true
+        }
+    }
+
+    /**
+     * Call after the device has been updated; only marks its row dirty if a persisted value changed
+     */
+    fun update(macAddress: Long, device: TriggerFrameDevice, signalLevelRssiSmoothed: Int, nowMillis: Long = System.currentTimeMillis()) {
+        val frame = device.frame
+        val present = frame.present and PERSISTED
+        val flags = toFlags(frame)
+        synchronized(this) {
+            val rows = rows
+            var row = rows.rowsByMacAddress.get(macAddress, -1)
+            if (row == -1) {
+                row = rows.allocate(macAddress)
+            } else if (rows.presents[row] == present &&
+                rows.flags[row] == flags &&
+                rows.modelNumbers[row] == frame.modelNumber &&
+                rows.temperaturesCelsius[row] == frame.temperatureCelsius &&
+                rows.batteryLevelsMilliVolts[row] == frame.batteryLevelMilliVolts &&
+                rows.clickSequences[row] == frame.clickSequence &&
+                rows.clickCounters[row] == frame.clickCounter &&
+                rows.signalLevelRssisSmoothed[row] == signalLevelRssiSmoothed.toByte()
+            ) {
+                return
+            }
+            rows.presents[row] = present
+            rows.flags[row] = flags
+            rows.modelNumbers[row] = frame.modelNumber
+            rows.temperaturesCelsius[row] = frame.temperatureCelsius
+            rows.batteryLevelsMilliVolts[row] = frame.batteryLevelMilliVolts
+            rows.clickSequences[row] = frame.clickSequence
+            rows.clickCounters[row] = frame.clickCounter
+            rows.signalLevelRssisSmoothed[row] = signalLevelRssiSmoothed.toByte()
+            rows.updatedMillis[row] = nowMillis
+            markDirty(row)
+        }
+    }
+
+    /**
+     * Called by [BleDeviceFactory] when it evicts a device
+     */
+    fun remove(macAddress: Long) {
+        synchronized(this) {
+            removedWhileLoading?.add(macAddress)
+            val rows = rows
+            val row = rows.rowsByMacAddress.get(macAddress, -1)
+            if (row == -1) {
+                return
+            }
+            rows.rowsByMacAddress.remove(macAddress)
+            rows.free(row)
+            markDirty(row)
+        }
+    }
+
+    /**
+     * Writes on the calling thread
+     *
+     * @param sync true to also sync the file to disk before returning
+     * @return true if nothing was dirty or the dirty rows were successfully written; false until the file is loaded
+     */
+    fun flush(sync: Boolean): Boolean {
+        synchronized(fileLock) {
+            val rows: IntArray
+            val records: ByteArray
+            val rewrite: Boolean
+            synchronized(this) {
+                flushFuture?.cancel(false)
+                flushFuture = null
+                if (!isLoaded) {
+                    // Rows can not be placed in the file before its own are known; flushed once they are
+                    return false
+                }
+                val dirty = this.rows
+                if (dirty.dirtyRowCount == 0) {
+                    return true
+                }
+                rows = Arrays.copyOf(dirty.dirtyRows, dirty.dirtyRowCount)
+                dirty.dirtyRowCount = 0
+                rows.sort()
+                records = ByteArray(rows.size * RECORD_BYTES)
+                val buffer = ByteBuffer.wrap(records)
+                for (i in rows.indices) {
+                    val row = rows[i]
+                    dirty.isDirty[row] = false
+                    encode(dirty, row, buffer, i * RECORD_BYTES)
+                }
+                rewrite = !isFileValid
+            }
+            try {
+                RandomAccessFile(file, "rw").use { raf ->
+                    if (rewrite) {
+                        raf.setLength(0)
+                        raf.write(encodeHeader())
+                    }
+                    var i = 0
+                    while (i < rows.size) {
+                        var j = i + 1
+                        while (j < rows.size && rows[j] == rows[j - 1] + 1) {
+                            j++
+                        }
+                        raf.seek(HEADER_BYTES + rows[i].toLong() * RECORD_BYTES)
+                        raf.write(records, i * RECORD_BYTES, (j - i) * RECORD_BYTES)
+                        i = j
+                    }
+                    if (sync) {
+                        raf.fd.sync()
+                    }
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "flush: failed to write ${rows.size} rows to $file", e)
+                synchronized(this) {
+                    for (row in rows) {
+                        markDirty(row)
+                    }
+                }
+                return false
+            }
+            if (LOG_FLUSH) {
+                Log.v(TAG, "flush: wrote ${rows.size} rows, rewrite=$rewrite, sync=$sync")
+            }
+            synchronized(this) {
+                isFileValid = true
+            }
+            return true
+        }
+    }
+
+    /**
+     * Runs on ioExecutor
+     */
+    private fun load() {
+        val rows = Rows(CAPACITY_INITIAL)
+        val isFileValid = decode(rows)
+        looperExecutor.execute { onLoaded(rows, isFileValid) }
+    }
+
+    /**
+     * @return true if the file has a current header
+     */
+    private fun decode(rows: Rows): Boolean {
+        if (!file.exists()) {
+            return false
+        }
+        val bytes = try {
+            file.readBytes()
+        } catch (e: IOException) {
+            Log.e(TAG, "decode: failed to read $file", e)
+            return false
+        }
+        val buffer = ByteBuffer.wrap(bytes)
+        if (bytes.size < HEADER_BYTES ||
+            buffer.getInt(0) != MAGIC ||
+            buffer.getShort(4) != FORMAT_VERSION ||
+            buffer.getShort(6).toInt() != RECORD_BYTES
+        ) {
+            Log.w(TAG, "decode: discarding $file; not a version $FORMAT_VERSION checkpoint")
+            return false
+        }
+        val count = (bytes.size - HEADER_BYTES) / RECORD_BYTES
+        rows.grow(count)
+        rows.rowCount = count
+        val nowMillis = System.currentTimeMillis()
+        var dropped = 0
+        // Highest first, so allocate reuses the lowest free rows first
+        for (row in count - 1 downTo 0) {
+            val offset = HEADER_BYTES + row * RECORD_BYTES
+            val macAddress = buffer.getLong(offset + OFFSET_MAC_ADDRESS)
+            if (macAddress == 0L) {
+                rows.free(row)
+                continue
+            }
+            val updatedMillis = buffer.getLong(offset + OFFSET_UPDATED_MILLIS)
+            if (buffer.getInt(offset + OFFSET_CHECKSUM) != checksum(bytes, offset) ||
+                nowMillis - updatedMillis > RECORD_MAX_AGE_MILLIS ||
+                rows.rowsByMacAddress.containsKey(macAddress)
+            ) {
+                // Zero it on disk too
+                rows.free(row)
+                rows.markDirty(row)
+                dropped++
+                continue
+            }
+            rows.macAddresses[row] = macAddress
+            rows.updatedMillis[row] = updatedMillis
+            rows.presents[row] = buffer.getInt(offset + OFFSET_PRESENT) and PERSISTED
+            rows.modelNumbers[row] = buffer.getInt(offset + OFFSET_MODEL_NUMBER)
+            rows.temperaturesCelsius[row] = buffer.getShort(offset + OFFSET_TEMPERATURE_CELSIUS)
+            rows.batteryLevelsMilliVolts[row] = buffer.getShort(offset + OFFSET_BATTERY_LEVEL_MILLI_VOLTS)
+            rows.signalLevelRssisSmoothed[row] = buffer.get(offset + OFFSET_SIGNAL_LEVEL_RSSI_SMOOTHED)
+            rows.flags[row] = buffer.get(offset + OFFSET_FLAGS)
+            rows.clickSequences[row] = buffer.get(offset + OFFSET_CLICK_SEQUENCE)
+            rows.clickCounters[row] = buffer.get(offset + OFFSET_CLICK_COUNTER)
+            rows.rowsByMacAddress.put(macAddress, row)
+        }
+        Log.i(TAG, "decode: loaded ${rows.rowsByMacAddress.size()} devices from $file, dropped=$dropped")
+        return true
+    }
+
+    /**
+     * Runs on looperExecutor
+     */
+    private fun onLoaded(loaded: Rows, isFileValid: Boolean) {
+        synchronized(this) {
+            val early = rows
+            val removed = removedWhileLoading!!
+            rows = loaded
+            removedWhileLoading = null
+            isLoaded = true
+            this.isFileValid = isFileValid
+            // What changed while loading is newer than the file
+            for (macAddress in removed) {
+                val row = loaded.rowsByMacAddress.get(macAddress, -1)
+                if (row != -1) {
+                    loaded.rowsByMacAddress.remove(macAddress)
+                    loaded.free(row)
+                    loaded.markDirty(row)
+                }
+            }
+            for (earlyRow in 0 until early.rowCount) {
+                val macAddress = early.macAddresses[earlyRow]
+                if (macAddress == 0L) {
+                    continue
+                }
+                var row = loaded.rowsByMacAddress.get(macAddress, -1)
+                if (row == -1) {
+                    row = loaded.allocate(macAddress)
+                }
+                loaded.copy(early, earlyRow, row)
+                loaded.markDirty(row)
+            }
+            if (loaded.dirtyRowCount != 0) {
+                scheduleFlush()
+            }
+        }
+    }
+
+    private fun markDirty(row: Int) {
+        rows.markDirty(row)
+        scheduleFlush()
+    }
+
+    private fun scheduleFlush() {
+        if (flushFuture != null || !isLoaded) {
+            return
+        }
+        flushFuture = ioExecutor.schedule(flushRunnable, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+    }
+
+    private fun encodeHeader(): ByteArray {
+        val buffer = ByteBuffer.allocate(HEADER_BYTES)
+        buffer.putInt(MAGIC)
+        buffer.putShort(FORMAT_VERSION)
+        buffer.putShort(RECORD_BYTES.toShort())
+        buffer.putLong(System.currentTimeMillis())
+        return buffer.array()
+    }
+
+    private fun encode(rows: Rows, row: Int, buffer: ByteBuffer, offset: Int) {
+        val macAddress = rows.macAddresses[row]
+        if (macAddress == 0L) {
+            // Records are already zeroed
+            return
+        }
+        buffer.putLong(offset + OFFSET_MAC_ADDRESS, macAddress)
+        buffer.putLong(offset + OFFSET_UPDATED_MILLIS, rows.updatedMillis[row])
+        buffer.putInt(offset + OFFSET_PRESENT, rows.presents[row])
+        buffer.putInt(offset + OFFSET_MODEL_NUMBER, rows.modelNumbers[row])
+        buffer.putShort(offset + OFFSET_TEMPERATURE_CELSIUS, rows.temperaturesCelsius[row])
+        buffer.putShort(offset + OFFSET_BATTERY_LEVEL_MILLI_VOLTS, rows.batteryLevelsMilliVolts[row])
+        buffer.put(offset + OFFSET_SIGNAL_LEVEL_RSSI_SMOOTHED, rows.signalLevelRssisSmoothed[row])
+        buffer.put(offset + OFFSET_FLAGS, rows.flags[row])
+        buffer.put(offset + OFFSET_CLICK_SEQUENCE, rows.clickSequences[row])
+        buffer.put(offset + OFFSET_CLICK_COUNTER, rows.clickCounters[row])
+        buffer.putInt(offset + OFFSET_CHECKSUM, checksum(buffer.array(), offset))
+    }
+
+    private fun toFlags(frame: TriggerFrame): Byte {
+        var flags = 0
+        if (frame.advertisementSpeed == TriggerFrame.AdvertisementSpeed.SLOW) flags = flags or FLAG_ADVERTISEMENT_SPEED_SLOW
+        if (frame.isBeepingAndFlashing) flags = flags or FLAG_BEEPING_AND_FLASHING
+        if (frame.isShortClicked) flags = flags or FLAG_SHORT_CLICKED
+        if (frame.isLongClicked) flags = flags or FLAG_LONG_CLICKED
+        if (frame.isDoubleClicked) flags = flags or FLAG_DOUBLE_CLICKED
+        if (frame.isMotion) flags = flags or FLAG_MOTION
+        return flags.toByte()
+    }
+
+    private fun toFrame(rows: Rows, row: Int, frame: TriggerFrame) {
+        frame.clear()
+        val present = rows.presents[row]
+        val flags = rows.flags[row].toInt()
+        if (present and TriggerFrame.ADVERTISEMENT_SPEED != 0) {
+            frame.setAdvertisementSpeed(
+                if (flags and FLAG_ADVERTISEMENT_SPEED_SLOW != 0) TriggerFrame.AdvertisementSpeed.SLOW else TriggerFrame.AdvertisementSpeed.FAST
+            )
+        }
+        if (present and TriggerFrame.BEEPING_AND_FLASHING != 0) {
+            frame.setBeepingAndFlashing(flags and FLAG_BEEPING_AND_FLASHING != 0)
+        }
+        if (present and CLICKS != 0) {
+            frame.setClicks(
+                flags and FLAG_SHORT_CLICKED != 0,
+                flags and FLAG_LONG_CLICKED != 0,
+                flags and FLAG_DOUBLE_CLICKED != 0,
+                rows.clickSequences[row],
+                rows.clickCounters[row]
+            )
+        }
+        if (present and TriggerFrame.TEMPERATURE_CELSIUS != 0) frame.setTemperatureCelsius(rows.temperaturesCelsius[row])
+        if (present and TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS != 0) frame.setBatteryLevelMilliVolts(rows.batteryLevelsMilliVolts[row])
+        if (present and TriggerFrame.MOTION != 0) frame.setMotion(flags and FLAG_MOTION != 0)
+        if (present and TriggerFrame.MODEL_NUMBER != 0) frame.setModelNumber(rows.modelNumbers[row])
+    }
+
+    override fun toString(): String {
+        return synchronized(this) {
+            "{ file=$file, size=${rows.rowsByMacAddress.size()}, rowCount=${rows.rowCount}, dirtyRowCount=${rows.dirtyRowCount} }"
+        }
+    }
+}
@@ -1,13 +1,67 @@
 package com.github.paulpv.androidbletool
 
 import android.bluetooth.BluetoothDevice
+import android.os.SystemClock
 import com.github.paulpv.androidbletool.BleToolParser.BleDeviceParser
-import com.github.paulpv.androidbletool.collections.IterableLongSparseArray
-import com.github.paulpv.androidbletool.devices.Triggers
+import com.github.paulpv.androidbletool.collections.ConcurrentLongHashMap
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
 import com.github.paulpv.androidbletool.gatt.GattManager
 
+/**
+ * Registry of one [BleDevice] per mac address.
+ *
+ * Looking up an existing device never locks, so several ingestion threads can call [getDevice] for every
+ * advertisement without contending. A new device (and its [com.github.paulpv.androidbletool.gatt.GattHandler]) is
+ * built outside of any lock and then offered to the cache; if another thread won the race, its device is returned and
+ * this one is dropped.
+ *
+ * Devices that have been absent from BleTool's recently nearby devices for longer than a grace period, or that push
+ * the cache over its budget, are dropped along with their GattHandler by [evict]; see [EvictionPolicy].
+ * A device is often only created after it became nearby (ex: its first advertisements were not recognized), so which
+ * mac addresses are nearby is remembered, and a device created while its mac address is nearby starts out nearby.
+ *
+ * If [checkpoint] is set, each new device is restored from it, and each evicted device is removed from it.
+ */
 open class BleDeviceFactory<T : BleDevice> {
-    protected val deviceCache = IterableLongSparseArray<T>()
+    /**
+     * @param gracePeriodMillis how long a device must have been absent before it is always evicted
+     * @param maxDevices most devices to keep; over it, absent devices are evicted oldest first, even within the grace
+     * period
+     * @param maxBytes most [BleDevice.estimatedSizeBytes] to keep; same as maxDevices
+     *
+     * Nearby devices and [BleDevice.isPinned] devices are never evicted, so the cache can still exceed either budget.
+     */
+    class EvictionPolicy(
+        val gracePeriodMillis: Long,
+        val maxDevices: Int,
+        val maxBytes: Long
+    ) {
+        override fun toString(): String {
+            return "{ gracePeriodMillis=$gracePeriodMillis, maxDevices=$maxDevices, maxBytes=$maxBytes }"
+        }
+    }
+
+    protected val deviceCache = ConcurrentLongHashMap<T>()
+
+    /**
+     * The mac addresses in BleTool's recently nearby devices, whether or not they have a device yet
+     */
+    private val nearbyMacAddresses = ConcurrentLongHashMap<Any>()
+
+    /**
+     * Absent devices that [evict] kept last time, because they were pinned or still within the grace period
+     */
+    var absentDeviceCount = 0
+        private set
+
+    val size: Int
+        get() = deviceCache.size()
+
+    /**
+     * Set before the first device is created
+     */
+    var checkpoint: BleDeviceCheckpoint? = null
 
     protected lateinit var gattManager: GattManager
         private set
@@ -22,12 +76,11 @@ open class BleDeviceFactory<T : BleDevice> {
     }
 
     fun clear() {
-        synchronized(deviceCache) {
-            val it = deviceCache.iterateValues()
-            while (it.hasNext()) {
-                it.next().gattHandler.disconnect()
-                it.remove()
-            }
+        nearbyMacAddresses.clear()
+        val it = deviceCache.iterateValues()
+        while (it.hasNext()) {
+            it.next().gattHandler.disconnect()
+            it.remove()
         }
     }
 
@@ -35,8 +88,11 @@ open class BleDeviceFactory<T : BleDevice> {
         return getDevice(bluetoothDevice.address)
     }
 
-    open fun getDevice(bluetoothDevice: BluetoothDevice, parser: BleDeviceParser, triggers: Set<Triggers.Trigger<*>>): T {
-        return getDevice(bluetoothDevice.address)
+    /**
+     * @param frame only valid for the duration of the call
+     */
+    open fun getDevice(macAddress: Long, parser: BleDeviceParser, frame: TriggerFrame): T {
+        return getDevice(macAddress)
     }
 
     fun getDevice(macAddress: String): T {
@@ -45,14 +101,124 @@ open class BleDeviceFactory<T : BleDevice> {
 
     @Suppress("MemberVisibilityCanBePrivate")
     fun getDevice(macAddress: Long): T {
-        synchronized(deviceCache) {
-            var device = deviceCache[macAddress]
-            if (device != null) return device
-            val gattHandler = gattManager.getGattHandler(macAddress)
-            @Suppress("UNCHECKED_CAST")
-            device = BleDevice(gattHandler) as T
-            deviceCache.put(macAddress, device)
-            return device
+        val device = deviceCache[macAddress]
+        if (device != null) return device
+        val gattHandler = gattManager.getGattHandler(macAddress)
+        @Suppress("UNCHECKED_CAST")
+        return add(macAddress, BleDevice(gattHandler) as T)
+    }
+
+    /**
+     * Offers a newly created device to the cache, restoring it from [checkpoint] if it was added
+     *
+     * @return the device in the cache; another thread's if it won the race
+     */
+    protected fun add(macAddress: Long, device: T): T {
+        val added = deviceCache.getOrAdd(macAddress, device)
+        if (added === device) {
+            onAdded(macAddress, device)
+        }
+        return added
+    }
+
+    /**
+     * Call after a newly created device is put in the cache by any other means than [add] (ex: replace)
+     */
+    protected fun onAdded(macAddress: Long, device: T) {
+        // After the device is in the cache, so that either this or a racing onDeviceNearby marks it
+        if (isNearby(macAddress)) {
+            device.absentSinceElapsedMillis = BleDevice.NEARBY
+        }
+        if (device is TriggerFrameDevice) {
+            checkpoint?.restore(macAddress, device)
+        }
+    }
+
+    /**
+     * @return the device if it exists; never creates one
+     */
+    fun peekDevice(macAddress: Long): T? {
+        return deviceCache[macAddress]
+    }
+
+    /**
+     * @return true if the mac address is in BleTool's recently nearby devices, whether or not it has a device yet
+     */
+    fun isNearby(macAddress: Long): Boolean {
+        return nearbyMacAddresses.containsKey(macAddress)
+    }
+
+    /**
+     * Call on the BleTool looper when the device is added to the recently nearby devices; if it has no device yet, the
+     * device is nearby once it is created
+     */
+    fun onDeviceNearby(macAddress: Long) {
+        nearbyMacAddresses.put(macAddress, true)
+        deviceCache[macAddress]?.absentSinceElapsedMillis = BleDevice.NEARBY
+    }
+
+    /**
+     * Call on the BleTool looper when the device is removed from the recently nearby devices
+     */
+    fun onDeviceAbsent(macAddress: Long, elapsedMillis: Long = SystemClock.elapsedRealtime()) {
+        nearbyMacAddresses.remove(macAddress)
+        deviceCache[macAddress]?.absentSinceElapsedMillis = elapsedMillis
+    }
+
+    /**
+     * Call on the BleTool looper.
+     *
+     * @return the number of devices evicted
+     */
+    fun evict(policy: EvictionPolicy, nowElapsedMillis: Long = SystemClock.elapsedRealtime()): Int {
+        var evicted = 0
+        var count = 0
+        var bytes = 0L
+        var pinned = 0
+        val candidates = mutableListOf<T>()
+        val it = deviceCache.iterateValues()
+        while (it.hasNext()) {
+            val device = it.next()
+            val absentSinceElapsedMillis = device.absentSinceElapsedMillis
+            if (absentSinceElapsedMillis != BleDevice.NEARBY) {
+                if (device.isPinned) {
+                    pinned++
+                } else if (nowElapsedMillis - absentSinceElapsedMillis >= policy.gracePeriodMillis) {
+                    if (evict(device)) {
+                        evicted++
+                    }
+                    continue
+                } else {
+                    candidates.add(device)
+                }
+            }
+            count++
+            bytes += device.estimatedSizeBytes
+        }
+        if (count > policy.maxDevices || bytes > policy.maxBytes) {
+            candidates.sortBy { it.absentSinceElapsedMillis }
+            val candidatesIt = candidates.iterator()
+            while ((count > policy.maxDevices || bytes > policy.maxBytes) && candidatesIt.hasNext()) {
+                val device = candidatesIt.next()
+                if (evict(device)) {
+                    evicted++
+                    count--
+                    bytes -= device.estimatedSizeBytes
+                    candidatesIt.remove()
+                }
+            }
+        }
+        absentDeviceCount = pinned + candidates.size
+        return evicted
+    }
+
+    private fun evict(device: T): Boolean {
+        if (deviceCache.remove(device.gattHandler.deviceAddressLong, device) == null) {
+            return false
         }
+        checkpoint?.remove(device.gattHandler.deviceAddressLong)
+        device.gattHandler.close()
+        device.onEvicted()
+        return true
     }
-}
\ No newline at end of file
+}
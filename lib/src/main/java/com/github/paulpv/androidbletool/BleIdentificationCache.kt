@@ -0,0 +1,89 @@
+package com.github.paulpv.androidbletool
+
+/**
+ * Which [BleToolParser.BleDeviceParser], at which manufacturer specific data structure, identified each device's
+ * advertisements, keyed by mac address and [AdStructureCursor.signature]; or that none did.
+ *
+ * After the first advertisement of each kind from a device, [BleToolParser.parseAdvertisement] goes straight to
+ * decoding (or rejecting) it with one probe of primitive arrays: no dispatch, no address prefix, name, or service
+ * checks.
+ * An advertisement with a new signature (new name, services, or kind of manufacturer specific data) simply misses and
+ * is identified again.
+ * Direct mapped: a colliding entry is overwritten, so the cache never grows past its capacity and needs no eviction.
+ *
+ * Not thread safe; each [BleToolParser] owns one.
+ */
+internal class BleIdentificationCache(capacity: Int = CAPACITY_DEFAULT) {
+    companion object {
+        const val CAPACITY_DEFAULT = 1024
+
+        /**
+         * No parser identified the advertisement
+         */
+        const val NO_MATCH = -1
+
+        /**
+         * Not in the cache
+         */
+        const val MISS = -2
+    }
+
+    private val mask: Int
+    private val macAddresses: LongArray
+    private val signatures: LongArray
+    private val parserIndexes: IntArray
+    private val positions: IntArray
+
+    init {
+        var size = 1
+        while (size < capacity) {
+            size = size shl 1
+        }
+        mask = size - 1
+        macAddresses = LongArray(size)
+        signatures = LongArray(size)
+        parserIndexes = IntArray(size) { MISS }
+        positions = IntArray(size)
+    }
+
+    /**
+     * [AdStructureCursor.position] of the manufacturer specific data of the last [get] hit
+     */
+    var position = 0
+        private set
+
+    private fun slot(macAddress: Long, signature: Long): Int {
+        var hash = macAddress * -0x61c8864680b583ebL xor signature
+        hash = hash xor (hash ushr 32)
+        return (hash xor (hash ushr 16)).toInt() and mask
+    }
+
+    /**
+     * @return the index of the parser that identified the advertisement (see [position]), [NO_MATCH], or [MISS]
+     */
+    fun get(macAddress: Long, signature: Long): Int {
+        val slot = slot(macAddress, signature)
+        val parserIndex = parserIndexes[slot]
+        if (parserIndex == MISS || macAddresses[slot] != macAddress || signatures[slot] != signature) {
+            return MISS
+        }
+        position = positions[slot]
+        return parserIndex
+    }
+
+    /**
+     * @param parserIndex the index of the parser that identified the advertisement, or [NO_MATCH]
+     * @param position [AdStructureCursor.position] of the identified manufacturer specific data
+     */
+    fun put(macAddress: Long, signature: Long, parserIndex: Int, position: Int) {
+        val slot = slot(macAddress, signature)
+        macAddresses[slot] = macAddress
+        signatures[slot] = signature
+        parserIndexes[slot] = parserIndex
+        positions[slot] = position
+    }
+
+    fun clear() {
+        parserIndexes.fill(MISS)
+    }
+}
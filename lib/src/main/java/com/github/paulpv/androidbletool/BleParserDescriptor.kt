@@ -0,0 +1,160 @@
+package com.github.paulpv.androidbletool
+
+import android.util.Log
+import com.github.paulpv.androidbletool.BleToolParser.Configuration.ManufacturerData
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+
+/**
+ * Cheap stand in for a [BleToolParser.BleDeviceParser] that only declares the keys an advertisement must match for
+ * the parser to possibly recognize it: manufacturer IDs (optionally with data prefixes), 16 bit service data UUIDs, and
+ * mac address prefixes.
+ *
+ * The parser itself (its class, [BleToolParser.Configuration], schemas, and any other state) is only loaded and
+ * instantiated by the factory on the first advertisement that matches those keys, so a build can bundle support for
+ * dozens of device models and pay only for the ones actually seen.
+ * The keys must be a superset of what the parser's configuration accepts; the parser remains authoritative.
+ *
+ * Ex:
+ * ```
+ * BleParserDescriptor("Finder2",
+ *     intArrayOf(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, BluetoothSigManufacturerIds.APPLE),
+ *     macAddressPrefixes = intArrayOf(Pebblebee.MacAddressPrefix.PEBBLEBEE_FINDER2),
+ *     manufacturerData = listOf(
+ *         ManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(Pebblebee.Regions.TRACKING_FINDER), null)
+ *     )
+ * ) { PebblebeeDeviceFinder2.Parser() }
+ * ```
+ *
+ * @param manufacturerIds the manufacturer IDs of the manufacturer specific data the parser handles
+ * @param serviceData the 16 bit service UUIDs of the service data the parser handles; see
+ * [BleToolParser.Configuration.addServiceData]
+ * @param macAddressPrefixes the first two bytes of the mac addresses the parser supports (see
+ * [BleParserDispatchIndex.getMacAddressPrefix]); all if empty
+ * @param manufacturerData data prefixes of some of the manufacturerIds, same as
+ * [BleToolParser.Configuration.addManufacturerData]; only used to compile [android.bluetooth.le.ScanFilter]s (see
+ * [BleScanFilterCompiler]). A manufacturer ID without any matches every advertisement with that ID.
+ * @param factory returns a new parser every time it is called; see [newParser]
+ */
+class BleParserDescriptor private constructor(
+    val name: String,
+    manufacturerIds: IntArray,
+    serviceData: IntArray,
+    macAddressPrefixes: IntArray,
+    manufacturerData: List<ManufacturerData>,
+    private val factory: () -> BleToolParser.BleDeviceParser,
+    private var parser: BleToolParser.BleDeviceParser?
+) {
+    companion object {
+        private val TAG = TAG(BleParserDescriptor::class.java)
+
+        @Suppress("SimplifyBooleanWithConstants")
+        private val LOG_INSTANTIATE = false && BuildConfig.DEBUG
+
+        private val EMPTY = IntArray(0)
+
+        /**
+         * @return a descriptor of an already instantiated parser, with the keys of its [BleToolParser.Configuration];
+         * for parsers that are cheap enough to build eagerly, or that do not support
+         * [BleToolParser.RawBleDeviceParser.newInstance]
+         */
+        fun of(parser: BleToolParser.BleDeviceParser): BleParserDescriptor {
+            val configuration = parser.configuration
+            val manufacturerIds = configuration.manufacturerData.map { it.manufacturerId }.distinct().toIntArray()
+            val serviceData = configuration.serviceData.toIntArray()
+            return BleParserDescriptor(parser.toString(), manufacturerIds, serviceData, EMPTY, configuration.manufacturerData, { parser }, parser)
+        }
+    }
+
+    constructor(
+        name: String,
+        manufacturerIds: IntArray,
+        serviceData: IntArray = EMPTY,
+        macAddressPrefixes: IntArray = EMPTY,
+        manufacturerData: List<ManufacturerData> = emptyList(),
+        factory: () -> BleToolParser.BleDeviceParser
+    ) : this(name, manufacturerIds, serviceData, macAddressPrefixes, manufacturerData, factory, null)
+
+    internal val manufacturerIds = manufacturerIds.copyOf()
+    internal val serviceData = serviceData.copyOf()
+    private val macAddressPrefixes = macAddressPrefixes.copyOf()
+    internal val manufacturerData = manufacturerData.toList()
+
+    init {
+        for (data in this.manufacturerData) {
+            require(this.manufacturerIds.contains(data.manufacturerId)) { "manufacturerData $data must be of one of the manufacturerIds" }
+            val dataMask = data.dataMask
+            require(dataMask == null || dataMask.size == data.data?.size) { "manufacturerData $data dataMask.size must equal data.size" }
+        }
+    }
+
+    /**
+     * @return false if manufacturerData declares no data prefix for the manufacturerId, which then matches on its ID
+     * alone
+     */
+    internal fun hasManufacturerData(manufacturerId: Int): Boolean {
+        return manufacturerData.any { it.manufacturerId == manufacturerId }
+    }
+
+    /**
+     * true if built by [of]; the parser already exists, and the factory always returns that same instance
+     */
+    internal val isEager = parser != null
+
+    /**
+     * Never instantiates the parser
+     *
+     * @param macAddressPrefix see [BleParserDispatchIndex.getMacAddressPrefix]
+     */
+    fun isSupportedMacAddressPrefix(macAddressPrefix: Int): Boolean {
+        val parser = parser
+        if (isEager && parser != null) {
+            return parser.configuration.isSupportedDeviceAddressPrefix(macAddressPrefix)
+        }
+        val macAddressPrefixes = macAddressPrefixes
+        if (macAddressPrefixes.isEmpty()) {
+            return true
+        }
+        for (prefix in macAddressPrefixes) {
+            if (prefix == macAddressPrefix) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Whether the shared parser has been instantiated yet
+     */
+    val isInstantiated: Boolean
+        get() = parser != null
+
+    /**
+     * @return the one parser shared by every [BleToolParser] on the BleTool looper; instantiated on first call
+     */
+    fun getParser(): BleToolParser.BleDeviceParser {
+        synchronized(this) {
+            var parser = parser
+            if (parser == null) {
+                parser = factory()
+                if (LOG_INSTANTIATE) {
+                    Log.i(TAG, "getParser: instantiated $name parser=$parser")
+                }
+                this.parser = parser
+            }
+            return parser
+        }
+    }
+
+    /**
+     * @return a parser with no mutable state shared with [getParser]'s, for another thread (see [BleBatchParser]);
+     * null if the descriptor was built by [of] from a parser that does not support
+     * [BleToolParser.RawBleDeviceParser.newInstance]
+     */
+    fun newParser(): BleToolParser.BleDeviceParser? {
+        return if (isEager) (getParser() as? BleToolParser.RawBleDeviceParser)?.newInstance() else factory()
+    }
+
+    override fun toString(): String {
+        return "$name{ isInstantiated=$isInstantiated }"
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.paulpv.androidbletool
+
+/**
+ * Routes a manufacturerId to the indexes of the [BleParserDescriptor]s whose parsers could possibly recognize it,
+ * built once from the descriptors' keys, so that no parser has to be instantiated to be routed to.
+ *
+ * Manufacturer IDs live in a small open addressed table (no boxing, no per lookup allocation), so an advertisement
+ * from an unregistered manufacturer is rejected with a single probe.
+ * Service data is routed the same way, under its [BleToolParser.getServiceDataKey].
+ * Descriptors that declare neither manufacturer IDs nor service data are candidates for every manufacturer ID, in
+ * registration order after the descriptors that explicitly declared it.
+ */
+internal class BleParserDispatchIndex(descriptors: Array<BleParserDescriptor>) {
+    companion object {
+        private const val KEY_EMPTY = -1
+
+        private val NO_PARSERS = IntArray(0)
+
+        /**
+         * @return the first two bytes of the macAddress, the same as [BleToolParser.getMacAddressPrefix]
+         */
+        fun getMacAddressPrefix(macAddressLong: Long): Int {
+            return (macAddressLong shr 32 and 0xFFFF).toInt()
+        }
+    }
+
+    private val keys: IntArray
+    private val values: Array<IntArray>
+    private val mask: Int
+    private val wildcardParsers: IntArray
+
+    init {
+        val parsersByManufacturerId = LinkedHashMap<Int, MutableList<Int>>()
+        val wildcardParsers = mutableListOf<Int>()
+        for ((parser, descriptor) in descriptors.withIndex()) {
+            val manufacturerIds = descriptor.manufacturerIds
+            val serviceData = descriptor.serviceData
+            if (manufacturerIds.isEmpty() && serviceData.isEmpty()) {
+                wildcardParsers.add(parser)
+                continue
+            }
+            for (manufacturerId in manufacturerIds) {
+                val candidates = parsersByManufacturerId.getOrPut(manufacturerId) { mutableListOf() }
+                if (!candidates.contains(parser)) {
+                    candidates.add(parser)
+                }
+            }
+            for (serviceUuid16 in serviceData) {
+                val candidates = parsersByManufacturerId.getOrPut(BleToolParser.getServiceDataKey(serviceUuid16)) { mutableListOf() }
+                if (!candidates.contains(parser)) {
+                    candidates.add(parser)
+                }
+            }
+        }
+        this.wildcardParsers = wildcardParsers.toIntArray()
+
+        var capacity = 4
+        while (capacity < parsersByManufacturerId.size * 2) {
+            capacity = capacity shl 1
+        }
+        mask = capacity - 1
+        keys = IntArray(capacity) { KEY_EMPTY }
+        values = Array(capacity) { NO_PARSERS }
+        for ((manufacturerId, candidates) in parsersByManufacturerId) {
+            var i = slot(manufacturerId)
+            while (keys[i] != KEY_EMPTY) {
+                i = (i + 1) and mask
+            }
+            keys[i] = manufacturerId
+            values[i] = (candidates + wildcardParsers).toIntArray()
+        }
+    }
+
+    private fun slot(manufacturerId: Int): Int {
+        return (manufacturerId * -0x61c88647) ushr 16 and mask
+    }
+
+    /**
+     * @return the descriptor indexes of the candidate parsers for the manufacturerId, in priority order; never null,
+     * may be empty
+     */
+    fun get(manufacturerId: Int): IntArray {
+        var i = slot(manufacturerId)
+        while (true) {
+            val key = keys[i]
+            if (key == manufacturerId) {
+                return values[i]
+            }
+            if (key == KEY_EMPTY) {
+                return wildcardParsers
+            }
+            i = (i + 1) and mask
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.paulpv.androidbletool
+
+import android.bluetooth.le.ScanFilter
+import android.os.ParcelUuid
+import android.util.Log
+import android.util.SparseArray
+import com.github.paulpv.androidbletool.BleToolParser.Configuration.ManufacturerData
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+import java.util.*
+
+/**
+ * Derives the smallest set of hardware offloadable [ScanFilter]s that pass every advertisement that any of the
+ * given [BleToolParser.BleDeviceParser]s could recognize, so that filtering happens in the controller instead of
+ * on the application processor.
+ *
+ * The compiled filters are a superset of what the parsers accept; the parsers remain authoritative.
+ * * All [ManufacturerData] for the same manufacturer ID are merged into a single filter: the data is truncated to
+ * the shortest declared length and the mask keeps only the bits that every declaration agrees on.
+ * * Each 16 bit service UUID a parser declares service data for gets a service data filter.
+ * * A parser that declares no [ManufacturerData] or service data is represented by its first service UUID.
+ * * A [BleParserDescriptor] that is not instantiated yet contributes the keys it declares instead: its
+ * [BleParserDescriptor.manufacturerData], its other manufacturer IDs (without data), and its service data, so
+ * compiling never instantiates a parser.
+ * * A parser that declares none of these cannot be offloaded; [compile] then returns an empty list and the caller must
+ * scan unfiltered.
+ */
+object BleScanFilterCompiler {
+    private val TAG = TAG(BleScanFilterCompiler::class.java)
+
+    @Suppress("SimplifyBooleanWithConstants")
+    private val LOG_COMPILE = false && BuildConfig.DEBUG
+
+    /**
+     * Least significant bits of the Bluetooth base UUID, 0000xxxx-0000-1000-8000-00805F9B34FB
+     */
+    private const val BASE_UUID_LEAST_SIGNIFICANT_BITS = -0x7fffff7fa064cb05L
+
+    private fun getServiceUuid16(serviceUuid16: Int): ParcelUuid {
+        return ParcelUuid(UUID(serviceUuid16.toLong() shl 32 or 0x1000L, BASE_UUID_LEAST_SIGNIFICANT_BITS))
+    }
+
+    fun compile(parsers: List<BleToolParser.BleDeviceParser>): List<ScanFilter> {
+        return compile(parsers, emptyList())
+    }
+
+    @JvmName("compileDescriptors")
+    fun compile(descriptors: List<BleParserDescriptor>): List<ScanFilter> {
+        val parsers = mutableListOf<BleToolParser.BleDeviceParser>()
+        val lazyDescriptors = mutableListOf<BleParserDescriptor>()
+        for (descriptor in descriptors) {
+            if (descriptor.isInstantiated) {
+                parsers.add(descriptor.getParser())
+            } else {
+                lazyDescriptors.add(descriptor)
+            }
+        }
+        return compile(parsers, lazyDescriptors)
+    }
+
+    private fun compile(parsers: List<BleToolParser.BleDeviceParser>, lazyDescriptors: List<BleParserDescriptor>): List<ScanFilter> {
+        val manufacturerDatas = SparseArray<ManufacturerData>()
+        val serviceDatas = LinkedHashSet<Int>()
+        val serviceUuids = LinkedHashSet<UUID>()
+        for (descriptor in lazyDescriptors) {
+            if (descriptor.manufacturerIds.isEmpty() && descriptor.serviceData.isEmpty()) {
+                Log.w(TAG, "compile: $descriptor declares no manufacturer IDs or service data; cannot offload filtering")
+                return emptyList()
+            }
+            for (manufacturerData in descriptor.manufacturerData) {
+                add(manufacturerDatas, manufacturerData)
+            }
+            for (manufacturerId in descriptor.manufacturerIds) {
+                if (!descriptor.hasManufacturerData(manufacturerId)) {
+                    add(manufacturerDatas, ManufacturerData(manufacturerId, null, null))
+                }
+            }
+            serviceDatas.addAll(descriptor.serviceData.asList())
+        }
+        for (parser in parsers) {
+            val configuration = parser.configuration
+            val parserManufacturerDatas = configuration.manufacturerData
+            val parserServiceDatas = configuration.serviceData
+            if (parserManufacturerDatas.isNotEmpty() || parserServiceDatas.isNotEmpty()) {
+                for (manufacturerData in parserManufacturerDatas) {
+                    add(manufacturerDatas, manufacturerData)
+                }
+                serviceDatas.addAll(parserServiceDatas)
+                continue
+            }
+            val parserServiceUuids = configuration.serviceUuids
+            if (parserServiceUuids.isNotEmpty()) {
+                serviceUuids.add(parserServiceUuids.first())
+                continue
+            }
+            Log.w(TAG, "compile: $parser declares no manufacturer data, service data, or service UUIDs; cannot offload filtering")
+            return emptyList()
+        }
+
+        val scanFilters = mutableListOf<ScanFilter>()
+        for (i in 0 until manufacturerDatas.size()) {
+            val manufacturerData = manufacturerDatas.valueAt(i)
+            val builder = ScanFilter.Builder()
+            val data = manufacturerData.data
+            if (data == null) {
+                builder.setManufacturerData(manufacturerData.manufacturerId, ByteArray(0))
+            } else {
+                builder.setManufacturerData(manufacturerData.manufacturerId, data, manufacturerData.dataMask)
+            }
+            scanFilters.add(builder.build())
+        }
+        for (serviceData in serviceDatas) {
+            scanFilters.add(ScanFilter.Builder().setServiceData(getServiceUuid16(serviceData), ByteArray(0)).build())
+        }
+        for (serviceUuid in serviceUuids) {
+            scanFilters.add(ScanFilter.Builder().setServiceUuid(ParcelUuid(serviceUuid)).build())
+        }
+        if (LOG_COMPILE) {
+            Log.v(TAG, "compile: scanFilters(${scanFilters.size})=$scanFilters")
+        }
+        return scanFilters
+    }
+
+    private fun add(manufacturerDatas: SparseArray<ManufacturerData>, manufacturerData: ManufacturerData) {
+        val manufacturerId = manufacturerData.manufacturerId
+        manufacturerDatas.put(manufacturerId, merge(manufacturerDatas.get(manufacturerId), manufacturerData))
+    }
+
+    /**
+     * @return the narrowest [ManufacturerData] that passes everything that either a or b passes
+     */
+    private fun merge(a: ManufacturerData?, b: ManufacturerData): ManufacturerData {
+        if (a == null) {
+            return b
+        }
+        val aData = a.data
+        val bData = b.data
+        if (aData == null || bData == null) {
+            return ManufacturerData(a.manufacturerId, null, null)
+        }
+        val length = Math.min(aData.size, bData.size)
+        val aMask = a.dataMask
+        val bMask = b.dataMask
+        val data = ByteArray(length)
+        val dataMask = ByteArray(length)
+        var isMasked = false
+        for (i in 0 until length) {
+            val mask = (aMask?.get(i)?.toInt() ?: 0xFF) and
+                    (bMask?.get(i)?.toInt() ?: 0xFF) and
+                    (aData[i].toInt() xor bData[i].toInt()).inv()
+            dataMask[i] = mask.toByte()
+            data[i] = (aData[i].toInt() and mask).toByte()
+            isMasked = isMasked or (mask and 0xFF != 0)
+        }
+        return if (isMasked) ManufacturerData(a.manufacturerId, data, dataMask) else ManufacturerData(a.manufacturerId, null, null)
+    }
+}
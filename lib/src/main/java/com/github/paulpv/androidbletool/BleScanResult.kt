@@ -1,6 +1,7 @@
 package com.github.paulpv.androidbletool
 
 import android.bluetooth.le.ScanResult
+import com.github.paulpv.androidbletool.devices.TriggerFrame
 import com.github.paulpv.androidbletool.utils.ReflectionUtils
 import com.github.paulpv.androidbletool.utils.Utils.TAG
 import com.github.paulpv.androidbletool.math.LowPassFilter
@@ -37,12 +38,20 @@ class BleScanResult {
     private var rssiSmoothedCurrent: Int = 0
     private var rssiSmoothedPrevious: Int = 0
 
+    /**
+     * Bitmask of the [com.github.paulpv.androidbletool.devices.TriggerFrame] values that changed since observers were
+     * last notified of this device; 0 if the device has been idle, and its update can be skipped
+     */
+    var changedMask: Int = 0
+        internal set
+
     override fun toString(): String {
         return StringBuilder()
             .append(ReflectionUtils.defaultToString(this))
             .append("{ ")
             .append("rssi=").append(rssi)
             .append(", rssiSmoothed=").append(rssiSmoothed)
+            .append(", changedMask=").append(TriggerFrame.toString(changedMask))
             .append(", scanResult=").append(scanResult)
             .append(" }")
             .toString()
@@ -18,22 +18,34 @@ import androidx.annotation.RequiresApi
 import androidx.core.app.NotificationCompat
 import androidx.core.app.NotificationManagerCompat
 import androidx.core.content.edit
-import androidx.work.OneTimeWorkRequest
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequest
 import androidx.work.WorkManager
 import androidx.work.Worker
 import androidx.work.WorkerParameters
 import com.github.paulpv.androidbletool.BluetoothUtils.callbackTypeToString
 import com.github.paulpv.androidbletool.collections.ExpiringIterableLongSparseArray
+import com.github.paulpv.androidbletool.collections.LongSparseSet
+import com.github.paulpv.androidbletool.devices.DeviceHistory
+import com.github.paulpv.androidbletool.devices.FeatureEventBus
 import com.github.paulpv.androidbletool.devices.Features
+import com.github.paulpv.androidbletool.devices.FleetCommandQueue
+import com.github.paulpv.androidbletool.devices.FleetCommandScheduler
+import com.github.paulpv.androidbletool.devices.FleetStateTable
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
 import com.github.paulpv.androidbletool.exceptions.BleScanException
 import com.github.paulpv.androidbletool.gatt.GattManager
+import com.github.paulpv.androidbletool.metrics.BleToolMetrics
 import com.github.paulpv.androidbletool.utils.ActivityUtils
 import com.github.paulpv.androidbletool.utils.ReflectionUtils
 import com.github.paulpv.androidbletool.utils.Utils
 import com.github.paulpv.androidbletool.utils.Utils.TAG
+import com.github.paulpv.androidbletool.utils.WriteBehindPreferences
 import com.livinglifetechway.quickpermissions_kotlin.runWithPermissions
 import com.livinglifetechway.quickpermissions_kotlin.util.PermissionsUtil
 import com.livinglifetechway.quickpermissions_kotlin.util.QuickPermissionsOptions
+import java.io.File
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 import kotlin.math.ceil
 import kotlin.system.exitProcess
@@ -56,9 +68,39 @@ class BleTool(
             (5.5 * 60).toInt() * 1000 // 5.5 minutes == 330000 milliseconds
         }
 
+        /**
+         * How often [BleToolDeviceScanObserver]s are sent one batched frame of device updates
+         */
+        const val DEVICES_UPDATED_FRAME_INTERVAL_MILLIS_DEFAULT: Long = 250
+
+        /**
+         * One per core, up to 8
+         */
+        val SCAN_BATCH_PARSE_THREADS_DEFAULT: Int = Math.min(Runtime.getRuntime().availableProcessors(), 8)
+
+        /**
+         * How long a device must have been gone from the recently nearby devices before it is evicted
+         */
+        const val DEVICE_EVICTION_GRACE_PERIOD_MILLIS_DEFAULT: Long = 2 * 60 * 1000
+
+        const val DEVICE_EVICTION_MAX_DEVICES_DEFAULT = 1000
+
+        /**
+         * 1/16th of the heap
+         */
+        val DEVICE_EVICTION_MAX_BYTES_DEFAULT: Long = Runtime.getRuntime().maxMemory() / 16
+
+        /**
+         * 1/64th of the heap
+         */
+        val DEVICE_HISTORY_MAX_BYTES_DEFAULT: Long = Runtime.getRuntime().maxMemory() / 64
+
         @Suppress("SimplifyBooleanWithConstants")
         private val DEBUG_FORCE_PERSISTENT_SCANNING_RESET = false && BuildConfig.DEBUG
 
+        @Suppress("SimplifyBooleanWithConstants")
+        private val LOG_DEVICE_EVICTION = false && BuildConfig.DEBUG
+
         private const val SCANNING_NOTIFICATION_REQUEST_CODE = 42
         private const val SCANNING_NOTIFICATION_ID = 1
         private const val SCANNING_NOTIFICATION_CHANNEL_ID = "SCANNING_NOTIFICATION_CHANNEL_ID"
@@ -102,19 +144,99 @@ class BleTool(
         open val DEVICE_SCAN_TIMEOUT_MILLIS: Int?
             get() = DEVICE_SCAN_TIMEOUT_MILLIS_DEFAULT
 
+        /**
+         * Examples: 100 (10 frames per second), 250, 1000 (1 frame per second)
+         */
+        @Suppress("PropertyName")
+        open val DEVICES_UPDATED_FRAME_INTERVAL_MILLIS: Long
+            get() = DEVICES_UPDATED_FRAME_INTERVAL_MILLIS_DEFAULT
+
+        /**
+         * Empty to compile the filters from [SCAN_PARSERS] and [SCAN_PARSER_DESCRIPTORS]; see [BleScanFilterCompiler]
+         */
         @Suppress("PropertyName")
-        abstract val SCAN_FILTERS: List<ScanFilter>
+        open val SCAN_FILTERS: List<ScanFilter>
+            get() = emptyList()
 
         @Suppress("PropertyName")
         abstract val DEBUG_DEVICE_ADDRESS_FILTER: Set<String>?
 
+        /**
+         * Parsers instantiated up front; prefer [SCAN_PARSER_DESCRIPTORS] for device families that may never be seen
+         */
+        @Suppress("PropertyName")
+        open val SCAN_PARSERS: List<BleToolParser.BleDeviceParser>
+            get() = emptyList()
+
+        /**
+         * Parsers only instantiated on the first advertisement that matches their keys; tried after [SCAN_PARSERS]
+         */
         @Suppress("PropertyName")
-        abstract val SCAN_PARSERS: List<BleToolParser.BleDeviceParser>
+        open val SCAN_PARSER_DESCRIPTORS: List<BleParserDescriptor>
+            get() = emptyList()
+
+        /**
+         * Threads, including the BleTool looper, that parse large batches of scan results; 1 to parse them serially.
+         * See [BleBatchParser]
+         */
+        @Suppress("PropertyName")
+        open val SCAN_BATCH_PARSE_THREADS: Int
+            get() = SCAN_BATCH_PARSE_THREADS_DEFAULT
 
         @Suppress("PropertyName")
         open val DEVICE_FACTORY: BleDeviceFactory<*>
             get() = BleDeviceFactory<BleDevice>()
 
+        /**
+         * How long [DEVICE_FACTORY] keeps a device (and its GattHandler) after it is removed from the recently nearby
+         * devices; see [BleDeviceFactory.evict]
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_EVICTION_GRACE_PERIOD_MILLIS: Long
+            get() = DEVICE_EVICTION_GRACE_PERIOD_MILLIS_DEFAULT
+
+        /**
+         * Over this many devices, absent devices are evicted before their grace period ends
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_EVICTION_MAX_DEVICES: Int
+            get() = DEVICE_EVICTION_MAX_DEVICES_DEFAULT
+
+        /**
+         * Over this many [BleDevice.estimatedSizeBytes], absent devices are evicted before their grace period ends
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_EVICTION_MAX_BYTES: Long
+            get() = DEVICE_EVICTION_MAX_BYTES_DEFAULT
+
+        /**
+         * Most bytes of every device's [DeviceHistory] combined; devices past it keep no history
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_HISTORY_MAX_BYTES: Long
+            get() = DEVICE_HISTORY_MAX_BYTES_DEFAULT
+
+        /**
+         * Bitwise or of the [DeviceHistory.Metrics] to keep a history of; 0 for none
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_HISTORY_METRICS: Int
+            get() = DeviceHistory.Metrics.ALL
+
+        /**
+         * Most GATT connections [fleetCommands] opens at once
+         */
+        @Suppress("PropertyName")
+        open val FLEET_COMMAND_MAX_CONNECTIONS: Int
+            get() = FleetCommandScheduler.MAX_CONNECTIONS_DEFAULT
+
+        /**
+         * File in [Application.getFilesDir] that [deviceCheckpoint] keeps; null to not checkpoint devices
+         */
+        @Suppress("PropertyName")
+        open val DEVICE_CHECKPOINT_FILE_NAME: String?
+            get() = "BleDeviceCheckpoint.bin"
+
         open fun isAuthorized(device: BleDevice?): Boolean = true
     }
 
@@ -152,8 +274,18 @@ class BleTool(
 
     interface BleToolDeviceScanObserver : BleToolObserver {
         fun onDeviceAdded(bleTool: BleTool, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
+        /**
+         * Only called for devices that changed; [BleScanResult.changedMask] tells what changed since the last call
+         */
         fun onDeviceUpdated(bleTool: BleTool, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
         fun onDeviceRemoved(bleTool: BleTool, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
+
+        /**
+         * Called once at the end of each devices updated frame, after [onDeviceUpdated] has been called for every
+         * device that was updated during that frame.
+         */
+        fun onDevicesUpdated(bleTool: BleTool, count: Int) {
+        }
     }
 
     //
@@ -334,6 +466,7 @@ class BleTool(
         }
 
         override fun onScanResult(callbackType: Int, scanResult: ScanResult?) {
+            metrics.increment(BleToolMetrics.Counter.ADVERTISEMENTS_CALLBACK)
             this@BleTool.onScanResult("scanningCallback", callbackType, scanResult)
         }
 
@@ -351,7 +484,42 @@ class BleTool(
     private var bluetoothAdapter = BluetoothUtils.getBluetoothAdapter(application)
 
     val deviceFactory = configuration.DEVICE_FACTORY
-    private val parser = BleToolParser(deviceFactory, configuration.SCAN_PARSERS)
+    private val parser = BleToolParser(deviceFactory, configuration.SCAN_PARSERS, configuration.SCAN_PARSER_DESCRIPTORS)
+    private val batchParser = BleBatchParser<ScanResult>(parser, configuration.SCAN_BATCH_PARSE_THREADS)
+
+    private val deviceEvictionPolicy = BleDeviceFactory.EvictionPolicy(
+        configuration.DEVICE_EVICTION_GRACE_PERIOD_MILLIS,
+        configuration.DEVICE_EVICTION_MAX_DEVICES,
+        configuration.DEVICE_EVICTION_MAX_BYTES
+    )
+
+    /**
+     * The [batchParser] entry being applied to [recentlyNearbyDevices], so that [parseScan] does not parse it again;
+     * -1 if none
+     */
+    private var batchParserIndex = -1
+
+    /**
+     * Scan pipeline counters, rates, and stage latencies; see [BleToolMetrics.snapshot]
+     */
+    val metrics = BleToolMetrics()
+
+    /**
+     * Telemetry of every parsed device, in columns for fleet wide queries; kept until the device is evicted
+     */
+    val fleetState = FleetStateTable()
+
+    /**
+     * Runs commands on many devices at once; see [requestBeep]
+     */
+    val fleetCommands = FleetCommandScheduler(this.looper, configuration.FLEET_COMMAND_MAX_CONNECTIONS)
+
+    /**
+     * Every parsed device's state, so that devices come back with it after the process restarts
+     */
+    val deviceCheckpoint = configuration.DEVICE_CHECKPOINT_FILE_NAME?.let {
+        BleDeviceCheckpoint(File(application.filesDir, it), this.looper)
+    }
 
     @Suppress("MemberVisibilityCanBePrivate")
     val isBluetoothLowEnergySupported: Boolean
@@ -382,7 +550,6 @@ class BleTool(
     private var scanFilters = newScanFilters()
     private var isActivelyScanning = false
 
-    private var resumeWorkRequest: OneTimeWorkRequest? = null
     private val workManager = WorkManager.getInstance(application)
 
     private val broadcastReceivers = arrayOf(
@@ -396,6 +563,9 @@ class BleTool(
     private val recentlyNearbyDevices: ExpiringIterableLongSparseArray<BleScanResult> =
         ExpiringIterableLongSparseArray("recentlyNearbyDevices", DEVICE_SCAN_TIMEOUT_MILLIS, this.looper)
 
+    @Suppress("PrivatePropertyName")
+    private val DEVICES_UPDATED_FRAME_INTERVAL_MILLIS = configuration.DEVICES_UPDATED_FRAME_INTERVAL_MILLIS
+
     val recentlyNearbyDevicesIterator: Iterator<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>
         get() = recentlyNearbyDevices.iterateValues()
 
@@ -409,23 +579,30 @@ class BleTool(
     private val PREF_PERSISTENT_SCANNING_BACKGROUND_PID = "persistentScanningBackgroundPid"
     private val sharedPreferences = application.getSharedPreferences(PREFS_FILENAME, Context.MODE_PRIVATE)
 
+    /**
+     * Persistent scanning state is read on every scan result and written on every resume;
+     * keep it in memory and only write it (asynchronously) when it actually changes.
+     */
+    private val persistentScanningState = WriteBehindPreferences(sharedPreferences, this.looper)
+
     @Suppress("PrivatePropertyName")
     private val PERSISTENT_SCANNING_STARTED_MILLIS_UNDEFINED = 0L
+    private val persistentScanningStartedMillisPreference =
+        persistentScanningState.longPreference(PREF_PERSISTENT_SCANNING_STARTED_MILLIS, PERSISTENT_SCANNING_STARTED_MILLIS_UNDEFINED)
     private var persistentScanningStartedMillis: Long
-        get() {
-            @Suppress("UnnecessaryVariable")
-            val value = sharedPreferences.getLong(PREF_PERSISTENT_SCANNING_STARTED_MILLIS, PERSISTENT_SCANNING_STARTED_MILLIS_UNDEFINED)
-            //Log.e(TAG, "persistentScanningStartedMillis=$value")
-            return value
+        get() = persistentScanningStartedMillisPreference.value
+        private set(value) {
+            persistentScanningStartedMillisPreference.value = value
         }
-        private set(value) = sharedPreferences.edit(commit = true) { putLong(PREF_PERSISTENT_SCANNING_STARTED_MILLIS, value) }
 
     @Suppress("PrivatePropertyName")
     private val PERSISTENT_SCANNING_BACKGROUND_PID_UNDEFINED = 0
+    private val persistentScanningBackgroundPidPreference =
+        persistentScanningState.intPreference(PREF_PERSISTENT_SCANNING_BACKGROUND_PID, PERSISTENT_SCANNING_BACKGROUND_PID_UNDEFINED)
     private var persistentScanningBackgroundPid: Int
         get() {
             @Suppress("UnnecessaryVariable")
-            val value = sharedPreferences.getInt(PREF_PERSISTENT_SCANNING_BACKGROUND_PID, PERSISTENT_SCANNING_BACKGROUND_PID_UNDEFINED)
+            val value = persistentScanningBackgroundPidPreference.value
             @Suppress("SimplifyBooleanWithConstants")
             if (false && BuildConfig.DEBUG) {
                 Log.e(TAG, "#PID get persistentScanningBackgroundPid=$value")
@@ -437,7 +614,7 @@ class BleTool(
             if (false && BuildConfig.DEBUG) {
                 Log.e(TAG, "#PID set persistentScanningBackgroundPid=$value")
             }
-            sharedPreferences.edit(commit = true) { putInt(PREF_PERSISTENT_SCANNING_BACKGROUND_PID, value) }
+            persistentScanningBackgroundPidPreference.value = value
         }
 
     private fun persistentScanningReset() {
@@ -469,6 +646,9 @@ class BleTool(
         Log.i(TAG, "+init")
 
         deviceFactory.initialize(GattManager(application, this.looper))
+        deviceFactory.checkpoint = deviceCheckpoint
+        DeviceHistory.POOL.maxBytes = configuration.DEVICE_HISTORY_MAX_BYTES
+        DeviceHistory.POOL.metrics = configuration.DEVICE_HISTORY_METRICS
 
         if (DEBUG_FORCE_PERSISTENT_SCANNING_RESET) {
             Log.e(TAG, "init: DEBUG persistentScanningReset()")
@@ -480,9 +660,6 @@ class BleTool(
             USE_SCAN_API_VERSION = 25 // For debugging purposes only
         }
 
-        // There could be a resume pending in the OS; nuke it
-        workManager.cancelAllWork()
-
         for (broadcastReceiver in broadcastReceivers) {
             broadcastReceiver.register()
         }
@@ -561,7 +738,12 @@ class BleTool(
 
     private fun shutdown(runThenKillProcess: (() -> Unit)? = null) {
         persistentScanningStop()
+        persistentScanningState.flush(true)
+        deviceCheckpoint?.flush(true)
 
+        batchParser.close()
+        fleetCommands.cancelAll()
+        FeatureEventBus.DEFAULT.unsubscribe(featureEventsSubscription)
         deviceFactory.close()
 
         for (broadcastReceiver in broadcastReceivers) {
@@ -918,6 +1100,10 @@ class BleTool(
             val result = persistentScanningResume("persistentScanningStart", false)
             if (result == null) {
                 persistentScanningStartedMillis = SystemClock.uptimeMillis()
+                @Suppress("ConstantConditionIf")
+                if (USE_RESUME_PAUSE_HANDLER) {
+                    scanningWatchdogStart()
+                }
                 scanningNotificationUpdate()
                 bleToolScanObservers.forEach { it.onScanStarted(this) }
             } else {
@@ -976,6 +1162,9 @@ class BleTool(
     private fun newScanFilters(): List<ScanFilter> {
         val scanFilters = mutableListOf<ScanFilter>()
         scanFilters.addAll(configuration.SCAN_FILTERS)
+        if (scanFilters.isEmpty()) {
+            scanFilters.addAll(BleScanFilterCompiler.compile(parser.parserDescriptors))
+        }
         if (scanFilters.isEmpty()) {
             scanFilters.add(SCAN_FILTER_EMPTY)
         }
@@ -992,6 +1181,7 @@ class BleTool(
         @Suppress("ConstantConditionIf")
         if (USE_RESUME_PAUSE_HANDLER) {
             delayedScanningRemoveAll()
+            scanningHeartbeat()
         }
 
         recentlyNearbyDevices.resume()
@@ -1012,6 +1202,7 @@ class BleTool(
                         if (USE_SCAN_API_VERSION >= 26) {
                             Log.i(TAG, "persistentScanningResume: USE_API_VERSION >= 26; Start background PendingIntent scan")
                             val errorCode = bluetoothLeScanner.startScan(scanFilters, scanSettings, scanningPendingIntent)
+                            metrics.startScanCalled(errorCode == BleScanException.NO_ERROR)
                             if (errorCode != BleScanException.NO_ERROR) {
                                 throw BleScanException(errorCode)
                             }
@@ -1019,6 +1210,7 @@ class BleTool(
                         } else {
                             Log.i(TAG, "persistentScanningResume: USE_API_VERSION < 26; Start non-background ScanCallback scan")
                             bluetoothLeScanner.startScan(scanFilters, scanSettings, scanningCallback)
+                            metrics.startScanCalled(true)
                         }
                         // TODO:(pv) Find a way to get auto-start after reboot to work without using NotificationService.
                         //      Then we truly only have to show notification if API < 26.
@@ -1058,6 +1250,7 @@ class BleTool(
         @Suppress("ConstantConditionIf")
         if (USE_RESUME_PAUSE_HANDLER) {
             delayedScanningRemoveAll()
+            scanningHeartbeat()
         }
 
         recentlyNearbyDevices.pause()
@@ -1088,9 +1281,6 @@ class BleTool(
         }
 
         if (isPersistentScanningEnabled) {
-            // TODO:(pv) Reconsider only emmitting devices when paused
-            //...
-            devicesUpdatedDebounce()
             @Suppress("ConstantConditionIf")
             if (USE_RESUME_PAUSE_HANDLER) {
                 delayedScanningResumeAdd()
@@ -1106,6 +1296,10 @@ class BleTool(
     private fun persistentScanningStop(error: Throwable? = null) {
         Log.i(TAG, "persistentScanningStop(error=$error)")
         if (!isPersistentScanningEnabled) return
+        @Suppress("ConstantConditionIf")
+        if (USE_RESUME_PAUSE_HANDLER) {
+            scanningWatchdogStop()
+        }
         persistentScanningReset()
         persistentScanningPause("persistentScanningStop", true)
         bleToolScanObservers.forEach { it.onScanStopped(this, error) }
@@ -1127,25 +1321,84 @@ class BleTool(
     private val MINIMUM_RELIABLE_WORK_REQUEST_DELAY_MILLIS = 15 * 60 * 1000L // 15 minutes
 
     @Suppress("PrivatePropertyName")
-    private val DELAYED_SCANNING_FAILSAFE_RESUME_MILLIS = MINIMUM_RELIABLE_WORK_REQUEST_DELAY_MILLIS
+    private val SCANNING_WATCHDOG_INTERVAL_MILLIS = MINIMUM_RELIABLE_WORK_REQUEST_DELAY_MILLIS
 
     /**
-     * Runs MINIMUM_RELIABLE_WORK_REQUEST_DELAY_MILLIS after Pause to pseudo-ensure that scanning is resumed
+     * The pause/resume loop beats every [AndroidBleScanStartLimits.scanStartIntervalAverageSafeMillis];
+     * allow several missed beats before considering the loop dead.
+     */
+    @Suppress("PrivatePropertyName")
+    private val SCANNING_HEARTBEAT_STALE_MILLIS = 10 * AndroidBleScanStartLimits.scanStartIntervalAverageSafeMillis
+
+    @Suppress("PrivatePropertyName")
+    private val SCANNING_WATCHDOG_UNIQUE_WORK_NAME = "${ReflectionUtils.getClassName(BleTool::class.java)}.SCANNING_WATCHDOG"
+
+    /**
+     * Single long-lived periodic failsafe; runs every [SCANNING_WATCHDOG_INTERVAL_MILLIS] while persistent scanning is
+     * enabled and only resumes scanning if the pause/resume loop has stopped beating.
      */
     class ResumeWorker(private val context: Context, params: WorkerParameters) : Worker(context, params) {
         override fun doWork(): Result {
             @Suppress("RemoveRedundantQualifierName")
-            getInstance(context)?.persistentScanningResumeIfEnabled("ResumeWorker", false)
+            getInstance(context)?.onScanningWatchdog()
             return Result.success()
         }
     }
 
+    /**
+     * [SystemClock.uptimeMillis] of the last pause or resume; 0 if the loop has not run in this process
+     */
+    @Volatile
+    private var scanningHeartbeatUptimeMillis = 0L
+
+    private fun scanningHeartbeat() {
+        scanningHeartbeatUptimeMillis = SystemClock.uptimeMillis()
+    }
+
+    private val isScanningHeartbeatStale: Boolean
+        get() {
+            val scanningHeartbeatUptimeMillis = this.scanningHeartbeatUptimeMillis
+            return scanningHeartbeatUptimeMillis == 0L || SystemClock.uptimeMillis() - scanningHeartbeatUptimeMillis > SCANNING_HEARTBEAT_STALE_MILLIS
+        }
+
+    private fun scanningWatchdogStart() {
+        Log.v(TAG, "scanningWatchdogStart()")
+        val workRequest = PeriodicWorkRequest.Builder(ResumeWorker::class.java, SCANNING_WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+            .build()
+        workManager.enqueueUniquePeriodicWork(SCANNING_WATCHDOG_UNIQUE_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, workRequest)
+    }
+
+    private fun scanningWatchdogStop() {
+        Log.v(TAG, "scanningWatchdogStop()")
+        workManager.cancelUniqueWork(SCANNING_WATCHDOG_UNIQUE_WORK_NAME)
+    }
+
+    /**
+     * Called from a [WorkManager] thread
+     */
+    private fun onScanningWatchdog() {
+        val isScanningHeartbeatStale = this.isScanningHeartbeatStale
+        Log.i(TAG, "onScanningWatchdog: isPersistentScanningEnabled=$isPersistentScanningEnabled, isScanningHeartbeatStale=$isScanningHeartbeatStale")
+        if (!isScanningHeartbeatStale) {
+            return
+        }
+        handler.post {
+            persistentScanningResumeIfEnabled("onScanningWatchdog", false)
+        }
+    }
+
     @Suppress("PrivatePropertyName")
     private val MESSAGE_WHAT_PAUSE = 100
 
     @Suppress("PrivatePropertyName")
     private val MESSAGE_WHAT_RESUME = 101
 
+    @Suppress("PrivatePropertyName")
+    private val MESSAGE_WHAT_DEVICES_UPDATED_FRAME = 102
+
+    @Suppress("PrivatePropertyName")
+    private val MESSAGE_WHAT_DEVICE_EVICTION = 103
+
     private fun handleMessage(msg: Message?): Boolean {
         val what = msg?.what
         //Log.i(TAG, "handleMessage: msg.what=$what")
@@ -1159,27 +1412,26 @@ class BleTool(
                 persistentScanningResumeIfEnabled("handleMessage", false)
                 handled = true
             }
+            MESSAGE_WHAT_DEVICES_UPDATED_FRAME -> {
+                devicesUpdatedFrame()
+                handled = true
+            }
+            MESSAGE_WHAT_DEVICE_EVICTION -> {
+                deviceEviction()
+                handled = true
+            }
         }
         return handled
     }
 
     private fun delayedScanningResumeAdd() {
         Log.v(TAG, "delayedScanningResumeAdd()")
-        resumeWorkRequest = OneTimeWorkRequest.Builder(ResumeWorker::class.java)
-            .setInitialDelay(DELAYED_SCANNING_FAILSAFE_RESUME_MILLIS, TimeUnit.MILLISECONDS)
-            .build()
-        workManager.enqueue(resumeWorkRequest!!)
-
         handler.sendEmptyMessageDelayed(MESSAGE_WHAT_RESUME, AndroidBleScanStartLimits.scanStartIntervalAverageSafeMillis)
     }
 
     private fun delayedScanningResumeRemove() {
         Log.v(TAG, "delayedScanningResumeRemove()")
         handler.removeMessages(MESSAGE_WHAT_RESUME)
-        if (resumeWorkRequest != null) {
-            workManager.cancelWorkById(resumeWorkRequest!!.id)
-            resumeWorkRequest = null
-        }
     }
 
     private fun delayedScanningPauseAdd() {
@@ -1267,9 +1519,8 @@ class BleTool(
         if (callbackType == -1) {
             onBatchScanResults("PendingIntent", scanResults)
         } else {
-            for (scanResult in scanResults) {
-                onScanResult("PendingIntent", callbackType, scanResult)
-            }
+            metrics.add(BleToolMetrics.Counter.ADVERTISEMENTS_PENDING_INTENT, scanResults.size.toLong())
+            onScanResults("PendingIntent", callbackType, scanResults)
         }
 
         /*
@@ -1295,14 +1546,13 @@ class BleTool(
 
     private fun onBatchScanResults(caller: String, scanResults: MutableList<ScanResult>?) {
         if (scanResults == null) return
+        metrics.add(BleToolMetrics.Counter.ADVERTISEMENTS_BATCH, scanResults.size.toLong())
         /*
         val msg = "onBatchScanResults($caller, scanResults(${scanResults.size})=..."
         try {
             Log.v(TAG, "+$msg")
          */
-        for (scanResult in scanResults) {
-            onScanResult("$caller->onBatchScanResults", ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult)
-        }
+        onScanResults("$caller->onBatchScanResults", ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResults)
         /*
         } finally {
             Log.v(TAG, "-$msg")
@@ -1310,12 +1560,59 @@ class BleTool(
         */
     }
 
+    /**
+     * Large batches are parsed in parallel by [batchParser], then applied to [recentlyNearbyDevices] here, in
+     * timestamp order per device; smaller ones are handled one [onScanResult] at a time.
+     */
+    private fun onScanResults(caller: String, callbackType: Int, scanResults: List<ScanResult?>) {
+        if (batchParser.workerCount == 1 || scanResults.size < BleBatchParser.PARALLEL_SIZE_MIN) {
+            for (scanResult in scanResults) {
+                onScanResult(caller, callbackType, scanResult)
+            }
+            return
+        }
+
+        val startNanos = System.nanoTime()
+        try {
+            for (scanResult in scanResults) {
+                if (scanResult == null) {
+                    metrics.increment(BleToolMetrics.Counter.DROPPED_OTHER)
+                    continue
+                }
+                val macAddressString = scanResult.device.address
+                if (!debugDeviceAddressFilterPass(macAddressString)) {
+                    metrics.increment(BleToolMetrics.Counter.DROPPED_DEBUG_DEVICE_ADDRESS_FILTER)
+                    continue
+                }
+                val macAddressLong = BluetoothUtils.macAddressStringToLong(macAddressString)
+                batchParser.add(scanResult, macAddressLong, scanResult.timestampNanos, scanResult.scanRecord?.bytes, scanResult.device)
+            }
+
+            batchParser.parse()
+
+            for (position in 0 until batchParser.size) {
+                val index = batchParser.indexAt(position)
+                batchParserIndex = index
+                onScanResult(batchParser.getMacAddress(index), batchParser.getItem(index))
+            }
+        } finally {
+            batchParserIndex = -1
+            batchParser.clear()
+        }
+        metrics.recordStage(BleToolMetrics.Stage.RECEIVE_BATCH, startNanos)
+    }
+
     private fun onScanResult(caller: String, callbackType: Int, scanResult: ScanResult?) {
-        if (scanResult == null) return
+        if (scanResult == null) {
+            metrics.increment(BleToolMetrics.Counter.DROPPED_OTHER)
+            return
+        }
+        val startNanos = System.nanoTime()
         val bleDevice = scanResult.device
         val macAddressString = bleDevice.address
         if (!debugDeviceAddressFilterPass(macAddressString)) {
             //Log.w(TAG, "onScanResult: DEBUG_DEVICE_ADDRESS_FILTER.contains($macAddressString) == false; ignoring")
+            metrics.increment(BleToolMetrics.Counter.DROPPED_DEBUG_DEVICE_ADDRESS_FILTER)
             return
         }
 
@@ -1325,8 +1622,11 @@ class BleTool(
         }
 
         val macAddressLong = BluetoothUtils.macAddressStringToLong(macAddressString)
+        onScanResult(macAddressLong, scanResult)
+        metrics.recordStage(BleToolMetrics.Stage.RECEIVE, startNanos)
+    }
 
-        @Suppress("ConstantConditionIf")
+    private fun onScanResult(macAddressLong: Long, scanResult: ScanResult) {
         var bleScanResult = recentlyNearbyDevices.get(macAddressLong)
         if (bleScanResult == null) {
             bleScanResult = BleScanResult(scanResult)
@@ -1336,6 +1636,34 @@ class BleTool(
         recentlyNearbyDevices.put(macAddressLong, bleScanResult)
     }
 
+    private fun parseScan(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): BleDevice? {
+        val startNanos = System.nanoTime()
+        val batchParserIndex = batchParserIndex
+        val device = if (batchParserIndex == -1) {
+            parser.parseScan(item)
+        } else {
+            // Already parsed by onScanResults; only the device is left to update
+            parser.apply(item, batchParser.getParser(batchParserIndex), batchParser.getFrame(batchParserIndex))
+        }
+        metrics.recordStage(BleToolMetrics.Stage.PARSE, startNanos)
+        if (device != null) {
+            metrics.increment(BleToolMetrics.Counter.PARSED)
+            if (device is TriggerFrameDevice) {
+                val signalLevelRssiSmoothed = if (device is Features.IFeatureSignalLevelRssi) {
+                    device.signalLevelRssiSmoothed
+                } else {
+                    Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED
+                }
+                fleetState.update(item.key, device.frame, signalLevelRssiSmoothed, SystemClock.elapsedRealtime())
+                deviceCheckpoint?.update(item.key, device, signalLevelRssiSmoothed)
+            }
+        } else {
+            metrics.increment(BleToolMetrics.Counter.UNRECOGNIZED)
+            metrics.unrecognizedAdvertisements.record(item.value.scanResult.scanRecord?.bytes)
+        }
+        return device
+    }
+
     private fun onDeviceAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         val bleScanResult = item.value
         val scanResult = bleScanResult.scanResult
@@ -1344,10 +1672,12 @@ class BleTool(
         // @formatter:off
         Log.i(TAG, "${Utils.getTimeDurationFormattedString(persistentScanningElapsedMillis)} $macAddressString onDeviceAdded: ADDED! bleScanResult=$bleScanResult")
         // @formatter:on
-        val device = parser.parseScan(item)
+        metrics.increment(BleToolMetrics.Counter.DEVICES_ADDED)
+        val device = parseScan(item)
         Log.i(TAG, "${Utils.getTimeDurationFormattedString(persistentScanningElapsedMillis)} $macAddressString onDeviceAdded: device=$device")
-        addListeners(device)
+        deviceFactory.onDeviceNearby(item.key)
         bleToolDeviceScanObservers.forEach { it.onDeviceAdded(this, item) }
+        item.value.changedMask = 0
     }
 
 
@@ -1363,12 +1693,17 @@ class BleTool(
             Log.v(TAG, "${Utils.getTimeDurationFormattedString(persistentScanningElapsedMillis)} $macAddressString onDeviceUpdated: UPDATED! ageMillis=${Utils.getTimeDurationFormattedString(ageMillis)}, bleScanResult=$bleScanResult")
             // @formatter:on
         }
-        parser.parseScan(item)
-        recentlyNearbyDevicesUpdatedDebounce.add(item)
+        metrics.increment(BleToolMetrics.Counter.DEVICES_UPDATED)
+        parseScan(item)
+        if (item.value.changedMask != 0) {
+            devicesUpdatedFrameAdd(item.key)
+        } else {
+            metrics.increment(BleToolMetrics.Counter.DEVICES_UPDATED_IDLE)
+        }
     }
 
     //
-    //region device Feature listeners
+    //region device Feature events
     //
 
     @Suppress("MemberVisibilityCanBePrivate")
@@ -1376,107 +1711,123 @@ class BleTool(
         return configuration.isAuthorized(device)
     }
 
-    private fun addListeners(device: BleDevice?) {
-        Log.v(TAG, "addListeners(device=$device)")
-        if (device is Features.IFeatureSignalLevelRssi) {
-            device.addListener(featureSignalLevelRssiListener)
-        }
-        if (device is Features.IFeatureShortClick) {
-            device.addListener(featureShortClickListener)
-            onFeatureShortClickChanged(device)
-        }
-        // TODO:(pv) FeatureLongClick, FeatureDoubleClick
-
-        if (!isAuthorized(device)) return
+    /**
+     * One subscription for every feature of every device, delivered in batches on the BleTool looper
+     */
+    private val featureEventsSubscription = FeatureEventBus.DEFAULT.subscribe(
+        FeatureEventBus.FeatureIds.ALL,
+        Executor { handler.post(it) },
+        object : FeatureEventBus.Subscriber {
+            override fun onFeatureEvents(batch: FeatureEventBus.Batch) {
+                this@BleTool.onFeatureEvents(batch)
+            }
+        })
 
-        if (device is Features.IFeatureBeep) {
-            device.addListener(featureBeepListener)
-            onFeatureBeepChanged(device)
-        }
-        if (device is Features.IFeatureFlash) {
-            device.addListener(featureFlashListener)
-            onFeatureFlashChanged(device)
+    private fun onFeatureEvents(batch: FeatureEventBus.Batch) {
+        for (i in 0 until batch.size) {
+            val macAddress = batch.getMacAddress(i)
+            // Only devices that are recently nearby, as when listeners were attached to each device while it was
+            if (recentlyNearbyDevices.get(macAddress) == null) {
+                continue
+            }
+            val newValue = batch.getNewValue(i)
+            when (batch.getFeatureId(i)) {
+                FeatureEventBus.FeatureIds.SIGNAL_LEVEL_RSSI -> {
+                    onFeatureSignalLevelRssiChanged(macAddress, newValue)
+                }
+                FeatureEventBus.FeatureIds.SHORT_CLICK -> {
+                    onFeatureShortClickChanged(macAddress, newValue != 0)
+                }
+                // TODO:(pv) FeatureLongClick, FeatureDoubleClick
+                FeatureEventBus.FeatureIds.BEEP -> {
+                    if (isAuthorized(deviceFactory.peekDevice(macAddress))) {
+                        onFeatureBeepChanged(macAddress, newValue != 0)
+                    }
+                }
+                FeatureEventBus.FeatureIds.FLASH -> {
+                    if (isAuthorized(deviceFactory.peekDevice(macAddress))) {
+                        onFeatureFlashChanged(macAddress, newValue != 0)
+                    }
+                }
+                // TODO:(pv) Temperature, Battery, Motion, etc...
+            }
         }
-        // TODO:(pv) Temperature, Battery, Motion, etc...
     }
 
-    private fun removeListeners(device: BleDevice?) {
-        Log.v(TAG, "removeListeners(device=$device)")
-        if (device is Features.IFeatureSignalLevelRssi) {
-            device.removeListener(featureSignalLevelRssiListener)
-        }
-        if (device is Features.IFeatureShortClick) {
-            device.removeListener(featureShortClickListener)
-        }
-        if (device is Features.IFeatureBeep) {
-            device.removeListener(featureBeepListener)
-        }
+    fun onFeatureSignalLevelRssiChanged(@Suppress("UNUSED_PARAMETER") macAddress: Long, @Suppress("UNUSED_PARAMETER") signalLevelRssi: Int) {
+        //Log.v(TAG, "onFeatureSignalLevelRssiChanged: RSSI CHANGED macAddress=$macAddress, signalLevelRssi=$signalLevelRssi")
     }
 
-    private val featureSignalLevelRssiListener = object : Features.IFeatureSignalLevelRssiListener {
-        override fun onFeatureChanged(feature: Features.IFeatureSignalLevelRssi): Boolean {
-            return this@BleTool.onFeatureSignalLevelRssiChanged(feature)
-        }
+    fun onFeatureBeepChanged(macAddress: Long, isBeeping: Boolean) {
+        Log.i(TAG, "onFeatureBeepChanged: BEEP CHANGED macAddress=${BluetoothUtils.macAddressLongToString(macAddress)}, isBeeping=$isBeeping")
     }
 
-    fun onFeatureSignalLevelRssiChanged(@Suppress("UNUSED_PARAMETER") feature: Features.IFeatureSignalLevelRssi): Boolean {
-        //Log.v(TAG, "onFeatureSignalLevelRssiChanged: RSSI CHANGED feature=$feature")
-        return false
+    fun onFeatureFlashChanged(macAddress: Long, isFlashing: Boolean) {
+        Log.i(TAG, "onFeatureFlashChanged: FLASH CHANGED macAddress=${BluetoothUtils.macAddressLongToString(macAddress)}, isFlashing=$isFlashing")
     }
 
-    private val featureBeepListener = object : Features.IFeatureBeepListener {
-        override fun onFeatureChanged(feature: Features.IFeatureBeep): Boolean {
-            return this@BleTool.onFeatureBeepChanged(feature)
+    private fun onFeatureShortClickChanged(macAddress: Long, isShortClicked: Boolean) {
+        Log.i(TAG, "onFeatureShortClickChanged: SHORT CLICK CHANGED macAddress=${BluetoothUtils.macAddressLongToString(macAddress)}, isShortClicked=$isShortClicked")
+        if (isShortClicked) {
+            Log.i(TAG, "onFeatureShortClickChanged: SHORT CLICKED; ringtoneToggle()")
+            ringtoneToggle()
         }
     }
 
-    fun onFeatureBeepChanged(feature: Features.IFeatureBeep): Boolean {
-        Log.i(TAG, "onFeatureBeepChanged: BEEP CHANGED feature=$feature")
-        return false
-    }
+    //
+    //endregion device Feature events
+    //
 
-    private val featureFlashListener = object : Features.IFeatureFlashListener {
-        override fun onFeatureChanged(feature: Features.IFeatureFlash): Boolean {
-            return this@BleTool.onFeatureFlashChanged(feature)
+    //
+    //region DEVICES_UPDATED_FRAME
+    //
+
+    /**
+     * MAC addresses of devices updated since the last frame; coalesces any number of updates per device per frame
+     */
+    private val devicesUpdatedFrameDirty = LongSparseSet()
+    private var isDevicesUpdatedFrameScheduled = false
+
+    private fun devicesUpdatedFrameAdd(macAddressLong: Long) {
+        devicesUpdatedFrameDirty.add(macAddressLong)
+        if (!isDevicesUpdatedFrameScheduled) {
+            isDevicesUpdatedFrameScheduled = true
+            handler.sendEmptyMessageDelayed(MESSAGE_WHAT_DEVICES_UPDATED_FRAME, DEVICES_UPDATED_FRAME_INTERVAL_MILLIS)
         }
     }
 
-    fun onFeatureFlashChanged(feature: Features.IFeatureFlash): Boolean {
-        Log.i(TAG, "onFeatureFlashChanged: FLASH CHANGED feature=$feature")
-        return false
+    private fun devicesUpdatedFrameRemove(macAddressLong: Long) {
+        devicesUpdatedFrameDirty.remove(macAddressLong)
     }
 
-    private val featureShortClickListener = object : Features.IFeatureShortClickListener {
-        override fun onFeatureChanged(feature: Features.IFeatureShortClick): Boolean {
-            return this@BleTool.onFeatureShortClickChanged(feature)
+    /**
+     * Emits one batched frame of [BleToolDeviceScanObserver.onDeviceUpdated] calls, independent of the scan duty cycle
+     */
+    private fun devicesUpdatedFrame() {
+        isDevicesUpdatedFrameScheduled = false
+        val size = devicesUpdatedFrameDirty.size()
+        if (size == 0) {
+            return
         }
-    }
-
-    private fun onFeatureShortClickChanged(feature: Features.IFeatureShortClick): Boolean {
-        Log.i(TAG, "onFeatureShortClickChanged: SHORT CLICK CHANGED feature=$feature")
-        if (feature.isShortClicked) {
-            Log.i(TAG, "onFeatureShortClickChanged: SHORT CLICKED; ringtoneToggle()")
-            ringtoneToggle()
+        val startNanos = System.nanoTime()
+        var count = 0
+        for (i in 0 until size) {
+            val item = recentlyNearbyDevices.getItem(devicesUpdatedFrameDirty.keyAt(i)) ?: continue
+            bleToolDeviceScanObservers.forEach { it.onDeviceUpdated(this, item) }
+            item.value.changedMask = 0
+            count++
         }
-        return false
+        devicesUpdatedFrameDirty.clear()
+        if (count > 0) {
+            bleToolDeviceScanObservers.forEach { it.onDevicesUpdated(this, count) }
+        }
+        metrics.recordStage(BleToolMetrics.Stage.DEVICES_UPDATED_FRAME, startNanos)
     }
 
     //
-    //endregion device Feature listeners
+    //endregion DEVICES_UPDATED_FRAME
     //
 
-    private val recentlyNearbyDevicesUpdatedDebounce: MutableSet<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>> = mutableSetOf()
-
-    private fun devicesUpdatedDebounce() {
-        Log.i(TAG, "devicesUpdatedDebounce()")
-        val it = recentlyNearbyDevicesUpdatedDebounce.iterator()
-        while (it.hasNext()) {
-            val item = it.next()
-            bleToolDeviceScanObservers.forEach { it.onDeviceUpdated(this, item) }
-            it.remove()
-        }
-    }
-
     private fun onDeviceExpiring(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): Boolean {
         val bleScanResult = item.value
         val scanResult = bleScanResult.scanResult
@@ -1504,18 +1855,75 @@ class BleTool(
         // @formatter:off
         Log.i(TAG, "${Utils.getTimeDurationFormattedString(persistentScanningElapsedMillis)} $macAddressString onDeviceRemoved: REMOVED! bleScanResult=$bleScanResult")
         // @formatter:on
+        metrics.increment(BleToolMetrics.Counter.DEVICES_REMOVED)
 
-        val device = deviceFactory.getDevice(macAddressString)
-        removeListeners(device)
+        deviceFactory.onDeviceAbsent(item.key)
 
-        recentlyNearbyDevicesUpdatedDebounce.remove(item)
+        devicesUpdatedFrameRemove(item.key)
         bleToolDeviceScanObservers.forEach { it.onDeviceRemoved(this, item) }
+
+        deviceEvictionSchedule(if (deviceFactory.size > deviceEvictionPolicy.maxDevices) 0 else deviceEvictionPolicy.gracePeriodMillis)
     }
 
+    //
+    //region DEVICE_EVICTION
+    //
+
+    private var isDeviceEvictionScheduled = false
+
+    /**
+     * @param delayMillis 0 to evict as soon as possible, even if an eviction is already scheduled later
+     */
+    private fun deviceEvictionSchedule(delayMillis: Long) {
+        if (isDeviceEvictionScheduled && delayMillis > 0) {
+            return
+        }
+        handler.removeMessages(MESSAGE_WHAT_DEVICE_EVICTION)
+        isDeviceEvictionScheduled = true
+        handler.sendEmptyMessageDelayed(MESSAGE_WHAT_DEVICE_EVICTION, delayMillis)
+    }
+
+    private fun deviceEviction() {
+        isDeviceEvictionScheduled = false
+        val evicted = deviceFactory.evict(deviceEvictionPolicy)
+        metrics.add(BleToolMetrics.Counter.DEVICES_EVICTED, evicted.toLong())
+        if (evicted > 0) {
+            fleetState.retainAll { deviceFactory.peekDevice(it) != null }
+        }
+        val absentDeviceCount = deviceFactory.absentDeviceCount
+        if (LOG_DEVICE_EVICTION) {
+            Log.v(TAG, "deviceEviction: evicted=$evicted, absentDeviceCount=$absentDeviceCount, size=${deviceFactory.size}")
+        }
+        if (absentDeviceCount > 0) {
+            // Pinned, or still within their grace period
+            deviceEvictionSchedule(deviceEvictionPolicy.gracePeriodMillis)
+        }
+    }
+
+    //
+    //endregion DEVICE_EVICTION
+    //
+
     //
     //region Actions (candidate to move to dedicated class)
     //
 
+    /**
+     * Starts (or stops) beeping every known device in macAddresses that supports it, several at a time; devices that
+     * [isAuthorized] rejects, or that [deviceFactory] does not know, are skipped
+     */
+    @Suppress("unused")
+    fun requestBeep(macAddresses: LongArray, on: Boolean, listener: FleetCommandQueue.Listener<BleDevice>? = null): FleetCommandQueue.Job<BleDevice> {
+        val devices = ArrayList<BleDevice>(macAddresses.size)
+        for (macAddress in macAddresses) {
+            val device = deviceFactory.peekDevice(macAddress) ?: continue
+            if (device is Features.IFeatureBeep && configuration.isAuthorized(device)) {
+                devices.add(device)
+            }
+        }
+        return fleetCommands.submit(FleetCommandScheduler.BeepCommand(on), devices, listener)
+    }
+
     @Suppress("PrivatePropertyName")
     private var REQUEST_CODE_SELECT_RINGTONE = -1
 
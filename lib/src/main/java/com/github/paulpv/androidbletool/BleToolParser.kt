@@ -6,26 +6,81 @@ import android.os.ParcelUuid
 import android.util.Log
 import android.util.SparseArray
 import com.github.paulpv.androidbletool.collections.ExpiringIterableLongSparseArray
-import com.github.paulpv.androidbletool.devices.Triggers.Trigger
-import com.github.paulpv.androidbletool.devices.Triggers.TriggerSignalLevelRssi
-import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDevice
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
 import com.github.paulpv.androidbletool.gatt.GattUuid
 import com.github.paulpv.androidbletool.logging.MyLog
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
 import com.github.paulpv.androidbletool.utils.RuntimeUtils
 import com.github.paulpv.androidbletool.utils.Utils
 import com.github.paulpv.androidbletool.utils.Utils.TAG
 import java.nio.ByteBuffer
 import java.util.*
 
-class BleToolParser(
+/**
+ * @param descriptors the parsers, each only instantiated on the first advertisement that matches its keys
+ * @param isShared true to use each descriptor's one shared [BleParserDescriptor.getParser], false to use parsers of
+ * this BleToolParser's own ([BleParserDescriptor.newParser]) so that it can run on another thread
+ */
+class BleToolParser private constructor(
     private val deviceFactory: BleDeviceFactory<*>,
-    private val parsers: List<BleDeviceParser>
+    private val descriptors: Array<BleParserDescriptor>,
+    private val isShared: Boolean
 ) {
+    /**
+     * @param parsers already instantiated parsers; see [BleParserDescriptor.of]
+     * @param descriptors parsers that are only instantiated when first needed; tried after parsers
+     */
+    constructor(
+        deviceFactory: BleDeviceFactory<*>,
+        parsers: List<BleDeviceParser>,
+        descriptors: List<BleParserDescriptor> = emptyList()
+    ) : this(deviceFactory, (parsers.map { BleParserDescriptor.of(it) } + descriptors).toTypedArray(), true)
+
     companion object {
         private val TAG = TAG(BleToolParser::class.java)
 
+        @Suppress("SimplifyBooleanWithConstants")
         private val LOG_PARSER = false && BuildConfig.DEBUG
 
+        //
+        // parseScan results
+        //
+        private const val UNIDENTIFIED = 0
+        private const val IDENTIFIED = 1
+        private const val DECODED = 2
+
+        /**
+         * Manufacturer IDs are 16 bits, so keys with this bit set are free to route service data
+         */
+        private const val SERVICE_DATA_KEY = 0x10000
+
+        /**
+         * @return the key that routes 16 bit service data of serviceUuid16 to the parsers that
+         * [Configuration.addServiceData] it, in place of a manufacturer ID; also what [RawBleDeviceParser.decode] is
+         * passed as its manufacturerId
+         */
+        fun getServiceDataKey(serviceUuid16: Int): Int {
+            return SERVICE_DATA_KEY or serviceUuid16
+        }
+
+        /**
+         * @return the manufacturer ID of the current manufacturer specific data, the [getServiceDataKey] of the current
+         * 16 bit service data, or -1
+         */
+        fun getDispatchKey(advertisement: AdStructureCursor): Int {
+            val manufacturerId = advertisement.manufacturerId
+            if (manufacturerId != -1) {
+                return manufacturerId
+            }
+            val serviceDataUuid16 = advertisement.serviceDataUuid16
+            return if (serviceDataUuid16 != -1) getServiceDataKey(serviceDataUuid16) else -1
+        }
+
+        private fun isServiceDataKey(key: Int): Boolean {
+            return key and SERVICE_DATA_KEY != 0
+        }
+
         /**
          * @return the first 4 characters of the macAddress
          */
@@ -35,6 +90,20 @@ class BleToolParser(
             // 11:22:33:44:55:66
             return if (macAddress != null && macAddress.length == 17) macAddress.substring(0, 5).replace(":", "").toLowerCase(Locale.ROOT) else null
         }
+
+        /**
+         * @return the iBeacon type (0x02), length (0x15), and proximity UUID bytes that start the Apple manufacturer
+         * specific data of an iBeacon advertising the given uuid; suitable for [Configuration.addManufacturerData]
+         */
+        fun getIBeaconPrefix(uuid: String): ByteArray {
+            val value = UUID.fromString(uuid)
+            return ByteBuffer.allocate(18)
+                .put(0x02)
+                .put(0x15)
+                .putLong(value.mostSignificantBits)
+                .putLong(value.leastSignificantBits)
+                .array()
+        }
     }
 
     /**
@@ -43,27 +112,74 @@ class BleToolParser(
     interface BluetoothSigManufacturerIds {
         companion object {
             const val APPLE: Int = 0x004C
+            const val RADIUS_NETWORKS: Int = 0x0118
         }
     }
 
     class Configuration {
+        /**
+         * A manufacturer ID, optionally with a data prefix and mask, that the parser is interested in.
+         * Same semantics as [android.bluetooth.le.ScanFilter.Builder.setManufacturerData].
+         */
+        class ManufacturerData(val manufacturerId: Int, val data: ByteArray?, val dataMask: ByteArray?) {
+            override fun toString(): String {
+                return "{ manufacturerId=0x${Utils.toHexString(manufacturerId, 2)}" +
+                        ", data=${Utils.toHexString(data)}" +
+                        ", dataMask=${Utils.toHexString(dataMask)} }"
+            }
+        }
+
         private val mDeviceAddressPrefixFilters: MutableSet<String>
-        private val mServiceUuids: MutableSet<ParcelUuid>
-        private val mDeviceNamesLowerCase: MutableSet<String>
+        private var mDeviceAddressPrefixes: IntArray
+        //
+        // Lists instead of Sets so that the per advertisement checks can index instead of allocating an Iterator
+        //
+        /**
+         * UUIDs instead of ParcelUuids, so that configuring a parser touches no framework types
+         */
+        private val mServiceUuids: MutableList<UUID>
+        /**
+         * mostSignificantBits, leastSignificantBits pairs of mServiceUuids, for [isSupportedServices] (AdStructureCursor)
+         */
+        private var mServiceUuidBits: LongArray
+        private val mDeviceNamesLowerCase: MutableList<String>
+        private val mManufacturerData: MutableList<ManufacturerData>
+        private val mServiceData: MutableList<Int>
 
         @Suppress("unused")
         val deviceAddressPrefixFilters: Set<String>
             get() = Collections.unmodifiableSet(mDeviceAddressPrefixFilters)
 
         @Suppress("unused")
-        val serviceUuids: Set<ParcelUuid>
-            get() = Collections.unmodifiableSet(mServiceUuids)
+        val serviceUuids: List<UUID>
+            get() = Collections.unmodifiableList(mServiceUuids)
 
         fun addDeviceAddressPrefixFilter(value: Int): Configuration {
             mDeviceAddressPrefixFilters.add(Utils.bytesToHexString(value, 2, true))
+            @Suppress("NAME_SHADOWING") val value = value and 0xFFFF
+            if (!mDeviceAddressPrefixes.contains(value)) {
+                mDeviceAddressPrefixes = mDeviceAddressPrefixes.copyOf(mDeviceAddressPrefixes.size + 1)
+                mDeviceAddressPrefixes[mDeviceAddressPrefixes.size - 1] = value
+            }
             return this
         }
 
+        /**
+         * @param macAddressPrefix the first two bytes of the mac address; see [BleParserDispatchIndex.getMacAddressPrefix]
+         */
+        fun isSupportedDeviceAddressPrefix(macAddressPrefix: Int): Boolean {
+            val deviceAddressPrefixes = mDeviceAddressPrefixes
+            if (deviceAddressPrefixes.isEmpty()) {
+                return true
+            }
+            for (deviceAddressPrefix in deviceAddressPrefixes) {
+                if (deviceAddressPrefix == macAddressPrefix) {
+                    return true
+                }
+            }
+            return false
+        }
+
         fun isSupportedDeviceAddressPrefix(bluetoothDevice: BluetoothDevice?): Boolean {
             if (bluetoothDevice == null) {
                 return mDeviceAddressPrefixFilters.size == 0
@@ -74,50 +190,143 @@ class BleToolParser(
         }
 
         fun addDeviceName(value: String): Configuration {
-            mDeviceNamesLowerCase.add(RuntimeUtils.toNonNullNonEmpty(value, "value").toLowerCase(Locale.ROOT))
+            val deviceNameLowerCase = RuntimeUtils.toNonNullNonEmpty(value, "value").toLowerCase(Locale.ROOT)
+            if (!mDeviceNamesLowerCase.contains(deviceNameLowerCase)) {
+                mDeviceNamesLowerCase.add(deviceNameLowerCase)
+            }
             return this
         }
 
         fun isSupportedDeviceName(deviceName: String?): Boolean {
-            return deviceName != null && mDeviceNamesLowerCase.contains(deviceName.toLowerCase(Locale.ROOT))
+            if (deviceName == null) {
+                return false
+            }
+            for (i in 0 until mDeviceNamesLowerCase.size) {
+                if (deviceName.equals(mDeviceNamesLowerCase[i], ignoreCase = true)) {
+                    return true
+                }
+            }
+            return false
+        }
+
+        fun isSupportedDeviceName(advertisement: AdStructureCursor): Boolean {
+            for (i in 0 until mDeviceNamesLowerCase.size) {
+                if (advertisement.isLocalName(mDeviceNamesLowerCase[i], ignoreCase = true)) {
+                    return true
+                }
+            }
+            return false
         }
 
         fun addServiceUuid(value: GattUuid): Configuration {
-            mServiceUuids.add(RuntimeUtils.toNonNull(value, "value").parcelable)
+            val serviceUuid = RuntimeUtils.toNonNull(value, "value").uuid
+            if (!mServiceUuids.contains(serviceUuid)) {
+                mServiceUuids.add(serviceUuid)
+                mServiceUuidBits = mServiceUuidBits.copyOf(mServiceUuidBits.size + 2)
+                mServiceUuidBits[mServiceUuidBits.size - 2] = value.uuid.mostSignificantBits
+                mServiceUuidBits[mServiceUuidBits.size - 1] = value.uuid.leastSignificantBits
+            }
+            return this
+        }
+
+        @Suppress("unused")
+        val manufacturerData: List<ManufacturerData>
+            get() = Collections.unmodifiableList(mManufacturerData)
+
+        /**
+         * @param manufacturerId manufacturerId
+         * @param data optional prefix of the manufacturer specific data
+         * @param dataMask optional mask for data; must be the same length as data; 1 bits must match, 0 bits are ignored
+         */
+        @JvmOverloads
+        fun addManufacturerData(manufacturerId: Int, data: ByteArray? = null, dataMask: ByteArray? = null): Configuration {
+            if (data == null) {
+                require(dataMask == null) { "dataMask must be null if data is null" }
+            } else if (dataMask != null) {
+                require(dataMask.size == data.size) { "dataMask.size must equal data.size" }
+            }
+            mManufacturerData.add(ManufacturerData(manufacturerId, data, dataMask))
+            return this
+        }
+
+        @Suppress("unused")
+        val serviceData: List<Int>
+            get() = Collections.unmodifiableList(mServiceData)
+
+        /**
+         * Routes [AdStructureCursor.Types.SERVICE_DATA_16_BIT] structures of the service UUID to the parser, the same
+         * as manufacturer specific data of a manufacturer ID; see [getServiceDataKey]
+         *
+         * @param serviceUuid16 the 16 bit service UUID (ex: 0xFEAA for Eddystone)
+         */
+        fun addServiceData(serviceUuid16: Int): Configuration {
+            require(serviceUuid16 in 0..0xFFFF) { "serviceUuid16 must be a 16 bit UUID" }
+            if (!mServiceData.contains(serviceUuid16)) {
+                mServiceData.add(serviceUuid16)
+            }
             return this
         }
 
         fun isSupportedServices(serviceUuids: List<ParcelUuid?>?): Boolean {
-            for (serviceUuid in mServiceUuids) {
-                if (serviceUuids == null || !serviceUuids.contains(serviceUuid)) {
+            for (i in 0 until mServiceUuids.size) {
+                if (serviceUuids == null || !contains(serviceUuids, mServiceUuids[i])) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun contains(serviceUuids: List<ParcelUuid?>, serviceUuid: UUID): Boolean {
+            for (i in 0 until serviceUuids.size) {
+                if (serviceUuids[i]?.uuid == serviceUuid) {
+                    return true
+                }
+            }
+            return false
+        }
+
+        fun isSupportedServices(advertisement: AdStructureCursor): Boolean {
+            val serviceUuidBits = mServiceUuidBits
+            var i = 0
+            while (i < serviceUuidBits.size) {
+                if (!advertisement.hasServiceUuid(serviceUuidBits[i], serviceUuidBits[i + 1])) {
                     return false
                 }
+                i += 2
             }
             return true
         }
 
         init {
             mDeviceAddressPrefixFilters = LinkedHashSet()
-            mServiceUuids = LinkedHashSet()
-            mDeviceNamesLowerCase = LinkedHashSet()
+            mDeviceAddressPrefixes = IntArray(0)
+            mServiceUuids = mutableListOf()
+            mServiceUuidBits = LongArray(0)
+            mDeviceNamesLowerCase = mutableListOf()
+            mManufacturerData = mutableListOf()
+            mServiceData = mutableListOf()
         }
     }
 
     abstract class BleDeviceParser(
         private val TAG: String,
         protected val debugModelName: String,
-        private val configuration: Configuration
+        val configuration: Configuration
     ) {
         private val debugModelHashTag = "#${debugModelName.toUpperCase(Locale.ROOT)}"
 
+        /**
+         * Prefers the already parsed [ScanRecord.getDeviceName]; [BluetoothDevice.getName] is a binder call that
+         * allocates a new String every time.
+         */
         fun getDeviceNameOrScanRecordName(bluetoothDevice: BluetoothDevice?, scanRecord: ScanRecord?): String? {
             var name: String? = null
-            if (bluetoothDevice != null) {
-                name = bluetoothDevice.name
+            if (scanRecord != null) {
+                name = scanRecord.deviceName
             }
             if (Utils.isNullOrEmpty(name)) {
-                if (scanRecord != null) {
-                    name = scanRecord.deviceName
+                if (bluetoothDevice != null) {
+                    name = bluetoothDevice.name
                 }
             }
             return name
@@ -127,6 +336,10 @@ class BleToolParser(
             return configuration.isSupportedDeviceAddressPrefix(bluetoothDevice)
         }
 
+        fun isSupportedDeviceAddressPrefix(macAddress: Long): Boolean {
+            return configuration.isSupportedDeviceAddressPrefix(BleParserDispatchIndex.getMacAddressPrefix(macAddress))
+        }
+
         fun isSupportedDeviceName(deviceName: String?): Boolean {
             return configuration.isSupportedDeviceName(deviceName)
         }
@@ -135,6 +348,10 @@ class BleToolParser(
             return configuration.isSupportedServices(serviceUuids)
         }
 
+        protected fun log(logLevel: Int, macAddress: Long, methodName: String, message: String) {
+            log(logLevel, BluetoothUtils.macAddressLongToString(macAddress), methodName, message)
+        }
+
         protected fun log(logLevel: Int, macAddress: String, methodName: String, message: String) {
             @Suppress("NAME_SHADOWING") val message = "$macAddress $methodName: $debugModelHashTag $message"
             when (logLevel) {
@@ -147,13 +364,125 @@ class BleToolParser(
 
         abstract val modelNumber: Int
 
+        /**
+         * Called on the BleTool looper for every manufacturer specific data entry routed to this parser.
+         * Implementations should not allocate on the recognized path: set primitives on frame, and compare primitives
+         * instead of Strings/UUIDs.
+         *
+         * @param macAddress the same address as bluetoothDevice, as a long
+         * @param manufacturerSpecificData positioned at the start of the entry's data
+         * @param frame cleared; set every value parsed; only valid until the next call
+         */
         abstract fun parseScan(
             scanRecord: ScanRecord,
             bluetoothDevice: BluetoothDevice,
-            serviceUuids: MutableList<ParcelUuid>,
+            macAddress: Long,
+            serviceUuids: List<ParcelUuid>?,
+            manufacturerId: Int,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
+        ): Boolean
+    }
+
+    /**
+     * A [BleDeviceParser] that reads the raw advertisement through an [AdStructureCursor] instead of the
+     * [ScanRecord]'s decoded (and allocated) fields, so it depends on no Android framework types and can be tested and
+     * benchmarked on a plain JVM with byte array fixtures.
+     */
+    abstract class RawBleDeviceParser(
+        TAG: String,
+        debugModelName: String,
+        configuration: Configuration
+    ) : BleDeviceParser(TAG, debugModelName, configuration) {
+        private val advertisement = AdStructureCursor()
+
+        /**
+         * @param cachedDeviceName the name the Bluetooth stack has for the device (ex: from its scan response), only
+         * compared if the advertisement itself has no name
+         */
+        fun isSupportedDeviceName(advertisement: AdStructureCursor, cachedDeviceName: String? = null): Boolean {
+            return if (advertisement.hasLocalName()) {
+                configuration.isSupportedDeviceName(advertisement)
+            } else {
+                configuration.isSupportedDeviceName(cachedDeviceName)
+            }
+        }
+
+        fun isSupportedServices(advertisement: AdStructureCursor): Boolean {
+            return configuration.isSupportedServices(advertisement)
+        }
+
+        /**
+         * @return a new parser with the same configuration and no mutable state shared with this one, so that
+         * [BleBatchParser] can parse on several threads at once; null (the default) if this parser can only ever be
+         * used on the BleTool looper
+         */
+        open fun newInstance(): RawBleDeviceParser? = null
+
+        /**
+         * Only called if something other than [BleToolParser] has a [ScanRecord] in hand; [BleToolParser] calls
+         * [identify] and [decode] directly.
+         */
+        final override fun parseScan(
+            scanRecord: ScanRecord,
+            bluetoothDevice: BluetoothDevice,
+            macAddress: Long,
+            serviceUuids: List<ParcelUuid>?,
+            manufacturerId: Int,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
+        ): Boolean {
+            val advertisement = advertisement.reset(scanRecord.bytes)
+            val cachedDeviceName = if (advertisement.hasLocalName()) null else bluetoothDevice.name
+            return parseScan(macAddress, advertisement, manufacturerId, manufacturerSpecificData, frame, cachedDeviceName)
+        }
+
+        /**
+         * Same contract as the [ScanRecord] overload; [identify], then [decode].
+         *
+         * @param advertisement the whole advertisement, positioned at the manufacturer specific data
+         * @param cachedDeviceName see [identify]
+         */
+        fun parseScan(
+            macAddress: Long,
+            advertisement: AdStructureCursor,
+            manufacturerId: Int,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame,
+            cachedDeviceName: String? = null
+        ): Boolean {
+            return identify(macAddress, advertisement, manufacturerId, cachedDeviceName) &&
+                    decode(macAddress, manufacturerId, manufacturerSpecificData, frame)
+        }
+
+        /**
+         * Whether the advertisement is from a device this parser supports, judged only by what does not change between
+         * advertisements of the same kind from the same device: address, name, service UUIDs, and manufacturer ID.
+         * [BleToolParser] caches the result per device and [AdStructureCursor.signature], so this is called about once
+         * per device, not once per advertisement.
+         * Defaults to [isSupportedDeviceAddressPrefix].
+         *
+         * @param advertisement the whole advertisement; use only its position preserving queries
+         * ([AdStructureCursor.isLocalName], [AdStructureCursor.hasServiceUuid]), never move it
+         * @param cachedDeviceName [android.bluetooth.BluetoothDevice.getName] if the advertisement has no name of its
+         * own and the device is known; see [isSupportedDeviceName]
+         */
+        open fun identify(macAddress: Long, advertisement: AdStructureCursor, manufacturerId: Int, cachedDeviceName: String? = null): Boolean {
+            return isSupportedDeviceAddressPrefix(macAddress)
+        }
+
+        /**
+         * Parses the manufacturer specific data of an advertisement already [identify]d; called for every
+         * advertisement, with the same contract as [parseScan].
+         *
+         * @param manufacturerId the manufacturer ID, or, for service data routed by [Configuration.addServiceData], the
+         * [getServiceDataKey] of its 16 bit service UUID; manufacturerSpecificData is then the service data after the UUID
+         */
+        abstract fun decode(
+            macAddress: Long,
             manufacturerId: Int,
-            manufacturerSpecificDataByteBuffer: ByteBuffer,
-            triggers: MutableSet<Trigger<*>>
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
         ): Boolean
     }
 
@@ -175,100 +504,258 @@ class BleToolParser(
         }
     }
 
-    fun parseScan(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): BleDevice? {
-        val bleScanResult = item.value
-        val scanResult = bleScanResult.scanResult
-        val bluetoothDevice = scanResult.device
+    private val dispatchIndex = BleParserDispatchIndex(descriptors)
+    private val identificationCache = BleIdentificationCache()
 
-        val scanRecord = scanResult.scanRecord ?: return null
+    /**
+     * By descriptor index; null until first needed
+     */
+    private val parsers = arrayOfNulls<BleDeviceParser>(descriptors.size)
+
+    val parserDescriptors: List<BleParserDescriptor>
+        get() = descriptors.asList()
 
-        var parser: BleDeviceParser? = null
-        val triggers = mutableSetOf<Trigger<*>>()
-        val it = parsers.iterator()
-        while (it.hasNext()) {
-            parser = it.next()
-            triggers.clear()
-            if (parseScan(parser, bluetoothDevice, scanRecord, triggers)) {
-                break
+    /**
+     * @return a BleToolParser over the same descriptors, but with parsers of its own, for another thread (see
+     * [BleBatchParser]); null if any descriptor can not create another parser
+     */
+    fun newWorker(): BleToolParser? {
+        val worker = BleToolParser(deviceFactory, descriptors, false)
+        for (i in descriptors.indices) {
+            val descriptor = descriptors[i]
+            if (descriptor.isEager) {
+                // Already instantiated, so only now can tell if it supports another instance
+                worker.parsers[i] = descriptor.newParser() ?: return null
             }
-            parser = null
         }
+        return worker
+    }
+
+    private fun getParser(index: Int): BleDeviceParser {
+        var parser = parsers[index]
+        if (parser == null) {
+            val descriptor = descriptors[index]
+            parser = if (isShared) descriptor.getParser() else descriptor.newParser()!!
+            parsers[index] = parser
+        }
+        return parser
+    }
+
+    //
+    // Reused for every advertisement; parseScan is only ever called on the BleTool looper
+    //
+    private val advertisement = AdStructureCursor()
+    private val reader = ByteArrayReader()
+    private val frame = TriggerFrame()
+
+    fun parseScan(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): BleDevice? {
+        val scanResult = item.value.scanResult
+        val scanRecord = scanResult.scanRecord ?: return null
+        val parser = parseAdvertisement(item.key, scanRecord.bytes, frame, scanRecord, scanResult.device)
+        return apply(item, parser, frame)
+    }
+
+    /**
+     * The device half of [parseScan], for an advertisement already identified by [parseAdvertisement], possibly by
+     * another BleToolParser on another thread (see [BleBatchParser]).
+     * Only ever called on the BleTool looper.
+     *
+     * @param parser the parser that recognized the advertisement, or null if none did
+     * @param frame filled by [parseAdvertisement]; the rssi is added to it
+     */
+    fun apply(
+        item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>,
+        parser: BleDeviceParser?,
+        frame: TriggerFrame
+    ): BleDevice? {
+        val bleScanResult = item.value
+        val scanResult = bleScanResult.scanResult
+        if (scanResult.scanRecord == null) {
+            return null
+        }
+
         if (parser == null) {
             if (LOG_PARSER) {
                 Log.v(TAG, "parseScan: no parser recognized the scanned device; ignoring")
             }
+            bleScanResult.changedMask = TriggerFrame.ALL
             return null
         }
 
-        // We have a parser; Always ensure rssi trigger
-        triggers.add(TriggerSignalLevelRssi(scanResult.rssi))
+        // We have a parser; Always ensure rssi
+        frame.setSignalLevelRssi(scanResult.rssi)
 
         if (LOG_PARSER) {
             Log.v(TAG, "parseScan: parser=$parser")
-            Log.v(TAG, "parseScan: triggers(" + triggers.size + ")=$triggers")
+            Log.v(TAG, "parseScan: frame=$frame")
         }
 
-        val device = deviceFactory.getDevice(bluetoothDevice, parser, triggers)
+        val device = deviceFactory.getDevice(item.key, parser, frame)
         if (LOG_PARSER) {
             Log.v(TAG, "parseScan: device=$device")
         }
 
-        if (device is PebblebeeDevice) {
-            device.update(triggers)
+        bleScanResult.changedMask = bleScanResult.changedMask or if (device is TriggerFrameDevice) {
+            device.update(frame)
+        } else {
+            TriggerFrame.ALL
         }
 
         return device
     }
 
-    private fun parseScan(
-        parser: BleDeviceParser,
-        bluetoothDevice: BluetoothDevice,
-        scanRecord: ScanRecord,
-        triggers: MutableSet<Trigger<*>>
-    ): Boolean {
-        val bluetoothDeviceMacAddress: String = bluetoothDevice.address
-
-        val debugInfo = "$bluetoothDeviceMacAddress parseScan"
-
-        val serviceUuids = scanRecord.serviceUuids
-        val serviceData = scanRecord.serviceData
-        val manufacturerSpecificData = scanRecord.manufacturerSpecificData
-
-        for (i in 0 until manufacturerSpecificData.size()) {
-
-            val manufacturerId = manufacturerSpecificData.keyAt(i)
-            val manufacturerSpecificDataBytes = manufacturerSpecificData.get(manufacturerId)
-            val manufacturerSpecificDataByteBuffer = ByteBuffer.wrap(manufacturerSpecificDataBytes)
-
-            manufacturerSpecificDataByteBuffer.rewind()
-
-            @Suppress("CanBeVal")
-            var logVerbose = false
-            @Suppress("ControlFlowWithEmptyBody")
-            if (LOG_PARSER) {
-                //logVerbose = logVerbose or ((parser is PebblebeeDeviceFinder2.Parser))// and (manufacturerSpecificDataByteBuffer.limit() > 5))
-            }
-            if (logVerbose) {
-                Log.e(TAG, "$debugInfo: serviceUuids=$serviceUuids")
-                Log.e(TAG, "$debugInfo:  serviceData=$serviceData")
-                logManufacturerSpecificData(Log.DEBUG, TAG, debugInfo, manufacturerSpecificData)
+    /**
+     * Identifies and parses one raw advertisement, without touching any device; the part of [parseScan] that runs on
+     * a plain JVM.
+     * Malformed advertisements are rejected, never thrown.
+     * Which parser identified each kind of advertisement from each device is cached (see [BleIdentificationCache]), so
+     * after the first one only [RawBleDeviceParser.decode] runs.
+     *
+     * @param advertisementBytes same as [ScanRecord.getBytes]
+     * @param frame cleared, then filled with the values of the recognized advertisement
+     * @param scanRecord only needed by parsers that are not [RawBleDeviceParser]s; they are skipped if null
+     * @param bluetoothDevice only needed by parsers that are not [RawBleDeviceParser]s; they are skipped if null
+     * @return the parser that recognized the advertisement, or null
+     */
+    fun parseAdvertisement(
+        macAddress: Long,
+        advertisementBytes: ByteArray?,
+        frame: TriggerFrame,
+        scanRecord: ScanRecord? = null,
+        bluetoothDevice: BluetoothDevice? = null
+    ): BleDeviceParser? {
+        val advertisement = advertisement.reset(advertisementBytes)
+        val signature = advertisement.signature
+
+        val parserIndex = identificationCache.get(macAddress, signature)
+        if (parserIndex == BleIdentificationCache.NO_MATCH) {
+            frame.clear()
+            return null
+        }
+        if (parserIndex != BleIdentificationCache.MISS) {
+            val parser = getParser(parserIndex)
+            advertisement.moveTo(identificationCache.position)
+            frame.clear()
+            if (parseScan(parser, true, bluetoothDevice, null, macAddress, scanRecord, advertisement, getDispatchKey(advertisement), frame) == DECODED) {
+                return parser
             }
+            // Identified, but not decoded (ex: an iBeacon of an unsupported region); fall back to trying every candidate
+            advertisement.moveToStart()
+        }
 
-            if (!parser.parseScan(scanRecord, bluetoothDevice, serviceUuids, manufacturerId, manufacturerSpecificDataByteBuffer, triggers)) {
+        var isIdentified = false
+        // The name may only be in the scan response, or only cached by the stack; one lookup per cache miss
+        val cachedDeviceName = if (bluetoothDevice != null && !advertisement.hasLocalName()) bluetoothDevice.name else null
+        val macAddressPrefix = BleParserDispatchIndex.getMacAddressPrefix(macAddress)
+        while (advertisement.moveToNext()) {
+            val manufacturerId = getDispatchKey(advertisement)
+            if (manufacturerId == -1) {
                 continue
             }
+            val candidates = dispatchIndex.get(manufacturerId)
+            for (candidateIndex in candidates) {
+                // Before getParser, so that a parser is never instantiated for a device it does not support
+                if (!descriptors[candidateIndex].isSupportedMacAddressPrefix(macAddressPrefix)) {
+                    continue
+                }
+                val candidate = getParser(candidateIndex)
+                if (!candidate.configuration.isSupportedDeviceAddressPrefix(macAddressPrefix)) {
+                    continue
+                }
+                frame.clear()
+                when (parseScan(candidate, false, bluetoothDevice, cachedDeviceName, macAddress, scanRecord, advertisement, manufacturerId, frame)) {
+                    DECODED -> {
+                        identificationCache.put(macAddress, signature, candidateIndex, advertisement.position)
+                        return candidate
+                    }
+                    IDENTIFIED -> isIdentified = true
+                }
+            }
+        }
+        // Not if a parser may have needed a name that the stack has not cached yet; the signature does not include it
+        val isNameMissing = bluetoothDevice != null && cachedDeviceName == null && !advertisement.hasLocalName()
+        if (!isIdentified && !isNameMissing) {
+            identificationCache.put(macAddress, signature, BleIdentificationCache.NO_MATCH, 0)
+        }
+        frame.clear()
+        return null
+    }
 
-            val position = manufacturerSpecificDataByteBuffer.position()
-            val length = manufacturerSpecificDataByteBuffer.limit()
-            val remaining = length - position
-            if (remaining > 0) {
-                Log.w(TAG, "$debugInfo: manufacturerSpecificData $remaining unprocessed bytes")
-                logManufacturerSpecificData(Log.WARN, TAG, debugInfo, manufacturerSpecificData)
+    /**
+     * @param isIdentified true to skip [RawBleDeviceParser.identify]
+     * @param cachedDeviceName passed to [RawBleDeviceParser.identify]
+     * @return [UNIDENTIFIED], [IDENTIFIED] (but not decoded), or [DECODED]
+     */
+    private fun parseScan(
+        parser: BleDeviceParser,
+        isIdentified: Boolean,
+        bluetoothDevice: BluetoothDevice?,
+        cachedDeviceName: String?,
+        macAddress: Long,
+        scanRecord: ScanRecord?,
+        advertisement: AdStructureCursor,
+        manufacturerId: Int,
+        frame: TriggerFrame
+    ): Int {
+        val reader = if (isServiceDataKey(manufacturerId)) {
+            advertisement.readServiceData(reader)
+        } else {
+            advertisement.readManufacturerSpecificData(reader)
+        }
+
+        @Suppress("CanBeVal")
+        var logVerbose = false
+        @Suppress("ControlFlowWithEmptyBody")
+        if (LOG_PARSER) {
+            //logVerbose = logVerbose or ((parser is PebblebeeDeviceFinder2.Parser))// and (reader.limit > 5))
+        }
+        if (logVerbose && scanRecord != null) {
+            val debugInfo = "${BluetoothUtils.macAddressLongToString(macAddress)} parseScan"
+            Log.e(TAG, "$debugInfo: serviceUuids=${scanRecord.serviceUuids}")
+            Log.e(TAG, "$debugInfo:  serviceData=${scanRecord.serviceData}")
+            logManufacturerSpecificData(Log.DEBUG, TAG, debugInfo, scanRecord.manufacturerSpecificData)
+        }
+
+        //
+        // Only a RawBleDeviceParser can tell an unidentified device from an undecoded advertisement; anything else that
+        // fails counts as IDENTIFIED, so that it is never cached as BleIdentificationCache.NO_MATCH
+        //
+        val result = try {
+            if (parser is RawBleDeviceParser) {
+                if (!isIdentified && !parser.identify(macAddress, advertisement, manufacturerId, cachedDeviceName)) {
+                    UNIDENTIFIED
+                } else if (parser.decode(macAddress, manufacturerId, reader, frame)) {
+                    DECODED
+                } else {
+                    IDENTIFIED
+                }
+            } else if (scanRecord != null && bluetoothDevice != null) {
+                if (parser.parseScan(scanRecord, bluetoothDevice, macAddress, scanRecord.serviceUuids, manufacturerId, reader, frame)) {
+                    DECODED
+                } else {
+                    IDENTIFIED
+                }
+            } else {
+                IDENTIFIED
             }
+        } catch (e: RuntimeException) {
+            // A parser bug or a malformed advertisement must never take down the scan pipeline
+            Log.w(TAG, "${BluetoothUtils.macAddressLongToString(macAddress)} parseScan: $parser threw; ignoring", e)
+            IDENTIFIED
+        }
+        if (result != DECODED) {
+            return result
+        }
 
-            return true
+        val remaining = reader.remaining()
+        if (remaining > 0) {
+            val debugInfo = "${BluetoothUtils.macAddressLongToString(macAddress)} parseScan"
+            Log.w(TAG, "$debugInfo: manufacturerSpecificData $remaining unprocessed bytes")
+            if (scanRecord != null) {
+                logManufacturerSpecificData(Log.WARN, TAG, debugInfo, scanRecord.manufacturerSpecificData)
+            }
         }
 
-        return false
+        return DECODED
     }
-}
\ No newline at end of file
+}
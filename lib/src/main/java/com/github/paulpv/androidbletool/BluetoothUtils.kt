@@ -181,8 +181,23 @@ object BluetoothUtils {
             throw new IllegalArgumentException("macAddress (" + PbString.quote(macAddress) + ") must be of format \"%02X:%02X:%02X:%02X:%02X:%02X\"");
         }
         */
-        @Suppress("NAME_SHADOWING") val macAddress = macAddressStringToStrippedLowerCaseString(macAddress)
-        return java.lang.Long.parseLong(macAddress, 16)
+        if (macAddress == null) {
+            return 0
+        }
+        // Parsed by hand; called for every advertisement and must not allocate
+        var value = 0L
+        for (i in 0 until macAddress.length) {
+            val c = macAddress[i]
+            if (c == ':') {
+                continue
+            }
+            val digit = Character.digit(c, 16)
+            if (digit < 0) {
+                throw NumberFormatException("macAddress ${Utils.quote(macAddress)} invalid character ${Utils.quote(c.toString())}")
+            }
+            value = value shl 4 or digit.toLong()
+        }
+        return value
     }
 
     @Suppress("MemberVisibilityCanBePrivate")
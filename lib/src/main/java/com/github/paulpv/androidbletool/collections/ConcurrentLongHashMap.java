@@ -0,0 +1,437 @@
+package com.github.paulpv.androidbletool.collections;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent hash map of primitive long keys, for registries that are read on every advertisement but written only
+ * about once per device.
+ * <ul>
+ * <li>{@link #get(long)} never locks and never allocates: no boxing, and no entry object per mapping</li>
+ * <li>Writes lock only one of {@link #SEGMENT_COUNT} segments, chosen by the key's hash</li>
+ * <li>{@link #getOrAdd(long, Object)} is atomic, so a value can be built outside of any lock and then offered; every
+ * caller gets back the one value that won</li>
+ * <li>Null values are not allowed</li>
+ * </ul>
+ * <p>
+ * Each segment is an open addressed table of two parallel atomic arrays. A writer publishes a value before its key,
+ * so a reader that sees a key also sees its value. A removal nulls the value but leaves the key, so the slot is reused
+ * if the key comes back; removed slots are dropped the next time the segment is rehashed. A rehash builds a new table
+ * and publishes it with one volatile write, so readers still probing the old table see a consistent snapshot.
+ * The key 0 is kept outside of the tables, so it needs no sentinel.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ConcurrentLongHashMap<V> {
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_CAPACITY_MIN = 8;
+
+    public interface Factory<V> {
+        /**
+         * May be called by several threads at once for the same key; only one result is kept, so it must have no side
+         * effects that need undoing
+         */
+        @NonNull
+        V create(long key);
+    }
+
+    private static final class Table<V> {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<V> values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment<V> {
+        volatile Table<V> table = new Table<>(SEGMENT_CAPACITY_MIN);
+        /**
+         * Slots with a key, including removed ones; guarded by this
+         */
+        int used;
+        volatile int size;
+    }
+
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private final Segment<V>[] mSegments;
+    private final AtomicReference<V> mZeroValue = new AtomicReference<>();
+
+    public ConcurrentLongHashMap() {
+        //noinspection unchecked
+        mSegments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new Segment<>();
+        }
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return mSegments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)];
+    }
+
+    public int size() {
+        int size = mZeroValue.get() != null ? 1 : 0;
+        for (Segment<V> segment : mSegments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Never locks, and never allocates
+     */
+    @Nullable
+    public V get(long key) {
+        if (key == 0) {
+            return mZeroValue.get();
+        }
+        long hash = hash(key);
+        Table<V> table = segmentFor(hash).table;
+        int i = (int) hash & table.mask;
+        while (true) {
+            long k = table.keys.get(i);
+            if (k == key) {
+                return table.values.get(i);
+            }
+            if (k == 0) {
+                return null;
+            }
+            i = (i + 1) & table.mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the value already mapped to key if there is one, otherwise value after mapping it to key
+     */
+    @NonNull
+    public V getOrAdd(long key, @NonNull V value) {
+        //noinspection ConstantConditions
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        if (key == 0) {
+            while (true) {
+                V existing = mZeroValue.get();
+                if (existing != null) {
+                    return existing;
+                }
+                if (mZeroValue.compareAndSet(null, value)) {
+                    return value;
+                }
+            }
+        }
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        long hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            existing = put(segment, hash, key, value, true);
+            return existing != null ? existing : value;
+        }
+    }
+
+    /**
+     * Lock free if key is already mapped; otherwise the factory runs outside of any lock, and its value is offered to
+     * {@link #getOrAdd(long, Object)}
+     *
+     * @return the value mapped to key
+     */
+    @NonNull
+    public V getOrCreate(long key, @NonNull Factory<V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return getOrAdd(key, factory.create(key));
+    }
+
+    /**
+     * @return the previous value, or null
+     */
+    @Nullable
+    public V put(long key, @NonNull V value) {
+        //noinspection ConstantConditions
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        if (key == 0) {
+            return mZeroValue.getAndSet(value);
+        }
+        long hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            return put(segment, hash, key, value, false);
+        }
+    }
+
+    /**
+     * Must be called while holding segment's lock
+     *
+     * @return the previous value, or null
+     */
+    private V put(Segment<V> segment, long hash, long key, V value, boolean onlyIfAbsent) {
+        Table<V> table = segment.table;
+        int i = (int) hash & table.mask;
+        while (true) {
+            long k = table.keys.get(i);
+            if (k == key) {
+                V previous = table.values.get(i);
+                if (previous == null) {
+                    table.values.set(i, value);
+                    segment.size++;
+                } else if (!onlyIfAbsent) {
+                    table.values.set(i, value);
+                }
+                return previous;
+            }
+            if (k == 0) {
+                if ((segment.used + 1) * 2 > table.keys.length()) {
+                    table = rehash(segment);
+                    i = (int) hash & table.mask;
+                    continue;
+                }
+                // Value before key; see class comment
+                table.values.set(i, value);
+                table.keys.set(i, key);
+                segment.used++;
+                segment.size++;
+                return null;
+            }
+            i = (i + 1) & table.mask;
+        }
+    }
+
+    /**
+     * Must be called while holding segment's lock
+     */
+    private Table<V> rehash(Segment<V> segment) {
+        Table<V> oldTable = segment.table;
+        int capacity = SEGMENT_CAPACITY_MIN;
+        while (capacity < (segment.size + 1) * 4) {
+            capacity <<= 1;
+        }
+        Table<V> table = new Table<>(capacity);
+        int used = 0;
+        for (int j = 0; j < oldTable.keys.length(); j++) {
+            V value = oldTable.values.get(j);
+            if (value == null) {
+                continue;
+            }
+            long key = oldTable.keys.get(j);
+            int i = (int) hash(key) & table.mask;
+            while (table.keys.get(i) != 0) {
+                i = (i + 1) & table.mask;
+            }
+            table.values.set(i, value);
+            table.keys.set(i, key);
+            used++;
+        }
+        segment.used = used;
+        segment.table = table;
+        return table;
+    }
+
+    /**
+     * @return true if key was mapped to expected, and is now mapped to value
+     */
+    public boolean replace(long key, @NonNull V expected, @NonNull V value) {
+        //noinspection ConstantConditions
+        if (expected == null || value == null) {
+            throw new IllegalArgumentException("expected and value must not be null");
+        }
+        if (key == 0) {
+            return mZeroValue.compareAndSet(expected, value);
+        }
+        long hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            Table<V> table = segment.table;
+            int i = indexOf(table, hash, key);
+            if (i == -1 || table.values.get(i) != expected) {
+                return false;
+            }
+            table.values.set(i, value);
+            return true;
+        }
+    }
+
+    /**
+     * @return the removed value, or null
+     */
+    @Nullable
+    public V remove(long key) {
+        return remove(key, null);
+    }
+
+    /**
+     * @param expected if not null, only remove key if it is mapped to expected
+     * @return the removed value, or null
+     */
+    @Nullable
+    public V remove(long key, @Nullable V expected) {
+        if (key == 0) {
+            while (true) {
+                V value = mZeroValue.get();
+                if (value == null || (expected != null && value != expected)) {
+                    return null;
+                }
+                if (mZeroValue.compareAndSet(value, null)) {
+                    return value;
+                }
+            }
+        }
+        long hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            Table<V> table = segment.table;
+            int i = indexOf(table, hash, key);
+            if (i == -1) {
+                return null;
+            }
+            V value = table.values.get(i);
+            if (value == null || (expected != null && value != expected)) {
+                return null;
+            }
+            table.values.set(i, null);
+            segment.size--;
+            return value;
+        }
+    }
+
+    private static <V> int indexOf(Table<V> table, long hash, long key) {
+        int i = (int) hash & table.mask;
+        while (true) {
+            long k = table.keys.get(i);
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            i = (i + 1) & table.mask;
+        }
+    }
+
+    public void clear() {
+        mZeroValue.set(null);
+        for (Segment<V> segment : mSegments) {
+            synchronized (segment) {
+                segment.table = new Table<>(SEGMENT_CAPACITY_MIN);
+                segment.used = 0;
+                segment.size = 0;
+            }
+        }
+    }
+
+    /**
+     * Weakly consistent, like {@link java.util.concurrent.ConcurrentHashMap}'s iterators: never throws
+     * {@link java.util.ConcurrentModificationException}, and may or may not reflect changes made while iterating.
+     * {@link Iterator#remove()} only removes the key if it is still mapped to the value last returned.
+     */
+    @NonNull
+    public Iterator<V> iterateValues() {
+        return new ValueIterator();
+    }
+
+    private class ValueIterator implements Iterator<V> {
+        private int mSegmentIndex = -1;
+        private Table<V> mTable;
+        private int mIndex;
+        private long mNextKey;
+        private V mNextValue;
+        private long mLastKey;
+        private V mLastValue;
+
+        ValueIterator() {
+            mNextValue = mZeroValue.get();
+            if (mNextValue == null) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            while (true) {
+                if (mTable != null) {
+                    while (mIndex < mTable.keys.length()) {
+                        int i = mIndex++;
+                        long key = mTable.keys.get(i);
+                        V value = mTable.values.get(i);
+                        if (key != 0 && value != null) {
+                            mNextKey = key;
+                            mNextValue = value;
+                            return;
+                        }
+                    }
+                }
+                if (++mSegmentIndex == SEGMENT_COUNT) {
+                    mNextValue = null;
+                    return;
+                }
+                mTable = mSegments[mSegmentIndex].table;
+                mIndex = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNextValue != null;
+        }
+
+        @Override
+        public V next() {
+            if (mNextValue == null) {
+                throw new NoSuchElementException();
+            }
+            mLastKey = mNextKey;
+            mLastValue = mNextValue;
+            advance();
+            return mLastValue;
+        }
+
+        @Override
+        public void remove() {
+            if (mLastValue == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentLongHashMap.this.remove(mLastKey, mLastValue);
+            mLastValue = null;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        Iterator<V> it = iterateValues();
+        while (it.hasNext()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(it.next());
+        }
+        return sb.append('}').toString();
+    }
+}
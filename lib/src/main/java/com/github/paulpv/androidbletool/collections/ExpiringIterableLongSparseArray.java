@@ -658,6 +658,17 @@ public class ExpiringIterableLongSparseArray<V> {
         return value;
     }
 
+    /**
+     * @param key key
+     * @return the ItemWrapper mapped from the specified key, or null if no such mapping has been made
+     */
+    @Nullable
+    public ItemWrapper<V> getItem(long key) {
+        synchronized (mSyncLock) {
+            return mMapItems.get(key, null); // binarySearch
+        }
+    }
+
     /**
      * @see IterableLongSparseArray#delete(long)
      */
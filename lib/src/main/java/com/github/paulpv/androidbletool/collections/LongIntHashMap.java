@@ -0,0 +1,211 @@
+package com.github.paulpv.androidbletool.collections;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Open addressed hash map of primitive long keys to primitive int values, such as mac addresses to table slots.
+ * <ul>
+ * <li>No boxing, and no entry object per mapping; {@link #get(long, int)} and {@link #put(long, int)} only allocate
+ * when the table grows</li>
+ * <li>Linear probing over two parallel arrays; the key 0 is tracked separately, so it needs no sentinel</li>
+ * <li>{@link #remove(long)} shifts the following entries back instead of leaving a tombstone, so lookups never slow
+ * down as keys come and go</li>
+ * </ul>
+ * <p>
+ * Not thread safe; callers must provide their own synchronization.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LongIntHashMap {
+    private long[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize;
+    private boolean mContainsZero;
+    private int mZeroValue;
+
+    public LongIntHashMap() {
+        this(8);
+    }
+
+    /**
+     * @param initialCapacity initialCapacity
+     */
+    public LongIntHashMap(int initialCapacity) {
+        int capacity = 4;
+        while (capacity < initialCapacity * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        return (int) (hash ^ (hash >>> 16)) & mMask;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return mContainsZero;
+        }
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return the value mapped to key, or valueIfAbsent
+     */
+    public int get(long key, int valueIfAbsent) {
+        if (key == 0) {
+            return mContainsZero ? mZeroValue : valueIfAbsent;
+        }
+        int i = indexOf(key);
+        return i != -1 ? mValues[i] : valueIfAbsent;
+    }
+
+    private int indexOf(long key) {
+        int i = slot(key);
+        while (true) {
+            long k = mKeys[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    /**
+     * @return true if key was added, false if key was already present and its value replaced
+     */
+    public boolean put(long key, int value) {
+        if (key == 0) {
+            mZeroValue = value;
+            if (mContainsZero) {
+                return false;
+            }
+            mContainsZero = true;
+            mSize++;
+            return true;
+        }
+        if ((mSize + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length << 1);
+        }
+        int i = slot(key);
+        while (true) {
+            long k = mKeys[i];
+            if (k == 0) {
+                mKeys[i] = key;
+                mValues[i] = value;
+                mSize++;
+                return true;
+            }
+            if (k == key) {
+                mValues[i] = value;
+                return false;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        allocate(capacity);
+        for (int j = 0; j < keys.length; j++) {
+            long key = keys[j];
+            if (key == 0) {
+                continue;
+            }
+            int i = slot(key);
+            while (mKeys[i] != 0) {
+                i = (i + 1) & mMask;
+            }
+            mKeys[i] = key;
+            mValues[i] = values[j];
+        }
+    }
+
+    /**
+     * @return true if key was removed, false if key was not present
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!mContainsZero) {
+                return false;
+            }
+            mContainsZero = false;
+            mSize--;
+            return true;
+        }
+        int i = indexOf(key);
+        if (i == -1) {
+            return false;
+        }
+        // Backward shift: move every following entry of the probe run that may fill the gap
+        int gap = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mMask;
+            long k = mKeys[j];
+            if (k == 0) {
+                break;
+            }
+            int home = slot(k);
+            // k can move to gap only if gap lies cyclically between k's home slot and j
+            if (((j - home) & mMask) >= ((j - gap) & mMask)) {
+                mKeys[gap] = k;
+                mValues[gap] = mValues[j];
+                gap = j;
+            }
+        }
+        mKeys[gap] = 0;
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Keeps the backing arrays, so the map can be refilled without allocating
+     */
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        mContainsZero = false;
+        mSize = 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        if (mContainsZero) {
+            sb.append(0).append('=').append(mZeroValue);
+        }
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(mKeys[i]).append('=').append(mValues[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.paulpv.androidbletool.collections;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open addressed hash set of primitive long pairs, such as the most and least significant bits of a {@link UUID}.
+ * <ul>
+ * <li>No boxing, and no {@link UUID} or String per lookup</li>
+ * <li>{@link #contains(long, long)} never allocates</li>
+ * <li>Linear probing over two parallel arrays; the pair (0, 0) is tracked separately, so it needs no sentinel</li>
+ * </ul>
+ * <p>
+ * Not thread safe; callers must provide their own synchronization.
+ * A set that is no longer modified can be read from any number of threads.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LongPairHashSet {
+    private long[] mFirsts;
+    private long[] mSeconds;
+    private int mMask;
+    private int mSize;
+    private boolean mContainsZero;
+
+    public LongPairHashSet() {
+        this(8);
+    }
+
+    /**
+     * @param initialCapacity initialCapacity
+     */
+    public LongPairHashSet(int initialCapacity) {
+        int capacity = 4;
+        while (capacity < initialCapacity * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mFirsts = new long[capacity];
+        mSeconds = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    private int slot(long first, long second) {
+        long hash = first * 0x9E3779B97F4A7C15L ^ second;
+        hash ^= hash >>> 32;
+        return (int) (hash ^ (hash >>> 16)) & mMask;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean add(@NonNull UUID uuid) {
+        return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return true if the pair was added, false if the pair was already present
+     */
+    public boolean add(long first, long second) {
+        if (first == 0 && second == 0) {
+            if (mContainsZero) {
+                return false;
+            }
+            mContainsZero = true;
+            mSize++;
+            return true;
+        }
+        if ((mSize + 1) * 2 > mFirsts.length) {
+            rehash(mFirsts.length << 1);
+        }
+        int i = slot(first, second);
+        while (true) {
+            long f = mFirsts[i];
+            long s = mSeconds[i];
+            if (f == 0 && s == 0) {
+                mFirsts[i] = first;
+                mSeconds[i] = second;
+                mSize++;
+                return true;
+            }
+            if (f == first && s == second) {
+                return false;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] firsts = mFirsts;
+        long[] seconds = mSeconds;
+        allocate(capacity);
+        for (int j = 0; j < firsts.length; j++) {
+            long first = firsts[j];
+            long second = seconds[j];
+            if (first == 0 && second == 0) {
+                continue;
+            }
+            int i = slot(first, second);
+            while (mFirsts[i] != 0 || mSeconds[i] != 0) {
+                i = (i + 1) & mMask;
+            }
+            mFirsts[i] = first;
+            mSeconds[i] = second;
+        }
+    }
+
+    public boolean contains(@NonNull UUID uuid) {
+        return contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public boolean contains(long first, long second) {
+        if (first == 0 && second == 0) {
+            return mContainsZero;
+        }
+        int i = slot(first, second);
+        while (true) {
+            long f = mFirsts[i];
+            long s = mSeconds[i];
+            if (f == first && s == second) {
+                return true;
+            }
+            if (f == 0 && s == 0) {
+                return false;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    /**
+     * Keeps the backing arrays, so the set can be refilled without allocating
+     */
+    public void clear() {
+        Arrays.fill(mFirsts, 0);
+        Arrays.fill(mSeconds, 0);
+        mContainsZero = false;
+        mSize = 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        if (mContainsZero) {
+            sb.append(new UUID(0, 0));
+        }
+        for (int i = 0; i < mFirsts.length; i++) {
+            if (mFirsts[i] == 0 && mSeconds[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(new UUID(mFirsts[i], mSeconds[i]));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.paulpv.androidbletool.collections;
+
+import androidx.annotation.NonNull;
+
+import com.github.paulpv.androidbletool.collections.IterableLongSparseArray.ContainerHelpers;
+
+/**
+ * Set of primitive longs kept in a single ascending sorted array, in the same spirit as
+ * {@link IterableLongSparseArray}.
+ * <ul>
+ * <li>No boxing of keys</li>
+ * <li>No per-add allocation once the backing array has grown to its working size</li>
+ * <li>{@link #clear()} keeps the backing array so the set can be refilled without allocating</li>
+ * <li>Iterate with {@link #size()} and {@link #keyAt(int)}; keys are always sorted</li>
+ * </ul>
+ * <p>
+ * Not thread safe; callers must provide their own synchronization.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LongSparseSet {
+    private long[] mKeys;
+    private int mSize;
+
+    public LongSparseSet() {
+        this(10);
+    }
+
+    /**
+     * @param initialCapacity initialCapacity
+     */
+    public LongSparseSet(int initialCapacity) {
+        if (initialCapacity == 0) {
+            mKeys = ContainerHelpers.EMPTY_LONGS;
+        } else {
+            mKeys = new long[ContainerHelpers.idealLongArraySize(initialCapacity)];
+        }
+        mSize = 0;
+    }
+
+    /**
+     * @param key key
+     * @return true if the key was added, false if the key was already present
+     */
+    public boolean add(long key) {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (i >= 0) {
+            return false;
+        }
+
+        i = ~i;
+
+        if (mSize >= mKeys.length) {
+            int n = ContainerHelpers.idealLongArraySize(mSize + 1);
+            long[] nkeys = new long[n];
+            System.arraycopy(mKeys, 0, nkeys, 0, mKeys.length);
+            mKeys = nkeys;
+        }
+
+        if (mSize - i != 0) {
+            System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        }
+
+        mKeys[i] = key;
+        mSize++;
+
+        return true;
+    }
+
+    /**
+     * @param key key
+     * @return true if the key was removed, false if the key was not present
+     */
+    public boolean remove(long key) {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * @param index index in the range <code>0...size()-1</code>
+     */
+    public void removeAt(int index) {
+        if (index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (mSize - index - 1 != 0) {
+            System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        }
+        mSize--;
+    }
+
+    public boolean contains(long key) {
+        return ContainerHelpers.binarySearch(mKeys, mSize, key) >= 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @param index index in the range <code>0...size()-1</code>
+     * @return key at index; keys are sorted in ascending order
+     */
+    public long keyAt(int index) {
+        if (index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mKeys[index];
+    }
+
+    /**
+     * Removes all keys; does not shrink the backing array.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (mSize <= 0) {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 20);
+        buffer.append('{');
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            buffer.append(mKeys[i]);
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+}
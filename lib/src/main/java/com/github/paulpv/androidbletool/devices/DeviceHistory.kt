@@ -0,0 +1,206 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.utils.TimeSeries
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Short history of one device's selected [Metrics], for charts and anomaly detection: one [TimeSeries] per metric.
+ *
+ * Histories are only created by a [Pool], which caps the memory of every history combined; a device that cannot get
+ * one simply has no history. Once created, [record] never allocates.
+ *
+ * Thread safe; recorded on the BleTool looper, and read from any thread.
+ */
+class DeviceHistory private constructor(
+    /**
+     * Bitwise or of [Metrics]
+     */
+    val metrics: Int,
+    rawCapacity: Int
+) {
+    companion object {
+        /**
+         * The pool every [com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDevice] takes its history from
+         */
+        @JvmStatic
+        val POOL = Pool(POOL_MAX_BYTES_DEFAULT)
+
+        /**
+         * About 100 devices with [Metrics.ALL]
+         */
+        const val POOL_MAX_BYTES_DEFAULT = 4L * 1024 * 1024
+
+        fun getSizeBytes(metrics: Int, rawCapacity: Int = TimeSeries.RAW_CAPACITY_DEFAULT): Int {
+            return Integer.bitCount(metrics and Metrics.ALL) * TimeSeries.getSizeBytes(rawCapacity)
+        }
+    }
+
+    /**
+     * Each a bit, so any combination can be recorded
+     */
+    object Metrics {
+        const val SIGNAL_LEVEL_RSSI = 1 shl 0
+        const val BATTERY_LEVEL_MILLI_VOLTS = 1 shl 1
+        const val TEMPERATURE_CELSIUS = 1 shl 2
+
+        const val ALL = SIGNAL_LEVEL_RSSI or BATTERY_LEVEL_MILLI_VOLTS or TEMPERATURE_CELSIUS
+
+        fun toString(metric: Int): String {
+            return when (metric) {
+                SIGNAL_LEVEL_RSSI -> "SIGNAL_LEVEL_RSSI"
+                BATTERY_LEVEL_MILLI_VOLTS -> "BATTERY_LEVEL_MILLI_VOLTS"
+                TEMPERATURE_CELSIUS -> "TEMPERATURE_CELSIUS"
+                else -> "UNKNOWN($metric)"
+            }
+        }
+    }
+
+    /**
+     * Hands out histories while their combined [sizeBytes] stays within maxBytes
+     *
+     * @param maxBytes may be changed at any time; histories already handed out are kept until [release]d
+     * @param metrics recorded by the histories handed out from then on
+     */
+    class Pool(
+        maxBytes: Long,
+        metrics: Int = Metrics.ALL,
+        rawCapacity: Int = TimeSeries.RAW_CAPACITY_DEFAULT
+    ) {
+        private val usedBytes = AtomicLong()
+        private val generation = AtomicInteger()
+
+        @Volatile
+        var maxBytes = maxBytes
+            set(value) {
+                field = value
+                generation.incrementAndGet()
+            }
+
+        @Volatile
+        var metrics = metrics
+            set(value) {
+                field = value
+                generation.incrementAndGet()
+            }
+
+        @Volatile
+        var rawCapacity = rawCapacity
+            set(value) {
+                field = value
+                generation.incrementAndGet()
+            }
+
+        val bytesUsed: Long
+            get() = usedBytes.get()
+
+        /**
+         * Changes whenever [tryCreate] may succeed where it last failed: on every [release], and every change of
+         * maxBytes, metrics, or rawCapacity. Read it before a failed [tryCreate], and only try again once it changed.
+         */
+        val generationCount: Int
+            get() = generation.get()
+
+        /**
+         * @return a new history, or null if the pool has no room for it or no metrics are selected
+         */
+        fun tryCreate(): DeviceHistory? {
+            val metrics = metrics
+            val rawCapacity = rawCapacity
+            val sizeBytes = getSizeBytes(metrics, rawCapacity).toLong()
+            if (sizeBytes == 0L) {
+                return null
+            }
+            while (true) {
+                val used = usedBytes.get()
+                if (used + sizeBytes > maxBytes) {
+                    return null
+                }
+                if (usedBytes.compareAndSet(used, used + sizeBytes)) {
+                    return DeviceHistory(metrics, rawCapacity)
+                }
+            }
+        }
+
+        /**
+         * Returns the history's bytes to the pool; the history must no longer be used
+         */
+        fun release(history: DeviceHistory) {
+            usedBytes.addAndGet(-history.sizeBytes.toLong())
+            generation.incrementAndGet()
+        }
+
+        override fun toString(): String {
+            return "{ maxBytes=$maxBytes, bytesUsed=$bytesUsed, metrics=$metrics, rawCapacity=$rawCapacity }"
+        }
+    }
+
+    private val signalLevelRssi = if ((metrics and Metrics.SIGNAL_LEVEL_RSSI) != 0) TimeSeries(rawCapacity) else null
+    private val batteryLevelMilliVolts = if ((metrics and Metrics.BATTERY_LEVEL_MILLI_VOLTS) != 0) TimeSeries(rawCapacity) else null
+    private val temperatureCelsius = if ((metrics and Metrics.TEMPERATURE_CELSIUS) != 0) TimeSeries(rawCapacity) else null
+
+    val sizeBytes = getSizeBytes(metrics, rawCapacity)
+
+    private fun getTimeSeries(metric: Int): TimeSeries? {
+        return when (metric) {
+            Metrics.SIGNAL_LEVEL_RSSI -> signalLevelRssi
+            Metrics.BATTERY_LEVEL_MILLI_VOLTS -> batteryLevelMilliVolts
+            Metrics.TEMPERATURE_CELSIUS -> temperatureCelsius
+            else -> throw IllegalArgumentException("metric must be one of Metrics")
+        }
+    }
+
+    /**
+     * Records every selected metric that is present in frame
+     *
+     * @param frame one parsed advertisement, before it is merged into the device's frame
+     */
+    fun record(frame: TriggerFrame, elapsedMillis: Long) {
+        synchronized(this) {
+            if (signalLevelRssi != null && frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI)) {
+                signalLevelRssi.add(elapsedMillis, frame.signalLevelRssi)
+            }
+            if (batteryLevelMilliVolts != null && frame.has(TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS)) {
+                batteryLevelMilliVolts.add(elapsedMillis, frame.batteryLevelMilliVolts.toInt())
+            }
+            if (temperatureCelsius != null && frame.has(TriggerFrame.TEMPERATURE_CELSIUS)) {
+                temperatureCelsius.add(elapsedMillis, frame.temperatureCelsius.toInt())
+            }
+        }
+    }
+
+    /**
+     * See [TimeSeries.getRaw]; 0 if metric is not recorded
+     */
+    fun getRaw(metric: Int, sinceElapsedMillis: Long, outElapsedMillis: LongArray, outValues: IntArray): Int {
+        synchronized(this) {
+            return getTimeSeries(metric)?.getRaw(sinceElapsedMillis, outElapsedMillis, outValues) ?: 0
+        }
+    }
+
+    /**
+     * See [TimeSeries.getBuckets]; 0 if metric is not recorded
+     */
+    fun getBuckets(metric: Int, resolution: TimeSeries.Resolution, nowElapsedMillis: Long, outMeans: IntArray, outCounts: IntArray? = null): Int {
+        synchronized(this) {
+            return getTimeSeries(metric)?.getBuckets(resolution, nowElapsedMillis, outMeans, outCounts) ?: 0
+        }
+    }
+
+    fun clear() {
+        synchronized(this) {
+            signalLevelRssi?.clear()
+            batteryLevelMilliVolts?.clear()
+            temperatureCelsius?.clear()
+        }
+    }
+
+    override fun toString(): String {
+        val sb = StringBuilder("{ sizeBytes=").append(sizeBytes)
+        for (metric in intArrayOf(Metrics.SIGNAL_LEVEL_RSSI, Metrics.BATTERY_LEVEL_MILLI_VOLTS, Metrics.TEMPERATURE_CELSIUS)) {
+            val timeSeries = getTimeSeries(metric) ?: continue
+            sb.append(", ").append(Metrics.toString(metric)).append('=').append(timeSeries)
+        }
+        return sb.append(" }").toString()
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.paulpv.androidbletool.devices
+
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * One dispatch structure for every feature change of every device, instead of one listener set per feature per device.
+ *
+ * A subscriber registers once, for a mask of [FeatureIds] and optionally a set of mac addresses, and receives
+ * [Batch]es of primitive encoded events (mac address, feature id, old value, new value) on its own [Executor].
+ * Every event published while a subscriber's previous batch is still waiting to run joins that batch, so a burst of
+ * changes (ex: one scan frame) costs each subscriber one executor task.
+ *
+ * Publishing never allocates once each subscriber's batches have grown to their working size.
+ * Thread safe; subscribe, unsubscribe, and publish from any thread.
+ */
+class FeatureEventBus {
+    companion object {
+        /**
+         * The bus every [Features.Feature] publishes to
+         */
+        @JvmStatic
+        val DEFAULT = FeatureEventBus()
+
+        private const val BATCH_CAPACITY_INITIAL = 16
+    }
+
+    /**
+     * Each a bit, so subscribers can ask for any combination
+     */
+    object FeatureIds {
+        /**
+         * Values are the smoothed RSSI; see [Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED]
+         */
+        const val SIGNAL_LEVEL_RSSI = 1 shl 0
+        /**
+         * Values are 1 (beeping) or 0
+         */
+        const val BEEP = 1 shl 1
+        /**
+         * Values are 1 (flashing) or 0
+         */
+        const val FLASH = 1 shl 2
+        /**
+         * Values are 1 (clicked) or 0
+         */
+        const val SHORT_CLICK = 1 shl 3
+
+        const val ALL = SIGNAL_LEVEL_RSSI or BEEP or FLASH or SHORT_CLICK
+
+        fun toString(featureId: Int): String {
+            return when (featureId) {
+                SIGNAL_LEVEL_RSSI -> "SIGNAL_LEVEL_RSSI"
+                BEEP -> "BEEP"
+                FLASH -> "FLASH"
+                SHORT_CLICK -> "SHORT_CLICK"
+                else -> "UNKNOWN($featureId)"
+            }
+        }
+    }
+
+    /**
+     * Events in the order they were published; only valid for the duration of [Subscriber.onFeatureEvents]
+     */
+    class Batch internal constructor() {
+        private var macAddresses = LongArray(BATCH_CAPACITY_INITIAL)
+        private var featureIds = IntArray(BATCH_CAPACITY_INITIAL)
+        private var oldValues = IntArray(BATCH_CAPACITY_INITIAL)
+        private var newValues = IntArray(BATCH_CAPACITY_INITIAL)
+
+        var size = 0
+            private set
+
+        fun getMacAddress(index: Int): Long = macAddresses[index]
+
+        fun getFeatureId(index: Int): Int = featureIds[index]
+
+        fun getOldValue(index: Int): Int = oldValues[index]
+
+        fun getNewValue(index: Int): Int = newValues[index]
+
+        internal fun add(macAddress: Long, featureId: Int, oldValue: Int, newValue: Int) {
+            if (size == macAddresses.size) {
+                val capacity = size * 2
+                macAddresses = macAddresses.copyOf(capacity)
+                featureIds = featureIds.copyOf(capacity)
+                oldValues = oldValues.copyOf(capacity)
+                newValues = newValues.copyOf(capacity)
+            }
+            macAddresses[size] = macAddress
+            featureIds[size] = featureId
+            oldValues[size] = oldValue
+            newValues[size] = newValue
+            size++
+        }
+
+        internal fun clear() {
+            size = 0
+        }
+
+        override fun toString(): String {
+            val sb = StringBuilder("{ size=").append(size)
+            for (i in 0 until size) {
+                sb.append(", { macAddress=").append(macAddresses[i])
+                    .append(", featureId=").append(FeatureIds.toString(featureIds[i]))
+                    .append(", oldValue=").append(oldValues[i])
+                    .append(", newValue=").append(newValues[i])
+                    .append(" }")
+            }
+            return sb.append(" }").toString()
+        }
+    }
+
+    interface Subscriber {
+        fun onFeatureEvents(batch: Batch)
+    }
+
+    /**
+     * Returned by [subscribe]; pass to [unsubscribe]
+     */
+    class Subscription internal constructor(
+        internal val featureIds: Int,
+        /**
+         * Sorted; null for every device
+         */
+        private val macAddresses: LongArray?,
+        private val executor: Executor,
+        private val subscriber: Subscriber
+    ) {
+        /**
+         * Guarded by this
+         */
+        private var pending = Batch()
+        private var delivering = Batch()
+        private var isScheduled = false
+
+        @Volatile
+        internal var isSubscribed = true
+
+        internal fun accepts(macAddress: Long, featureId: Int): Boolean {
+            return (featureIds and featureId) != 0 && (macAddresses == null || Arrays.binarySearch(macAddresses, macAddress) >= 0)
+        }
+
+        internal fun add(macAddress: Long, featureId: Int, oldValue: Int, newValue: Int) {
+            synchronized(this) {
+                pending.add(macAddress, featureId, oldValue, newValue)
+                if (isScheduled) {
+                    return
+                }
+                isScheduled = true
+            }
+            execute()
+        }
+
+        private val deliver = Runnable {
+            val batch: Batch
+            synchronized(this) {
+                batch = pending
+                pending = delivering
+                delivering = batch
+            }
+            if (isSubscribed) {
+                subscriber.onFeatureEvents(batch)
+            }
+            batch.clear()
+            val reschedule = synchronized(this) {
+                isScheduled = pending.size > 0
+                isScheduled
+            }
+            if (reschedule) {
+                execute()
+            }
+        }
+
+        private fun execute() {
+            executor.execute(deliver)
+        }
+    }
+
+    /**
+     * Copy on write; iterated by index so publishing does not allocate an iterator
+     */
+    @Volatile
+    private var subscriptions = emptyArray<Subscription>()
+
+    /**
+     * Bitwise or of every subscription's feature ids, so features nobody subscribed to cost one check
+     */
+    @Volatile
+    private var featureIds = 0
+
+    /**
+     * @param featureIds bitwise or of [FeatureIds]
+     * @param executor runs [Subscriber.onFeatureEvents]; ex: the BleTool looper's Handler::post
+     * @param macAddresses only these devices; null for every device
+     */
+    fun subscribe(featureIds: Int, executor: Executor, subscriber: Subscriber, macAddresses: LongArray? = null): Subscription {
+        val subscription = Subscription(featureIds, macAddresses?.copyOf()?.apply { sort() }, executor, subscriber)
+        synchronized(this) {
+            subscriptions += subscription
+            this.featureIds = this.featureIds or featureIds
+        }
+        return subscription
+    }
+
+    fun unsubscribe(subscription: Subscription) {
+        synchronized(this) {
+            subscription.isSubscribed = false
+            subscriptions = subscriptions.filter { it !== subscription }.toTypedArray()
+            var featureIds = 0
+            for (remaining in subscriptions) {
+                featureIds = featureIds or remaining.featureIds
+            }
+            this.featureIds = featureIds
+        }
+    }
+
+    fun publish(macAddress: Long, featureId: Int, oldValue: Int, newValue: Int) {
+        if ((featureIds and featureId) == 0) {
+            return
+        }
+        val subscriptions = subscriptions
+        for (i in subscriptions.indices) {
+            val subscription = subscriptions[i]
+            if (subscription.accepts(macAddress, featureId)) {
+                subscription.add(macAddress, featureId, oldValue, newValue)
+            }
+        }
+    }
+}
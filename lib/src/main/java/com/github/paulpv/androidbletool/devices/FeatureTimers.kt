@@ -0,0 +1,82 @@
+package com.github.paulpv.androidbletool.devices
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.utils.TimingWheel
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+
+/**
+ * The one [TimingWheel] that every [Features.TimeoutFeature] of every device runs on.
+ *
+ * Instead of one main looper message per device per feature (re-posted on every trigger), the main looper gets at
+ * most one tick message per [TICK_MILLIS], and only while at least one timer is scheduled; every timer that expired
+ * during that tick fires in the same message.
+ */
+object FeatureTimers {
+    private val TAG = TAG(FeatureTimers::class.java)
+
+    @Suppress("SimplifyBooleanWithConstants")
+    private val LOG_TICK = false && BuildConfig.DEBUG
+
+    /**
+     * Timeouts fire up to this late; plenty for UI timeouts of several seconds
+     */
+    const val TICK_MILLIS = 250L
+
+    /**
+     * One revolution is 64 seconds; longer timeouts take more than one
+     */
+    private const val WHEEL_SIZE = 256
+
+    private val wheel = TimingWheel(TICK_MILLIS, WHEEL_SIZE)
+
+    private val handler by lazy { Handler(Looper.getMainLooper(), Handler.Callback { onTick(); true }) }
+
+    /**
+     * Guarded by this
+     */
+    private var isTickScheduled = false
+
+    /**
+     * Starts the timer, or restarts it if it is already started; O(1)
+     */
+    fun start(timer: TimingWheel.Timer, delayMillis: Long) {
+        val nowMillis = SystemClock.uptimeMillis()
+        wheel.schedule(timer, delayMillis, nowMillis)
+        tickSchedule(nowMillis)
+    }
+
+    /**
+     * @return true if the timer was started; O(1)
+     */
+    fun stop(timer: TimingWheel.Timer): Boolean {
+        return wheel.cancel(timer)
+    }
+
+    private fun tickSchedule(nowMillis: Long) {
+        synchronized(this) {
+            if (isTickScheduled) {
+                return
+            }
+            isTickScheduled = true
+        }
+        handler.sendEmptyMessageAtTime(0, (nowMillis / TICK_MILLIS + 1) * TICK_MILLIS)
+    }
+
+    private fun onTick() {
+        synchronized(this) {
+            isTickScheduled = false
+        }
+        val nowMillis = SystemClock.uptimeMillis()
+        val fired = wheel.advance(nowMillis)
+        if (LOG_TICK) {
+            Log.v(TAG, "onTick: fired=$fired, wheel=$wheel")
+        }
+        if (wheel.size > 0) {
+            tickSchedule(nowMillis)
+        }
+    }
+}
@@ -5,14 +5,11 @@ import com.github.paulpv.androidbletool.BleDevice
 import com.github.paulpv.androidbletool.BuildConfig
 import com.github.paulpv.androidbletool.logging.MyLog
 import com.github.paulpv.androidbletool.math.LowPassFilter
-import com.github.paulpv.androidbletool.utils.MyHandler
 import com.github.paulpv.androidbletool.utils.ReflectionUtils.instanceName
+import com.github.paulpv.androidbletool.utils.TimingWheel
 import com.github.paulpv.androidbletool.utils.Utils.TAG
-import java.util.*
 
 object Features {
-    interface IFeatureListener
-
     interface IFeature {
         val device: BleDevice
     }
@@ -38,36 +35,57 @@ object Features {
 
         abstract fun reset()
 
-        protected abstract fun onFeatureChanged()
+        /**
+         * @param featureId one of [FeatureEventBus.FeatureIds]
+         */
+        protected fun publish(featureId: Int, oldValue: Int, newValue: Int) {
+            FeatureEventBus.DEFAULT.publish(device.gattHandler.deviceAddressLong, featureId, oldValue, newValue)
+        }
     }
 
+    /**
+     * Resets itself [timeoutMillis] after [timerStart]; the timer runs on the process wide [FeatureTimers], on the main
+     * looper, and is stopped by [BleDevice.onEvicted]
+     */
     abstract class TimeoutFeature internal constructor(
         device: BleDevice,
         private val TAG: String,
-        private val handler: MyHandler,
         private val timeoutMillis: Long = DEFAULT_TIMEOUT_MILLIS
     ) : Feature(device) {
 
         companion object {
             const val DEFAULT_TIMEOUT_MILLIS = 5500L
+
+            @Suppress("SimplifyBooleanWithConstants")
+            private val LOG_TIMER = false && BuildConfig.DEBUG
         }
 
-        private var updateTimerStartMillis: Long = 0
-        private val timeoutRunnable = Runnable {
-            val elapsedMillis = System.currentTimeMillis() - updateTimerStartMillis
-            Log.w(TAG, " mTimeoutRunnable: TIMEOUT elapsedMillis=$elapsedMillis; reset(); this=$this")
-            reset()
+        private val timer = object : TimingWheel.Timer() {
+            override fun onExpired(elapsedMillis: Long) {
+                if (LOG_TIMER) {
+                    Log.v(TAG, "onExpired: TIMEOUT elapsedMillis=$elapsedMillis; reset(); this=${this@TimeoutFeature}")
+                }
+                reset()
+            }
+        }
+
+        init {
+            // Stopped when the device is evicted
+            device.addTimeoutFeature(this)
         }
 
         fun timerStop() {
-            Log.w(TAG, "timerStop(); this=$this")
-            handler.removeCallbacks(timeoutRunnable)
+            if (LOG_TIMER) {
+                Log.v(TAG, "timerStop(); this=$this")
+            }
+            FeatureTimers.stop(timer)
         }
 
         fun timerStart() {
-            Log.w(TAG, "timerStart(); this=$this")
-            updateTimerStartMillis = System.currentTimeMillis()
-            handler.postDelayed(timeoutRunnable, timeoutMillis)
+            if (LOG_TIMER) {
+                Log.v(TAG, "timerStart(); this=$this")
+            }
+            FeatureTimers.start(timer, timeoutMillis)
         }
     }
 
@@ -75,13 +93,10 @@ object Features {
     //region FeatureSignalLevelRssi
     //
 
-    interface IFeatureSignalLevelRssiListener : IFeatureListener {
-        fun onFeatureChanged(feature: IFeatureSignalLevelRssi): Boolean
-    }
-
+    /**
+     * Changes are published to [FeatureEventBus] as [FeatureEventBus.FeatureIds.SIGNAL_LEVEL_RSSI]
+     */
     interface IFeatureSignalLevelRssi : IFeature {
-        fun addListener(listener: IFeatureSignalLevelRssiListener)
-        fun removeListener(listener: IFeatureSignalLevelRssiListener)
         val signalLevelRssiRealtime: Int
         val signalLevelRssiSmoothed: Int
     }
@@ -100,8 +115,6 @@ object Features {
             private const val VERBOSE_LOG = false
         }
 
-        private val listeners = mutableSetOf<IFeatureSignalLevelRssiListener>()
-
         private var signalLevelRssiRealtimeCurrent = SIGNAL_LEVEL_RSSI_UNDEFINED
         private var signalLevelRssiRealtimePrevious = SIGNAL_LEVEL_RSSI_UNDEFINED
         private var signalLevelRssiSmoothedCurrent = SIGNAL_LEVEL_RSSI_UNDEFINED
@@ -112,49 +125,33 @@ object Features {
                     ", signalLevelRssiRealtimeCurrent=$signalLevelRssiRealtimeCurrent" +
                     ", signalLevelRssiRealtimePrevious=$signalLevelRssiRealtimePrevious" +
                     ", signalLevelRssiSmoothedCurrent=$signalLevelRssiSmoothedCurrent" +
-                    ", signalLevelRssiSmoothedPrevious=$signalLevelRssiSmoothedPrevious" +
-                    ", listeners.size=${listeners.size}"
+                    ", signalLevelRssiSmoothedPrevious=$signalLevelRssiSmoothedPrevious"
         }
 
         init {
             reset()
         }
 
-        override fun addListener(listener: IFeatureSignalLevelRssiListener) {
-            synchronized(listeners) { listeners.add(listener) }
-        }
-
-        override fun removeListener(listener: IFeatureSignalLevelRssiListener) {
-            synchronized(listeners) { listeners.remove(listener) }
-        }
-
-        override fun onFeatureChanged() {
-            synchronized(listeners) {
-                for (listener in listeners) {
-                    if (listener.onFeatureChanged(this)) {
-                        break
-                    }
-                }
-            }
-        }
-
         override fun reset() {
             setSignalLevelRssi(SIGNAL_LEVEL_RSSI_UNDEFINED)
             signalLevelRssiRealtimePrevious = SIGNAL_LEVEL_RSSI_UNDEFINED
             signalLevelRssiSmoothedPrevious = SIGNAL_LEVEL_RSSI_UNDEFINED
         }
 
-        @Suppress("MemberVisibilityCanBePrivate")
-        fun setSignalLevelRssi(rssi: Int): Boolean {
-            val triggerSignalLevelRssi = Triggers.TriggerSignalLevelRssi(rssi)
-            return setSignalLevelRssi(triggerSignalLevelRssi)
+        /**
+         * Seeds the smoothed RSSI without publishing a change (ex: from a
+         * [com.github.paulpv.androidbletool.BleDeviceCheckpoint]); the next [setSignalLevelRssi] is smoothed against it
+         */
+        fun restore(signalLevelRssiSmoothed: Int) {
+            signalLevelRssiSmoothedCurrent = signalLevelRssiSmoothed
+            signalLevelRssiSmoothedPrevious = SIGNAL_LEVEL_RSSI_UNDEFINED
         }
 
-        fun setSignalLevelRssi(trigger: Triggers.TriggerSignalLevelRssi): Boolean {
+        fun setSignalLevelRssi(rssi: Int): Boolean {
             //try
             //{
             //    Log.e(TAG, "+setSignalLevelRssi(rssi=" + rssi + ')');
-            var rssi: Int = trigger.value
+            @Suppress("NAME_SHADOWING") var rssi = rssi
             signalLevelRssiRealtimePrevious = signalLevelRssiRealtimeCurrent
             @Suppress("ConstantConditionIf")
             if (VERBOSE_LOG) {
@@ -188,9 +185,8 @@ object Features {
             if (VERBOSE_LOG) {
                 Log.e(TAG, "setSignalLevelRssi: signalLevelRssiSmoothedCurrent=$signalLevelRssiSmoothedCurrent")
             }
-            trigger.isChanged = changed
             if (changed) {
-                onFeatureChanged()
+                publish(FeatureEventBus.FeatureIds.SIGNAL_LEVEL_RSSI, signalLevelRssiSmoothedPrevious, rssi)
             }
             return changed
             //}
@@ -219,52 +215,28 @@ object Features {
     //region FeatureBeep
     //
 
-    interface IFeatureBeepListener : IFeatureListener {
-        fun onFeatureChanged(feature: IFeatureBeep): Boolean
-    }
-
     interface IFeatureBeepConfiguration {
         val beepDurationMillis: Int
         fun requestBeep(on: Boolean, progress: BleDevice.RequestProgress): Boolean
     }
 
+    /**
+     * Changes are published to [FeatureEventBus] as [FeatureEventBus.FeatureIds.BEEP]
+     */
     interface IFeatureBeep : IFeature, IFeatureBeepConfiguration {
-        fun addListener(listener: IFeatureBeepListener)
-        fun removeListener(listener: IFeatureBeepListener)
         val isBeeping: Boolean
     }
 
     class FeatureBeep(device: BleDevice, private val configuration: IFeatureBeepConfiguration) : Feature(device), IFeatureBeep {
-        private val listeners = mutableSetOf<IFeatureBeepListener>()
-
         override fun getFieldsString(): String {
             return super.getFieldsString() +
-                    ", isBeeping=$isBeeping" +
-                    ", listeners.size=${listeners.size}"
+                    ", isBeeping=$isBeeping"
         }
 
         init {
             reset()
         }
 
-        override fun addListener(listener: IFeatureBeepListener) {
-            synchronized(listeners) { listeners.add(listener) }
-        }
-
-        override fun removeListener(listener: IFeatureBeepListener) {
-            synchronized(listeners) { listeners.remove(listener) }
-        }
-
-        override fun onFeatureChanged() {
-            synchronized(listeners) {
-                for (listener in listeners) {
-                    if (listener.onFeatureChanged(this)) {
-                        break
-                    }
-                }
-            }
-        }
-
         override fun reset() {
             isBeeping = false
         }
@@ -273,7 +245,7 @@ object Features {
             set(value) {
                 if (isBeeping != value) {
                     field = value
-                    onFeatureChanged()
+                    publish(FeatureEventBus.FeatureIds.BEEP, if (value) 0 else 1, if (value) 1 else 0)
                 }
             }
 
@@ -293,55 +265,28 @@ object Features {
     //region FeatureFlash
     //
 
-    //
-    //
-    //
-    interface IFeatureFlashListener : IFeatureListener {
-        fun onFeatureChanged(feature: IFeatureFlash): Boolean
-    }
-
     interface IFeatureFlashConfiguration {
         val flashDurationMillis: Int
         fun requestFlash(on: Boolean, progress: BleDevice.RequestProgress): Boolean
     }
 
+    /**
+     * Changes are published to [FeatureEventBus] as [FeatureEventBus.FeatureIds.FLASH]
+     */
     interface IFeatureFlash : IFeature, IFeatureFlashConfiguration {
-        fun addListener(listener: IFeatureFlashListener)
-        fun removeListener(listener: IFeatureFlashListener)
         val isFlashing: Boolean
     }
 
     class FeatureFlash(device: BleDevice, private val configuration: IFeatureFlashConfiguration) : Feature(device), IFeatureFlash {
-        private val listeners = mutableSetOf<IFeatureFlashListener>()
-
         override fun getFieldsString(): String {
             return super.getFieldsString() +
-                    ", isFlashing=$isFlashing" +
-                    ", listeners.size=${listeners.size}"
+                    ", isFlashing=$isFlashing"
         }
 
         init {
             reset()
         }
 
-        override fun addListener(listener: IFeatureFlashListener) {
-            synchronized(listeners) { listeners.add(listener) }
-        }
-
-        override fun removeListener(listener: IFeatureFlashListener) {
-            synchronized(listeners) { listeners.remove(listener) }
-        }
-
-        override fun onFeatureChanged() {
-            synchronized(listeners) {
-                for (listener in listeners) {
-                    if (listener.onFeatureChanged(this)) {
-                        break
-                    }
-                }
-            }
-        }
-
         override fun reset() {
             isFlashing = false
         }
@@ -350,7 +295,7 @@ object Features {
             set(value) {
                 if (isFlashing != value) {
                     field = value
-                    onFeatureChanged()
+                    publish(FeatureEventBus.FeatureIds.FLASH, if (value) 0 else 1, if (value) 1 else 0)
                 }
             }
 
@@ -370,18 +315,15 @@ object Features {
     //region FeatureShortClick
     //
 
-    interface IFeatureShortClickListener : IFeatureListener {
-        fun onFeatureChanged(feature: IFeatureShortClick): Boolean
-    }
-
+    /**
+     * Changes are published to [FeatureEventBus] as [FeatureEventBus.FeatureIds.SHORT_CLICK]
+     */
     interface IFeatureShortClick : IFeature {
-        fun addListener(listener: IFeatureShortClickListener)
-        fun removeListener(listener: IFeatureShortClickListener)
         val isShortClicked: Boolean
     }
 
-    class FeatureShortClick(device: BleDevice, handler: MyHandler, timeoutMillis: Long) :
-        TimeoutFeature(device, TAG, handler, timeoutMillis),
+    class FeatureShortClick(device: BleDevice, timeoutMillis: Long) :
+        TimeoutFeature(device, TAG, timeoutMillis),
         IFeatureShortClick {
         companion object {
             private val TAG: String = TAG(FeatureShortClick::class.java)
@@ -389,8 +331,6 @@ object Features {
             private val LOG_VERBOSE = false && BuildConfig.DEBUG
         }
 
-        private val listeners: MutableSet<IFeatureShortClickListener> = LinkedHashSet()
-
         override var isShortClicked = false
             private set
 
@@ -398,31 +338,13 @@ object Features {
         private var counter: Byte = 0
 
         override fun toString(): String {
-            return toString(this, ", isShortClicked=$isShortClicked, sequence=$sequence, counter=$counter, listeners.size=${listeners.size}")
+            return toString(this, ", isShortClicked=$isShortClicked, sequence=$sequence, counter=$counter")
         }
 
         init {
             reset()
         }
 
-        override fun addListener(listener: IFeatureShortClickListener) {
-            synchronized(listeners) { listeners.add(listener) }
-        }
-
-        override fun removeListener(listener: IFeatureShortClickListener) {
-            synchronized(listeners) { listeners.remove(listener) }
-        }
-
-        override fun onFeatureChanged() {
-            synchronized(listeners) {
-                for (listener in listeners) {
-                    if (listener.onFeatureChanged(this)) {
-                        break
-                    }
-                }
-            }
-        }
-
         override fun reset() {
             if (LOG_VERBOSE) {
                 Log.e(TAG, "#CLICK reset()")
@@ -430,28 +352,17 @@ object Features {
             setIsShortClicked(false)
         }
 
-        @Suppress("MemberVisibilityCanBePrivate")
-        fun setIsShortClicked(isShortClicked: Boolean): Boolean {
-            val triggerShortClick = Triggers.TriggerShortClick(isShortClicked)
-            return setIsShortClicked(triggerShortClick)
-        }
-
-        fun setIsShortClicked(trigger: Triggers.TriggerShortClick): Boolean {
+        fun setIsShortClicked(isShortClicked: Boolean, sequence: Byte = -1, counter: Byte = -1): Boolean {
             if (LOG_VERBOSE) {
-                Log.v(TAG, "#CLICK setIsShortClicked trigger=$trigger")
+                Log.v(TAG, "#CLICK setIsShortClicked isShortClicked=$isShortClicked, sequence=$sequence, counter=$counter")
                 Log.v(TAG, "#CLICK setIsShortClicked this=$this")
             }
-            val isShortClicked: Boolean = trigger.value
-            val sequence = trigger.sequence
-            val counter = trigger.counter
-
             //boolean changed = this.isShortClicked != isShortClicked || this.counter != counter// || this.sequence != sequence
             val changed = this.isShortClicked != isShortClicked // || this.sequence != sequence
             if (LOG_VERBOSE) {
                 val level = if (changed) Log.ERROR else Log.VERBOSE
                 MyLog.println(TAG, level, "#CLICK setIsShortClicked changed=$changed")
             }
-            trigger.isChanged = changed
             this.isShortClicked = isShortClicked
             this.sequence = sequence
             this.counter = counter
@@ -461,7 +372,7 @@ object Features {
                 } else {
                     timerStop()
                 }
-                onFeatureChanged()
+                publish(FeatureEventBus.FeatureIds.SHORT_CLICK, if (isShortClicked) 0 else 1, if (isShortClicked) 1 else 0)
             }
             return changed
         }
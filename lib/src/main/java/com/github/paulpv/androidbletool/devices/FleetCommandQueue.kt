@@ -0,0 +1,374 @@
+package com.github.paulpv.androidbletool.devices
+
+import android.util.Log
+import com.github.paulpv.androidbletool.BleDevice
+import com.github.paulpv.androidbletool.BluetoothUtils
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * The scheduling state machine of [FleetCommandScheduler]: runs one [Command] on many devices at once, with at most
+ * [maxConnections] attempts in flight.
+ *
+ * Devices are started highest [Adapter.getPriority] first.
+ * A device that fails is retried after [Job.retryDelayMillis], behind the devices not yet tried, up to
+ * [Job.maxAttempts] times. The same device is never run by two attempts at once, even from different jobs: an attempt
+ * holds its device (and its connection) until the command reports [BleDevice.RequestProgress.onDisconnected].
+ *
+ * Generic over the device type, and runs on a [DelayedExecutor] instead of a Handler, so that it can be unit tested
+ * without BleDevices or a Looper.
+ * Everything runs on executor, which must run one task at a time, in order (ex: a Looper's Handler); submit and cancel
+ * from any thread.
+ *
+ * @param attemptTimeoutMillis how long an attempt may run before its device is asked to disconnect, and then how long
+ * it is given to report that it did
+ */
+open class FleetCommandQueue<T>(
+    private val executor: DelayedExecutor,
+    private val adapter: Adapter<T>,
+    val maxConnections: Int,
+    var attemptTimeoutMillis: Long
+) {
+    companion object {
+        private val TAG = TAG(FleetCommandQueue::class.java)
+
+        @Suppress("SimplifyBooleanWithConstants")
+        private val LOG_ATTEMPT = false && BuildConfig.DEBUG
+
+        const val MAX_ATTEMPTS_DEFAULT = 3
+
+        const val RETRY_DELAY_MILLIS_DEFAULT = 1000L
+    }
+
+    /**
+     * An [Executor] that can also run a task later, and take back a task that has not run yet; ex: a Handler
+     */
+    interface DelayedExecutor : Executor {
+        fun executeDelayed(command: Runnable, delayMillis: Long)
+
+        fun remove(command: Runnable)
+    }
+
+    /**
+     * What the queue needs to know about a device
+     */
+    interface Adapter<T> {
+        fun getMacAddress(device: T): Long
+
+        /**
+         * Higher is started first
+         */
+        fun getPriority(device: T): Int
+
+        /**
+         * Called on executor when an attempt times out; the command must still report
+         * [BleDevice.RequestProgress.onDisconnected]
+         */
+        fun disconnect(device: T)
+    }
+
+    interface Command<T> {
+        val name: String
+
+        /**
+         * Starts the command on device, reporting to progress like [Features.IFeatureBeepConfiguration.requestBeep]:
+         * [BleDevice.RequestProgress.onRequested] carries the result, and [BleDevice.RequestProgress.onDisconnected]
+         * ends the attempt
+         *
+         * @return false if the command could not be started
+         */
+        fun execute(device: T, progress: BleDevice.RequestProgress): Boolean
+    }
+
+    class Progress(
+        val total: Int,
+        val succeeded: Int,
+        /**
+         * Out of attempts, or cancelled
+         */
+        val failed: Int,
+        val inFlight: Int,
+        /**
+         * Including retries
+         */
+        val attempts: Int
+    ) {
+        val remaining: Int
+            get() = total - succeeded - failed
+
+        val isCompleted: Boolean
+            get() = remaining == 0
+
+        override fun toString(): String {
+            return "{ total=$total, succeeded=$succeeded, failed=$failed, inFlight=$inFlight, attempts=$attempts }"
+        }
+    }
+
+    /**
+     * Called on executor
+     */
+    interface Listener<T> {
+        /**
+         * The device succeeded, or failed its last attempt
+         */
+        fun onDeviceCompleted(job: Job<T>, device: T, success: Boolean, attempts: Int)
+
+        /**
+         * After every attempt that starts or ends; [Progress.isCompleted] the last time
+         */
+        fun onProgress(job: Job<T>, progress: Progress)
+    }
+
+    class Job<T> internal constructor(
+        private val queue: FleetCommandQueue<T>,
+        val command: Command<T>,
+        val total: Int,
+        private val listener: Listener<T>?,
+        val maxAttempts: Int,
+        val retryDelayMillis: Long
+    ) {
+        //
+        // Only accessed on the queue's executor
+        //
+        internal var succeeded = 0
+        internal var failed = 0
+        internal var inFlight = 0
+        internal var attempts = 0
+        internal var isCancelled = false
+
+        /**
+         * Read on the queue's executor, or from [Listener] callbacks
+         */
+        val progress: Progress
+            get() = Progress(total, succeeded, failed, inFlight, attempts)
+
+        /**
+         * Fails every device not yet started; devices already started are left to finish, but are not retried
+         */
+        fun cancel() {
+            queue.cancel(this)
+        }
+
+        internal fun onDeviceCompleted(device: T, success: Boolean, attempts: Int) {
+            listener?.onDeviceCompleted(this, device, success, attempts)
+        }
+
+        internal fun onProgress() {
+            listener?.onProgress(this, progress)
+        }
+
+        override fun toString(): String {
+            return "{ command=${command.name}, progress=$progress, isCancelled=$isCancelled }"
+        }
+    }
+
+    private class Target<T>(val job: Job<T>, val device: T, val macAddress: Long) {
+        var attempts = 0
+
+        val macAddressString: String
+            get() = BluetoothUtils.macAddressLongToString(macAddress)
+    }
+
+    /**
+     * Also the attempt's timeout
+     */
+    private inner class Attempt(val target: Target<T>) : BleDevice.RequestProgress, Runnable {
+        //
+        // Only accessed on executor
+        //
+        var success = false
+        var isTimedOut = false
+        var isDone = false
+
+        override fun onConnecting() {
+        }
+
+        override fun onConnected() {
+        }
+
+        override fun onRequesting() {
+        }
+
+        override fun onRequested(success: Boolean) {
+            executor.execute(Runnable { this.success = success })
+        }
+
+        override fun onDisconnecting() {
+        }
+
+        override fun onDisconnected(success: Boolean) {
+            executor.execute(Runnable { complete(this) })
+        }
+
+        override fun run() {
+            if (isDone) {
+                return
+            }
+            if (!isTimedOut) {
+                isTimedOut = true
+                Log.w(TAG, "${target.macAddressString} ${target.job.command.name} timed out; disconnecting")
+                adapter.disconnect(target.device)
+                // Still holds the device until it reports that it disconnected
+                executor.executeDelayed(this, attemptTimeoutMillis)
+                return
+            }
+            Log.e(TAG, "${target.macAddressString} ${target.job.command.name} never reported disconnected; releasing it anyway")
+            complete(this)
+        }
+    }
+
+    //
+    // Only accessed on executor
+    //
+    private val queue = ArrayDeque<Target<T>>()
+    private val jobs = ArrayList<Job<T>>()
+    private val busyMacAddresses = HashSet<Long>()
+    private var inFlight = 0
+
+    /**
+     * @param devices duplicates are run once; started highest [Adapter.getPriority] first
+     */
+    fun submit(
+        command: Command<T>,
+        devices: Collection<T>,
+        listener: Listener<T>? = null,
+        maxAttempts: Int = MAX_ATTEMPTS_DEFAULT,
+        retryDelayMillis: Long = RETRY_DELAY_MILLIS_DEFAULT
+    ): Job<T> {
+        val targets = devices
+            .distinctBy { adapter.getMacAddress(it) }
+            .sortedByDescending { adapter.getPriority(it) }
+        val job = Job(this, command, targets.size, listener, maxAttempts, retryDelayMillis)
+        executor.execute(Runnable {
+            jobs.add(job)
+            for (device in targets) {
+                queue.add(Target(job, device, adapter.getMacAddress(device)))
+            }
+            onProgress(job)
+            dispatch()
+        })
+        return job
+    }
+
+    fun cancelAll() {
+        executor.execute(Runnable {
+            for (job in ArrayList(jobs)) {
+                cancelInternal(job)
+            }
+        })
+    }
+
+    internal fun cancel(job: Job<T>) {
+        executor.execute(Runnable { cancelInternal(job) })
+    }
+
+    private fun cancelInternal(job: Job<T>) {
+        if (job.isCancelled) {
+            return
+        }
+        job.isCancelled = true
+        val it = queue.iterator()
+        while (it.hasNext()) {
+            val target = it.next()
+            if (target.job === job) {
+                it.remove()
+                fail(target)
+            }
+        }
+        onProgress(job)
+    }
+
+    /**
+     * Starts queued targets, in order, until every connection is taken; targets whose device is busy keep their place
+     */
+    private fun dispatch() {
+        val it = queue.iterator()
+        while (inFlight < maxConnections && it.hasNext()) {
+            val target = it.next()
+            if (busyMacAddresses.contains(target.macAddress)) {
+                continue
+            }
+            it.remove()
+            start(target)
+        }
+    }
+
+    private fun start(target: Target<T>) {
+        val job = target.job
+        target.attempts++
+        job.attempts++
+        job.inFlight++
+        inFlight++
+        busyMacAddresses.add(target.macAddress)
+        val attempt = Attempt(target)
+        executor.executeDelayed(attempt, attemptTimeoutMillis)
+        if (LOG_ATTEMPT) {
+            Log.v(TAG, "${target.macAddressString} ${job.command.name} attempt #${target.attempts}")
+        }
+        val started = try {
+            job.command.execute(target.device, attempt)
+        } catch (e: Exception) {
+            Log.e(TAG, "${target.macAddressString} ${job.command.name} EXCEPTION", e)
+            false
+        }
+        if (!started) {
+            // Not inline: dispatch is still iterating the queue
+            executor.execute(Runnable { complete(attempt) })
+        }
+        onProgress(job)
+    }
+
+    private fun complete(attempt: Attempt) {
+        if (attempt.isDone) {
+            return
+        }
+        attempt.isDone = true
+        executor.remove(attempt)
+        val target = attempt.target
+        val job = target.job
+        job.inFlight--
+        inFlight--
+        busyMacAddresses.remove(target.macAddress)
+        if (LOG_ATTEMPT) {
+            Log.v(TAG, "${target.macAddressString} ${job.command.name} attempt #${target.attempts} success=${attempt.success}")
+        }
+        when {
+            attempt.success -> {
+                job.succeeded++
+                job.onDeviceCompleted(target.device, true, target.attempts)
+            }
+            target.attempts < job.maxAttempts && !job.isCancelled -> {
+                executor.executeDelayed(Runnable {
+                    if (job.isCancelled) {
+                        fail(target)
+                        onProgress(job)
+                    } else {
+                        queue.add(target)
+                        dispatch()
+                    }
+                }, job.retryDelayMillis)
+            }
+            else -> fail(target)
+        }
+        onProgress(job)
+        dispatch()
+    }
+
+    private fun fail(target: Target<T>) {
+        val job = target.job
+        job.failed++
+        job.onDeviceCompleted(target.device, false, target.attempts)
+    }
+
+    private fun onProgress(job: Job<T>) {
+        if (job.succeeded + job.failed == job.total) {
+            if (!jobs.remove(job)) {
+                // Already reported completed
+                return
+            }
+        }
+        job.onProgress()
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.paulpv.androidbletool.devices
+
+import android.os.Handler
+import android.os.Looper
+import com.github.paulpv.androidbletool.BleDevice
+import com.github.paulpv.androidbletool.gatt.GattHandler
+
+/**
+ * Runs one [FleetCommandQueue.Command] (ex: [BeepCommand]) on many devices at once, with at most [maxConnections] GATT
+ * connections open.
+ *
+ * Each device goes through the command's own connect → request → disconnect. While some devices are connecting,
+ * others are writing or disconnecting, so alerting N devices takes about N / [maxConnections] connection times instead
+ * of N.
+ * Devices are started strongest signal first, since they connect fastest and are the most likely to succeed.
+ * Retries, and keeping one device from being run twice at once, are [FleetCommandQueue]'s.
+ *
+ * Runs on looper (normally the BleTool looper, which the GattHandlers also run on); submit and cancel from any
+ * thread.
+ */
+class FleetCommandScheduler(looper: Looper, maxConnections: Int = MAX_CONNECTIONS_DEFAULT) :
+    FleetCommandQueue<BleDevice>(HandlerExecutor(Handler(looper)), BleDeviceAdapter, maxConnections, ATTEMPT_TIMEOUT_MILLIS_DEFAULT) {
+    companion object {
+        /**
+         * Most Android stacks allow 7 GATT connections at once; leave some for everything else
+         */
+        const val MAX_CONNECTIONS_DEFAULT = 4
+
+        /**
+         * Longer than GattHandler's own connect, operation, and disconnect timeouts combined, so it only fires if a
+         * command loses its callbacks
+         */
+        val ATTEMPT_TIMEOUT_MILLIS_DEFAULT: Long = GattHandler.DEFAULT_CONNECT_EXTERNAL_TIMEOUT_MILLIS +
+                GattHandler.DEFAULT_OPERATION_TIMEOUT_MILLIS +
+                GattHandler.DEFAULT_DISCONNECT_TIMEOUT_MILLIS +
+                5 * 1000L
+    }
+
+    /**
+     * Starts (or stops) beeping every [Features.IFeatureBeep] device; fails on any other device
+     */
+    class BeepCommand(val on: Boolean) : FleetCommandQueue.Command<BleDevice> {
+        override val name: String
+            get() = if (on) "beep" else "stopBeep"
+
+        override fun execute(device: BleDevice, progress: BleDevice.RequestProgress): Boolean {
+            return device is Features.IFeatureBeep && device.requestBeep(on, progress)
+        }
+    }
+}
+
+private class HandlerExecutor(private val handler: Handler) : FleetCommandQueue.DelayedExecutor {
+    override fun execute(command: Runnable) {
+        handler.post(command)
+    }
+
+    override fun executeDelayed(command: Runnable, delayMillis: Long) {
+        handler.postDelayed(command, delayMillis)
+    }
+
+    override fun remove(command: Runnable) {
+        handler.removeCallbacks(command)
+    }
+}
+
+private object BleDeviceAdapter : FleetCommandQueue.Adapter<BleDevice> {
+    override fun getMacAddress(device: BleDevice): Long {
+        return device.gattHandler.deviceAddressLong
+    }
+
+    /**
+     * The smoothed signal level; unknown is last
+     */
+    override fun getPriority(device: BleDevice): Int {
+        if (device !is Features.IFeatureSignalLevelRssi) {
+            return Int.MIN_VALUE
+        }
+        val rssi = device.signalLevelRssiSmoothed
+        return if (rssi == Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED) Int.MIN_VALUE else rssi
+    }
+
+    override fun disconnect(device: BleDevice) {
+        device.gattHandler.disconnect()
+    }
+}
@@ -0,0 +1,477 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.collections.LongIntHashMap
+import java.util.*
+
+/**
+ * Fleet wide device telemetry, in columns: one primitive array per [Column], indexed by a slot per device, so
+ * questions like "every device with a battery below 2400 mV" or "average temperature by model" are one tight loop over
+ * an array instead of a walk over every device's [Features].
+ *
+ * Written by BleTool's update path: [update] copies each device's merged [TriggerFrameDevice.frame] after every parsed
+ * advertisement. Slots of removed devices are reused, so the columns stay dense.
+ * A column only counts for a slot once a frame has reported it; every query skips the slots that have not.
+ *
+ * Queries can be chained: [select] fills a [Selection], and [select], [count], [aggregate], [aggregateBy], and [scan]
+ * all accept one to narrow down to its devices. Reusing the same [Selection] and [Aggregate] objects, queries do not
+ * allocate once they have grown to their result size.
+ *
+ * Thread safe; every call takes the table's lock, and each query holds it for one pass over the columns.
+ */
+class FleetStateTable(capacity: Int = CAPACITY_INITIAL_DEFAULT) {
+    companion object {
+        const val CAPACITY_INITIAL_DEFAULT = 64
+
+        const val NO_SLOT = -1
+
+        //
+        // Next to the TriggerFrame present bits, which stop well below them
+        //
+        private const val PRESENT_SIGNAL_LEVEL_RSSI_SMOOTHED = 1 shl 30
+        private const val PRESENT_SLOT_USED = 1 shl 31
+
+        private val COLUMNS = Column.values()
+    }
+
+    enum class Column(internal val presentMask: Int) {
+        SIGNAL_LEVEL_RSSI(TriggerFrame.SIGNAL_LEVEL_RSSI),
+        SIGNAL_LEVEL_RSSI_SMOOTHED(PRESENT_SIGNAL_LEVEL_RSSI_SMOOTHED),
+        BATTERY_LEVEL_MILLI_VOLTS(TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS),
+        TEMPERATURE_CELSIUS(TriggerFrame.TEMPERATURE_CELSIUS),
+        /**
+         * 1 (beeping and flashing) or 0
+         */
+        BEEPING_AND_FLASHING(TriggerFrame.BEEPING_AND_FLASHING),
+        /**
+         * 1 (clicked) or 0
+         */
+        SHORT_CLICK(TriggerFrame.SHORT_CLICK),
+        /**
+         * 1 (clicked) or 0
+         */
+        LONG_CLICK(TriggerFrame.LONG_CLICK),
+        /**
+         * 1 (clicked) or 0
+         */
+        DOUBLE_CLICK(TriggerFrame.DOUBLE_CLICK),
+        /**
+         * 1 (moving) or 0
+         */
+        MOTION(TriggerFrame.MOTION),
+        MODEL_NUMBER(TriggerFrame.MODEL_NUMBER)
+    }
+
+    /**
+     * The devices a query matched, in slot order
+     */
+    class Selection {
+        internal var slots = IntArray(16)
+        internal var macAddresses = LongArray(16)
+
+        var size = 0
+            internal set
+
+        fun getMacAddress(index: Int): Long = macAddresses[index]
+
+        fun toMacAddresses(): LongArray = macAddresses.copyOf(size)
+
+        internal fun set(index: Int, slot: Int, macAddress: Long) {
+            if (index == slots.size) {
+                val capacity = index * 2
+                slots = slots.copyOf(capacity)
+                macAddresses = macAddresses.copyOf(capacity)
+            }
+            slots[index] = slot
+            macAddresses[index] = macAddress
+        }
+
+        override fun toString(): String {
+            val sb = StringBuilder("{ size=").append(size).append(", macAddresses=[")
+            for (i in 0 until size) {
+                if (i > 0) {
+                    sb.append(", ")
+                }
+                sb.append(macAddresses[i])
+            }
+            return sb.append("] }").toString()
+        }
+    }
+
+    class Aggregate {
+        var count = 0
+            private set
+        var sum = 0L
+            private set
+        /**
+         * [Int.MAX_VALUE] if count is 0
+         */
+        var min = Int.MAX_VALUE
+            private set
+        /**
+         * [Int.MIN_VALUE] if count is 0
+         */
+        var max = Int.MIN_VALUE
+            private set
+
+        /**
+         * [Double.NaN] if count is 0
+         */
+        val average: Double
+            get() = if (count == 0) Double.NaN else sum.toDouble() / count
+
+        internal fun add(value: Int) {
+            count++
+            sum += value
+            if (value < min) min = value
+            if (value > max) max = value
+        }
+
+        internal fun clear() {
+            count = 0
+            sum = 0L
+            min = Int.MAX_VALUE
+            max = Int.MIN_VALUE
+        }
+
+        override fun toString(): String {
+            return "{ count=$count, sum=$sum, min=$min, max=$max, average=$average }"
+        }
+    }
+
+    interface Visitor {
+        /**
+         * Called while holding the table's lock; read the slot with [FleetStateTable.get] and friends, and do not
+         * modify the table
+         */
+        fun visit(table: FleetStateTable, slot: Int)
+    }
+
+    private val slotsByMacAddress = LongIntHashMap(capacity)
+
+    //
+    // Columns
+    //
+    private var macAddresses = LongArray(capacity)
+    /**
+     * Bitwise or of the [Column.presentMask]s reported for each slot, plus [PRESENT_SLOT_USED]; 0 if the slot is free
+     */
+    private var presentMasks = IntArray(capacity)
+    private var updatedElapsedMillis = LongArray(capacity)
+    private val values = Array(COLUMNS.size) { IntArray(capacity) }
+
+    private var freeSlots = IntArray(capacity)
+    private var freeSlotCount = 0
+
+    /**
+     * Every slot in use is below it
+     */
+    private var slotLimit = 0
+
+    val size: Int
+        get() = synchronized(this) { slotsByMacAddress.size() }
+
+    val capacity: Int
+        get() = synchronized(this) { macAddresses.size }
+
+    /**
+     * @return the slot of macAddress, or [NO_SLOT]; a slot is only valid until its device is removed
+     */
+    fun getSlot(macAddress: Long): Int {
+        synchronized(this) {
+            return slotsByMacAddress.get(macAddress, NO_SLOT)
+        }
+    }
+
+    fun getMacAddress(slot: Int): Long {
+        synchronized(this) {
+            return macAddresses[slot]
+        }
+    }
+
+    fun getUpdatedElapsedMillis(slot: Int): Long {
+        synchronized(this) {
+            return updatedElapsedMillis[slot]
+        }
+    }
+
+    fun has(slot: Int, column: Column): Boolean {
+        synchronized(this) {
+            return (presentMasks[slot] and column.presentMask) != 0
+        }
+    }
+
+    /**
+     * @return the value, or undefined if ![has]
+     */
+    fun get(slot: Int, column: Column): Int {
+        synchronized(this) {
+            return values[column.ordinal][slot]
+        }
+    }
+
+    /**
+     * Call on the BleTool looper after the device has merged the frame
+     *
+     * @param frame the device's merged [TriggerFrameDevice.frame]; every value present in it is copied
+     * @param signalLevelRssiSmoothed [Features.IFeatureSignalLevelRssi.signalLevelRssiSmoothed], or
+     * [Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED]
+     * @return the device's slot
+     */
+    fun update(macAddress: Long, frame: TriggerFrame, signalLevelRssiSmoothed: Int, elapsedMillis: Long): Int {
+        synchronized(this) {
+            var slot = slotsByMacAddress.get(macAddress, NO_SLOT)
+            if (slot == NO_SLOT) {
+                slot = allocate(macAddress)
+            }
+            val present = frame.present
+            var presentMask = presentMasks[slot] or present
+            val values = values
+            if ((present and TriggerFrame.SIGNAL_LEVEL_RSSI) != 0) {
+                values[Column.SIGNAL_LEVEL_RSSI.ordinal][slot] = frame.signalLevelRssi
+            }
+            if (signalLevelRssiSmoothed != Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED) {
+                values[Column.SIGNAL_LEVEL_RSSI_SMOOTHED.ordinal][slot] = signalLevelRssiSmoothed
+                presentMask = presentMask or PRESENT_SIGNAL_LEVEL_RSSI_SMOOTHED
+            } else {
+                presentMask = presentMask and PRESENT_SIGNAL_LEVEL_RSSI_SMOOTHED.inv()
+            }
+            if ((present and TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS) != 0) {
+                values[Column.BATTERY_LEVEL_MILLI_VOLTS.ordinal][slot] = frame.batteryLevelMilliVolts.toInt()
+            }
+            if ((present and TriggerFrame.TEMPERATURE_CELSIUS) != 0) {
+                values[Column.TEMPERATURE_CELSIUS.ordinal][slot] = frame.temperatureCelsius.toInt()
+            }
+            if ((present and TriggerFrame.BEEPING_AND_FLASHING) != 0) {
+                values[Column.BEEPING_AND_FLASHING.ordinal][slot] = if (frame.isBeepingAndFlashing) 1 else 0
+            }
+            if ((present and TriggerFrame.SHORT_CLICK) != 0) {
+                values[Column.SHORT_CLICK.ordinal][slot] = if (frame.isShortClicked) 1 else 0
+            }
+            if ((present and TriggerFrame.LONG_CLICK) != 0) {
+                values[Column.LONG_CLICK.ordinal][slot] = if (frame.isLongClicked) 1 else 0
+            }
+            if ((present and TriggerFrame.DOUBLE_CLICK) != 0) {
+                values[Column.DOUBLE_CLICK.ordinal][slot] = if (frame.isDoubleClicked) 1 else 0
+            }
+            if ((present and TriggerFrame.MOTION) != 0) {
+                values[Column.MOTION.ordinal][slot] = if (frame.isMotion) 1 else 0
+            }
+            if ((present and TriggerFrame.MODEL_NUMBER) != 0) {
+                values[Column.MODEL_NUMBER.ordinal][slot] = frame.modelNumber
+            }
+            presentMasks[slot] = presentMask
+            updatedElapsedMillis[slot] = elapsedMillis
+            return slot
+        }
+    }
+
+    private fun allocate(macAddress: Long): Int {
+        val slot = if (freeSlotCount > 0) {
+            freeSlots[--freeSlotCount]
+        } else {
+            if (slotLimit == macAddresses.size) {
+                grow(Math.max(slotLimit * 2, CAPACITY_INITIAL_DEFAULT))
+            }
+            slotLimit++
+        }
+        slotsByMacAddress.put(macAddress, slot)
+        macAddresses[slot] = macAddress
+        presentMasks[slot] = PRESENT_SLOT_USED
+        return slot
+    }
+
+    private fun grow(capacity: Int) {
+        macAddresses = macAddresses.copyOf(capacity)
+        presentMasks = presentMasks.copyOf(capacity)
+        updatedElapsedMillis = updatedElapsedMillis.copyOf(capacity)
+        for (i in values.indices) {
+            values[i] = values[i].copyOf(capacity)
+        }
+        freeSlots = freeSlots.copyOf(capacity)
+    }
+
+    /**
+     * @return true if macAddress had a slot
+     */
+    fun remove(macAddress: Long): Boolean {
+        synchronized(this) {
+            val slot = slotsByMacAddress.get(macAddress, NO_SLOT)
+            if (slot == NO_SLOT) {
+                return false
+            }
+            free(slot)
+            return true
+        }
+    }
+
+    private fun free(slot: Int) {
+        slotsByMacAddress.remove(macAddresses[slot])
+        macAddresses[slot] = 0L
+        presentMasks[slot] = 0
+        freeSlots[freeSlotCount++] = slot
+    }
+
+    /**
+     * Removes every device whose mac address does not pass retain; ex: after devices were evicted
+     *
+     * @return the number of devices removed
+     */
+    fun retainAll(retain: (macAddress: Long) -> Boolean): Int {
+        synchronized(this) {
+            var removed = 0
+            for (slot in 0 until slotLimit) {
+                if (presentMasks[slot] != 0 && !retain(macAddresses[slot])) {
+                    free(slot)
+                    removed++
+                }
+            }
+            return removed
+        }
+    }
+
+    fun clear() {
+        synchronized(this) {
+            slotsByMacAddress.clear()
+            presentMasks.fill(0, 0, slotLimit)
+            macAddresses.fill(0L, 0, slotLimit)
+            freeSlotCount = 0
+            slotLimit = 0
+        }
+    }
+
+    /**
+     * Calls block with every slot in use that has every bit of presentMask, or only with the slots of within's devices
+     * that still have them; must be called while holding the table's lock
+     */
+    private inline fun forEachSlot(presentMask: Int, within: Selection?, block: (slot: Int) -> Unit) {
+        val mask = presentMask or PRESENT_SLOT_USED
+        val presentMasks = presentMasks
+        if (within == null) {
+            for (slot in 0 until slotLimit) {
+                if ((presentMasks[slot] and mask) == mask) {
+                    block(slot)
+                }
+            }
+        } else {
+            val macAddresses = macAddresses
+            val withinSlots = within.slots
+            val withinMacAddresses = within.macAddresses
+            // Read within.size up front, so within can also be the Selection being filled
+            for (i in 0 until within.size) {
+                val slot = withinSlots[i]
+                if (slot < slotLimit && macAddresses[slot] == withinMacAddresses[i] && (presentMasks[slot] and mask) == mask) {
+                    block(slot)
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the devices whose column value is within [min, max]
+     *
+     * @param into cleared and filled; may be within, to narrow it down in place
+     * @param within only consider these devices; null for every device
+     */
+    fun select(column: Column, min: Int, max: Int, into: Selection = Selection(), within: Selection? = null): Selection {
+        synchronized(this) {
+            val values = values[column.ordinal]
+            val macAddresses = macAddresses
+            var size = 0
+            forEachSlot(column.presentMask, within) { slot ->
+                val value = values[slot]
+                if (value >= min && value <= max) {
+                    into.set(size++, slot, macAddresses[slot])
+                }
+            }
+            into.size = size
+            return into
+        }
+    }
+
+    /**
+     * @return the number of devices whose column value is within [min, max]
+     */
+    fun count(column: Column, min: Int = Int.MIN_VALUE, max: Int = Int.MAX_VALUE, within: Selection? = null): Int {
+        synchronized(this) {
+            val values = values[column.ordinal]
+            var count = 0
+            forEachSlot(column.presentMask, within) { slot ->
+                val value = values[slot]
+                if (value >= min && value <= max) {
+                    count++
+                }
+            }
+            return count
+        }
+    }
+
+    /**
+     * @param into cleared and filled
+     */
+    fun aggregate(column: Column, into: Aggregate = Aggregate(), within: Selection? = null): Aggregate {
+        synchronized(this) {
+            into.clear()
+            val values = values[column.ordinal]
+            forEachSlot(column.presentMask, within) { slot ->
+                into.add(values[slot])
+            }
+            return into
+        }
+    }
+
+    /**
+     * Ex: aggregateBy(Column.TEMPERATURE_CELSIUS, Column.MODEL_NUMBER) for the temperatures of each model
+     *
+     * @return one [Aggregate] of column per value of groupBy, sorted by groupBy; devices without both are skipped
+     */
+    fun aggregateBy(column: Column, groupBy: Column, within: Selection? = null): SortedMap<Int, Aggregate> {
+        synchronized(this) {
+            val values = values[column.ordinal]
+            val keys = this.values[groupBy.ordinal]
+            // Few distinct groups (ex: models), so a linear search that starts at the last hit beats hashing
+            var groupKeys = IntArray(8)
+            val groups = ArrayList<Aggregate>()
+            var last = -1
+            forEachSlot(column.presentMask or groupBy.presentMask, within) { slot ->
+                val key = keys[slot]
+                if (last == -1 || groupKeys[last] != key) {
+                    last = -1
+                    for (i in groups.indices) {
+                        if (groupKeys[i] == key) {
+                            last = i
+                            break
+                        }
+                    }
+                    if (last == -1) {
+                        last = groups.size
+                        if (last == groupKeys.size) {
+                            groupKeys = groupKeys.copyOf(last * 2)
+                        }
+                        groupKeys[last] = key
+                        groups.add(Aggregate())
+                    }
+                }
+                groups[last].add(values[slot])
+            }
+            val result = TreeMap<Int, Aggregate>()
+            for (i in groups.indices) {
+                result[groupKeys[i]] = groups[i]
+            }
+            return result
+        }
+    }
+
+    fun scan(visitor: Visitor, within: Selection? = null) {
+        synchronized(this) {
+            forEachSlot(0, within) { slot ->
+                visitor.visit(this, slot)
+            }
+        }
+    }
+
+    override fun toString(): String {
+        synchronized(this) {
+            return "{ size=${slotsByMacAddress.size()}, capacity=${macAddresses.size}, slotLimit=$slotLimit }"
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.utils.ReflectionUtils.instanceName
+import com.github.paulpv.androidbletool.utils.Utils
+import java.util.*
+
+/**
+ * Fixed layout record of everything parsed from one advertisement: a bitmask of the values [present], plus one
+ * primitive field per value.
+ *
+ * Replaces a collection of per value Trigger objects; a parser fills one reused frame per advertisement with the set
+ * methods, and [TriggerFrameDevice.update] tests bits instead of
+ * `is` checking objects.
+ *
+ * Not thread safe.
+ */
+class TriggerFrame {
+    companion object {
+        const val SIGNAL_LEVEL_RSSI = 1 shl 0
+        const val ADVERTISEMENT_SPEED = 1 shl 1
+        const val BEEPING_AND_FLASHING = 1 shl 2
+        const val SHORT_CLICK = 1 shl 3
+        const val LONG_CLICK = 1 shl 4
+        const val DOUBLE_CLICK = 1 shl 5
+        const val TEMPERATURE_CELSIUS = 1 shl 6
+        const val BATTERY_LEVEL_MILLI_VOLTS = 1 shl 7
+        const val MOTION = 1 shl 8
+        const val CONTINUOUS_SCAN = 1 shl 9
+        const val MODEL_NUMBER = 1 shl 10
+        const val BEACON = 1 shl 11
+        const val BEACON_TX_POWER = 1 shl 12
+        const val BEACON_URL = 1 shl 13
+        const val BEACON_TELEMETRY = 1 shl 14
+
+        /**
+         * Longest encoded Eddystone-URL, after the scheme byte
+         */
+        const val BEACON_URL_LENGTH_MAX = 17
+
+        /**
+         * Every bit set; for changes that can not be described more precisely (ex: an unrecognized device)
+         */
+        const val ALL = -1
+
+        /**
+         * Values that should be acted on right away when they change, instead of on the next batched update
+         */
+        const val IMMEDIATE = ADVERTISEMENT_SPEED or
+                BEEPING_AND_FLASHING or
+                SHORT_CLICK or
+                LONG_CLICK or
+                DOUBLE_CLICK or
+                MOTION or
+                CONTINUOUS_SCAN
+
+        const val CONTINUOUS_SCAN_DURATION_MILLIS_DEFAULT = 2000
+
+        private val NAMES = arrayOf(
+            "SIGNAL_LEVEL_RSSI",
+            "ADVERTISEMENT_SPEED",
+            "BEEPING_AND_FLASHING",
+            "SHORT_CLICK",
+            "LONG_CLICK",
+            "DOUBLE_CLICK",
+            "TEMPERATURE_CELSIUS",
+            "BATTERY_LEVEL_MILLI_VOLTS",
+            "MOTION",
+            "CONTINUOUS_SCAN",
+            "MODEL_NUMBER",
+            "BEACON",
+            "BEACON_TX_POWER",
+            "BEACON_URL",
+            "BEACON_TELEMETRY"
+        )
+
+        /**
+         * Eddystone-URL scheme prefixes, by scheme byte
+         */
+        private val BEACON_URL_SCHEMES = arrayOf("http://www.", "https://www.", "http://", "https://")
+
+        /**
+         * Eddystone-URL expansions, by encoded byte
+         */
+        private val BEACON_URL_EXPANSIONS = arrayOf(
+            ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"
+        )
+
+        fun toString(mask: Int): String {
+            if (mask == ALL) {
+                return "[ALL]"
+            }
+            val sb = StringBuilder("[")
+            for (i in NAMES.indices) {
+                if (mask and (1 shl i) != 0) {
+                    if (sb.length > 1) {
+                        sb.append(", ")
+                    }
+                    sb.append(NAMES[i])
+                }
+            }
+            return sb.append(']').toString()
+        }
+    }
+
+    object AdvertisementSpeed {
+        const val FAST: Byte = 0
+        const val SLOW: Byte = 1
+        fun toString(value: Byte): String {
+            val s: String = when (value) {
+                FAST -> "FAST"
+                SLOW -> "SLOW"
+                else -> "UNKNOWN"
+            }
+            return "$s($value)"
+        }
+    }
+
+    object BeaconType {
+        const val IBEACON: Byte = 0
+        const val EDDYSTONE_UID: Byte = 1
+        const val ALTBEACON: Byte = 2
+        fun toString(value: Byte): String {
+            val s: String = when (value) {
+                IBEACON -> "IBEACON"
+                EDDYSTONE_UID -> "EDDYSTONE_UID"
+                ALTBEACON -> "ALTBEACON"
+                else -> "UNKNOWN"
+            }
+            return "$s($value)"
+        }
+    }
+
+    /**
+     * Bitmask of the values set since the last [clear]; the fields of values not present are stale
+     */
+    var present = 0
+        private set
+
+    var signalLevelRssi = 0
+        private set
+    var advertisementSpeed = AdvertisementSpeed.SLOW
+        private set
+    var isBeepingAndFlashing = false
+        private set
+    var isShortClicked = false
+        private set
+    var isLongClicked = false
+        private set
+    var isDoubleClicked = false
+        private set
+
+    /**
+     * Shared by all three clicks; -1 if not sent
+     */
+    var clickSequence: Byte = -1
+        private set
+    var clickCounter: Byte = -1
+        private set
+
+    var temperatureCelsius: Short = 0
+        private set
+    var batteryLevelMilliVolts: Short = 0
+        private set
+    var isMotion = false
+        private set
+    var continuousScanDurationMillis = 0
+        private set
+    var modelNumber = 0
+        private set
+
+    var beaconType = BeaconType.IBEACON
+        private set
+
+    /**
+     * The beacon ID as two longs, so that it can be compared without a UUID: the proximity UUID of an iBeacon, the
+     * first 16 bytes of an AltBeacon's beacon ID, or the 10 byte namespace and 6 byte instance of an Eddystone-UID
+     */
+    var beaconIdMostSignificantBits = 0L
+        private set
+    var beaconIdLeastSignificantBits = 0L
+        private set
+
+    /**
+     * iBeacon/AltBeacon only; 0 for Eddystone-UID
+     */
+    var beaconMajor = 0
+        private set
+    var beaconMinor = 0
+        private set
+
+    /**
+     * Calibrated rssi at 1 meter (iBeacon/AltBeacon) or at 0 meters (Eddystone)
+     */
+    var beaconTxPower: Byte = 0
+        private set
+
+    var beaconUrlScheme: Byte = 0
+        private set
+    private val beaconUrl = ByteArray(BEACON_URL_LENGTH_MAX)
+    var beaconUrlLength = 0
+        private set
+
+    /**
+     * Eddystone-TLM advertising PDU count since power up; unsigned 32 bits
+     */
+    var beaconAdvertisementCount = 0L
+        private set
+
+    /**
+     * Eddystone-TLM time since power up, in 0.1 second units; unsigned 32 bits
+     */
+    var beaconUptimeDeciseconds = 0L
+        private set
+
+    fun has(mask: Int): Boolean {
+        return present and mask != 0
+    }
+
+    fun clear() {
+        present = 0
+    }
+
+    fun setSignalLevelRssi(rssi: Int) {
+        signalLevelRssi = rssi
+        present = present or SIGNAL_LEVEL_RSSI
+    }
+
+    fun setAdvertisementSpeed(advertisementSpeed: Byte) {
+        this.advertisementSpeed = advertisementSpeed
+        present = present or ADVERTISEMENT_SPEED
+    }
+
+    fun setBeepingAndFlashing(isBeepingAndFlashing: Boolean) {
+        this.isBeepingAndFlashing = isBeepingAndFlashing
+        present = present or BEEPING_AND_FLASHING
+    }
+
+    /**
+     * Sets all three clicks at once, from the one button action an advertisement carries
+     */
+    fun setClicks(isShortClicked: Boolean, isLongClicked: Boolean, isDoubleClicked: Boolean, sequence: Byte = -1, counter: Byte = -1) {
+        this.isShortClicked = isShortClicked
+        this.isLongClicked = isLongClicked
+        this.isDoubleClicked = isDoubleClicked
+        clickSequence = sequence
+        clickCounter = counter
+        present = present or SHORT_CLICK or LONG_CLICK or DOUBLE_CLICK
+    }
+
+    fun setTemperatureCelsius(celsius: Short) {
+        temperatureCelsius = celsius
+        present = present or TEMPERATURE_CELSIUS
+    }
+
+    fun setBatteryLevelMilliVolts(milliVolts: Short) {
+        batteryLevelMilliVolts = milliVolts
+        present = present or BATTERY_LEVEL_MILLI_VOLTS
+    }
+
+    fun setMotion(isMotion: Boolean) {
+        this.isMotion = isMotion
+        present = present or MOTION
+    }
+
+    fun setContinuousScan(durationMillis: Int = CONTINUOUS_SCAN_DURATION_MILLIS_DEFAULT) {
+        continuousScanDurationMillis = durationMillis
+        present = present or CONTINUOUS_SCAN
+    }
+
+    fun setModelNumber(modelNumber: Int) {
+        this.modelNumber = modelNumber
+        present = present or MODEL_NUMBER
+    }
+
+    fun setBeacon(type: Byte, idMostSignificantBits: Long, idLeastSignificantBits: Long, major: Int = 0, minor: Int = 0) {
+        beaconType = type
+        beaconIdMostSignificantBits = idMostSignificantBits
+        beaconIdLeastSignificantBits = idLeastSignificantBits
+        beaconMajor = major
+        beaconMinor = minor
+        present = present or BEACON
+    }
+
+    fun setBeaconTxPower(txPower: Byte) {
+        beaconTxPower = txPower
+        present = present or BEACON_TX_POWER
+    }
+
+    /**
+     * Copies the still encoded url; [getBeaconUrl] only decodes it on demand
+     *
+     * @param length at most [BEACON_URL_LENGTH_MAX]
+     */
+    fun setBeaconUrl(scheme: Byte, bytes: ByteArray, offset: Int, length: Int) {
+        require(length in 0..BEACON_URL_LENGTH_MAX) { "length must be 0..$BEACON_URL_LENGTH_MAX" }
+        beaconUrlScheme = scheme
+        System.arraycopy(bytes, offset, beaconUrl, 0, length)
+        beaconUrlLength = length
+        present = present or BEACON_URL
+    }
+
+    fun setBeaconTelemetry(advertisementCount: Long, uptimeDeciseconds: Long) {
+        beaconAdvertisementCount = advertisementCount
+        beaconUptimeDeciseconds = uptimeDeciseconds
+        present = present or BEACON_TELEMETRY
+    }
+
+    /**
+     * Decodes, and so allocates; call only when the url is actually needed, not per advertisement
+     *
+     * @return the Eddystone-URL, or null if not [BEACON_URL] or the scheme is unknown
+     */
+    fun getBeaconUrl(): String? {
+        if (!has(BEACON_URL)) {
+            return null
+        }
+        val scheme = beaconUrlScheme.toInt() and 0xFF
+        if (scheme >= BEACON_URL_SCHEMES.size) {
+            return null
+        }
+        val sb = StringBuilder(BEACON_URL_SCHEMES[scheme])
+        for (i in 0 until beaconUrlLength) {
+            val b = beaconUrl[i].toInt() and 0xFF
+            if (b < BEACON_URL_EXPANSIONS.size) {
+                sb.append(BEACON_URL_EXPANSIONS[b])
+            } else {
+                sb.append(b.toChar())
+            }
+        }
+        return sb.toString()
+    }
+
+    private fun isBeaconUrlEqual(other: TriggerFrame): Boolean {
+        if (beaconUrlScheme != other.beaconUrlScheme || beaconUrlLength != other.beaconUrlLength) {
+            return false
+        }
+        for (i in 0 until beaconUrlLength) {
+            if (beaconUrl[i] != other.beaconUrl[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Copies only the values present in other, leaving the rest of this frame as it was
+     */
+    fun merge(other: TriggerFrame) {
+        val mask = other.present
+        if (mask and SIGNAL_LEVEL_RSSI != 0) signalLevelRssi = other.signalLevelRssi
+        if (mask and ADVERTISEMENT_SPEED != 0) advertisementSpeed = other.advertisementSpeed
+        if (mask and BEEPING_AND_FLASHING != 0) isBeepingAndFlashing = other.isBeepingAndFlashing
+        if (mask and SHORT_CLICK != 0) isShortClicked = other.isShortClicked
+        if (mask and LONG_CLICK != 0) isLongClicked = other.isLongClicked
+        if (mask and DOUBLE_CLICK != 0) isDoubleClicked = other.isDoubleClicked
+        if (mask and (SHORT_CLICK or LONG_CLICK or DOUBLE_CLICK) != 0) {
+            clickSequence = other.clickSequence
+            clickCounter = other.clickCounter
+        }
+        if (mask and TEMPERATURE_CELSIUS != 0) temperatureCelsius = other.temperatureCelsius
+        if (mask and BATTERY_LEVEL_MILLI_VOLTS != 0) batteryLevelMilliVolts = other.batteryLevelMilliVolts
+        if (mask and MOTION != 0) isMotion = other.isMotion
+        if (mask and CONTINUOUS_SCAN != 0) continuousScanDurationMillis = other.continuousScanDurationMillis
+        if (mask and MODEL_NUMBER != 0) modelNumber = other.modelNumber
+        if (mask and BEACON != 0) {
+            beaconType = other.beaconType
+            beaconIdMostSignificantBits = other.beaconIdMostSignificantBits
+            beaconIdLeastSignificantBits = other.beaconIdLeastSignificantBits
+            beaconMajor = other.beaconMajor
+            beaconMinor = other.beaconMinor
+        }
+        if (mask and BEACON_TX_POWER != 0) beaconTxPower = other.beaconTxPower
+        if (mask and BEACON_URL != 0) setBeaconUrl(other.beaconUrlScheme, other.beaconUrl, 0, other.beaconUrlLength)
+        if (mask and BEACON_TELEMETRY != 0) {
+            beaconAdvertisementCount = other.beaconAdvertisementCount
+            beaconUptimeDeciseconds = other.beaconUptimeDeciseconds
+        }
+        present = present or mask
+    }
+
+    /**
+     * Compares field by field; clicks also compare [clickSequence] and [clickCounter], so a new click with the same
+     * button state is still a change.
+     *
+     * @return the bitmask of values present in other that are not present in this frame, or differ from it
+     */
+    fun diff(other: TriggerFrame): Int {
+        val mask = other.present
+        var changed = mask and present.inv()
+        val common = mask and present
+        if (common == 0) {
+            return changed
+        }
+        if (common and SIGNAL_LEVEL_RSSI != 0 && signalLevelRssi != other.signalLevelRssi) changed = changed or SIGNAL_LEVEL_RSSI
+        if (common and ADVERTISEMENT_SPEED != 0 && advertisementSpeed != other.advertisementSpeed) changed = changed or ADVERTISEMENT_SPEED
+        if (common and BEEPING_AND_FLASHING != 0 && isBeepingAndFlashing != other.isBeepingAndFlashing) changed = changed or BEEPING_AND_FLASHING
+        val isClickChanged = clickSequence != other.clickSequence || clickCounter != other.clickCounter
+        if (common and SHORT_CLICK != 0 && (isClickChanged || isShortClicked != other.isShortClicked)) changed = changed or SHORT_CLICK
+        if (common and LONG_CLICK != 0 && (isClickChanged || isLongClicked != other.isLongClicked)) changed = changed or LONG_CLICK
+        if (common and DOUBLE_CLICK != 0 && (isClickChanged || isDoubleClicked != other.isDoubleClicked)) changed = changed or DOUBLE_CLICK
+        if (common and TEMPERATURE_CELSIUS != 0 && temperatureCelsius != other.temperatureCelsius) changed = changed or TEMPERATURE_CELSIUS
+        if (common and BATTERY_LEVEL_MILLI_VOLTS != 0 && batteryLevelMilliVolts != other.batteryLevelMilliVolts) changed = changed or BATTERY_LEVEL_MILLI_VOLTS
+        if (common and MOTION != 0 && isMotion != other.isMotion) changed = changed or MOTION
+        if (common and CONTINUOUS_SCAN != 0 && continuousScanDurationMillis != other.continuousScanDurationMillis) changed = changed or CONTINUOUS_SCAN
+        if (common and MODEL_NUMBER != 0 && modelNumber != other.modelNumber) changed = changed or MODEL_NUMBER
+        if (common and BEACON != 0 && (beaconType != other.beaconType ||
+                    beaconIdMostSignificantBits != other.beaconIdMostSignificantBits ||
+                    beaconIdLeastSignificantBits != other.beaconIdLeastSignificantBits ||
+                    beaconMajor != other.beaconMajor ||
+                    beaconMinor != other.beaconMinor)
+        ) changed = changed or BEACON
+        if (common and BEACON_TX_POWER != 0 && beaconTxPower != other.beaconTxPower) changed = changed or BEACON_TX_POWER
+        if (common and BEACON_URL != 0 && !isBeaconUrlEqual(other)) changed = changed or BEACON_URL
+        if (common and BEACON_TELEMETRY != 0 && (beaconAdvertisementCount != other.beaconAdvertisementCount ||
+                    beaconUptimeDeciseconds != other.beaconUptimeDeciseconds)
+        ) changed = changed or BEACON_TELEMETRY
+        return changed
+    }
+
+    override fun toString(): String {
+        val sb = StringBuilder(instanceName(this)).append("{ present=").append(toString(present))
+        if (has(SIGNAL_LEVEL_RSSI)) sb.append(", signalLevelRssi=").append(signalLevelRssi)
+        if (has(ADVERTISEMENT_SPEED)) sb.append(", advertisementSpeed=").append(AdvertisementSpeed.toString(advertisementSpeed))
+        if (has(BEEPING_AND_FLASHING)) sb.append(", isBeepingAndFlashing=").append(isBeepingAndFlashing)
+        if (has(SHORT_CLICK or LONG_CLICK or DOUBLE_CLICK)) {
+            sb.append(", isShortClicked=").append(isShortClicked)
+                .append(", isLongClicked=").append(isLongClicked)
+                .append(", isDoubleClicked=").append(isDoubleClicked)
+                .append(", clickSequence=").append(clickSequence)
+                .append(", clickCounter=").append(clickCounter)
+        }
+        if (has(TEMPERATURE_CELSIUS)) sb.append(", temperatureCelsius=").append(temperatureCelsius)
+        if (has(BATTERY_LEVEL_MILLI_VOLTS)) sb.append(", batteryLevelMilliVolts=").append(batteryLevelMilliVolts)
+        if (has(MOTION)) sb.append(", isMotion=").append(isMotion)
+        if (has(CONTINUOUS_SCAN)) sb.append(", continuousScanDurationMillis=").append(continuousScanDurationMillis)
+        if (has(MODEL_NUMBER)) sb.append(", modelNumber=").append(modelNumber)
+        if (has(BEACON)) {
+            sb.append(", beaconType=").append(BeaconType.toString(beaconType))
+                .append(", beaconId=").append(UUID(beaconIdMostSignificantBits, beaconIdLeastSignificantBits))
+                .append(", beaconMajor=").append(beaconMajor)
+                .append(", beaconMinor=").append(beaconMinor)
+        }
+        if (has(BEACON_TX_POWER)) sb.append(", beaconTxPower=").append(beaconTxPower)
+        if (has(BEACON_URL)) sb.append(", beaconUrl=").append(Utils.quote(getBeaconUrl()))
+        if (has(BEACON_TELEMETRY)) {
+            sb.append(", beaconAdvertisementCount=").append(beaconAdvertisementCount)
+                .append(", beaconUptimeDeciseconds=").append(beaconUptimeDeciseconds)
+        }
+        return sb.append(" }").toString()
+    }
+}
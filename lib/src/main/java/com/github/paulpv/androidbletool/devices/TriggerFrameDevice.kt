@@ -0,0 +1,29 @@
+package com.github.paulpv.androidbletool.devices
+
+/**
+ * A device that keeps its last known values as a [TriggerFrame], and is updated by diffing each newly parsed frame
+ * against it; see [com.github.paulpv.androidbletool.BleToolParser.apply]
+ */
+interface TriggerFrameDevice {
+    /**
+     * This device's last known values: the previous frames, merged
+     */
+    val frame: TriggerFrame
+
+    /**
+     * Diffs frame against [TriggerFrameDevice.frame], merges it, and acts only on the values that changed.
+     *
+     * @param frame only valid for the duration of the call
+     * @return the bitmask of values that changed since the last frame; 0 if this device is idle
+     */
+    fun update(frame: TriggerFrame, forceRssiChange: Boolean = false): Int
+
+    /**
+     * Adopts frame and signalLevelRssiSmoothed as this device's last known values without treating them as changes,
+     * so the first [update] after a restart is diffed against the state the device had before it; see
+     * [com.github.paulpv.androidbletool.BleDeviceCheckpoint]
+     *
+     * @param frame only valid for the duration of the call
+     */
+    fun restore(frame: TriggerFrame, signalLevelRssiSmoothed: Int)
+}
@@ -0,0 +1,105 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import android.util.Log
+import com.github.paulpv.androidbletool.AdvertisementSchema
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.BleToolParser.Configuration
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.BeaconType
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+import java.util.*
+
+/**
+ * AltBeacons; sets [TriggerFrame.BEACON], with the first 16 bytes of the beacon ID as the beacon ID bits and the last
+ * 4 as major and minor, and [TriggerFrame.BEACON_TX_POWER]
+ *
+ * @param regions the first 16 bytes of the beacon IDs, as UUIDs; every AltBeacon if none
+ */
+class AltBeaconParser(
+    private val manufacturerIds: IntArray,
+    private vararg val regions: String
+) : BeaconParser(
+    TAG, "AltBeacon", getConfiguration(manufacturerIds), Array(regions.size) { i -> UUID.fromString(regions[i]) }
+) {
+    companion object {
+        private val TAG = TAG(AltBeaconParser::class.java)
+
+        /**
+         * AltBeacon manufacturer specific data
+         */
+        val SCHEMA = AdvertisementSchema.Builder("AltBeacon")
+            .field("beaconCode", AdvertisementSchema.Type.UINT16)
+            .field("idMostSignificantBits", AdvertisementSchema.Type.INT64)
+            .field("idLeastSignificantBits", AdvertisementSchema.Type.INT64)
+            .field("major", AdvertisementSchema.Type.UINT16)
+            .field("minor", AdvertisementSchema.Type.UINT16)
+            .field("referenceRssi", AdvertisementSchema.Type.INT8)
+            .field("manufacturerReserved", AdvertisementSchema.Type.UINT8)
+            .build()
+
+        private val SCHEMA_BEACON_CODE = SCHEMA.indexOf("beaconCode")
+        private val SCHEMA_ID_MOST_SIGNIFICANT_BITS = SCHEMA.indexOf("idMostSignificantBits")
+        private val SCHEMA_ID_LEAST_SIGNIFICANT_BITS = SCHEMA.indexOf("idLeastSignificantBits")
+        private val SCHEMA_MAJOR = SCHEMA.indexOf("major")
+        private val SCHEMA_MINOR = SCHEMA.indexOf("minor")
+        private val SCHEMA_REFERENCE_RSSI = SCHEMA.indexOf("referenceRssi")
+
+        private fun getConfiguration(manufacturerIds: IntArray): Configuration {
+            require(manufacturerIds.isNotEmpty()) { "manufacturerIds must not be empty" }
+            val configuration = Configuration()
+            val beaconCode = byteArrayOf((Beacons.AltBeacon.BEACON_CODE shr 8).toByte(), Beacons.AltBeacon.BEACON_CODE.toByte())
+            for (manufacturerId in manufacturerIds) {
+                configuration.addManufacturerData(manufacturerId, beaconCode)
+            }
+            return configuration
+        }
+    }
+
+    /**
+     * The AltBeacons of [BluetoothSigManufacturerIds.RADIUS_NETWORKS], the spec's reference implementation
+     */
+    constructor(vararg regions: String) : this(intArrayOf(BluetoothSigManufacturerIds.RADIUS_NETWORKS), *regions)
+
+    @Suppress("SimplifyBooleanWithConstants", "PrivatePropertyName")
+    private val LOG_ALTBEACON_VERBOSE = false && BuildConfig.DEBUG
+
+    /**
+     * Reused for every advertisement; see BleDeviceParser.parseScan
+     */
+    private val record = AdvertisementSchema.Record(SCHEMA)
+
+    override fun newInstance(): AltBeaconParser {
+        return AltBeaconParser(manufacturerIds, *regions)
+    }
+
+    override fun decode(
+        macAddress: Long,
+        manufacturerId: Int,
+        manufacturerSpecificData: ByteArrayReader,
+        frame: TriggerFrame
+    ): Boolean {
+        if (!manufacturerIds.contains(manufacturerId)) {
+            return false
+        }
+        val record = record
+        if (!SCHEMA.decode(manufacturerSpecificData, record)) {
+            if (LOG_ALTBEACON_VERBOSE) {
+                log(Log.WARN, macAddress, "decode", "Unexpected length ${manufacturerSpecificData.remaining()} < ${SCHEMA.minLength}; ignoring")
+            }
+            return false
+        }
+        if (record.getInt(SCHEMA_BEACON_CODE) != Beacons.AltBeacon.BEACON_CODE) {
+            return false
+        }
+        val idMostSignificantBits = record.getLong(SCHEMA_ID_MOST_SIGNIFICANT_BITS)
+        val idLeastSignificantBits = record.getLong(SCHEMA_ID_LEAST_SIGNIFICANT_BITS)
+        if (!isRegion(idMostSignificantBits, idLeastSignificantBits)) {
+            return false
+        }
+        frame.setBeacon(BeaconType.ALTBEACON, idMostSignificantBits, idLeastSignificantBits, record.getInt(SCHEMA_MAJOR), record.getInt(SCHEMA_MINOR))
+        frame.setBeaconTxPower(record.getByte(SCHEMA_REFERENCE_RSSI))
+        return true
+    }
+}
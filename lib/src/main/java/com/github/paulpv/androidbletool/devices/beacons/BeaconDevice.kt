@@ -0,0 +1,89 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import android.util.Log
+import com.github.paulpv.androidbletool.BleDevice
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.devices.Features
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
+import com.github.paulpv.androidbletool.gatt.GattHandler
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+
+/**
+ * A device recognized by a [BeaconParser]; its beacon ID, major/minor, url, and telemetry are all in [frame]
+ */
+open class BeaconDevice(gattHandler: GattHandler) : BleDevice(gattHandler),
+    Features.IFeatureSignalLevelRssi,
+    TriggerFrameDevice {
+    companion object {
+        private val TAG = TAG(BeaconDevice::class.java)
+
+        @Suppress("SimplifyBooleanWithConstants")
+        private val DEBUG_LOG_UPDATE = false && BuildConfig.DEBUG
+    }
+
+    private val featureSignalLevelRssi = Features.FeatureSignalLevelRssi(this)
+
+    override fun toString(): String {
+        return toString(this, ", frame=$frame")
+    }
+
+    override fun reset() {
+        super.reset()
+        featureSignalLevelRssi.reset()
+    }
+
+    //
+    //region IFeature
+    //
+
+    override val device: BeaconDevice
+        get() = this
+
+    //
+    //endregion IFeature
+    //
+
+    //
+    //region IFeatureSignalLevelRssi
+    //
+
+    override val signalLevelRssiRealtime: Int
+        get() = featureSignalLevelRssi.signalLevelRssiRealtime
+    override val signalLevelRssiSmoothed: Int
+        get() = featureSignalLevelRssi.signalLevelRssiSmoothed
+
+    //
+    //endregion IFeatureSignalLevelRssi
+    //
+
+    private val updateSyncLock = Any()
+
+    override val frame = TriggerFrame()
+
+    override fun update(frame: TriggerFrame, forceRssiChange: Boolean): Int {
+        synchronized(updateSyncLock) {
+            var changed = this.frame.diff(frame)
+            if (forceRssiChange && frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI)) {
+                changed = changed or TriggerFrame.SIGNAL_LEVEL_RSSI
+            }
+            @Suppress("ConstantConditionIf")
+            if (DEBUG_LOG_UPDATE) {
+                Log.v(TAG, "$macAddressString update: frame=$frame, changed=${TriggerFrame.toString(changed)}")
+            }
+            this.frame.merge(frame)
+            if (frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI)) {
+                // Every sample, changed or not, so that the smoothed value converges
+                featureSignalLevelRssi.setSignalLevelRssi(frame.signalLevelRssi)
+            }
+            return changed
+        }
+    }
+
+    override fun restore(frame: TriggerFrame, signalLevelRssiSmoothed: Int) {
+        synchronized(updateSyncLock) {
+            this.frame.merge(frame)
+            featureSignalLevelRssi.restore(signalLevelRssiSmoothed)
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import com.github.paulpv.androidbletool.BleDevice
+import com.github.paulpv.androidbletool.BleDeviceFactory
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+
+/**
+ * Creates a [BeaconDevice] for every device recognized by a [BeaconParser], and a plain [BleDevice] otherwise
+ */
+open class BeaconDeviceFactory : BleDeviceFactory<BleDevice>() {
+    override fun getDevice(
+        macAddress: Long,
+        parser: BleToolParser.BleDeviceParser,
+        frame: TriggerFrame
+    ): BleDevice {
+        if (parser !is BeaconParser) {
+            return super.getDevice(macAddress, parser, frame)
+        }
+        while (true) {
+            val device = deviceCache[macAddress]
+            if (device is BeaconDevice) return device
+            // Replaces any plain BleDevice created before the device's first beacon advertisement
+            val beaconDevice = BeaconDevice(gattManager.getGattHandler(macAddress))
+            if (device == null) {
+                return add(macAddress, beaconDevice)
+            }
+            if (deviceCache.replace(macAddress, device, beaconDevice)) {
+                // Its GattHandler is the one beaconDevice shares, so it is not closed
+                device.onEvicted()
+                onAdded(macAddress, beaconDevice)
+                return beaconDevice
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.collections.LongPairHashSet
+import java.util.*
+
+/**
+ * Base of the generic beacon parsers: decodes into primitive [com.github.paulpv.androidbletool.devices.TriggerFrame]
+ * beacon fields, and matches beacon IDs against a set of regions as two longs, with no UUID or String per
+ * advertisement.
+ *
+ * @param regions the beacon IDs (or Eddystone namespaces) to recognize; all of them if empty
+ */
+abstract class BeaconParser(
+    TAG: String,
+    debugModelName: String,
+    configuration: BleToolParser.Configuration,
+    regions: Array<out UUID>
+) : BleToolParser.RawBleDeviceParser(TAG, debugModelName, configuration) {
+    companion object {
+        /**
+         * Not a Pebblebee or any other known model; see [BeaconDeviceFactory]
+         */
+        const val MODEL_NUMBER = 0
+    }
+
+    private val regions = LongPairHashSet(regions.size)
+
+    init {
+        for (region in regions) {
+            this.regions.add(region)
+        }
+    }
+
+    override val modelNumber: Int
+        get() = MODEL_NUMBER
+
+    /**
+     * Never allocates
+     */
+    protected fun isRegion(mostSignificantBits: Long, leastSignificantBits: Long): Boolean {
+        return regions.isEmpty || regions.contains(mostSignificantBits, leastSignificantBits)
+    }
+
+    override fun toString(): String {
+        return "$debugModelName{ regions=$regions }"
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import com.github.paulpv.androidbletool.BleParserDescriptor
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.BleToolParser.Configuration.ManufacturerData
+import java.util.*
+
+object Beacons {
+    /**
+     * https://github.com/google/eddystone/blob/master/protocol-specification.md
+     */
+    interface Eddystone {
+        companion object {
+            /**
+             * 16 bit service UUID of all Eddystone service data
+             */
+            const val SERVICE_UUID = 0xFEAA
+
+            const val FRAME_TYPE_UID = 0x00
+            const val FRAME_TYPE_URL = 0x10
+            const val FRAME_TYPE_TLM = 0x20
+
+            /**
+             * The only TLM version this library decodes (unencrypted)
+             */
+            const val TLM_VERSION = 0x00
+
+            /**
+             * TLM battery voltage of a beacon that does not report it
+             */
+            const val TLM_BATTERY_NOT_SUPPORTED = 0
+
+            /**
+             * TLM temperature of a beacon that does not report it: -128.0C
+             */
+            const val TLM_TEMPERATURE_NOT_SUPPORTED: Short = -0x8000
+
+            /**
+             * Mask of the 10 byte namespace's last 2 bytes in the beacon ID's leastSignificantBits
+             */
+            const val NAMESPACE_LEAST_SIGNIFICANT_BITS_MASK = -0x1000000000000L
+        }
+    }
+
+    /**
+     * https://github.com/AltBeacon/spec
+     */
+    interface AltBeacon {
+        companion object {
+            /**
+             * The first two bytes of every AltBeacon's manufacturer specific data
+             */
+            const val BEACON_CODE = 0xBEAC
+        }
+    }
+
+    /**
+     * Beacon parsers described only by their keys; see [BleParserDescriptor]
+     */
+    object ParserDescriptors {
+        fun iBeacon(vararg regions: String): BleParserDescriptor {
+            val manufacturerData = if (regions.isEmpty()) {
+                listOf(ManufacturerData(BluetoothSigManufacturerIds.APPLE, byteArrayOf(IBeaconParser.BEACON_TYPE.toByte(), IBeaconParser.BEACON_LENGTH.toByte()), null))
+            } else {
+                regions.map { region -> ManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(region), null) }
+            }
+            return BleParserDescriptor(
+                "iBeacon", intArrayOf(BluetoothSigManufacturerIds.APPLE), manufacturerData = manufacturerData
+            ) { IBeaconParser(*regions) }
+        }
+
+        fun eddystone(vararg namespaces: String): BleParserDescriptor {
+            return BleParserDescriptor("Eddystone", IntArray(0), intArrayOf(Eddystone.SERVICE_UUID)) { EddystoneParser(*namespaces) }
+        }
+
+        fun altBeacon(vararg regions: String): BleParserDescriptor {
+            val beaconCode = byteArrayOf((AltBeacon.BEACON_CODE shr 8).toByte(), AltBeacon.BEACON_CODE.toByte())
+            return BleParserDescriptor(
+                "AltBeacon", intArrayOf(BluetoothSigManufacturerIds.RADIUS_NETWORKS),
+                manufacturerData = listOf(ManufacturerData(BluetoothSigManufacturerIds.RADIUS_NETWORKS, beaconCode, null))
+            ) { AltBeaconParser(*regions) }
+        }
+    }
+
+    /**
+     * @param namespace an Eddystone-UID namespace as 20 hex digits (ex: "edd1ebeac04e5defa017")
+     * @return the namespace as the mostSignificantBits, leastSignificantBits of the beacon IDs in its namespace, with
+     * the instance bits zeroed; see [Eddystone.NAMESPACE_LEAST_SIGNIFICANT_BITS_MASK]
+     */
+    fun getEddystoneNamespace(namespace: String): UUID {
+        require(namespace.length == 20) { "namespace must be 20 hex digits" }
+        return UUID(parseHex(namespace, 0, 16), parseHex(namespace, 16, 20) shl 48)
+    }
+
+    private fun parseHex(value: String, start: Int, end: Int): Long {
+        var result = 0L
+        for (i in start until end) {
+            val digit = Character.digit(value[i], 16)
+            require(digit != -1) { "invalid hex digit ${value[i]} at $i" }
+            result = result shl 4 or digit.toLong()
+        }
+        return result
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import android.util.Log
+import com.github.paulpv.androidbletool.AdvertisementSchema
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.BleToolParser.Configuration
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.collections.ConcurrentLongHashMap
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.BeaconType
+import com.github.paulpv.androidbletool.devices.beacons.Beacons.Eddystone
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+
+/**
+ * Eddystone-UID, -URL, and (unencrypted) -TLM service data.
+ * * UID sets [TriggerFrame.BEACON], with the namespace and instance as the beacon ID bits, and
+ * [TriggerFrame.BEACON_TX_POWER]
+ * * URL sets [TriggerFrame.BEACON_URL] and [TriggerFrame.BEACON_TX_POWER]
+ * * TLM sets [TriggerFrame.BEACON_TELEMETRY], and [TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS] and
+ * [TriggerFrame.TEMPERATURE_CELSIUS] if the beacon reports them
+ *
+ * URL and TLM frames carry no namespace, so when namespaces are given they are only accepted from devices whose UID
+ * frame was already in one of them.
+ * A parser and all of its [newInstance]s share which devices those are, so a device's UID and TLM frames can be
+ * parsed by different [com.github.paulpv.androidbletool.BleBatchParser] workers.
+ *
+ * @param namespaces 10 byte namespaces as 20 hex digits (ex: "edd1ebeac04e5defa017"); every Eddystone if none
+ */
+class EddystoneParser private constructor(
+    private val namespaces: Array<out String>,
+    private val namespaceMacAddresses: ConcurrentLongHashMap<Any>
+) : BeaconParser(
+    TAG, "Eddystone", Configuration().addServiceData(Eddystone.SERVICE_UUID),
+    Array(namespaces.size) { i -> Beacons.getEddystoneNamespace(namespaces[i]) }
+) {
+    constructor(vararg namespaces: String) : this(namespaces, ConcurrentLongHashMap())
+
+    companion object {
+        private val TAG = TAG(EddystoneParser::class.java)
+
+        /**
+         * Once this many devices have been seen in the namespaces they are all forgotten, and each is accepted again
+         * after its next UID frame
+         */
+        const val NAMESPACE_MAC_ADDRESSES_MAX = 1024
+
+        val UID_SCHEMA = AdvertisementSchema.Builder("EddystoneUid")
+            .field("frameType", AdvertisementSchema.Type.UINT8)
+            .field("txPower", AdvertisementSchema.Type.INT8)
+            .field("idMostSignificantBits", AdvertisementSchema.Type.INT64) // namespace[0..7]
+            .field("idLeastSignificantBits", AdvertisementSchema.Type.INT64) // namespace[8..9], instance[0..5]
+            .optional()
+            .skip(2) // reserved
+            .build()
+
+        private val UID_TX_POWER = UID_SCHEMA.indexOf("txPower")
+        private val UID_ID_MOST_SIGNIFICANT_BITS = UID_SCHEMA.indexOf("idMostSignificantBits")
+        private val UID_ID_LEAST_SIGNIFICANT_BITS = UID_SCHEMA.indexOf("idLeastSignificantBits")
+
+        /**
+         * Followed by 0 to [TriggerFrame.BEACON_URL_LENGTH_MAX] encoded url bytes
+         */
+        val URL_SCHEMA = AdvertisementSchema.Builder("EddystoneUrl")
+            .field("frameType", AdvertisementSchema.Type.UINT8)
+            .field("txPower", AdvertisementSchema.Type.INT8)
+            .field("scheme", AdvertisementSchema.Type.UINT8)
+            .build()
+
+        private val URL_TX_POWER = URL_SCHEMA.indexOf("txPower")
+        private val URL_SCHEME = URL_SCHEMA.indexOf("scheme")
+
+        val TLM_SCHEMA = AdvertisementSchema.Builder("EddystoneTlm")
+            .field("frameType", AdvertisementSchema.Type.UINT8)
+            .field("version", AdvertisementSchema.Type.UINT8)
+            .field("batteryMilliVolts", AdvertisementSchema.Type.UINT16)
+            .field("temperature", AdvertisementSchema.Type.INT16) // signed 8.8 fixed point celsius
+            .field("advertisementCount", AdvertisementSchema.Type.UINT32)
+            .field("uptimeDeciseconds", AdvertisementSchema.Type.UINT32)
+            .build()
+
+        private val TLM_VERSION = TLM_SCHEMA.indexOf("version")
+        private val TLM_BATTERY_MILLI_VOLTS = TLM_SCHEMA.indexOf("batteryMilliVolts")
+        private val TLM_TEMPERATURE = TLM_SCHEMA.indexOf("temperature")
+        private val TLM_ADVERTISEMENT_COUNT = TLM_SCHEMA.indexOf("advertisementCount")
+        private val TLM_UPTIME_DECISECONDS = TLM_SCHEMA.indexOf("uptimeDeciseconds")
+    }
+
+    @Suppress("SimplifyBooleanWithConstants", "PrivatePropertyName")
+    private val LOG_EDDYSTONE_VERBOSE = false && BuildConfig.DEBUG
+
+    //
+    // Reused for every advertisement; see BleDeviceParser.parseScan
+    //
+    private val uidRecord = AdvertisementSchema.Record(UID_SCHEMA)
+    private val urlRecord = AdvertisementSchema.Record(URL_SCHEMA)
+    private val tlmRecord = AdvertisementSchema.Record(TLM_SCHEMA)
+
+    override fun newInstance(): EddystoneParser {
+        return EddystoneParser(namespaces, namespaceMacAddresses)
+    }
+
+    override fun decode(
+        macAddress: Long,
+        manufacturerId: Int,
+        manufacturerSpecificData: ByteArrayReader,
+        frame: TriggerFrame
+    ): Boolean {
+        if (manufacturerId != BleToolParser.getServiceDataKey(Eddystone.SERVICE_UUID) || !manufacturerSpecificData.hasRemaining()) {
+            return false
+        }
+        val frameType = manufacturerSpecificData.array[manufacturerSpecificData.position].toInt() and 0xFF
+        return when (frameType) {
+            Eddystone.FRAME_TYPE_UID -> decodeUid(macAddress, manufacturerSpecificData, frame)
+            Eddystone.FRAME_TYPE_URL -> isNamespaceMacAddress(macAddress) && decodeUrl(macAddress, manufacturerSpecificData, frame)
+            Eddystone.FRAME_TYPE_TLM -> isNamespaceMacAddress(macAddress) && decodeTlm(macAddress, manufacturerSpecificData, frame)
+            else -> false
+        }
+    }
+
+    private fun isNamespaceMacAddress(macAddress: Long): Boolean {
+        return namespaces.isEmpty() || namespaceMacAddresses.containsKey(macAddress)
+    }
+
+    /**
+     * @param macAddress a device whose UID frame was in one of the namespaces; only used if there are namespaces
+     */
+    private fun addNamespaceMacAddress(macAddress: Long) {
+        if (namespaceMacAddresses.containsKey(macAddress)) {
+            return
+        }
+        if (namespaceMacAddresses.size() >= NAMESPACE_MAC_ADDRESSES_MAX) {
+            namespaceMacAddresses.clear()
+        }
+        namespaceMacAddresses.put(macAddress, true)
+    }
+
+    private fun decodeUid(macAddress: Long, serviceData: ByteArrayReader, frame: TriggerFrame): Boolean {
+        val record = uidRecord
+        if (!UID_SCHEMA.decode(serviceData, record)) {
+            if (LOG_EDDYSTONE_VERBOSE) {
+                log(Log.WARN, macAddress, "decodeUid", "Unexpected length ${serviceData.remaining()} < ${UID_SCHEMA.minLength}; ignoring")
+            }
+            return false
+        }
+        val idMostSignificantBits = record.getLong(UID_ID_MOST_SIGNIFICANT_BITS)
+        val idLeastSignificantBits = record.getLong(UID_ID_LEAST_SIGNIFICANT_BITS)
+        if (!isRegion(idMostSignificantBits, idLeastSignificantBits and Eddystone.NAMESPACE_LEAST_SIGNIFICANT_BITS_MASK)) {
+            return false
+        }
+        if (namespaces.isNotEmpty()) {
+            addNamespaceMacAddress(macAddress)
+        }
+        frame.setBeacon(BeaconType.EDDYSTONE_UID, idMostSignificantBits, idLeastSignificantBits)
+        frame.setBeaconTxPower(record.getByte(UID_TX_POWER))
+        return true
+    }
+
+    private fun decodeUrl(macAddress: Long, serviceData: ByteArrayReader, frame: TriggerFrame): Boolean {
+        val record = urlRecord
+        if (!URL_SCHEMA.decode(serviceData, record)) {
+            return false
+        }
+        val urlLength = serviceData.remaining()
+        if (urlLength > TriggerFrame.BEACON_URL_LENGTH_MAX) {
+            if (LOG_EDDYSTONE_VERBOSE) {
+                log(Log.WARN, macAddress, "decodeUrl", "Unexpected url length $urlLength > ${TriggerFrame.BEACON_URL_LENGTH_MAX}; ignoring")
+            }
+            return false
+        }
+        frame.setBeaconUrl(record.getByte(URL_SCHEME), serviceData.array, serviceData.position, urlLength)
+        serviceData.skip(urlLength)
+        frame.setBeaconTxPower(record.getByte(URL_TX_POWER))
+        return true
+    }
+
+    private fun decodeTlm(macAddress: Long, serviceData: ByteArrayReader, frame: TriggerFrame): Boolean {
+        val record = tlmRecord
+        if (!TLM_SCHEMA.decode(serviceData, record) || record.getInt(TLM_VERSION) != Eddystone.TLM_VERSION) {
+            if (LOG_EDDYSTONE_VERBOSE) {
+                log(Log.WARN, macAddress, "decodeTlm", "Unexpected length or encrypted TLM; ignoring")
+            }
+            return false
+        }
+        val batteryMilliVolts = record.getInt(TLM_BATTERY_MILLI_VOLTS)
+        if (batteryMilliVolts != Eddystone.TLM_BATTERY_NOT_SUPPORTED) {
+            frame.setBatteryLevelMilliVolts(batteryMilliVolts.toShort())
+        }
+        val temperature = record.getShort(TLM_TEMPERATURE)
+        if (temperature != Eddystone.TLM_TEMPERATURE_NOT_SUPPORTED) {
+            frame.setTemperatureCelsius((temperature.toInt() shr 8).toShort())
+        }
+        frame.setBeaconTelemetry(record.getLong(TLM_ADVERTISEMENT_COUNT), record.getLong(TLM_UPTIME_DECISECONDS))
+        return true
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import android.util.Log
+import com.github.paulpv.androidbletool.AdvertisementSchema
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.BleToolParser.Configuration
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.BeaconType
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+import java.util.*
+
+/**
+ * [BluetoothSigManufacturerIds.APPLE] iBeacons; sets [TriggerFrame.BEACON] and [TriggerFrame.BEACON_TX_POWER]
+ *
+ * @param regions proximity UUIDs (ex: "d149cb95-f212-4a20-8a17-e3a2f508c1aa"); every iBeacon if none
+ */
+class IBeaconParser(private vararg val regions: String) : BeaconParser(
+    TAG, "iBeacon", getConfiguration(regions), Array(regions.size) { i -> UUID.fromString(regions[i]) }
+) {
+    companion object {
+        private val TAG = TAG(IBeaconParser::class.java)
+
+        const val BEACON_TYPE = 0x02
+        const val BEACON_LENGTH = 0x15
+
+        /**
+         * [BluetoothSigManufacturerIds.APPLE] iBeacon manufacturer specific data
+         */
+        val SCHEMA = AdvertisementSchema.Builder("iBeacon")
+            .field("beaconType", AdvertisementSchema.Type.UINT8)
+            .field("beaconLength", AdvertisementSchema.Type.UINT8)
+            .field("uuidMostSignificantBits", AdvertisementSchema.Type.INT64)
+            .field("uuidLeastSignificantBits", AdvertisementSchema.Type.INT64)
+            .field("major", AdvertisementSchema.Type.UINT16)
+            .field("minor", AdvertisementSchema.Type.UINT16)
+            .field("power", AdvertisementSchema.Type.INT8)
+            .build()
+
+        private val SCHEMA_BEACON_TYPE = SCHEMA.indexOf("beaconType")
+        private val SCHEMA_BEACON_LENGTH = SCHEMA.indexOf("beaconLength")
+        private val SCHEMA_UUID_MOST_SIGNIFICANT_BITS = SCHEMA.indexOf("uuidMostSignificantBits")
+        private val SCHEMA_UUID_LEAST_SIGNIFICANT_BITS = SCHEMA.indexOf("uuidLeastSignificantBits")
+        private val SCHEMA_MAJOR = SCHEMA.indexOf("major")
+        private val SCHEMA_MINOR = SCHEMA.indexOf("minor")
+        private val SCHEMA_POWER = SCHEMA.indexOf("power")
+
+        private fun getConfiguration(regions: Array<out String>): Configuration {
+            val configuration = Configuration()
+            if (regions.isEmpty()) {
+                configuration.addManufacturerData(BluetoothSigManufacturerIds.APPLE, byteArrayOf(BEACON_TYPE.toByte(), BEACON_LENGTH.toByte()))
+            }
+            for (region in regions) {
+                configuration.addManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(region))
+            }
+            return configuration
+        }
+    }
+
+    @Suppress("SimplifyBooleanWithConstants", "PrivatePropertyName")
+    private val LOG_IBEACON_VERBOSE = false && BuildConfig.DEBUG
+
+    /**
+     * Reused for every advertisement; see BleDeviceParser.parseScan
+     */
+    private val record = AdvertisementSchema.Record(SCHEMA)
+
+    override fun newInstance(): IBeaconParser {
+        return IBeaconParser(*regions)
+    }
+
+    override fun decode(
+        macAddress: Long,
+        manufacturerId: Int,
+        manufacturerSpecificData: ByteArrayReader,
+        frame: TriggerFrame
+    ): Boolean {
+        if (manufacturerId != BluetoothSigManufacturerIds.APPLE) {
+            return false
+        }
+        val record = record
+        if (!SCHEMA.decode(manufacturerSpecificData, record)) {
+            if (LOG_IBEACON_VERBOSE) {
+                log(Log.WARN, macAddress, "decode", "Unexpected length ${manufacturerSpecificData.remaining()} < ${SCHEMA.minLength}; ignoring")
+            }
+            return false
+        }
+        if (record.getInt(SCHEMA_BEACON_TYPE) != BEACON_TYPE || record.getInt(SCHEMA_BEACON_LENGTH) != BEACON_LENGTH) {
+            return false
+        }
+        val uuidMostSignificantBits = record.getLong(SCHEMA_UUID_MOST_SIGNIFICANT_BITS)
+        val uuidLeastSignificantBits = record.getLong(SCHEMA_UUID_LEAST_SIGNIFICANT_BITS)
+        if (!isRegion(uuidMostSignificantBits, uuidLeastSignificantBits)) {
+            return false
+        }
+        frame.setBeacon(BeaconType.IBEACON, uuidMostSignificantBits, uuidLeastSignificantBits, record.getInt(SCHEMA_MAJOR), record.getInt(SCHEMA_MINOR))
+        frame.setBeaconTxPower(record.getByte(SCHEMA_POWER))
+        return true
+    }
+}
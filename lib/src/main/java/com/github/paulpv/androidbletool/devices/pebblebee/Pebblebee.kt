@@ -1,5 +1,9 @@
 package com.github.paulpv.androidbletool.devices.pebblebee
 
+import com.github.paulpv.androidbletool.BleParserDescriptor
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.BleToolParser.Configuration.ManufacturerData
 import com.github.paulpv.androidbletool.BluetoothUtils
 import com.github.paulpv.androidbletool.utils.Utils
 import java.util.*
@@ -247,6 +251,18 @@ object Pebblebee {
              * Then reverts to Tracking UUID (unless off)
              */
             const val MOTION = "d149cb95-f212-4a20-8a17-e3a2f508c1ee"
+
+            //
+            // Pre-split so that advertisements can be compared without allocating a UUID or String
+            //
+            val TRACKING_STONE_MOST_SIGNIFICANT_BITS = UUID.fromString(TRACKING_STONE).mostSignificantBits
+            val TRACKING_STONE_LEAST_SIGNIFICANT_BITS = UUID.fromString(TRACKING_STONE).leastSignificantBits
+            val TRACKING_FINDER_MOST_SIGNIFICANT_BITS = UUID.fromString(TRACKING_FINDER).mostSignificantBits
+            val TRACKING_FINDER_LEAST_SIGNIFICANT_BITS = UUID.fromString(TRACKING_FINDER).leastSignificantBits
+            val INTERRUPT_MOST_SIGNIFICANT_BITS = UUID.fromString(INTERRUPT).mostSignificantBits
+            val INTERRUPT_LEAST_SIGNIFICANT_BITS = UUID.fromString(INTERRUPT).leastSignificantBits
+            val MOTION_MOST_SIGNIFICANT_BITS = UUID.fromString(MOTION).mostSignificantBits
+            val MOTION_LEAST_SIGNIFICANT_BITS = UUID.fromString(MOTION).leastSignificantBits
         }
     }
 
@@ -283,4 +299,20 @@ object Pebblebee {
             return "$s($value)"
         }
     }
-}
\ No newline at end of file
+    /**
+     * Parsers of the Pebblebee models, described only by their keys; each parser's class is loaded on the first
+     * advertisement that matches
+     */
+    object ParserDescriptors {
+        fun finder2(): BleParserDescriptor {
+            return BleParserDescriptor(
+                "Finder2",
+                intArrayOf(ManufacturerId.PEBBLEBEE_FINDER2, BluetoothSigManufacturerIds.APPLE),
+                macAddressPrefixes = intArrayOf(MacAddressPrefix.PEBBLEBEE_FINDER2),
+                manufacturerData = arrayOf(Regions.TRACKING_FINDER, Regions.TRACKING_STONE, Regions.INTERRUPT).map { region ->
+                    ManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(region), null)
+                }
+            ) { PebblebeeDeviceFinder2.Parser() }
+        }
+    }
+}
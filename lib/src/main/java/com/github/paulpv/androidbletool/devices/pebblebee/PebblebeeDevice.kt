@@ -1,10 +1,13 @@
 package com.github.paulpv.androidbletool.devices.pebblebee
 
+import android.os.SystemClock
 import android.util.Log
 import com.github.paulpv.androidbletool.BleDevice
 import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.devices.DeviceHistory
 import com.github.paulpv.androidbletool.devices.Features
-import com.github.paulpv.androidbletool.devices.Triggers
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
 import com.github.paulpv.androidbletool.gatt.GattHandler
 
 open class PebblebeeDevice(
@@ -12,7 +15,8 @@ open class PebblebeeDevice(
     @Suppress("MemberVisibilityCanBePrivate") val modelNumber: Int,
     gattHandler: GattHandler
 ) : BleDevice(gattHandler),
-    Features.IFeatureSignalLevelRssi {
+    Features.IFeatureSignalLevelRssi,
+    TriggerFrameDevice {
     companion object {
         private val DEBUG_LOG_UPDATE = false && BuildConfig.DEBUG
     }
@@ -57,14 +61,6 @@ open class PebblebeeDevice(
     //region IFeatureSignalLevelRssi
     //
 
-    override fun addListener(listener: Features.IFeatureSignalLevelRssiListener) {
-        featureSignalLevelRssi.addListener(listener)
-    }
-
-    override fun removeListener(listener: Features.IFeatureSignalLevelRssiListener) {
-        featureSignalLevelRssi.removeListener(listener)
-    }
-
     override val signalLevelRssiRealtime: Int
         get() = featureSignalLevelRssi.signalLevelRssiRealtime
     override val signalLevelRssiSmoothed: Int
@@ -76,68 +72,95 @@ open class PebblebeeDevice(
 
     private val updateSyncLock = Any()
 
-    fun update(triggers: MutableSet<Triggers.Trigger<*>>, forceRssiChange: Boolean = false): Boolean {
-        var immediate = false
-
-        var forcedChanged: Boolean
-        var changed: Boolean
+    /**
+     * Taken from [DeviceHistory.POOL] by the first [update] that finds room in it, and returned by [onEvicted];
+     * null until then
+     */
+    @Volatile
+    var history: DeviceHistory? = null
+        private set
+
+    /**
+     * [DeviceHistory.Pool.generationCount] when the pool last had no room for history, so that every [update] does
+     * not try again until something changed
+     */
+    private var historyPoolGenerationCount = -1
+
+    override val estimatedSizeBytes: Int
+        get() = super.estimatedSizeBytes + (history?.sizeBytes ?: 0)
+
+    override fun onEvicted() {
+        super.onEvicted()
+        synchronized(updateSyncLock) {
+            val history = history ?: return
+            this.history = null
+            DeviceHistory.POOL.release(history)
+        }
+    }
 
+    /**
+     * This device's last known values: the previous frames, merged; each [update] is diffed against it
+     */
+    override val frame = TriggerFrame()
+
+    /**
+     * Diffs frame against this device's last frame, and passes the values that changed to the features; the signal
+     * level is passed every frame, since it is smoothed over every sample.
+     * Use `changed and TriggerFrame.IMMEDIATE != 0` to tell if the update should be acted on right away.
+     *
+     * @param frame only valid for the duration of the call
+     * @return the bitmask of values that changed since the last frame; 0 if this device is idle
+     */
+    override fun update(frame: TriggerFrame, forceRssiChange: Boolean): Int {
         synchronized(updateSyncLock) {
-            val it = triggers.iterator()
-            while (it.hasNext()) {
-                val trigger = it.next()
-                @Suppress("ConstantConditionIf")
-                if (DEBUG_LOG_UPDATE) {
-                    Log.v(TAG, "$macAddressString update: trigger=$trigger")
-                }
-                update(trigger)
-                if (trigger.isChanged) {
-                    forcedChanged = false
-                    changed = true
-                } else {
-                    if (forceRssiChange && trigger is Triggers.TriggerSignalLevelRssi) {
-                        forcedChanged = true
-                        changed = true
-                    } else {
-                        forcedChanged = false
-                        changed = false
-                    }
-                }
-                if (changed || forcedChanged) {
-                    if (trigger.isImmediate) {
-                        @Suppress("ConstantConditionIf")
-                        if (DEBUG_LOG_UPDATE) {
-                            Log.v(TAG, "$macAddressString update: trigger CHANGED and IMMEDIATE")
-                        }
-                        immediate = true
+            var changed = this.frame.diff(frame)
+            if (forceRssiChange && frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI)) {
+                changed = changed or TriggerFrame.SIGNAL_LEVEL_RSSI
+            }
+            @Suppress("ConstantConditionIf")
+            if (DEBUG_LOG_UPDATE) {
+                Log.v(TAG, "$macAddressString update: frame=$frame, changed=${TriggerFrame.toString(changed)}")
+            }
+            var history = history
+            if (history == null) {
+                val generationCount = DeviceHistory.POOL.generationCount
+                if (generationCount != historyPoolGenerationCount) {
+                    history = DeviceHistory.POOL.tryCreate()
+                    if (history == null) {
+                        historyPoolGenerationCount = generationCount
                     } else {
-                        @Suppress("ConstantConditionIf")
-                        if (DEBUG_LOG_UPDATE) {
-                            if (forcedChanged) {
-                                Log.v(TAG, "$macAddressString update: trigger *FORCED CHANGED*")
-                            } else {
-                                Log.v(TAG, "$macAddressString update: trigger CHANGED")
-                            }
-                        }
+                        this.history = history
                     }
-                } else {
-                    @Suppress("ConstantConditionIf")
-                    if (DEBUG_LOG_UPDATE) {
-                        Log.v(TAG, "$macAddressString update: trigger NOT CHANGED; removing")
-                    }
-                    it.remove()
                 }
             }
+            history?.record(frame, SystemClock.elapsedRealtime())
+            this.frame.merge(frame)
+            if (frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI)) {
+                // Every sample, changed or not, so that the smoothed value converges
+                featureSignalLevelRssi.setSignalLevelRssi(frame.signalLevelRssi)
+            }
+            if (changed != 0) {
+                updateFeatures(frame, changed)
+            }
+            return changed
         }
-
-        return immediate
     }
 
-    protected open fun update(trigger: Triggers.Trigger<*>): Boolean {
-        if (trigger is Triggers.TriggerSignalLevelRssi) {
-            featureSignalLevelRssi.setSignalLevelRssi(trigger)
-            return true
+    override fun restore(frame: TriggerFrame, signalLevelRssiSmoothed: Int) {
+        synchronized(updateSyncLock) {
+            this.frame.merge(frame)
+            featureSignalLevelRssi.restore(signalLevelRssiSmoothed)
+            // Beeping is state the features report; clicks are events, and must not be acted on again
+            val restored = frame.present and TriggerFrame.BEEPING_AND_FLASHING
+            if (restored != 0) {
+                updateFeatures(frame, restored)
+            }
         }
-        return false
     }
-}
\ No newline at end of file
+
+    /**
+     * @param changed the bitmask of values in frame that changed since the last frame; never 0
+     */
+    protected open fun updateFeatures(frame: TriggerFrame, changed: Int) {
+    }
+}
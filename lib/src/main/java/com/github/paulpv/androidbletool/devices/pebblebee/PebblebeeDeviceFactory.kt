@@ -1,30 +1,24 @@
 package com.github.paulpv.androidbletool.devices.pebblebee
 
-import android.bluetooth.BluetoothDevice
 import com.github.paulpv.androidbletool.BleDeviceFactory
 import com.github.paulpv.androidbletool.BleToolParser
 import com.github.paulpv.androidbletool.BluetoothUtils
-import com.github.paulpv.androidbletool.devices.Triggers
+import com.github.paulpv.androidbletool.devices.TriggerFrame
 
 class PebblebeeDeviceFactory : BleDeviceFactory<PebblebeeDevice>() {
     override fun getDevice(
-        bluetoothDevice: BluetoothDevice,
+        macAddress: Long,
         parser: BleToolParser.BleDeviceParser,
-        triggers: Set<Triggers.Trigger<*>>
+        frame: TriggerFrame
     ): PebblebeeDevice {
         var pebblebeeDeviceModelNumber = Pebblebee.DeviceModelNumber.UNKNOWN
-        val itTriggers = triggers.iterator()
-        while (itTriggers.hasNext()) {
-            val trigger = itTriggers.next()
-            if (trigger is Triggers.TriggerModelNumber) {
-                pebblebeeDeviceModelNumber = trigger.value
-                break
-            }
+        if (frame.has(TriggerFrame.MODEL_NUMBER)) {
+            pebblebeeDeviceModelNumber = frame.modelNumber
         }
         if (pebblebeeDeviceModelNumber == Pebblebee.DeviceModelNumber.UNKNOWN) {
             pebblebeeDeviceModelNumber = parser.modelNumber
         }
-        return getDevice(bluetoothDevice.address, pebblebeeDeviceModelNumber)
+        return getDevice(macAddress, pebblebeeDeviceModelNumber)
     }
 
     @Suppress("MemberVisibilityCanBePrivate")
@@ -34,25 +28,23 @@ class PebblebeeDeviceFactory : BleDeviceFactory<PebblebeeDevice>() {
 
     @Suppress("MemberVisibilityCanBePrivate")
     fun getDevice(macAddress: Long, pebblebeeDeviceModelNumber: Int): PebblebeeDevice {
-        synchronized(deviceCache) {
-            var device = deviceCache[macAddress]
-            if (device != null) return device
-            val gattHandler = gattManager.getGattHandler(macAddress)
-            device = when (pebblebeeDeviceModelNumber) {
-                Pebblebee.DeviceModelNumber.FINDER1_0 -> {
-                    PebblebeeDeviceFinder1(gattHandler = gattHandler)
-                }
-                Pebblebee.DeviceModelNumber.FINDER2_0 -> {
-                    PebblebeeDeviceFinder2(gattHandler = gattHandler)
-                }
-                else -> {
-                    null
-                }
+        var device = deviceCache[macAddress]
+        if (device != null) return device
+        val gattHandler = gattManager.getGattHandler(macAddress)
+        device = when (pebblebeeDeviceModelNumber) {
+            Pebblebee.DeviceModelNumber.FINDER1_0 -> {
+                PebblebeeDeviceFinder1(gattHandler = gattHandler)
+            }
+            Pebblebee.DeviceModelNumber.FINDER2_0 -> {
+                PebblebeeDeviceFinder2(gattHandler = gattHandler)
             }
-            if (device != null) {
-                deviceCache.put(macAddress, device)
+            else -> {
+                null
             }
-            return device
         }
+        if (device != null) {
+            device = add(macAddress, device)
+        }
+        return device
     }
 }
\ No newline at end of file
@@ -1,25 +1,23 @@
 package com.github.paulpv.androidbletool.devices.pebblebee
 
-import android.bluetooth.BluetoothDevice
-import android.bluetooth.le.ScanRecord
-import android.os.ParcelUuid
 import android.util.Log
 import androidx.core.util.Consumer
+import com.github.paulpv.androidbletool.AdStructureCursor
+import com.github.paulpv.androidbletool.AdvertisementSchema
 import com.github.paulpv.androidbletool.BleToolParser
 import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
 import com.github.paulpv.androidbletool.BleToolParser.Configuration
 import com.github.paulpv.androidbletool.BluetoothUtils
 import com.github.paulpv.androidbletool.BuildConfig
 import com.github.paulpv.androidbletool.devices.Features
-import com.github.paulpv.androidbletool.devices.Triggers
-import com.github.paulpv.androidbletool.devices.Triggers.Trigger
-import com.github.paulpv.androidbletool.devices.Triggers.TriggerAdvertisementSpeed.AdvertisementSpeed
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.AdvertisementSpeed
+import com.github.paulpv.androidbletool.devices.beacons.IBeaconParser
 import com.github.paulpv.androidbletool.gatt.GattHandler
 import com.github.paulpv.androidbletool.gatt.GattUuids
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
 import com.github.paulpv.androidbletool.utils.Utils
 import com.github.paulpv.androidbletool.utils.Utils.TAG
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.util.*
 
 class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
@@ -38,7 +36,7 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
         const val PEBBLEBEE_DEVICE_MODEL_NUMBER = Pebblebee.DeviceModelNumber.FINDER2_0
     }
 
-    private val featureShortClick = Features.FeatureShortClick(this, handler, CLICK_TIMEOUT_MILLIS)
+    private val featureShortClick = Features.FeatureShortClick(this, CLICK_TIMEOUT_MILLIS)
     private val featureBeep = Features.FeatureBeep(this, this)
     private val featureFlash = Features.FeatureFlash(this, this)
 
@@ -49,38 +47,78 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
         featureFlash.reset()
     }
 
-    override fun update(trigger: Trigger<*>): Boolean {
-        if (super.update(trigger)) {
-            return true
-        }
+    override fun updateFeatures(frame: TriggerFrame, changed: Int) {
+        super.updateFeatures(frame, changed)
 
-        if (trigger is Triggers.TriggerShortClick) {
-            featureShortClick.setIsShortClicked(trigger)
-            return true
+        if (changed and TriggerFrame.SHORT_CLICK != 0) {
+            featureShortClick.setIsShortClicked(frame.isShortClicked, frame.clickSequence, frame.clickCounter)
         }
 
-        if (trigger is Triggers.TriggerBeepingAndFlashing) {
-            val isBeepingAndFlashing = trigger.value
+        if (changed and TriggerFrame.BEEPING_AND_FLASHING != 0) {
+            val isBeepingAndFlashing = frame.isBeepingAndFlashing
             featureBeep.isBeeping = isBeepingAndFlashing
             featureFlash.isFlashing = isBeepingAndFlashing
-            return true
         }
 
         //...
-
-        return false
     }
 
     //
     //region Parser
     //
 
-    class Parser : BleToolParser.BleDeviceParser(
+    class Parser : BleToolParser.RawBleDeviceParser(
         TAG, "Finder2", Configuration()
             .addDeviceAddressPrefixFilter(Pebblebee.MacAddressPrefix.PEBBLEBEE_FINDER2)
             .addDeviceName(Pebblebee.DeviceCaseSensitiveName.FINDER)
             .addServiceUuid(GattUuids.PEBBLEBEE_FINDER_SERVICE)
+            .addManufacturerData(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2)
+            .addManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(Pebblebee.Regions.TRACKING_FINDER))
+            .addManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(Pebblebee.Regions.TRACKING_STONE))
+            .addManufacturerData(BluetoothSigManufacturerIds.APPLE, BleToolParser.getIBeaconPrefix(Pebblebee.Regions.INTERRUPT))
     ) {
+        companion object {
+            /**
+             * [Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2] manufacturer specific data.
+             * The short form (no action data) is sent while advertising slowly; anything between the short and the full
+             * form is a truncated payload, not a short form one.
+             */
+            val DATA_SCHEMA = AdvertisementSchema.Builder("Finder2Data", isLittleEndian = true)
+                .field("macAddress", AdvertisementSchema.Type.UINT32, isLittleEndian = false) // last 4 bytes
+                .field("macAddressExtra", AdvertisementSchema.Type.UINT8)
+                .optional()
+                .field("actionSequenceAndData", AdvertisementSchema.Type.UINT8)
+                .bits("actionSequence", "actionSequenceAndData", 4, 4)
+                .bits("actionBeepingAndFlashing", "actionSequenceAndData", 3, 1)
+                .bits("actionAdvertisementSpeed", "actionSequenceAndData", 2, 1)
+                .bits("actionButton", "actionSequenceAndData", 0, 2)
+                .field("claimed", AdvertisementSchema.Type.UINT8)
+                .field("actionCounter", AdvertisementSchema.Type.UINT8)
+                .field("temperatureCelsius", AdvertisementSchema.Type.INT16)
+                .field("batteryMilliVolts", AdvertisementSchema.Type.INT16)
+                .field("beaconPeriodCount", AdvertisementSchema.Type.UINT8)
+                .field("modelNumber", AdvertisementSchema.Type.UINT8)
+                .exactLength()
+                .build()
+
+            private val DATA_MAC_ADDRESS = DATA_SCHEMA.indexOf("macAddress")
+            private val DATA_ACTION_SEQUENCE = DATA_SCHEMA.indexOf("actionSequence")
+            private val DATA_ACTION_BEEPING_AND_FLASHING = DATA_SCHEMA.indexOf("actionBeepingAndFlashing")
+            private val DATA_ACTION_ADVERTISEMENT_SPEED = DATA_SCHEMA.indexOf("actionAdvertisementSpeed")
+            private val DATA_ACTION_BUTTON = DATA_SCHEMA.indexOf("actionButton")
+            private val DATA_ACTION_COUNTER = DATA_SCHEMA.indexOf("actionCounter")
+            private val DATA_TEMPERATURE_CELSIUS = DATA_SCHEMA.indexOf("temperatureCelsius")
+            private val DATA_BATTERY_MILLI_VOLTS = DATA_SCHEMA.indexOf("batteryMilliVolts")
+
+            /**
+             * [BluetoothSigManufacturerIds.APPLE] iBeacon manufacturer specific data
+             */
+            val IBEACON_SCHEMA = IBeaconParser.SCHEMA
+
+            private val IBEACON_UUID_MOST_SIGNIFICANT_BITS = IBEACON_SCHEMA.indexOf("uuidMostSignificantBits")
+            private val IBEACON_UUID_LEAST_SIGNIFICANT_BITS = IBEACON_SCHEMA.indexOf("uuidLeastSignificantBits")
+        }
+
         @Suppress("SimplifyBooleanWithConstants", "PrivatePropertyName")
         private val LOG_IGNORED_MAC_ADDRESS = false && BuildConfig.DEBUG
 
@@ -99,20 +137,22 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
         override val modelNumber: Int
             get() = Pebblebee.DeviceModelNumber.FINDER2_0
 
-        override fun parseScan(
-            scanRecord: ScanRecord,
-            bluetoothDevice: BluetoothDevice,
-            serviceUuids: MutableList<ParcelUuid>,
-            manufacturerId: Int,
-            manufacturerSpecificDataByteBuffer: ByteBuffer,
-            triggers: MutableSet<Trigger<*>>
-        ): Boolean {
-            val methodName = "parseScan"
+        //
+        // Reused for every advertisement; see BleDeviceParser.parseScan
+        //
+        private val dataRecord = AdvertisementSchema.Record(DATA_SCHEMA)
+        private val iBeaconRecord = AdvertisementSchema.Record(IBEACON_SCHEMA)
+
+        override fun newInstance(): Parser {
+            return Parser()
+        }
 
-            val bluetoothDeviceAddress = bluetoothDevice.address
+        override fun identify(macAddress: Long, advertisement: AdStructureCursor, manufacturerId: Int, cachedDeviceName: String?): Boolean {
+            val methodName = "identify"
 
-            if (!isSupportedDeviceAddressPrefix(bluetoothDevice)) {
+            if (!isSupportedDeviceAddressPrefix(macAddress)) {
                 if (LOG_IGNORED_MAC_ADDRESS) {
+                    val bluetoothDeviceAddress = BluetoothUtils.macAddressLongToString(macAddress)
                     val bluetoothDeviceAddressPrefix = BleToolParser.getMacAddressPrefix(bluetoothDeviceAddress)
                     //@formatter:off
                     log(Log.VERBOSE, bluetoothDeviceAddress, methodName, " Non-$debugModelName macAddress; bluetoothDeviceAddress=${Utils.quote(bluetoothDeviceAddress)}; bluetoothDeviceAddressPrefix=${Utils.quote(bluetoothDeviceAddressPrefix)}; ignoring")
@@ -121,250 +161,167 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
                 return false
             }
 
-            when (manufacturerId) {
-                Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2 -> {
-                    val bluetoothDeviceName = getDeviceNameOrScanRecordName(bluetoothDevice, scanRecord)
+            if (manufacturerId == Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2) {
+                if (!isSupportedDeviceName(advertisement, cachedDeviceName)) {
+                    //if (!callbacks.isWhitelisted(bluetoothDeviceName, bluetoothDeviceAddress)) {
                     if (LOG_DATA_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "bluetoothDeviceName=${Utils.quote(bluetoothDeviceName)}")
-                    }
-                    if (!isSupportedDeviceName(bluetoothDeviceName)) {
-                        //if (!callbacks.isWhitelisted(bluetoothDeviceName, bluetoothDeviceAddress)) {
-                        if (LOG_DATA_VERBOSE) {
-                            //@formatter:off
-                            log(Log.VERBOSE, bluetoothDeviceAddress, methodName, "Non-$debugModelName name; bluetoothDeviceAddress=${Utils.quote(bluetoothDeviceAddress)}; bluetoothDeviceName=${Utils.quote(bluetoothDeviceName)}; ignoring")
-                            //@formatter:on
-                        }
-                        return false
-                        //}
-                    }
-                    if (!isSupportedServices(serviceUuids)) {
-                        if (LOG_DATA_VERBOSE) {
-                            //@formatter:off
-                            log(Log.VERBOSE, bluetoothDeviceAddress, methodName, "mServiceUuids != serviceUuids; bluetoothDeviceAddress=${Utils.quote(bluetoothDeviceAddress)}; ignoring")
-                            //@formatter:on
-                        }
-                        return false
-                    }
-
-                    if (LOG_DATA) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA")
-                    }
-                    val originalByteOrder = manufacturerSpecificDataByteBuffer.order()
-                    return try {
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA -- BEGIN --------")
-                        }
-                        manufacturerSpecificDataByteBuffer.order(ByteOrder.LITTLE_ENDIAN)
-                        val macAddress = String.format(
-                            Locale.US, "%02X:%02X:%02X:%02X:%02X:%02X",
-                            (manufacturerId shr 0 and 0xff).toByte(),
-                            (manufacturerId shr 8 and 0xff).toByte(),
-                            manufacturerSpecificDataByteBuffer.get(),
-                            manufacturerSpecificDataByteBuffer.get(),
-                            manufacturerSpecificDataByteBuffer.get(),
-                            manufacturerSpecificDataByteBuffer.get()
-                        )
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA macAddress=${Utils.quote(macAddress)}")
-                        }
-                        if (macAddress == "00:00:00:00:00:00") {
-                            // TODO:(pv) Report to the user that their BLE may be malfunctioning...
-                            //  ...either reset Bluetooth, WiFi (yes, "WiFi"), reboot...
-                            // ...or get a different device.
-                            log(Log.WARN, bluetoothDeviceAddress, methodName, "DATA Unexpected macAddress is zero; ignoring")
-                            return false
-                        }
-                        if (bluetoothDeviceAddress != macAddress) {
-                            // TODO:(pv) Report to the user that their BLE may be malfunctioning...
-                            //  ...either reset Bluetooth, WiFi (yes, "WiFi"), reboot...
-                            // ...or get a different device.
-                            //@formatter:off
-                            log(Log.WARN, bluetoothDeviceAddress, methodName, "DATA Unexpected bluetoothDeviceAddress(${Utils.quote(bluetoothDeviceAddress)}) != macAddress(${Utils.quote(BluetoothUtils.macAddressStringToString(macAddress))}); ignoring")
-                            //@formatter:on
-                            return false
-                        }
-                        val macAddressExtraByte = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            //@formatter:off
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA macAddressExtraByte=$macAddressExtraByte (0x${Utils.toHexString(macAddressExtraByte, 1)})")
-                            //@formatter:on
-                        }
-                        val bytesRemaining = manufacturerSpecificDataByteBuffer.remaining()
-                        @Suppress("SimplifyBooleanWithConstants")
-                        if (false && LOG_DATA_VERBOSE) {
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA bytesRemaining=$bytesRemaining")
-                        }
-                        if (bytesRemaining == 0) {
-                            triggers.add(Triggers.TriggerAdvertisementSpeed(AdvertisementSpeed.SLOW))
-                            return true
-                        }
-                        val actionSequenceAndData = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            //@formatter:off
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA actionSequenceAndData=$actionSequenceAndData (0x${Utils.toHexString(actionSequenceAndData, 1)}) (0b${Utils.toBitString(actionSequenceAndData, 8)})")
-                            //@formatter:on
-                        }
-                        val actionSequence = (actionSequenceAndData.toInt() and 240 shr 4).toByte()
-                        val actionData = (actionSequenceAndData.toInt() and 15).toByte()
-                        val actionDataBeepingAndFlashing = (actionData.toInt() and 8 shr 3).toByte()
-                        val actionDataAdvertisementSpeed = (actionData.toInt() and 4 shr 2).toByte()
-                        val actionDataButton = (actionData.toInt() and 3).toByte()
-                        if (LOG_DATA_VERBOSE) {
-                            //@formatter:off
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionSequence=${Pebblebee.ActionSequence.toString(actionSequence)} (0x${Utils.toHexString(actionSequence, 1)}) (0b${Utils.toBitString(actionSequence, 4)})")
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionData=$actionData (0x${Utils.toHexString(actionData, 1)}) (0b${Utils.toBitString(actionData, 4)})")
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataBeepingAndFlashing=$actionDataBeepingAndFlashing (0x${Utils.toHexString(actionDataBeepingAndFlashing, 1)})")
-                            //@formatter:on
-                            when (actionDataBeepingAndFlashing) {
-                                0.toByte() -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataBeepingAndFlashing: No")
-                                1.toByte() -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataBeepingAndFlashing: Yes")
-                                else -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataBeepingAndFlashing: Unknown")
-                            }
-                            //@formatter:off
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataAdvertisementSpeed=$actionDataAdvertisementSpeed (0x${Utils.toHexString(actionDataAdvertisementSpeed, 1)})")
-                            //@formatter:on
-                            when (actionDataAdvertisementSpeed) {
-                                //@formatter:off
-                                AdvertisementSpeed.FAST -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataAdvertisementSpeed: FAST")
-                                AdvertisementSpeed.SLOW -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataAdvertisementSpeed: SLOW")
-                                else -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataAdvertisementSpeed: Unknown")
-                                //@formatter:on
-                            }
-                            //@formatter:off
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton=$actionDataButton (0x${Utils.toHexString(actionDataButton, 1)})")
-                            //@formatter:on
-                            when (actionDataButton) {
-                                //@formatter:off
-                                Pebblebee.Actions.NONE -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton: NONE")
-                                Pebblebee.Actions.CLICK_SHORT -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton: CLICK_SHORT")
-                                Pebblebee.Actions.CLICK_LONG -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton: CLICK_LONG")
-                                Pebblebee.Actions.CLICK_DOUBLE -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton: CLICK_DOUBLE")
-                                else -> log(Log.ERROR, bluetoothDeviceAddress, methodName, "DATA actionDataButton: Unknown")
-                                //@formatter:on
-                            }
-                            /*
-                            //@formatter:off
-                            log(Log.ERROR, bluetoothDeviceAddress, methodName, "#FAST callbacks.isInForeground() == ${callbacks.isInForeground()}")
-                            //@formatter:on
-                            */
-                        }
-                        val claimed = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA claimed=$claimed (0x${Utils.toHexString(claimed, 1)})")
-                        }
-
-                        val actionCounter = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA actionCounter=$actionCounter (0x${Utils.toHexString(actionCounter, 1)})")
-                        }
-                        val temperatureCelsius = manufacturerSpecificDataByteBuffer.short
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA temperatureCelsius=$temperatureCelsius (0x${Utils.toHexString(temperatureCelsius, 2)})")
-                        }
-                        val batteryMilliVolts = manufacturerSpecificDataByteBuffer.short
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA batteryMilliVolts=$batteryMilliVolts (0x${Utils.toHexString(batteryMilliVolts, 2)})")
-                        }
-                        val beaconPeriodCount = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA beaconPeriodCount=$beaconPeriodCount (0x${Utils.toHexString(beaconPeriodCount, 1)})")
-                        }
-                        val modelNumber = manufacturerSpecificDataByteBuffer.get()
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA modelNumber=$modelNumber (0x${Utils.toHexString(modelNumber, 1)})")
-                        }
-                        triggers.add(Triggers.TriggerBeepingAndFlashing(actionDataBeepingAndFlashing.toInt() == 1))
-                        triggers.add(Triggers.TriggerShortClick(actionDataButton == Pebblebee.Actions.CLICK_SHORT, actionSequence, actionCounter))
-                        triggers.add(Triggers.TriggerLongClick(actionDataButton == Pebblebee.Actions.CLICK_LONG, actionSequence, actionCounter))
-                        triggers.add(Triggers.TriggerDoubleClick(actionDataButton == Pebblebee.Actions.CLICK_DOUBLE, actionSequence, actionCounter))
-                        triggers.add(Triggers.TriggerTemperatureCelsius(temperatureCelsius))
-                        triggers.add(Triggers.TriggerBatteryLevelMilliVolts(batteryMilliVolts))
-                        triggers.add(Triggers.TriggerAdvertisementSpeed(actionDataAdvertisementSpeed))
-                        true
-                    } finally {
-                        manufacturerSpecificDataByteBuffer.order(originalByteOrder)
-                        if (LOG_DATA_VERBOSE) {
-                            log(Log.INFO, bluetoothDeviceAddress, methodName, "DATA -- END ----------")
-                        }
+                        //@formatter:off
+                        log(Log.VERBOSE, macAddress, methodName, "Non-$debugModelName name; ignoring")
+                        //@formatter:on
                     }
+                    return false
+                    //}
                 }
-                BluetoothSigManufacturerIds.APPLE -> {
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON -- BEGIN --------")
-                    }
-                    val beaconType = manufacturerSpecificDataByteBuffer.get()
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON beaconType=$beaconType (0x${Utils.toHexString(beaconType, 1)})")
-                    }
-                    val beaconLength = manufacturerSpecificDataByteBuffer.get()
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON beaconLength=$beaconLength (0x${Utils.toHexString(beaconLength, 1)})")
-                    }
-                    val uuidMostSignificantBits = manufacturerSpecificDataByteBuffer.long
-                    val uuidLeastSignificantBits = manufacturerSpecificDataByteBuffer.long
-                    val uuid = UUID(uuidMostSignificantBits, uuidLeastSignificantBits).toString()
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON uuid=$uuid")
-                    }
-                    val major = manufacturerSpecificDataByteBuffer.short
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON major=0x${Utils.toHexString(major, 2)}")
-                    }
-                    val minor = manufacturerSpecificDataByteBuffer.short
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON minor=0x${Utils.toHexString(minor, 2)}")
-                    }
-                    val power = manufacturerSpecificDataByteBuffer.get()
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON power=$power (0x${Utils.toHexString(power, 1)})")
-                    }
-                    if (LOG_IBEACON_VERBOSE) {
-                        log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON -- END ----------")
-                    }
-                    when (uuid) {
-                        Pebblebee.Regions.TRACKING_FINDER, Pebblebee.Regions.TRACKING_STONE -> {
-                            if (LOG_REGION) {
-                                log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON REGION TRACKING")
-                            }
-                            triggers.add(Triggers.TriggerShortClick(false))
-                            triggers.add(Triggers.TriggerLongClick(false))
-                            triggers.add(Triggers.TriggerMotion(false))
-                            return true
-                        }
-                        Pebblebee.Regions.INTERRUPT -> {
-                            if (LOG_REGION) {
-                                log(Log.INFO, bluetoothDeviceAddress, methodName, "IBEACON REGION INTERRUPT")
-                            }
-                            triggers.add(Triggers.TriggerContinuousScan())
-                            triggers.add(Triggers.TriggerShortClick(false))
-                            triggers.add(Triggers.TriggerLongClick(false))
-                            return true
-                        }
-                        /*
-                        case Regions.MOTION: {
-                            if (LOG_REGION) {
-                                log(PbLogLevel.Info, bluetoothDeviceAddress, methodName, "IBEACON REGION MOTION");
-                            }
-                            // non-null to allow processing of this device and reset click state
-                            triggers.add(new TriggerMotion(true));
-                            triggers.add(new TriggerShortClick(false));
-                            triggers.add(new TriggerLongClick(false));
-                            return true;
-                        }
-                        */
-                        else -> {
-                            if (LOG_REGION) {
-                                //@formatter:off
-                                log(Log.VERBOSE, bluetoothDeviceAddress, methodName, "IBEACON REGION Unknown $debugModelName uuid=${Utils.quote(uuid)}; ignoring")
-                                //@formatter:on
-                            }
-                        }
+                if (!isSupportedServices(advertisement)) {
+                    if (LOG_DATA_VERBOSE) {
+                        //@formatter:off
+                        log(Log.VERBOSE, macAddress, methodName, "mServiceUuids != serviceUuids; ignoring")
+                        //@formatter:on
                     }
+                    return false
                 }
             }
 
+            return true
+        }
+
+        /**
+         * Does not depend on Android framework types.
+         */
+        override fun decode(
+            macAddress: Long,
+            manufacturerId: Int,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
+        ): Boolean {
+            return when (manufacturerId) {
+                Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2 -> parseData(macAddress, manufacturerId, manufacturerSpecificData, frame)
+                BluetoothSigManufacturerIds.APPLE -> parseIBeacon(macAddress, manufacturerSpecificData, frame)
+                else -> false
+            }
+        }
+
+        private fun parseData(
+            macAddress: Long,
+            manufacturerId: Int,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
+        ): Boolean {
+            val methodName = "parseScan"
+
+            if (LOG_DATA) {
+                log(Log.INFO, macAddress, methodName, "DATA")
+            }
+            val record = dataRecord
+            if (!DATA_SCHEMA.decode(manufacturerSpecificData, record)) {
+                if (LOG_DATA_VERBOSE) {
+                    log(Log.WARN, macAddress, methodName, "DATA Unexpected length ${manufacturerSpecificData.remaining()} not ${DATA_SCHEMA.minLength} or ${DATA_SCHEMA.maxLength}; ignoring")
+                }
+                return false
+            }
+            if (LOG_DATA_VERBOSE) {
+                log(Log.INFO, macAddress, methodName, "DATA $record")
+            }
+            // The first two bytes of the macAddress are the (little endian) manufacturerId
+            val dataMacAddress = (manufacturerId.toLong() and 0xff shl 40) or
+                    (manufacturerId.toLong() shr 8 and 0xff shl 32) or
+                    record.getLong(DATA_MAC_ADDRESS)
+            if (dataMacAddress == 0L) {
+                // TODO:(pv) Report to the user that their BLE may be malfunctioning...
+                //  ...either reset Bluetooth, WiFi (yes, "WiFi"), reboot...
+                // ...or get a different device.
+                log(Log.WARN, macAddress, methodName, "DATA Unexpected macAddress is zero; ignoring")
+                return false
+            }
+            if (macAddress != dataMacAddress) {
+                // TODO:(pv) Report to the user that their BLE may be malfunctioning...
+                //  ...either reset Bluetooth, WiFi (yes, "WiFi"), reboot...
+                // ...or get a different device.
+                //@formatter:off
+                log(Log.WARN, macAddress, methodName, "DATA Unexpected bluetoothDeviceAddress != macAddress(${Utils.quote(BluetoothUtils.macAddressLongToString(dataMacAddress))}); ignoring")
+                //@formatter:on
+                return false
+            }
+            if (!record.isPresent(DATA_ACTION_SEQUENCE)) {
+                frame.setAdvertisementSpeed(AdvertisementSpeed.SLOW)
+                return true
+            }
+            val actionSequence = record.getByte(DATA_ACTION_SEQUENCE)
+            val actionCounter = record.getByte(DATA_ACTION_COUNTER)
+            val actionDataButton = record.getByte(DATA_ACTION_BUTTON)
+            frame.setBeepingAndFlashing(record.getBoolean(DATA_ACTION_BEEPING_AND_FLASHING))
+            frame.setClicks(
+                actionDataButton == Pebblebee.Actions.CLICK_SHORT,
+                actionDataButton == Pebblebee.Actions.CLICK_LONG,
+                actionDataButton == Pebblebee.Actions.CLICK_DOUBLE,
+                actionSequence,
+                actionCounter
+            )
+            frame.setTemperatureCelsius(record.getShort(DATA_TEMPERATURE_CELSIUS))
+            frame.setBatteryLevelMilliVolts(record.getShort(DATA_BATTERY_MILLI_VOLTS))
+            frame.setAdvertisementSpeed(record.getByte(DATA_ACTION_ADVERTISEMENT_SPEED))
+            return true
+        }
+
+        private fun parseIBeacon(
+            macAddress: Long,
+            manufacturerSpecificData: ByteArrayReader,
+            frame: TriggerFrame
+        ): Boolean {
+            val methodName = "parseScan"
+
+            val record = iBeaconRecord
+            if (!IBEACON_SCHEMA.decode(manufacturerSpecificData, record)) {
+                if (LOG_IBEACON_VERBOSE) {
+                    log(Log.WARN, macAddress, methodName, "IBEACON Unexpected length ${manufacturerSpecificData.remaining()} < ${IBEACON_SCHEMA.minLength}; ignoring")
+                }
+                return false
+            }
+            if (LOG_IBEACON_VERBOSE) {
+                log(Log.INFO, macAddress, methodName, "IBEACON $record")
+            }
+            val uuidMostSignificantBits = record.getLong(IBEACON_UUID_MOST_SIGNIFICANT_BITS)
+            val uuidLeastSignificantBits = record.getLong(IBEACON_UUID_LEAST_SIGNIFICANT_BITS)
+            if (isRegion(uuidMostSignificantBits, uuidLeastSignificantBits, Pebblebee.Regions.TRACKING_FINDER_MOST_SIGNIFICANT_BITS, Pebblebee.Regions.TRACKING_FINDER_LEAST_SIGNIFICANT_BITS) ||
+                isRegion(uuidMostSignificantBits, uuidLeastSignificantBits, Pebblebee.Regions.TRACKING_STONE_MOST_SIGNIFICANT_BITS, Pebblebee.Regions.TRACKING_STONE_LEAST_SIGNIFICANT_BITS)
+            ) {
+                if (LOG_REGION) {
+                    log(Log.INFO, macAddress, methodName, "IBEACON REGION TRACKING")
+                }
+                frame.setClicks(isShortClicked = false, isLongClicked = false, isDoubleClicked = false)
+                frame.setMotion(false)
+                return true
+            }
+            if (isRegion(uuidMostSignificantBits, uuidLeastSignificantBits, Pebblebee.Regions.INTERRUPT_MOST_SIGNIFICANT_BITS, Pebblebee.Regions.INTERRUPT_LEAST_SIGNIFICANT_BITS)) {
+                if (LOG_REGION) {
+                    log(Log.INFO, macAddress, methodName, "IBEACON REGION INTERRUPT")
+                }
+                frame.setContinuousScan()
+                frame.setClicks(isShortClicked = false, isLongClicked = false, isDoubleClicked = false)
+                return true
+            }
+            /*
+            if (isRegion(uuidMostSignificantBits, uuidLeastSignificantBits, Pebblebee.Regions.MOTION_MOST_SIGNIFICANT_BITS, Pebblebee.Regions.MOTION_LEAST_SIGNIFICANT_BITS)) {
+                if (LOG_REGION) {
+                    log(Log.INFO, macAddress, methodName, "IBEACON REGION MOTION")
+                }
+                // non-null to allow processing of this device and reset click state
+                frame.setMotion(true)
+                frame.setClicks(isShortClicked = false, isLongClicked = false, isDoubleClicked = false)
+                return true
+            }
+            */
+            if (LOG_REGION) {
+                //@formatter:off
+                log(Log.VERBOSE, macAddress, methodName, "IBEACON REGION Unknown $debugModelName uuid=${Utils.quote(UUID(uuidMostSignificantBits, uuidLeastSignificantBits).toString())}; ignoring")
+                //@formatter:on
+            }
             return false
         }
+
+        private fun isRegion(mostSignificantBits: Long, leastSignificantBits: Long, regionMostSignificantBits: Long, regionLeastSignificantBits: Long): Boolean {
+            return mostSignificantBits == regionMostSignificantBits && leastSignificantBits == regionLeastSignificantBits
+        }
     }
 
     //
@@ -375,14 +332,6 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
     //region IFeatureShortClick
     //
 
-    override fun addListener(listener: Features.IFeatureShortClickListener) {
-        featureShortClick.addListener(listener)
-    }
-
-    override fun removeListener(listener: Features.IFeatureShortClickListener) {
-        featureShortClick.removeListener(listener)
-    }
-
     override val isShortClicked: Boolean
         get() = featureShortClick.isShortClicked
 
@@ -394,14 +343,6 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
     //region IFeatureBeep
     //
 
-    override fun addListener(listener: Features.IFeatureBeepListener) {
-        featureBeep.addListener(listener)
-    }
-
-    override fun removeListener(listener: Features.IFeatureBeepListener) {
-        featureBeep.removeListener(listener)
-    }
-
     override val isBeeping: Boolean
         get() = featureBeep.isBeeping
     override val beepDurationMillis: Int
@@ -425,61 +366,7 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
 
     @Suppress("MemberVisibilityCanBePrivate")
     fun requestBeep(callbacks: RequestProgress? = null): Boolean {
-        val runDisconnect = Consumer<Boolean> { success ->
-            Log.i(TAG, "DISCONNECTING")
-            callbacks?.onDisconnecting()
-            if (!gattHandler.disconnect(runAfterDisconnect = Runnable {
-                    Log.i(TAG, "DISCONNECTED!")
-                    callbacks?.onDisconnected(success)
-                })) {
-                Log.e(TAG, "disconnect failed")
-                callbacks?.onDisconnected(false)
-            }
-        }
-
-        val runRequest = Runnable {
-            Log.i(TAG, "REQUESTING")
-            callbacks?.onRequesting()
-            if (!gattHandler.characteristicWrite(
-                    serviceUuid = GattUuids.PEBBLEBEE_FINDER_SERVICE.uuid,
-                    characteristicUuid = GattUuids.PEBBLEBEE_FINDER_CHARACTERISTIC1.uuid,
-                    value = PLAY_JINGLE_COUNT_4,
-                    characteristicWriteType = GattHandler.CharacteristicWriteType.DefaultWithResponse,
-                    runAfterSuccess = Runnable {
-                        Log.i(TAG, "REQUEST SUCCESS!")
-                        callbacks?.onRequested(true)
-                        runDisconnect.accept(true)
-                    },
-                    runAfterFail = Runnable {
-                        Log.e(TAG, "REQUEST FAIL!")
-                        callbacks?.onRequested(false)
-                        runDisconnect.accept(false)
-                    }
-                )
-            ) {
-                Log.e(TAG, "characteristicWrite failed")
-                runDisconnect.accept(false)
-            }
-        }
-
-        if (gattHandler.isConnectingOrConnectedAndNotDisconnecting) {
-            runRequest.run()
-        } else {
-            Log.i(TAG, "CONNECTING")
-            callbacks?.onConnecting()
-            if (!gattHandler.connect(runAfterConnect = Runnable {
-                    Log.i(TAG, "CONNECT SUCCESS!")
-                    callbacks?.onConnected()
-                    runRequest.run()
-                }, runAfterFail = Runnable {
-                    Log.e(TAG, "CONNECT FAIL!")
-                    runDisconnect.accept(false)
-                })) {
-                Log.e(TAG, "connect failed")
-                runDisconnect.accept(false)
-            }
-        }
-        return true
+        return requestWrite(PLAY_JINGLE_COUNT_4, callbacks)
     }
 
     @Suppress("unused", "PrivatePropertyName")
@@ -493,39 +380,48 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
 
     @Suppress("MemberVisibilityCanBePrivate")
     fun stopBeep(callbacks: RequestProgress? = null): Boolean {
+        return requestWrite(STOP_BEEP_AND_FLASH, callbacks)
+    }
+
+    /**
+     * Connects (unless already connected), writes value to [GattUuids.PEBBLEBEE_FINDER_CHARACTERISTIC1], then
+     * disconnects; every step is reported to callbacks, and [RequestProgress.onDisconnected] always ends it.
+     * Safe to run on several devices at once; see [com.github.paulpv.androidbletool.devices.FleetCommandScheduler]
+     */
+    private fun requestWrite(value: ByteArray, callbacks: RequestProgress?): Boolean {
         val runDisconnect = Consumer<Boolean> { success ->
-            Log.i(TAG, "DISCONNECTING")
+            Log.i(TAG, "$macAddressString DISCONNECTING")
             callbacks?.onDisconnecting()
             if (!gattHandler.disconnect(runAfterDisconnect = Runnable {
-                    Log.i(TAG, "DISCONNECTED!")
+                    Log.i(TAG, "$macAddressString DISCONNECTED!")
                     callbacks?.onDisconnected(success)
                 })) {
-                Log.e(TAG, "disconnect failed")
+                Log.e(TAG, "$macAddressString disconnect failed")
                 callbacks?.onDisconnected(false)
             }
         }
 
         val runRequest = Runnable {
-            Log.i(TAG, "REQUESTING")
+            Log.i(TAG, "$macAddressString REQUESTING")
             callbacks?.onRequesting()
             if (!gattHandler.characteristicWrite(
                     serviceUuid = GattUuids.PEBBLEBEE_FINDER_SERVICE.uuid,
                     characteristicUuid = GattUuids.PEBBLEBEE_FINDER_CHARACTERISTIC1.uuid,
-                    value = STOP_BEEP_AND_FLASH,
+                    value = value,
                     characteristicWriteType = GattHandler.CharacteristicWriteType.DefaultWithResponse,
                     runAfterSuccess = Runnable {
-                        Log.i(TAG, "REQUEST SUCCESS!")
+                        Log.i(TAG, "$macAddressString REQUEST SUCCESS!")
                         callbacks?.onRequested(true)
                         runDisconnect.accept(true)
                     },
                     runAfterFail = Runnable {
-                        Log.e(TAG, "REQUEST FAIL!")
+                        Log.e(TAG, "$macAddressString REQUEST FAIL!")
                         callbacks?.onRequested(false)
                         runDisconnect.accept(false)
                     }
                 )
             ) {
-                Log.e(TAG, "characteristicWrite failed")
+                Log.e(TAG, "$macAddressString characteristicWrite failed")
                 runDisconnect.accept(false)
             }
         }
@@ -533,17 +429,17 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
         if (gattHandler.isConnectingOrConnectedAndNotDisconnecting) {
             runRequest.run()
         } else {
-            Log.i(TAG, "CONNECTING")
+            Log.i(TAG, "$macAddressString CONNECTING")
             callbacks?.onConnecting()
             if (!gattHandler.connect(runAfterConnect = Runnable {
-                    Log.i(TAG, "CONNECT SUCCESS!")
+                    Log.i(TAG, "$macAddressString CONNECT SUCCESS!")
                     callbacks?.onConnected()
                     runRequest.run()
                 }, runAfterFail = Runnable {
-                    Log.e(TAG, "CONNECT FAIL!")
+                    Log.e(TAG, "$macAddressString CONNECT FAIL!")
                     runDisconnect.accept(false)
                 })) {
-                Log.e(TAG, "connect failed")
+                Log.e(TAG, "$macAddressString connect failed")
                 runDisconnect.accept(false)
             }
         }
@@ -558,14 +454,6 @@ class PebblebeeDeviceFinder2(gattHandler: GattHandler) :
     //region IFeatureFlash
     //
 
-    override fun addListener(listener: Features.IFeatureFlashListener) {
-        featureFlash.addListener(listener)
-    }
-
-    override fun removeListener(listener: Features.IFeatureFlashListener) {
-        featureFlash.removeListener(listener)
-    }
-
     override val isFlashing: Boolean
         get() = featureFlash.isFlashing
     override val flashDurationMillis: Int
@@ -439,6 +439,13 @@ class GattHandler internal constructor(gattManager: GattManager, deviceAddress:
     val isDisconnected: Boolean
         get() = getBluetoothGatt(false) == null
 
+    /**
+     * true while connecting, connected, or disconnecting, or while an operation is pending; such a handler (and its
+     * device) must not be evicted. See [com.github.paulpv.androidbletool.BleDeviceFactory.evict]
+     */
+    val isPinned: Boolean
+        get() = !isDisconnected || pendingGattOperationInfo != null
+
     private fun postDelayed(runnable: Runnable, delayMillis: Long = POST_DELAY_MILLIS.toLong()) {
         handlerMain.postDelayed(runnable, delayMillis)
     }
@@ -3,7 +3,7 @@ package com.github.paulpv.androidbletool.gatt
 import android.content.Context
 import android.os.Looper
 import android.util.Log
-import com.github.paulpv.androidbletool.collections.IterableLongSparseArray
+import com.github.paulpv.androidbletool.collections.ConcurrentLongHashMap
 import com.github.paulpv.androidbletool.utils.Utils.TAG
 import com.github.paulpv.androidbletool.BluetoothUtils.throwExceptionIfInvalidBluetoothAddress
 
@@ -14,40 +14,36 @@ class GattManager constructor(val context: Context, looper: Looper? = null) {
 
     val looper: Looper = looper ?: Looper.getMainLooper()
 
-    private val gattHandlers = IterableLongSparseArray<GattHandler>()
+    private val gattHandlers = ConcurrentLongHashMap<GattHandler>()
 
     /**
      * Allocates a GattHandler. To free the GattHandler, call [GattHandler.close]
      *
+     * Lock free if the GattHandler already exists; otherwise it (and its handler) is built outside of any lock, and
+     * only the first one added for deviceAddress is kept.
+     *
      * @param deviceAddress deviceAddress
      * @return never null
      */
     fun getGattHandler(deviceAddress: Long): GattHandler {
+        val gattHandler = gattHandlers[deviceAddress]
+        if (gattHandler != null) return gattHandler
         throwExceptionIfInvalidBluetoothAddress(deviceAddress)
-        synchronized(gattHandlers) {
-            var gattHandler = gattHandlers[deviceAddress]
-            if (gattHandler == null) {
-                gattHandler = GattHandler(this, deviceAddress)
-                gattHandlers.put(deviceAddress, gattHandler)
-            }
-            return gattHandler
-        }
+        return gattHandlers.getOrAdd(deviceAddress, GattHandler(this, deviceAddress))
     }
 
     fun removeGattHandler(gattHandler: GattHandler) {
-        gattHandlers.remove(gattHandler.deviceAddressLong)
+        gattHandlers.remove(gattHandler.deviceAddressLong, gattHandler)
     }
 
     @Suppress("unused")
     fun close() {
         Log.v(TAG, "+close()")
-        synchronized(gattHandlers) {
-            val it = gattHandlers.iterateValues()
-            while (it.hasNext()) {
-                val gattHandler = it.next()
-                it.remove()
-                gattHandler.close(false)
-            }
+        val it = gattHandlers.iterateValues()
+        while (it.hasNext()) {
+            val gattHandler = it.next()
+            it.remove()
+            gattHandler.close(false)
         }
         Log.v(TAG, "-close()")
     }
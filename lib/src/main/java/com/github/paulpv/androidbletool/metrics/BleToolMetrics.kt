@@ -0,0 +1,160 @@
+package com.github.paulpv.androidbletool.metrics
+
+import android.os.SystemClock
+
+/**
+ * Counters, rates, and stage latency histograms for the scan pipeline.
+ *
+ * Recording is lock free and allocation free so it can be left on in production; only [startScanCalled] takes a
+ * lock, and that is called at most a few times per minute.
+ * [unrecognizedAdvertisements] is also allocation free, and its lock is only ever taken on the BleTool looper.
+ * Counters are monotonic for the life of the process; telemetry should diff successive [snapshot]s.
+ */
+class BleToolMetrics {
+    companion object {
+        /**
+         * Android allows an app 5 [android.bluetooth.le.BluetoothLeScanner.startScan] calls per 30 seconds
+         */
+        const val START_SCAN_WINDOW_MILLIS: Long = 30 * 1000
+
+        private const val START_SCAN_HISTORY = 32
+    }
+
+    enum class Counter {
+        ADVERTISEMENTS_CALLBACK,
+        ADVERTISEMENTS_PENDING_INTENT,
+        ADVERTISEMENTS_BATCH,
+        DROPPED_DEBUG_DEVICE_ADDRESS_FILTER,
+        DROPPED_OTHER,
+        PARSED,
+        UNRECOGNIZED,
+        DEVICES_ADDED,
+        DEVICES_UPDATED,
+        /**
+         * Updates that changed nothing, so were not passed on to observers
+         */
+        DEVICES_UPDATED_IDLE,
+        DEVICES_REMOVED,
+        /**
+         * Devices dropped by [com.github.paulpv.androidbletool.BleDeviceFactory.evict]
+         */
+        DEVICES_EVICTED,
+        START_SCAN_CALLS,
+        START_SCAN_FAILURES
+    }
+
+    enum class Stage {
+        /**
+         * Receipt of a single advertisement through insertion in the recently nearby devices; includes [PARSE]
+         */
+        RECEIVE,
+        /**
+         * Receipt of a whole batch parsed by [com.github.paulpv.androidbletool.BleBatchParser]: the parallel parse plus
+         * the serial insertion of every advertisement; each insertion also records a [PARSE]
+         */
+        RECEIVE_BATCH,
+        PARSE,
+        DEVICES_UPDATED_FRAME
+    }
+
+    class Snapshot(
+        val elapsedMillis: Long,
+        private val counters: LongArray,
+        private val stages: Array<Log2Histogram.Snapshot>,
+        val startScanCallsInWindow: Int,
+        val startScanCallsInWindowMax: Int
+    ) {
+        operator fun get(counter: Counter): Long {
+            return counters[counter.ordinal]
+        }
+
+        operator fun get(stage: Stage): Log2Histogram.Snapshot {
+            return stages[stage.ordinal]
+        }
+
+        /**
+         * @return the average rate since the metrics were created
+         */
+        fun ratePerSecond(counter: Counter): Double {
+            return if (elapsedMillis <= 0) 0.0 else get(counter) * 1000.0 / elapsedMillis
+        }
+
+        override fun toString(): String {
+            val sb = StringBuilder("{ elapsedMillis=").append(elapsedMillis)
+            for (counter in Counter.values()) {
+                sb.append(", ").append(counter).append('=').append(get(counter))
+            }
+            for (stage in Stage.values()) {
+                sb.append(", ").append(stage).append("Nanos=").append(get(stage))
+            }
+            sb.append(", startScanCallsInWindow=").append(startScanCallsInWindow)
+            sb.append(", startScanCallsInWindowMax=").append(startScanCallsInWindowMax)
+            return sb.append(" }").toString()
+        }
+    }
+
+    private val createdElapsedMillis = SystemClock.elapsedRealtime()
+    private val counters = Array(Counter.values().size) { StripedCounter() }
+    private val stages = Array(Stage.values().size) { Log2Histogram() }
+
+    /**
+     * Shapes of the advertisements counted as [Counter.UNRECOGNIZED]; not part of [snapshot], and not monotonic like
+     * the counters, so telemetry can [UnrecognizedAdvertisementClassifier.clear] it after each report
+     */
+    val unrecognizedAdvertisements = UnrecognizedAdvertisementClassifier()
+
+    private val startScanHistory = LongArray(START_SCAN_HISTORY)
+    private var startScanHistoryIndex = 0
+    private var startScanCallsInWindowMax = 0
+
+    fun increment(counter: Counter) {
+        counters[counter.ordinal].increment()
+    }
+
+    fun add(counter: Counter, value: Long) {
+        counters[counter.ordinal].add(value)
+    }
+
+    /**
+     * @param startNanos value of [System.nanoTime] when the stage started
+     */
+    fun recordStage(stage: Stage, startNanos: Long) {
+        stages[stage.ordinal].record(System.nanoTime() - startNanos)
+    }
+
+    fun startScanCalled(success: Boolean) {
+        increment(Counter.START_SCAN_CALLS)
+        if (!success) {
+            increment(Counter.START_SCAN_FAILURES)
+        }
+        val nowMillis = SystemClock.elapsedRealtime()
+        synchronized(startScanHistory) {
+            startScanHistory[startScanHistoryIndex] = nowMillis
+            startScanHistoryIndex = (startScanHistoryIndex + 1) % START_SCAN_HISTORY
+            startScanCallsInWindowMax = Math.max(startScanCallsInWindowMax, startScanCallsInWindow(nowMillis))
+        }
+    }
+
+    private fun startScanCallsInWindow(nowMillis: Long): Int {
+        var count = 0
+        for (startScanMillis in startScanHistory) {
+            if (startScanMillis != 0L && nowMillis - startScanMillis < START_SCAN_WINDOW_MILLIS) {
+                count++
+            }
+        }
+        return count
+    }
+
+    fun snapshot(): Snapshot {
+        val nowMillis = SystemClock.elapsedRealtime()
+        val counters = LongArray(this.counters.size) { this.counters[it].sum() }
+        val stages = Array(this.stages.size) { this.stages[it].snapshot() }
+        return synchronized(startScanHistory) {
+            Snapshot(nowMillis - createdElapsedMillis, counters, stages, startScanCallsInWindow(nowMillis), startScanCallsInWindowMax)
+        }
+    }
+
+    override fun toString(): String {
+        return snapshot().toString()
+    }
+}
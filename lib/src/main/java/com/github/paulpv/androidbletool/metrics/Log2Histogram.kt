@@ -0,0 +1,74 @@
+package com.github.paulpv.androidbletool.metrics
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock free histogram of non-negative values in power of 2 buckets: bucket 0 holds 0, bucket n holds
+ * [2^(n-1), 2^n). Good enough for latencies in nanoseconds, where only the order of magnitude matters.
+ */
+class Log2Histogram {
+    companion object {
+        const val BUCKETS = 64
+
+        fun bucketOf(value: Long): Int {
+            return if (value <= 0) 0 else Math.min(BUCKETS - 1, 64 - java.lang.Long.numberOfLeadingZeros(value))
+        }
+
+        /**
+         * @return the exclusive upper bound of values in the bucket
+         */
+        fun bucketUpperBound(bucket: Int): Long {
+            return if (bucket >= BUCKETS - 1) Long.MAX_VALUE else 1L shl bucket
+        }
+    }
+
+    class Snapshot(val buckets: LongArray, val count: Long, val sum: Long) {
+        val mean: Long
+            get() = if (count == 0L) 0 else sum / count
+
+        /**
+         * @param percentile 0..100
+         * @return the upper bound of the bucket that contains the percentile
+         */
+        fun percentile(percentile: Int): Long {
+            if (count == 0L) {
+                return 0
+            }
+            val target = Math.max(1L, (count * percentile + 99) / 100)
+            var cumulative = 0L
+            for (i in buckets.indices) {
+                cumulative += buckets[i]
+                if (cumulative >= target) {
+                    return bucketUpperBound(i)
+                }
+            }
+            return bucketUpperBound(buckets.size - 1)
+        }
+
+        override fun toString(): String {
+            return "{ count=$count, mean=$mean, p50<${percentile(50)}, p90<${percentile(90)}, p99<${percentile(99)} }"
+        }
+    }
+
+    private val buckets = AtomicLongArray(BUCKETS)
+    private val sum = StripedCounter()
+
+    fun record(value: Long) {
+        buckets.incrementAndGet(bucketOf(value))
+        sum.add(value)
+    }
+
+    fun snapshot(): Snapshot {
+        val buckets = LongArray(BUCKETS)
+        var count = 0L
+        for (i in 0 until BUCKETS) {
+            buckets[i] = this.buckets.get(i)
+            count += buckets[i]
+        }
+        return Snapshot(buckets, count, sum.sum())
+    }
+
+    override fun toString(): String {
+        return snapshot().toString()
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.paulpv.androidbletool.metrics
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock free counter that spreads contention over several cache line padded cells, selected by the calling thread.
+ * Android minSdk 21 has no [java.util.concurrent.atomic.LongAdder], so this is the poor man's equivalent.
+ *
+ * [add] is a single uncontended CAS in the common case; [sum] walks all cells and is only weakly consistent.
+ */
+class StripedCounter {
+    companion object {
+        /**
+         * Must be a power of 2
+         */
+        private const val STRIPES = 8
+
+        /**
+         * 8 longs == 64 bytes == 1 cache line between cells
+         */
+        private const val PADDING = 8
+
+        internal fun stripeIndex(): Int {
+            return (Thread.currentThread().id.toInt() and (STRIPES - 1)) * PADDING
+        }
+    }
+
+    private val cells = AtomicLongArray(STRIPES * PADDING)
+
+    fun increment() {
+        add(1)
+    }
+
+    fun add(value: Long) {
+        cells.getAndAdd(stripeIndex(), value)
+    }
+
+    fun sum(): Long {
+        var sum = 0L
+        var i = 0
+        while (i < cells.length()) {
+            sum += cells.get(i)
+            i += PADDING
+        }
+        return sum
+    }
+
+    override fun toString(): String {
+        return sum().toString()
+    }
+}
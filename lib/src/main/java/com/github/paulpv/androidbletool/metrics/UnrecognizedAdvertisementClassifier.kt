@@ -0,0 +1,283 @@
+package com.github.paulpv.androidbletool.metrics
+
+import com.github.paulpv.androidbletool.AdStructureCursor
+import com.github.paulpv.androidbletool.utils.Utils
+
+/**
+ * Streaming summary of the advertisements that no parser recognized, to learn which unknown payload shapes are common
+ * in the field without recording full traces.
+ * * A count-min sketch estimates how often each manufacturer ID, advertisement length, and service UUID was seen
+ * * A space-saving heavy hitters list keeps the most frequent payload shapes ([AdStructureCursor.signature]), each with
+ * the latest example payload
+ *
+ * Memory is fixed at construction, and [record] never allocates.
+ * Estimates never undercount; they overcount by at most about 2/[SKETCH_WIDTH] of [Snapshot.total], with high
+ * probability.
+ *
+ * Thread safe; [record] takes an uncontended lock on the BleTool looper.
+ */
+class UnrecognizedAdvertisementClassifier(private val heavyHitterCapacity: Int = HEAVY_HITTER_CAPACITY_DEFAULT) {
+    companion object {
+        const val SKETCH_DEPTH = 4
+        const val SKETCH_WIDTH = 512
+
+        const val HEAVY_HITTER_CAPACITY_DEFAULT = 16
+
+        /**
+         * Longest legacy advertisement; longer (extended) example payloads are truncated
+         */
+        const val EXAMPLE_LENGTH_MAX = 62
+
+        //
+        // Sketch key kinds, in the top byte of each key
+        //
+        private const val KIND_MANUFACTURER_ID = 1L shl 56
+        private const val KIND_LENGTH = 2L shl 56
+        private const val KIND_SERVICE_UUID = 3L shl 56
+
+        private val SEEDS = longArrayOf(
+            -0x61c8864680b583ebL,
+            -0x40a7b892e31b1a47L,
+            0x7f4a7c159e3779b9L,
+            -0x6b2fb644ecceee15L
+        )
+
+        private fun getManufacturerIdKey(manufacturerId: Int): Long {
+            return KIND_MANUFACTURER_ID or manufacturerId.toLong()
+        }
+
+        private fun getLengthKey(length: Int): Long {
+            return KIND_LENGTH or length.toLong()
+        }
+
+        /**
+         * 16 and 32 bit UUIDs as is; 128 bit UUIDs folded into 48 bits, so they can (rarely) collide with each other
+         */
+        private fun getServiceUuidKey(uuid: Long): Long {
+            return KIND_SERVICE_UUID or (uuid and 0xFFFFFFFFFFFFL)
+        }
+
+        private fun fold128(mostSignificantBits: Long, leastSignificantBits: Long): Long {
+            val hash = mostSignificantBits * -0x61c8864680b583ebL xor leastSignificantBits
+            return (hash xor (hash ushr 29)) or (1L shl 47) // never a 16/32 bit UUID
+        }
+    }
+
+    class HeavyHitter(
+        /**
+         * [AdStructureCursor.signature] of the payload shape
+         */
+        val signature: Long,
+        /**
+         * Upper bound of the shape's count; at least count - error
+         */
+        val count: Long,
+        val error: Long,
+        /**
+         * Of the first manufacturer specific data of the example; -1 if none
+         */
+        val manufacturerId: Int,
+        /**
+         * Of the example, before any truncation to [EXAMPLE_LENGTH_MAX]
+         */
+        val length: Int,
+        val example: ByteArray
+    ) {
+        override fun toString(): String {
+            return "{ signature=0x${java.lang.Long.toHexString(signature)}" +
+                    ", count=$count" +
+                    ", error=$error" +
+                    ", manufacturerId=${if (manufacturerId == -1) "-1" else "0x" + Utils.toHexString(manufacturerId, 2)}" +
+                    ", length=$length" +
+                    ", example=${Utils.toHexString(example)} }"
+        }
+    }
+
+    class Snapshot(
+        val total: Long,
+        /**
+         * Most frequent first
+         */
+        val heavyHitters: List<HeavyHitter>
+    ) {
+        override fun toString(): String {
+            return "{ total=$total, heavyHitters=$heavyHitters }"
+        }
+    }
+
+    private val sketch = IntArray(SKETCH_DEPTH * SKETCH_WIDTH)
+    private var total = 0L
+
+    //
+    // Space-saving heavy hitters; size slots in use
+    //
+    private val signatures = LongArray(heavyHitterCapacity)
+    private val counts = LongArray(heavyHitterCapacity)
+    private val errors = LongArray(heavyHitterCapacity)
+    private val manufacturerIds = IntArray(heavyHitterCapacity)
+    private val lengths = IntArray(heavyHitterCapacity)
+    private val examples = ByteArray(heavyHitterCapacity * EXAMPLE_LENGTH_MAX)
+    private var size = 0
+
+    private val advertisement = AdStructureCursor()
+
+    private fun slot(row: Int, key: Long): Int {
+        var hash = key * SEEDS[row]
+        hash = hash xor (hash ushr 31)
+        return row * SKETCH_WIDTH + ((hash ushr 40).toInt() and (SKETCH_WIDTH - 1))
+    }
+
+    private fun increment(key: Long) {
+        for (row in 0 until SKETCH_DEPTH) {
+            sketch[slot(row, key)]++
+        }
+    }
+
+    private fun estimate(key: Long): Int {
+        synchronized(this) {
+            var estimate = Int.MAX_VALUE
+            for (row in 0 until SKETCH_DEPTH) {
+                estimate = Math.min(estimate, sketch[slot(row, key)])
+            }
+            return estimate
+        }
+    }
+
+    fun estimateManufacturerId(manufacturerId: Int): Int {
+        return estimate(getManufacturerIdKey(manufacturerId))
+    }
+
+    fun estimateLength(length: Int): Int {
+        return estimate(getLengthKey(length))
+    }
+
+    /**
+     * @param serviceUuid 16 or 32 bit service UUID
+     */
+    fun estimateServiceUuid(serviceUuid: Int): Int {
+        return estimate(getServiceUuidKey(serviceUuid.toLong() and 0xFFFFFFFFL))
+    }
+
+    fun estimateServiceUuid(mostSignificantBits: Long, leastSignificantBits: Long): Int {
+        return estimate(getServiceUuidKey(fold128(mostSignificantBits, leastSignificantBits)))
+    }
+
+    /**
+     * @param advertisementBytes same as [android.bluetooth.le.ScanRecord.getBytes]; null is ignored
+     */
+    fun record(advertisementBytes: ByteArray?) {
+        if (advertisementBytes == null) {
+            return
+        }
+        synchronized(this) {
+            total++
+            val advertisement = advertisement.reset(advertisementBytes)
+            var length = 0
+            var manufacturerId = -1
+            while (advertisement.moveToNext()) {
+                length = advertisement.dataOffset + advertisement.dataLength
+                when (advertisement.type) {
+                    AdStructureCursor.Types.MANUFACTURER_SPECIFIC_DATA -> {
+                        val id = advertisement.manufacturerId
+                        if (id != -1) {
+                            increment(getManufacturerIdKey(id))
+                            if (manufacturerId == -1) {
+                                manufacturerId = id
+                            }
+                        }
+                    }
+                    AdStructureCursor.Types.SERVICE_UUIDS_16_BIT_PARTIAL,
+                    AdStructureCursor.Types.SERVICE_UUIDS_16_BIT_COMPLETE -> {
+                        for (i in 0 until advertisement.dataLength / 2) {
+                            val uuid = advertisement.getByte(i * 2) or (advertisement.getByte(i * 2 + 1) shl 8)
+                            increment(getServiceUuidKey(uuid.toLong()))
+                        }
+                    }
+                    AdStructureCursor.Types.SERVICE_DATA_16_BIT -> {
+                        val uuid = advertisement.serviceDataUuid16
+                        if (uuid != -1) {
+                            increment(getServiceUuidKey(uuid.toLong()))
+                        }
+                    }
+                    AdStructureCursor.Types.SERVICE_UUIDS_128_BIT_PARTIAL,
+                    AdStructureCursor.Types.SERVICE_UUIDS_128_BIT_COMPLETE -> {
+                        for (i in 0 until advertisement.dataLength / 16) {
+                            increment(getServiceUuidKey(fold128(getLong(advertisement, i * 16 + 8), getLong(advertisement, i * 16))))
+                        }
+                    }
+                }
+            }
+            increment(getLengthKey(length))
+            offer(advertisement.signature, manufacturerId, advertisementBytes, length)
+        }
+    }
+
+    /**
+     * @return the little endian long at index of the current structure's data
+     */
+    private fun getLong(advertisement: AdStructureCursor, index: Int): Long {
+        var value = 0L
+        for (j in 7 downTo 0) {
+            value = value shl 8 or advertisement.getByte(index + j).toLong()
+        }
+        return value
+    }
+
+    private fun offer(signature: Long, manufacturerId: Int, advertisementBytes: ByteArray, length: Int) {
+        var minIndex = -1
+        for (i in 0 until size) {
+            if (signatures[i] == signature) {
+                counts[i]++
+                setExample(i, manufacturerId, advertisementBytes, length)
+                return
+            }
+            if (minIndex == -1 || counts[i] < counts[minIndex]) {
+                minIndex = i
+            }
+        }
+        val index: Int
+        val error: Long
+        if (size < heavyHitterCapacity) {
+            index = size++
+            error = 0
+        } else {
+            // Space-saving: the new shape takes over the least frequent slot, and inherits its count as error
+            index = minIndex
+            error = counts[index]
+        }
+        signatures[index] = signature
+        counts[index] = error + 1
+        errors[index] = error
+        setExample(index, manufacturerId, advertisementBytes, length)
+    }
+
+    private fun setExample(index: Int, manufacturerId: Int, advertisementBytes: ByteArray, length: Int) {
+        manufacturerIds[index] = manufacturerId
+        lengths[index] = length
+        System.arraycopy(advertisementBytes, 0, examples, index * EXAMPLE_LENGTH_MAX, Math.min(length, EXAMPLE_LENGTH_MAX))
+    }
+
+    fun clear() {
+        synchronized(this) {
+            sketch.fill(0)
+            total = 0
+            size = 0
+        }
+    }
+
+    fun snapshot(): Snapshot {
+        synchronized(this) {
+            val heavyHitters = ArrayList<HeavyHitter>(size)
+            for (i in 0 until size) {
+                val example = examples.copyOfRange(i * EXAMPLE_LENGTH_MAX, i * EXAMPLE_LENGTH_MAX + Math.min(lengths[i], EXAMPLE_LENGTH_MAX))
+                heavyHitters.add(HeavyHitter(signatures[i], counts[i], errors[i], manufacturerIds[i], lengths[i], example))
+            }
+            heavyHitters.sortByDescending { it.count }
+            return Snapshot(total, heavyHitters)
+        }
+    }
+
+    override fun toString(): String {
+        return snapshot().toString()
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.paulpv.androidbletool.utils
+
+import java.nio.BufferUnderflowException
+
+/**
+ * Minimal, reusable, relative reader over a [ByteArray], with the same semantics as the relative get methods of
+ * [java.nio.ByteBuffer].
+ *
+ * Unlike [java.nio.ByteBuffer.wrap], a single instance can be [reset] onto any number of arrays, so the advertisement
+ * parsing path does not allocate a buffer per manufacturer specific data entry.
+ *
+ * Not thread safe.
+ */
+class ByteArrayReader {
+    companion object {
+        private val EMPTY = ByteArray(0)
+    }
+
+    private var bytes = EMPTY
+
+    /**
+     * The backing array, same as [java.nio.ByteBuffer.array]; [position] and [limit] index directly into it
+     */
+    val array: ByteArray
+        get() = bytes
+
+    var position = 0
+        private set
+
+    var limit = 0
+        private set
+
+    /**
+     * Byte order of [getShort] and [getLong]; false (big endian) by default, same as [java.nio.ByteBuffer]
+     */
+    var isLittleEndian = false
+
+    /**
+     * Resets position to 0 and byte order to big endian
+     */
+    fun reset(bytes: ByteArray): ByteArrayReader {
+        return reset(bytes, 0, bytes.size)
+    }
+
+    /**
+     * Reads only the length bytes starting at offset; [position] and [limit] are offsets into bytes
+     */
+    fun reset(bytes: ByteArray, offset: Int, length: Int): ByteArrayReader {
+        if (offset < 0 || length < 0 || offset + length > bytes.size) {
+            throw IndexOutOfBoundsException("offset=$offset, length=$length, bytes.size=${bytes.size}")
+        }
+        this.bytes = bytes
+        position = offset
+        limit = offset + length
+        isLittleEndian = false
+        return this
+    }
+
+    fun remaining(): Int {
+        return limit - position
+    }
+
+    fun hasRemaining(): Boolean {
+        return position < limit
+    }
+
+    private fun next(count: Int): Int {
+        val position = this.position
+        if (limit - position < count) {
+            throw BufferUnderflowException()
+        }
+        this.position = position + count
+        return position
+    }
+
+    fun skip(count: Int) {
+        next(count)
+    }
+
+    fun get(): Byte {
+        return bytes[next(1)]
+    }
+
+    fun getShort(): Short {
+        val i = next(2)
+        val b0 = bytes[i].toInt() and 0xFF
+        val b1 = bytes[i + 1].toInt() and 0xFF
+        return (if (isLittleEndian) b1 shl 8 or b0 else b0 shl 8 or b1).toShort()
+    }
+
+    fun getLong(): Long {
+        val i = next(8)
+        var value = 0L
+        if (isLittleEndian) {
+            for (j in 7 downTo 0) {
+                value = value shl 8 or (bytes[i + j].toLong() and 0xFF)
+            }
+        } else {
+            for (j in 0..7) {
+                value = value shl 8 or (bytes[i + j].toLong() and 0xFF)
+            }
+        }
+        return value
+    }
+
+    override fun toString(): String {
+        return "{ position=$position, limit=$limit, isLittleEndian=$isLittleEndian }"
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.paulpv.androidbletool.utils
+
+/**
+ * Fixed size history of one metric, at three resolutions:
+ * * [Resolution.RAW]: the last [rawCapacity] samples, read back for the last minute
+ * * [Resolution.SECONDS_10]: the mean of each 10 second bucket, for the last hour
+ * * [Resolution.MINUTE_1]: the mean of each 1 minute bucket, for the last day
+ *
+ * Every sample goes into the raw ring and into the current bucket of each downsampled ring, so no tier is rebuilt
+ * from another. Each ring is a pair of primitive arrays allocated at construction; [add] never allocates, and
+ * [sizeBytes] is the same for every instance with the same rawCapacity.
+ * Buckets carry no timestamps: a ring only knows its latest bucket, and clears the ones it skips over when time moves
+ * past them.
+ *
+ * Values are stored as shorts, which fits RSSI, milli volts, and degrees; samples more than a ring's span older than
+ * its latest bucket are dropped from it.
+ *
+ * Not thread safe; callers must provide their own synchronization.
+ */
+class TimeSeries(val rawCapacity: Int = RAW_CAPACITY_DEFAULT) {
+    companion object {
+        /**
+         * About 2 samples per second for [RAW_WINDOW_MILLIS]
+         */
+        const val RAW_CAPACITY_DEFAULT = 128
+
+        const val RAW_WINDOW_MILLIS = 60 * 1000L
+
+        /**
+         * Written to the means of buckets that have no samples
+         */
+        const val MISSING = Int.MIN_VALUE
+
+        private const val RAW_SAMPLE_BYTES = 8 + 2
+        private const val BUCKET_BYTES = 4 + 2
+
+        /**
+         * The bytes of every downsampled ring; computed once, as [Resolution.values] allocates a new array every call
+         */
+        private val BUCKETS_BYTES = Resolution.values().sumBy { it.bucketCount * BUCKET_BYTES }
+
+        fun getSizeBytes(rawCapacity: Int): Int {
+            return rawCapacity * RAW_SAMPLE_BYTES + BUCKETS_BYTES
+        }
+    }
+
+    enum class Resolution(val bucketMillis: Long, val bucketCount: Int) {
+        RAW(0, 0),
+        SECONDS_10(10 * 1000L, 6 * 60),
+        MINUTE_1(60 * 1000L, 24 * 60);
+
+        val spanMillis: Long
+            get() = if (this == RAW) RAW_WINDOW_MILLIS else bucketMillis * bucketCount
+    }
+
+    private class Ring(val bucketMillis: Long, val bucketCount: Int) {
+        val sums = IntArray(bucketCount)
+        val counts = ShortArray(bucketCount)
+
+        /**
+         * -1 until the first sample
+         */
+        var latestBucket = -1L
+
+        private fun indexOf(bucket: Long): Int = (bucket % bucketCount).toInt()
+
+        fun add(elapsedMillis: Long, value: Int) {
+            val bucket = elapsedMillis / bucketMillis
+            if (bucket > latestBucket) {
+                // Clear the buckets being reused; past one full revolution, every one of them
+                val skipped = if (latestBucket == -1L) 0L else Math.min(bucket - latestBucket, bucketCount.toLong())
+                for (i in 1L..skipped) {
+                    val index = indexOf(latestBucket + i)
+                    sums[index] = 0
+                    counts[index] = 0
+                }
+                latestBucket = bucket
+            } else if (bucket <= latestBucket - bucketCount) {
+                return
+            }
+            val index = indexOf(bucket)
+            val count = counts[index]
+            if (count == Short.MAX_VALUE) {
+                return
+            }
+            sums[index] += value
+            counts[index] = (count + 1).toShort()
+        }
+
+        fun getMeans(nowElapsedMillis: Long, outMeans: IntArray, outCounts: IntArray?): Int {
+            val size = Math.min(outMeans.size, bucketCount)
+            val firstBucket = nowElapsedMillis / bucketMillis - size + 1
+            for (i in 0 until size) {
+                val bucket = firstBucket + i
+                var count = 0
+                if (bucket in 0..latestBucket && bucket > latestBucket - bucketCount) {
+                    count = counts[indexOf(bucket)].toInt()
+                }
+                outMeans[i] = if (count == 0) MISSING else sums[indexOf(bucket)] / count
+                if (outCounts != null) {
+                    outCounts[i] = count
+                }
+            }
+            return size
+        }
+
+        fun clear() {
+            sums.fill(0)
+            counts.fill(0)
+            latestBucket = -1L
+        }
+    }
+
+    //
+    // Raw ring; rawSize samples, the oldest at rawHead
+    //
+    private val rawElapsedMillis = LongArray(rawCapacity)
+    private val rawValues = ShortArray(rawCapacity)
+    private var rawHead = 0
+    private var rawSize = 0
+
+    private val seconds10 = Ring(Resolution.SECONDS_10.bucketMillis, Resolution.SECONDS_10.bucketCount)
+    private val minute1 = Ring(Resolution.MINUTE_1.bucketMillis, Resolution.MINUTE_1.bucketCount)
+
+    val sizeBytes: Int
+        get() = getSizeBytes(rawCapacity)
+
+    fun add(elapsedMillis: Long, value: Int) {
+        val index: Int
+        if (rawSize < rawCapacity) {
+            index = (rawHead + rawSize++) % rawCapacity
+        } else {
+            index = rawHead
+            rawHead = (rawHead + 1) % rawCapacity
+        }
+        rawElapsedMillis[index] = elapsedMillis
+        rawValues[index] = value.toShort()
+        seconds10.add(elapsedMillis, value)
+        minute1.add(elapsedMillis, value)
+    }
+
+    /**
+     * Copies the raw samples taken at or after sinceElapsedMillis, oldest first, up to the size of the out arrays;
+     * ex: sinceElapsedMillis = now - [RAW_WINDOW_MILLIS]
+     *
+     * @return the number of samples copied
+     */
+    fun getRaw(sinceElapsedMillis: Long, outElapsedMillis: LongArray, outValues: IntArray): Int {
+        val max = Math.min(outElapsedMillis.size, outValues.size)
+        // Skip older samples, keeping the newest max of the rest
+        var first = 0
+        while (first < rawSize && rawElapsedMillis[(rawHead + first) % rawCapacity] < sinceElapsedMillis) {
+            first++
+        }
+        first = Math.max(first, rawSize - max)
+        var size = 0
+        for (i in first until rawSize) {
+            val index = (rawHead + i) % rawCapacity
+            outElapsedMillis[size] = rawElapsedMillis[index]
+            outValues[size] = rawValues[index].toInt()
+            size++
+        }
+        return size
+    }
+
+    /**
+     * Copies the means of the buckets ending with the one that contains nowElapsedMillis, oldest first, up to the size
+     * of outMeans and at most the resolution's bucket count; buckets without samples are [MISSING]
+     *
+     * @param resolution [Resolution.SECONDS_10] or [Resolution.MINUTE_1]
+     * @param outCounts if not null, filled with the number of samples in each bucket
+     * @return the number of buckets copied
+     */
+    fun getBuckets(resolution: Resolution, nowElapsedMillis: Long, outMeans: IntArray, outCounts: IntArray? = null): Int {
+        return when (resolution) {
+            Resolution.SECONDS_10 -> seconds10.getMeans(nowElapsedMillis, outMeans, outCounts)
+            Resolution.MINUTE_1 -> minute1.getMeans(nowElapsedMillis, outMeans, outCounts)
+            else -> throw IllegalArgumentException("resolution must be SECONDS_10 or MINUTE_1")
+        }
+    }
+
+    fun clear() {
+        rawHead = 0
+        rawSize = 0
+        seconds10.clear()
+        minute1.clear()
+    }
+
+    override fun toString(): String {
+        return "{ rawSize=$rawSize, rawCapacity=$rawCapacity, sizeBytes=$sizeBytes }"
+    }
+}
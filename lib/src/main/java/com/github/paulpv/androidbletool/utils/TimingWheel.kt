@@ -0,0 +1,187 @@
+package com.github.paulpv.androidbletool.utils
+
+/**
+ * Hashed timing wheel: [schedule] and [cancel] are O(1), and [advance] fires every expired timer in one batch.
+ *
+ * Timers are intrusive (each [Timer] is its own list node), so scheduling, rescheduling, and cancelling never
+ * allocate. A timer is placed in the bucket of its deadline tick; deadlines more than one revolution away stay in
+ * their bucket until the revolution they expire in. Deadlines are rounded up to the next tick, so a timer never fires
+ * early, and fires at most one tick late (plus however late [advance] is called).
+ *
+ * [schedule] and [cancel] may be called from any thread; [advance] must always be called from the same thread, and
+ * calls [Timer.onExpired] on it, outside of the wheel's lock.
+ *
+ * @param tickMillis resolution of the wheel
+ * @param wheelSize number of buckets; rounded up to a power of 2
+ */
+class TimingWheel(val tickMillis: Long, wheelSize: Int) {
+    abstract class Timer {
+        internal var wheel: TimingWheel? = null
+        internal var previous: Timer? = null
+        internal var next: Timer? = null
+        internal var deadlineTick = 0L
+
+        /**
+         * Incremented by every [schedule] and [cancel], so [advance] can tell whether an expired timer was
+         * rescheduled or cancelled before it got to fire it
+         */
+        internal var generation = 0
+        internal var expiredGeneration = -1
+
+        /**
+         * nowMillis of the last [schedule]
+         */
+        var startMillis = 0L
+            internal set
+
+        val isScheduled: Boolean
+            get() = wheel != null
+
+        /**
+         * @param elapsedMillis since [startMillis]
+         */
+        abstract fun onExpired(elapsedMillis: Long)
+    }
+
+    private val buckets: Array<Timer?>
+    private val mask: Int
+
+    /**
+     * Last tick [advance] processed; every timer in the wheel has a later deadline. -1 until the first call.
+     */
+    private var tick = -1L
+
+    /**
+     * Only touched by [advance]'s thread
+     */
+    private val expired = ArrayList<Timer>()
+
+    var size = 0
+        private set
+
+    init {
+        var capacity = 1
+        while (capacity < wheelSize) {
+            capacity = capacity shl 1
+        }
+        buckets = arrayOfNulls(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * Schedules the timer, or reschedules it if it is already scheduled
+     */
+    fun schedule(timer: Timer, delayMillis: Long, nowMillis: Long) {
+        synchronized(this) {
+            val wheel = timer.wheel
+            if (wheel != null) {
+                if (wheel !== this) {
+                    throw IllegalStateException("timer is scheduled on another wheel")
+                }
+                unlink(timer)
+            }
+            if (tick == -1L) {
+                tick = nowMillis / tickMillis
+            }
+            var deadlineTick = (nowMillis + delayMillis + tickMillis - 1) / tickMillis
+            if (deadlineTick <= tick) {
+                deadlineTick = tick + 1
+            }
+            timer.deadlineTick = deadlineTick
+            timer.startMillis = nowMillis
+            timer.generation++
+            link(timer)
+        }
+    }
+
+    /**
+     * @return true if the timer was scheduled
+     */
+    fun cancel(timer: Timer): Boolean {
+        synchronized(this) {
+            if (timer.wheel !== this) {
+                return false
+            }
+            unlink(timer)
+            timer.generation++
+            return true
+        }
+    }
+
+    private fun link(timer: Timer) {
+        val index = (timer.deadlineTick and mask.toLong()).toInt()
+        val head = buckets[index]
+        timer.wheel = this
+        timer.previous = null
+        timer.next = head
+        head?.previous = timer
+        buckets[index] = timer
+        size++
+    }
+
+    private fun unlink(timer: Timer) {
+        val previous = timer.previous
+        val next = timer.next
+        if (previous == null) {
+            buckets[(timer.deadlineTick and mask.toLong()).toInt()] = next
+        } else {
+            previous.next = next
+        }
+        next?.previous = previous
+        timer.wheel = null
+        timer.previous = null
+        timer.next = null
+        size--
+    }
+
+    /**
+     * Fires every timer whose deadline is at or before nowMillis
+     *
+     * @return the number of timers fired
+     */
+    fun advance(nowMillis: Long): Int {
+        val nowTick = nowMillis / tickMillis
+        synchronized(this) {
+            if (tick == -1L) {
+                tick = nowTick
+                return 0
+            }
+            if (nowTick <= tick) {
+                return 0
+            }
+            // Past one full revolution, every bucket is visited once
+            val ticks = Math.min(nowTick - tick, buckets.size.toLong())
+            for (i in 1..ticks) {
+                var timer = buckets[((tick + i) and mask.toLong()).toInt()]
+                while (timer != null) {
+                    val next = timer.next
+                    if (timer.deadlineTick <= nowTick) {
+                        unlink(timer)
+                        timer.expiredGeneration = timer.generation
+                        expired.add(timer)
+                    }
+                    timer = next
+                }
+            }
+            tick = nowTick
+        }
+        var fired = 0
+        for (timer in expired) {
+            val fire = synchronized(this) {
+                val fire = timer.wheel == null && timer.expiredGeneration == timer.generation
+                timer.expiredGeneration = -1
+                fire
+            }
+            if (fire) {
+                timer.onExpired(nowMillis - timer.startMillis)
+                fired++
+            }
+        }
+        expired.clear()
+        return fired
+    }
+
+    override fun toString(): String {
+        return "{ tickMillis=$tickMillis, wheelSize=${buckets.size}, size=$size }"
+    }
+}
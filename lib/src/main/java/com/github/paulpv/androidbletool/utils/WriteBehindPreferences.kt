@@ -0,0 +1,125 @@
+package com.github.paulpv.androidbletool.utils
+
+import android.content.SharedPreferences
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.github.paulpv.androidbletool.BuildConfig
+import com.github.paulpv.androidbletool.utils.Utils.TAG
+
+/**
+ * In-memory store in front of [SharedPreferences] for values that are read and/or written on hot paths.
+ *
+ * * Reads only ever hit memory; each value is loaded from [SharedPreferences] once, when it is declared.
+ * * Writes are change detected; setting a value equal to the current value is a no-op.
+ * * Changed values are written behind, coalesced into a single [SharedPreferences.Editor.apply] posted to the
+ * looper, so no caller ever waits on a synchronous fsync.
+ *
+ * Call [flush] with commit = true when the values must be durable before continuing (ex: shutdown).
+ */
+class WriteBehindPreferences(private val sharedPreferences: SharedPreferences, looper: Looper? = null) {
+    companion object {
+        private val TAG = TAG(WriteBehindPreferences::class.java)
+
+        @Suppress("SimplifyBooleanWithConstants")
+        private val VERBOSE_LOG = false && BuildConfig.DEBUG
+    }
+
+    abstract inner class Preference internal constructor(val key: String) {
+        internal var isDirty = false
+
+        internal abstract fun write(editor: SharedPreferences.Editor)
+
+        protected fun onChanged() {
+            markDirty(this)
+        }
+    }
+
+    inner class LongPreference internal constructor(key: String, defaultValue: Long) : Preference(key) {
+        @Volatile
+        var value: Long = sharedPreferences.getLong(key, defaultValue)
+            set(value) {
+                if (field != value) {
+                    field = value
+                    onChanged()
+                }
+            }
+
+        override fun write(editor: SharedPreferences.Editor) {
+            editor.putLong(key, value)
+        }
+    }
+
+    inner class IntPreference internal constructor(key: String, defaultValue: Int) : Preference(key) {
+        @Volatile
+        var value: Int = sharedPreferences.getInt(key, defaultValue)
+            set(value) {
+                if (field != value) {
+                    field = value
+                    onChanged()
+                }
+            }
+
+        override fun write(editor: SharedPreferences.Editor) {
+            editor.putInt(key, value)
+        }
+    }
+
+    private val handler = Handler(looper ?: Looper.getMainLooper())
+    private val preferences = mutableListOf<Preference>()
+    private var isFlushScheduled = false
+    private val flushRunnable = Runnable { flush(false) }
+
+    fun longPreference(key: String, defaultValue: Long): LongPreference {
+        val preference = LongPreference(key, defaultValue)
+        synchronized(preferences) { preferences.add(preference) }
+        return preference
+    }
+
+    fun intPreference(key: String, defaultValue: Int): IntPreference {
+        val preference = IntPreference(key, defaultValue)
+        synchronized(preferences) { preferences.add(preference) }
+        return preference
+    }
+
+    private fun markDirty(preference: Preference) {
+        synchronized(preferences) {
+            preference.isDirty = true
+            if (isFlushScheduled) {
+                return
+            }
+            isFlushScheduled = true
+        }
+        handler.post(flushRunnable)
+    }
+
+    /**
+     * @param commit true to synchronously write to disk, false to write asynchronously
+     * @return true if nothing was dirty or the values were successfully written
+     */
+    fun flush(commit: Boolean): Boolean {
+        val editor = synchronized(preferences) {
+            isFlushScheduled = false
+            handler.removeCallbacks(flushRunnable)
+            var dirtyEditor: SharedPreferences.Editor? = null
+            for (preference in preferences) {
+                if (!preference.isDirty) continue
+                preference.isDirty = false
+                if (dirtyEditor == null) {
+                    dirtyEditor = sharedPreferences.edit()
+                }
+                preference.write(dirtyEditor)
+                if (VERBOSE_LOG) {
+                    Log.v(TAG, "flush: ${Utils.quote(preference.key)} dirty; writing")
+                }
+            }
+            dirtyEditor
+        } ?: return true
+        return if (commit) {
+            editor.commit()
+        } else {
+            editor.apply()
+            true
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class AdStructureCursorTest {
+    companion object {
+        private val UUID_128 = UUID.fromString("d149cb95-f212-4a20-8a17-e3a2f508c1aa")
+
+        private val ADVERTISEMENT = byteArrayOf(
+            0x02, 0x01, 0x06, // flags
+            0x05, 0x09, 'F'.toByte(), 'N'.toByte(), 'D'.toByte(), 'R'.toByte(), // complete local name
+            0x03, 0x03, 0x25, 0xFA.toByte(), // complete 16 bit service UUIDs: 0xFA25
+            0x11, 0x07, // complete 128 bit service UUIDs, little endian
+            0xAA.toByte(), 0xC1.toByte(), 0x08, 0xF5.toByte(), 0xA2.toByte(), 0xE3.toByte(), 0x17, 0x8A.toByte(),
+            0x20, 0x4A, 0x12, 0xF2.toByte(), 0x95.toByte(), 0xCB.toByte(), 0x49, 0xD1.toByte(),
+            0x05, 0xFF.toByte(), 0x0E, 0x06, 0x01, 0x02, // manufacturer specific data 0x060E
+            0x00, 0x00, 0x00 // padding
+        )
+    }
+
+    private val cursor = AdStructureCursor()
+
+    @Test
+    fun moveToNext() {
+        cursor.reset(ADVERTISEMENT)
+        val types = mutableListOf<Int>()
+        while (cursor.moveToNext()) {
+            types.add(cursor.type)
+        }
+        assertEquals(
+            listOf(
+                AdStructureCursor.Types.FLAGS,
+                AdStructureCursor.Types.LOCAL_NAME_COMPLETE,
+                AdStructureCursor.Types.SERVICE_UUIDS_16_BIT_COMPLETE,
+                AdStructureCursor.Types.SERVICE_UUIDS_128_BIT_COMPLETE,
+                AdStructureCursor.Types.MANUFACTURER_SPECIFIC_DATA
+            ), types
+        )
+    }
+
+    @Test
+    fun moveToNextStopsAtTruncatedStructure() {
+        cursor.reset(byteArrayOf(0x02, 0x01, 0x06, 0x05, 0xFF.toByte(), 0x0E))
+        assertTrue(cursor.moveToNext())
+        assertFalse(cursor.moveToNext())
+        assertFalse(cursor.moveToNext())
+
+        cursor.reset(null)
+        assertFalse(cursor.moveToNext())
+    }
+
+    @Test
+    fun manufacturerSpecificData() {
+        cursor.reset(ADVERTISEMENT)
+        assertTrue(cursor.moveToFirst(AdStructureCursor.Types.MANUFACTURER_SPECIFIC_DATA))
+        assertEquals(0x060E, cursor.manufacturerId)
+        val reader = cursor.readManufacturerSpecificData(ByteArrayReader())
+        assertEquals(2, reader.remaining())
+        assertEquals(0x0102.toShort(), reader.getShort())
+        assertFalse(reader.hasRemaining())
+
+        assertTrue(cursor.moveToFirst(AdStructureCursor.Types.FLAGS))
+        assertEquals(-1, cursor.manufacturerId)
+    }
+
+    @Test
+    fun isLocalName() {
+        cursor.reset(ADVERTISEMENT)
+        assertTrue(cursor.isLocalName("FNDR"))
+        assertTrue(cursor.isLocalName("fndr"))
+        assertFalse(cursor.isLocalName("fndr", ignoreCase = false))
+        assertFalse(cursor.isLocalName("FND"))
+    }
+
+    @Test
+    fun hasServiceUuid() {
+        cursor.reset(ADVERTISEMENT)
+        assertTrue(cursor.hasServiceUuid(0x0000FA2500001000L, -0x7fffff7fa064cb05L))
+        assertFalse(cursor.hasServiceUuid(0x0000FA2600001000L, -0x7fffff7fa064cb05L))
+        assertTrue(cursor.hasServiceUuid(UUID_128.mostSignificantBits, UUID_128.leastSignificantBits))
+    }
+
+    @Test
+    fun queriesPreservePosition() {
+        cursor.reset(ADVERTISEMENT)
+        assertTrue(cursor.moveToNext())
+        assertTrue(cursor.moveToNext())
+        assertEquals(AdStructureCursor.Types.LOCAL_NAME_COMPLETE, cursor.type)
+        assertTrue(cursor.hasServiceUuid(UUID_128.mostSignificantBits, UUID_128.leastSignificantBits))
+        assertTrue(cursor.isLocalName("FNDR"))
+        assertEquals(AdStructureCursor.Types.LOCAL_NAME_COMPLETE, cursor.type)
+        assertTrue(cursor.moveToNext())
+        assertEquals(AdStructureCursor.Types.SERVICE_UUIDS_16_BIT_COMPLETE, cursor.type)
+    }
+
+    @Test
+    fun signature() {
+        val signature = cursor.reset(ADVERTISEMENT).signature
+        assertEquals(-1, cursor.type)
+
+        // Manufacturer specific data values are not part of the signature...
+        val valueChanged = ADVERTISEMENT.copyOf()
+        valueChanged[36] = 0x7F
+        assertEquals(signature, cursor.reset(valueChanged).signature)
+
+        // ...but its manufacturer ID, and the local name, are
+        val manufacturerIdChanged = ADVERTISEMENT.copyOf()
+        manufacturerIdChanged[33] = 0x0F
+        assertNotEquals(signature, cursor.reset(manufacturerIdChanged).signature)
+        val nameChanged = ADVERTISEMENT.copyOf()
+        nameChanged[5] = 'X'.toByte()
+        assertNotEquals(signature, cursor.reset(nameChanged).signature)
+    }
+}
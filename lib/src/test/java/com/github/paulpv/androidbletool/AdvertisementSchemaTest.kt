@@ -0,0 +1,121 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+
+class AdvertisementSchemaTest {
+    companion object {
+        private val SCHEMA = AdvertisementSchema.Builder("Test", isLittleEndian = true)
+            .field("id", AdvertisementSchema.Type.UINT32, isLittleEndian = false)
+            .skip(1)
+            .field("flags", AdvertisementSchema.Type.UINT8)
+            .bits("high", "flags", 4, 4)
+            .bits("bit3", "flags", 3, 1)
+            .bits("low", "flags", 0, 2)
+            .optional()
+            .field("temperature", AdvertisementSchema.Type.INT16)
+            .field("voltage", AdvertisementSchema.Type.UINT16)
+            .field("counter", AdvertisementSchema.Type.INT8)
+            .build()
+
+        private val ID = SCHEMA.indexOf("id")
+        private val HIGH = SCHEMA.indexOf("high")
+        private val BIT3 = SCHEMA.indexOf("bit3")
+        private val LOW = SCHEMA.indexOf("low")
+        private val TEMPERATURE = SCHEMA.indexOf("temperature")
+        private val VOLTAGE = SCHEMA.indexOf("voltage")
+        private val COUNTER = SCHEMA.indexOf("counter")
+
+        private val DATA = byteArrayOf(
+            0xE5.toByte(), 0x75, 0xF0.toByte(), 0xAE.toByte(), // id, big endian
+            0x55, // skipped
+            0x39, // flags 0b0011_1001
+            0xF6.toByte(), 0xFF.toByte(), // temperature -10, little endian
+            0xB8.toByte(), 0xBB.toByte(), // voltage 48056, little endian
+            0xFE.toByte() // counter -2
+        )
+    }
+
+    private val reader = ByteArrayReader()
+    private val record = AdvertisementSchema.Record(SCHEMA)
+
+    @Test
+    fun lengths() {
+        assertEquals(6, SCHEMA.minLength)
+        assertEquals(11, SCHEMA.maxLength)
+        assertEquals(7, SCHEMA.size)
+    }
+
+    @Test
+    fun decode() {
+        assertTrue(SCHEMA.decode(reader.reset(DATA), record))
+        assertEquals(0, reader.remaining())
+        assertEquals(2, record.sectionCount)
+        assertEquals(11, record.length)
+        assertEquals(0xE575F0AEL, record.getLong(ID))
+        assertEquals(3, record.getInt(HIGH))
+        assertTrue(record.getBoolean(BIT3))
+        assertEquals(1, record.getInt(LOW))
+        assertTrue(record.isPresent(TEMPERATURE))
+        assertEquals((-10).toShort(), record.getShort(TEMPERATURE))
+        assertEquals(48056, record.getInt(VOLTAGE))
+        assertEquals((-2).toByte(), record.getByte(COUNTER))
+    }
+
+    @Test
+    fun decodeRequiredSectionOnly() {
+        // A partial optional section is not decoded, and not consumed
+        assertTrue(SCHEMA.decode(reader.reset(DATA, 0, 9), record))
+        assertEquals(3, reader.remaining())
+        assertEquals(1, record.sectionCount)
+        assertEquals(6, record.length)
+        assertTrue(record.isPresent(LOW))
+        assertFalse(record.isPresent(TEMPERATURE))
+    }
+
+    @Test
+    fun decodeExactLength() {
+        val schema = AdvertisementSchema.Builder("Exact")
+            .field("a", AdvertisementSchema.Type.UINT8)
+            .optional()
+            .field("b", AdvertisementSchema.Type.UINT16)
+            .exactLength()
+            .build()
+        val record = AdvertisementSchema.Record(schema)
+        val bytes = byteArrayOf(0x01, 0x02, 0x03, 0x04)
+        assertTrue(schema.decode(reader.reset(bytes, 0, 1), record))
+        assertEquals(1, record.sectionCount)
+        assertTrue(schema.decode(reader.reset(bytes, 0, 3), record))
+        assertEquals(2, record.sectionCount)
+        // Partway through the optional section, or past the end of the last one
+        for (length in intArrayOf(2, 4)) {
+            reader.reset(bytes, 0, length)
+            assertFalse(schema.decode(reader, record))
+            assertEquals(length, reader.remaining())
+        }
+    }
+
+    @Test
+    fun decodeTooShort() {
+        reader.reset(DATA, 0, 5)
+        assertFalse(SCHEMA.decode(reader, record))
+        assertEquals(5, reader.remaining())
+    }
+
+    @Test
+    fun decodeAtOffset() {
+        val bytes = byteArrayOf(0x01, 0x02) + DATA
+        reader.reset(bytes, 2, DATA.size)
+        assertTrue(SCHEMA.decode(reader, record))
+        assertEquals(0xE575F0AEL, record.getLong(ID))
+        assertEquals((-2).toByte(), record.getByte(COUNTER))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun duplicateFieldName() {
+        AdvertisementSchema.Builder("Duplicate")
+            .field("a", AdvertisementSchema.Type.UINT8)
+            .field("a", AdvertisementSchema.Type.UINT8)
+    }
+}
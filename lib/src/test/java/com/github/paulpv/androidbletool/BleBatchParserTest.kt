@@ -0,0 +1,191 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Ignore
+import org.junit.Test
+import java.util.*
+
+/**
+ * Replays batches of raw advertisements from many devices, in shuffled order, through [BleBatchParser]
+ */
+class BleBatchParserTest {
+    companion object {
+        private const val SEED = 0x5EED
+        private const val WORKER_COUNT = 4
+
+        private const val REPLAY_DEVICE_COUNT = 64
+        private const val REPLAY_ENTRIES_PER_DEVICE = 8
+        private const val REPLAY_WARMUP_ITERATIONS = 200
+        private const val REPLAY_ITERATIONS = 1000
+
+        private fun macAddress(device: Int): Long {
+            return ParserCorpus.FINDER2_MAC_ADDRESS and 0xFFFF00000000L or 0x10000000L + device
+        }
+
+        private fun timestampNanos(device: Int, entry: Int): Long {
+            return entry * 1000L + device
+        }
+
+        private fun milliVolts(entry: Int): Int {
+            return 2000 + entry
+        }
+    }
+
+    private class Entry(val device: Int, val entry: Int, val advertisementBytes: ByteArray)
+
+    private val parsers = mutableListOf<BleBatchParser<Entry>>()
+
+    private fun newBatchParser(workerCount: Int): BleBatchParser<Entry> {
+        val parser = BleBatchParser<Entry>(BleDeviceFactory<BleDevice>(), listOf(PebblebeeDeviceFinder2.Parser()), workerCount)
+        parsers.add(parser)
+        return parser
+    }
+
+    @After
+    fun tearDown() {
+        for (parser in parsers) {
+            parser.close()
+        }
+    }
+
+    /**
+     * @return every entry of every device, plus one unrecognized advertisement per device, shuffled
+     */
+    private fun newBatch(deviceCount: Int, entriesPerDevice: Int): List<Entry> {
+        val batch = mutableListOf<Entry>()
+        for (device in 0 until deviceCount) {
+            for (entry in 0 until entriesPerDevice) {
+                val data = ParserCorpus.finder2Data(macAddress(device), milliVolts(entry))
+                batch.add(Entry(device, entry, ParserCorpus.finder2Advertisement(data)))
+            }
+            batch.add(Entry(device, entriesPerDevice, ParserCorpus.noise(SEED.toLong() + device, 1)[0]))
+        }
+        Collections.shuffle(batch, Random(SEED.toLong()))
+        return batch
+    }
+
+    private fun parse(parser: BleBatchParser<Entry>, batch: List<Entry>) {
+        parser.clear()
+        for (entry in batch) {
+            parser.add(entry, macAddress(entry.device), timestampNanos(entry.device, entry.entry), entry.advertisementBytes)
+        }
+        parser.parse()
+    }
+
+    @Test
+    fun workersRequireNewInstance() {
+        val parser = object : BleToolParser.RawBleDeviceParser("Test", "Test", BleToolParser.Configuration()) {
+            override val modelNumber: Int
+                get() = 0
+
+            override fun decode(
+                macAddress: Long,
+                manufacturerId: Int,
+                manufacturerSpecificData: ByteArrayReader,
+                frame: TriggerFrame
+            ): Boolean {
+                return false
+            }
+        }
+        assertEquals(1, BleBatchParser<Entry>(BleDeviceFactory<BleDevice>(), listOf(parser), WORKER_COUNT).workerCount)
+        assertEquals(WORKER_COUNT, newBatchParser(WORKER_COUNT).workerCount)
+    }
+
+    @Test
+    fun appliesEveryDeviceInTimestampOrder() {
+        val deviceCount = 8
+        val entriesPerDevice = 16
+        val batch = newBatch(deviceCount, entriesPerDevice)
+        val parser = newBatchParser(WORKER_COUNT)
+        parse(parser, batch)
+
+        assertEquals(batch.size, parser.size)
+        val visited = BooleanArray(parser.size)
+        val lastEntries = IntArray(deviceCount) { -1 }
+        for (position in 0 until parser.size) {
+            val index = parser.indexAt(position)
+            assertFalse(visited[index])
+            visited[index] = true
+
+            val entry = parser.getItem(index)
+            assertEquals(macAddress(entry.device), parser.getMacAddress(index))
+            assertTrue(entry.entry > lastEntries[entry.device])
+            lastEntries[entry.device] = entry.entry
+
+            if (entry.entry < entriesPerDevice) {
+                assertNotNull(parser.getParser(index))
+                val frame = parser.getFrame(index)
+                assertEquals(milliVolts(entry.entry).toShort(), frame.batteryLevelMilliVolts)
+            } else {
+                assertNull(parser.getParser(index))
+            }
+        }
+        for (lastEntry in lastEntries) {
+            assertEquals(entriesPerDevice, lastEntry)
+        }
+    }
+
+    @Test
+    fun matchesSerialParse() {
+        val batch = newBatch(REPLAY_DEVICE_COUNT, REPLAY_ENTRIES_PER_DEVICE)
+        val serial = newBatchParser(1)
+        val parallel = newBatchParser(WORKER_COUNT)
+        parse(serial, batch)
+        parse(parallel, batch)
+        for (index in batch.indices) {
+            assertEquals(serial.getParser(index) != null, parallel.getParser(index) != null)
+            assertEquals(serial.getFrame(index).present, parallel.getFrame(index).present)
+            assertEquals(serial.getFrame(index).toString(), parallel.getFrame(index).toString())
+        }
+    }
+
+    @Test
+    fun smallBatchIsParsedSerially() {
+        val batch = newBatch(2, 4)
+        assertTrue(batch.size < BleBatchParser.PARALLEL_SIZE_MIN)
+        val parser = newBatchParser(WORKER_COUNT)
+        parse(parser, batch)
+        for (position in 0 until parser.size) {
+            // One shard, so plain timestamp order across devices too
+            if (position > 0) {
+                val previous = parser.getItem(parser.indexAt(position - 1))
+                val current = parser.getItem(parser.indexAt(position))
+                assertTrue(timestampNanos(previous.device, previous.entry) <= timestampNanos(current.device, current.entry))
+            }
+        }
+    }
+
+    private fun replay(parser: BleBatchParser<Entry>, batch: List<Entry>): Long {
+        for (i in 0 until REPLAY_WARMUP_ITERATIONS) {
+            parse(parser, batch)
+        }
+        val nanosBefore = System.nanoTime()
+        for (i in 0 until REPLAY_ITERATIONS) {
+            parse(parser, batch)
+        }
+        return (System.nanoTime() - nanosBefore) / REPLAY_ITERATIONS
+    }
+
+    /**
+     * Benchmark; too slow for every unit test run, so remove the [Ignore] to run it.
+     * Asserts nothing about the speedup, which depends on the cores of the machine running the test.
+     */
+    @Ignore("Benchmark")
+    @Test
+    fun replay() {
+        val batch = newBatch(REPLAY_DEVICE_COUNT, REPLAY_ENTRIES_PER_DEVICE)
+        val cores = Runtime.getRuntime().availableProcessors()
+        val serialNanos = replay(newBatchParser(1), batch)
+        val parallel = newBatchParser(Math.min(cores, 8))
+        val parallelNanos = replay(parallel, batch)
+        val message = "batchSize=${batch.size}, cores=$cores" +
+                ", serialNanosPerBatch=$serialNanos" +
+                ", workerCount=${parallel.workerCount}, parallelNanosPerBatch=$parallelNanos" +
+                ", speedup=${String.format("%.2f", serialNanos.toDouble() / Math.max(parallelNanos, 1))}"
+        assertTrue(message, serialNanos > 0 && parallelNanos > 0)
+    }
+}
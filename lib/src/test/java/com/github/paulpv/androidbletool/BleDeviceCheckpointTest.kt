@@ -0,0 +1,190 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrameDevice
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+class BleDeviceCheckpointTest {
+    private class FakeDevice : TriggerFrameDevice {
+        override val frame = TriggerFrame()
+        var signalLevelRssiSmoothed = Int.MIN_VALUE
+
+        override fun update(frame: TriggerFrame, forceRssiChange: Boolean): Int {
+            val changed = this.frame.diff(frame)
+            this.frame.merge(frame)
+            return changed
+        }
+
+        override fun restore(frame: TriggerFrame, signalLevelRssiSmoothed: Int) {
+            this.frame.merge(frame)
+            this.signalLevelRssiSmoothed = signalLevelRssiSmoothed
+        }
+    }
+
+    private val file = File.createTempFile("BleDeviceCheckpointTest", ".bin")
+
+    private val ioExecutor = Executors.newSingleThreadScheduledExecutor()
+
+    @After
+    fun tearDown() {
+        ioExecutor.shutdownNow()
+        file.delete()
+    }
+
+    /**
+     * Loaded rows are handed over on the io thread, so once it is idle the checkpoint is loaded
+     */
+    private fun awaitIo() {
+        ioExecutor.submit(Runnable { }).get()
+    }
+
+    private fun newCheckpoint(): BleDeviceCheckpoint {
+        val checkpoint = BleDeviceCheckpoint(file, ioExecutor, Executor { it.run() })
+        awaitIo()
+        return checkpoint
+    }
+
+    private fun newDevice(sequence: Byte = 3): FakeDevice {
+        val device = FakeDevice()
+        val frame = TriggerFrame()
+        frame.setSignalLevelRssi(-60)
+        frame.setBeepingAndFlashing(true)
+        frame.setClicks(true, false, false, sequence, 7)
+        frame.setBatteryLevelMilliVolts(2900)
+        frame.setModelNumber(2)
+        device.update(frame)
+        return device
+    }
+
+    private fun offsetOf(row: Int): Long = BleDeviceCheckpoint.HEADER_BYTES + row.toLong() * BleDeviceCheckpoint.RECORD_BYTES
+
+    @Test
+    fun restoresWhatWasFlushed() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        assertTrue(checkpoint.flush(true))
+
+        val restored = FakeDevice()
+        assertTrue(newCheckpoint().restore(1L, restored))
+        assertEquals(-55, restored.signalLevelRssiSmoothed)
+        val frame = restored.frame
+        assertEquals(BleDeviceCheckpoint.PERSISTED and newDevice().frame.present, frame.present)
+        assertFalse(frame.has(TriggerFrame.SIGNAL_LEVEL_RSSI))
+        assertTrue(frame.isBeepingAndFlashing)
+        assertTrue(frame.isShortClicked)
+        assertEquals(3.toByte(), frame.clickSequence)
+        assertEquals(7.toByte(), frame.clickCounter)
+        assertEquals(2900.toShort(), frame.batteryLevelMilliVolts)
+        assertEquals(2, frame.modelNumber)
+
+        // The same click is not a change after the restart
+        assertEquals(TriggerFrame.SIGNAL_LEVEL_RSSI, restored.update(newDevice().frame))
+
+        assertFalse(newCheckpoint().restore(2L, FakeDevice()))
+    }
+
+    @Test
+    fun onlyChangedRowsAreWritten() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        checkpoint.update(2L, newDevice(), -70)
+        assertTrue(checkpoint.flush(false))
+        val length = file.length()
+        assertEquals(offsetOf(2), length)
+
+        // Scribble over row 0; an unchanged update must not rewrite it
+        RandomAccessFile(file, "rw").use { it.seek(offsetOf(0)); it.writeLong(99L) }
+        checkpoint.update(2L, newDevice(), -70)
+        assertTrue(checkpoint.flush(false))
+        RandomAccessFile(file, "r").use { it.seek(offsetOf(0)); assertEquals(99L, it.readLong()) }
+
+        checkpoint.update(2L, newDevice(sequence = 4), -70)
+        assertTrue(checkpoint.flush(false))
+        assertEquals(length, file.length())
+        val restored = FakeDevice()
+        assertTrue(newCheckpoint().restore(2L, restored))
+        assertEquals(4.toByte(), restored.frame.clickSequence)
+    }
+
+    @Test
+    fun removedRowsAreFreedAndReused() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        checkpoint.update(2L, newDevice(), -70)
+        checkpoint.flush(false)
+        checkpoint.remove(1L)
+        checkpoint.flush(false)
+
+        val reloaded = newCheckpoint()
+        assertEquals(1, reloaded.size)
+        assertFalse(reloaded.restore(1L, FakeDevice()))
+        reloaded.update(3L, newDevice(), -80)
+        reloaded.flush(false)
+        assertEquals(offsetOf(2), file.length())
+        assertEquals(2, newCheckpoint().size)
+    }
+
+    @Test
+    fun tornRecordsAreDropped() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        checkpoint.update(2L, newDevice(), -70)
+        checkpoint.flush(false)
+        RandomAccessFile(file, "rw").use { it.seek(offsetOf(1) + 20); it.writeInt(-1) }
+
+        val reloaded = newCheckpoint()
+        assertTrue(reloaded.restore(1L, FakeDevice()))
+        assertFalse(reloaded.restore(2L, FakeDevice()))
+    }
+
+    @Test
+    fun otherVersionsAreDiscarded() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        checkpoint.flush(false)
+        RandomAccessFile(file, "rw").use { it.seek(4); it.writeShort(BleDeviceCheckpoint.FORMAT_VERSION + 1) }
+
+        val reloaded = newCheckpoint()
+        assertEquals(0, reloaded.size)
+        reloaded.update(2L, newDevice(), -70)
+        reloaded.flush(false)
+        assertEquals(offsetOf(1), file.length())
+        assertTrue(newCheckpoint().restore(2L, FakeDevice()))
+    }
+
+    @Test
+    fun changesWhileLoadingWinOverTheFile() {
+        val checkpoint = newCheckpoint()
+        checkpoint.update(1L, newDevice(), -55)
+        checkpoint.update(2L, newDevice(), -70)
+        assertTrue(checkpoint.flush(false))
+
+        val loading = CountDownLatch(1)
+        ioExecutor.execute { loading.await() }
+        val reloaded = BleDeviceCheckpoint(file, ioExecutor, Executor { it.run() })
+        assertFalse(reloaded.restore(1L, FakeDevice()))
+        assertFalse(reloaded.flush(false))
+        reloaded.update(1L, newDevice(sequence = 5), -50)
+        reloaded.remove(2L)
+        loading.countDown()
+        awaitIo()
+
+        val restored = FakeDevice()
+        assertTrue(reloaded.restore(1L, restored))
+        assertEquals(5.toByte(), restored.frame.clickSequence)
+        assertEquals(-50, restored.signalLevelRssiSmoothed)
+        assertFalse(reloaded.restore(2L, FakeDevice()))
+        assertTrue(reloaded.flush(false))
+
+        val flushed = newCheckpoint()
+        assertEquals(1, flushed.size)
+        assertTrue(flushed.restore(1L, FakeDevice()))
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.paulpv.androidbletool
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Devices themselves need a [com.github.paulpv.androidbletool.gatt.GattHandler], which needs a real Context and
+ * Looper, so only the factory's bookkeeping of mac addresses is covered here
+ */
+class BleDeviceFactoryTest {
+    companion object {
+        private const val MAC_ADDRESS = 0x0E06E575F0AEL
+    }
+
+    private val factory = BleDeviceFactory<BleDevice>()
+
+    @Test
+    fun nearbyIsRememberedUntilAbsent() {
+        assertFalse(factory.isNearby(MAC_ADDRESS))
+        // Before the device exists, as when its first advertisement was not recognized
+        factory.onDeviceNearby(MAC_ADDRESS)
+        assertNull(factory.peekDevice(MAC_ADDRESS))
+        assertTrue(factory.isNearby(MAC_ADDRESS))
+        factory.onDeviceAbsent(MAC_ADDRESS, 1000L)
+        assertFalse(factory.isNearby(MAC_ADDRESS))
+    }
+
+    @Test
+    fun clearForgetsNearby() {
+        factory.onDeviceNearby(MAC_ADDRESS)
+        factory.clear()
+        assertFalse(factory.isNearby(MAC_ADDRESS))
+    }
+}
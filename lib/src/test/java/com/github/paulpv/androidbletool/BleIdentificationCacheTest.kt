@@ -0,0 +1,96 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.pebblebee.Pebblebee
+import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * [BleToolParser.parseAdvertisement] through its [BleIdentificationCache]
+ */
+class BleIdentificationCacheTest {
+    companion object {
+        private const val OTHER_MAC_ADDRESS = 0x112233445566L
+    }
+
+    /**
+     * Counts the [identify] and [decode] calls of a [PebblebeeDeviceFinder2.Parser]
+     */
+    private class CountingParser : BleToolParser.RawBleDeviceParser(
+        "CountingParser", "Counting", BleToolParser.Configuration()
+            .addManufacturerData(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2)
+            .addManufacturerData(BluetoothSigManufacturerIds.APPLE)
+    ) {
+        private val parser = PebblebeeDeviceFinder2.Parser()
+
+        var identifyCount = 0
+        var decodeCount = 0
+
+        override val modelNumber: Int
+            get() = parser.modelNumber
+
+        override fun identify(macAddress: Long, advertisement: AdStructureCursor, manufacturerId: Int, cachedDeviceName: String?): Boolean {
+            identifyCount++
+            return parser.identify(macAddress, advertisement, manufacturerId, cachedDeviceName)
+        }
+
+        override fun decode(macAddress: Long, manufacturerId: Int, manufacturerSpecificData: ByteArrayReader, frame: TriggerFrame): Boolean {
+            decodeCount++
+            return parser.decode(macAddress, manufacturerId, manufacturerSpecificData, frame)
+        }
+    }
+
+    private val countingParser = CountingParser()
+    private val parser = BleToolParser(BleDeviceFactory<BleDevice>(), listOf(countingParser))
+    private val frame = TriggerFrame()
+
+    private fun parse(macAddress: Long, advertisementBytes: ByteArray): BleToolParser.BleDeviceParser? {
+        return parser.parseAdvertisement(macAddress, advertisementBytes, frame)
+    }
+
+    private fun finder2Advertisement(milliVolts: Int): ByteArray {
+        return ParserCorpus.finder2Advertisement(ParserCorpus.finder2Data(ParserCorpus.FINDER2_MAC_ADDRESS, milliVolts))
+    }
+
+    @Test
+    fun sameKindOfAdvertisementIsIdentifiedOnce() {
+        for (milliVolts in 3000 downTo 2990) {
+            assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, finder2Advertisement(milliVolts)))
+            assertEquals(milliVolts.toShort(), frame.batteryLevelMilliVolts)
+        }
+        assertEquals(1, countingParser.identifyCount)
+        assertEquals(11, countingParser.decodeCount)
+    }
+
+    @Test
+    fun newKindOfAdvertisementIsIdentifiedAgain() {
+        assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, finder2Advertisement(3000)))
+        assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.iBeaconAdvertisement(Pebblebee.Regions.INTERRUPT)))
+        assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, finder2Advertisement(2999)))
+        assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.iBeaconAdvertisement(Pebblebee.Regions.TRACKING_FINDER)))
+        assertEquals(2, countingParser.identifyCount)
+        assertEquals(4, countingParser.decodeCount)
+    }
+
+    @Test
+    fun unidentifiedDeviceIsRejectedWithoutParsing() {
+        for (i in 0 until 10) {
+            assertNull(parse(OTHER_MAC_ADDRESS, finder2Advertisement(3000 - i)))
+            assertEquals(0, frame.present)
+        }
+        assertEquals(1, countingParser.identifyCount)
+        assertEquals(0, countingParser.decodeCount)
+    }
+
+    @Test
+    fun undecodedAdvertisementDoesNotRejectItsDevice() {
+        // An iBeacon of an unsupported region is identified, but not decoded...
+        assertNull(parse(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.iBeaconAdvertisement("00000000-0000-0000-0000-000000000000")))
+        // ...so a supported region of the same kind is still recognized
+        assertSame(countingParser, parse(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.iBeaconAdvertisement(Pebblebee.Regions.INTERRUPT)))
+        assertTrue(frame.has(TriggerFrame.CONTINUOUS_SCAN))
+    }
+}
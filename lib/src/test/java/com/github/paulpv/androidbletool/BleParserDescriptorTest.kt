@@ -0,0 +1,96 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.beacons.Beacons
+import com.github.paulpv.androidbletool.devices.pebblebee.Pebblebee
+import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * [BleToolParser] over [BleParserDescriptor]s, whose parsers must only be instantiated when first needed
+ */
+class BleParserDescriptorTest {
+    private var instanceCount = 0
+
+    private val descriptor = BleParserDescriptor(
+        "Finder2",
+        intArrayOf(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, BleToolParser.BluetoothSigManufacturerIds.APPLE),
+        macAddressPrefixes = intArrayOf(Pebblebee.MacAddressPrefix.PEBBLEBEE_FINDER2)
+    ) {
+        instanceCount++
+        PebblebeeDeviceFinder2.Parser()
+    }
+
+    private val parser = BleToolParser(BleDeviceFactory<BleDevice>(), emptyList(), listOf(descriptor))
+    private val frame = TriggerFrame()
+
+    @Test
+    fun instantiatedOnFirstMatchOnly() {
+        // Unregistered manufacturer ID
+        assertNull(parser.parseAdvertisement(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.altBeaconAdvertisement(), frame))
+        // Registered manufacturer ID, unsupported mac address prefix
+        assertNull(parser.parseAdvertisement(ParserCorpus.BEACON_MAC_ADDRESS, ParserCorpus.finder2Advertisement(), frame))
+        assertEquals(0, instanceCount)
+        assertFalse(descriptor.isInstantiated)
+
+        for (i in 0 until 3) {
+            assertNotNull(parser.parseAdvertisement(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.finder2Advertisement(), frame))
+        }
+        assertEquals(1, instanceCount)
+        assertTrue(descriptor.isInstantiated)
+    }
+
+    @Test
+    fun workerHasParsersOfItsOwn() {
+        val worker = parser.newWorker()!!
+        assertEquals(0, instanceCount)
+        assertNotNull(parser.parseAdvertisement(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.finder2Advertisement(), frame))
+        val workerParser = worker.parseAdvertisement(ParserCorpus.FINDER2_MAC_ADDRESS, ParserCorpus.finder2Advertisement(), frame)
+        assertNotNull(workerParser)
+        assertNotSame(descriptor.getParser(), workerParser)
+        assertEquals(2, instanceCount)
+    }
+
+    @Test
+    fun eagerParserWithoutNewInstanceHasNoWorkers() {
+        val eagerParser = object : BleToolParser.RawBleDeviceParser(
+            "Test", "Test", BleToolParser.Configuration().addManufacturerData(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2)
+        ) {
+            override val modelNumber: Int
+                get() = 0
+
+            override fun decode(macAddress: Long, manufacturerId: Int, manufacturerSpecificData: ByteArrayReader, frame: TriggerFrame): Boolean {
+                return false
+            }
+        }
+        assertNull(BleToolParser(BleDeviceFactory<BleDevice>(), listOf(eagerParser), listOf(descriptor)).newWorker())
+        assertNotNull(BleToolParser(BleDeviceFactory<BleDevice>(), listOf(PebblebeeDeviceFinder2.Parser()), listOf(descriptor)).newWorker())
+        assertEquals(0, instanceCount)
+    }
+
+    @Test
+    fun manufacturerDataIsTheParsersDataPrefixes() {
+        for (descriptor in arrayOf(
+            Pebblebee.ParserDescriptors.finder2(),
+            Beacons.ParserDescriptors.iBeacon(),
+            Beacons.ParserDescriptors.iBeacon(ParserCorpus.BEACON_REGION),
+            Beacons.ParserDescriptors.altBeacon(ParserCorpus.BEACON_REGION)
+        )) {
+            assertFalse(descriptor.hasManufacturerData(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2))
+            val declared = descriptor.manufacturerData.map { it.toString() }
+            assertFalse(declared.isEmpty())
+            val configured = descriptor.getParser().configuration.manufacturerData.filter { it.data != null }.map { it.toString() }
+            assertEquals(descriptor.name, configured, declared)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun manufacturerDataOfAnotherManufacturerIdIsRejected() {
+        BleParserDescriptor(
+            "Test", intArrayOf(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2),
+            manufacturerData = listOf(BleToolParser.Configuration.ManufacturerData(BleToolParser.BluetoothSigManufacturerIds.APPLE, ByteArray(2), null))
+        ) { PebblebeeDeviceFinder2.Parser() }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.beacons.AltBeaconParser
+import com.github.paulpv.androidbletool.devices.beacons.EddystoneParser
+import com.github.paulpv.androidbletool.devices.beacons.IBeaconParser
+import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2
+import com.github.paulpv.androidbletool.utils.Allocations
+import org.junit.Assert.*
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Plain JVM throughput and allocation rate of [BleToolParser.parseAdvertisement] over [ParserCorpus]; fails only if
+ * the recognized path allocates, with its results in the failure message.
+ *
+ * Too slow for every unit test run; remove the [Ignore] to run it.
+ */
+@Ignore("Benchmark")
+class BleToolParserBenchmarkTest {
+    companion object {
+        private const val WARMUP_ITERATIONS = 20000
+        private const val ITERATIONS = 100000
+    }
+
+    private val parser = BleToolParser(BleDeviceFactory<BleDevice>(), listOf(PebblebeeDeviceFinder2.Parser()))
+    private val beaconParser = BleToolParser(
+        BleDeviceFactory<BleDevice>(), listOf(
+            IBeaconParser(ParserCorpus.BEACON_REGION),
+            EddystoneParser(ParserCorpus.EDDYSTONE_NAMESPACE),
+            AltBeaconParser(ParserCorpus.BEACON_REGION)
+        )
+    )
+    private val frame = TriggerFrame()
+
+    private class Result(val parsesPerSecond: Long, val bytesPerParse: Long) {
+        override fun toString(): String {
+            return "parsesPerSecond=$parsesPerSecond, bytesPerParse=$bytesPerParse"
+        }
+    }
+
+    private fun run(corpus: List<ByteArray>, parser: BleToolParser = this.parser, macAddress: Long = ParserCorpus.FINDER2_MAC_ADDRESS): Result {
+        val corpusSize = corpus.size
+
+        for (i in 0 until WARMUP_ITERATIONS) {
+            parser.parseAdvertisement(macAddress, corpus[i % corpusSize], frame)
+        }
+
+        val nanosBefore = System.nanoTime()
+        val bytes = Allocations.count {
+            for (i in 0 until ITERATIONS) {
+                parser.parseAdvertisement(macAddress, corpus[i % corpusSize], frame)
+            }
+        }
+        val nanos = System.nanoTime() - nanosBefore
+
+        return Result(ITERATIONS * 1000000000L / Math.max(nanos, 1), bytes / ITERATIONS)
+    }
+
+    @Test
+    fun valid() {
+        val result = run(ParserCorpus.VALID)
+        assertEquals(result.toString(), 0L, result.bytesPerParse)
+    }
+
+    @Test
+    fun beacons() {
+        val result = run(ParserCorpus.BEACONS, beaconParser, ParserCorpus.BEACON_MAC_ADDRESS)
+        assertEquals(result.toString(), 0L, result.bytesPerParse)
+    }
+
+    @Test
+    fun truncated() {
+        // Rejected advertisements may log, so only their throughput is measured
+        val result = run(ParserCorpus.TRUNCATED)
+        assertTrue(result.toString(), result.parsesPerSecond > 0)
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Malformed advertisements must be rejected, never thrown: this path runs for every advertisement from every nearby
+ * device.
+ */
+class BleToolParserFuzzTest {
+    companion object {
+        private const val NOISE_SEED = 0x5EED
+        private const val NOISE_COUNT = 20000
+    }
+
+    private val finder2Parser = PebblebeeDeviceFinder2.Parser()
+    private val parser = BleToolParser(BleDeviceFactory<BleDevice>(), listOf(finder2Parser))
+    private val frame = TriggerFrame()
+
+    private val advertisement = AdStructureCursor()
+    private val reader = ByteArrayReader()
+
+    /**
+     * Calls the [BleToolParser.RawBleDeviceParser] directly, so that its exceptions are not swallowed by
+     * [BleToolParser]
+     */
+    private fun parseDirect(advertisementBytes: ByteArray): Boolean {
+        val advertisement = advertisement.reset(advertisementBytes)
+        while (advertisement.moveToNext()) {
+            val manufacturerId = advertisement.manufacturerId
+            if (manufacturerId == -1) {
+                continue
+            }
+            frame.clear()
+            if (finder2Parser.parseScan(ParserCorpus.FINDER2_MAC_ADDRESS, advertisement, manufacturerId, advertisement.readManufacturerSpecificData(reader), frame)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun parse(advertisementBytes: ByteArray?): BleToolParser.BleDeviceParser? {
+        return parser.parseAdvertisement(ParserCorpus.FINDER2_MAC_ADDRESS, advertisementBytes, frame)
+    }
+
+    @Test
+    fun validIsRecognized() {
+        for (advertisementBytes in ParserCorpus.VALID) {
+            assertSame(finder2Parser, parse(advertisementBytes))
+            assertNotEquals(0, frame.present)
+            assertTrue(parseDirect(advertisementBytes))
+        }
+    }
+
+    @Test
+    fun otherMacAddressIsRejected() {
+        for (advertisementBytes in ParserCorpus.VALID) {
+            assertNull(parser.parseAdvertisement(0x112233445566L, advertisementBytes, frame))
+            assertEquals(0, frame.present)
+        }
+    }
+
+    @Test
+    fun truncatedIsRejectedWithoutExceptions() {
+        // The only truncation that is still valid is the 5 byte short form Finder2 payload
+        val shortForm = ParserCorpus.finder2Advertisement(ParserCorpus.FINDER2_DATA.copyOf(5))
+        var recognized = 0
+        for (advertisementBytes in ParserCorpus.TRUNCATED) {
+            val isDirect = parseDirect(advertisementBytes)
+            val isParsed = parse(advertisementBytes) != null
+            assertEquals(isDirect, isParsed)
+            assertEquals(advertisementBytes.size.toString(), advertisementBytes.contentEquals(shortForm), isParsed)
+            if (isParsed) {
+                recognized++
+            }
+        }
+        assertEquals(1, recognized)
+    }
+
+    @Test
+    fun truncatedManufacturerSpecificDataIsRejected() {
+        for (length in 0 until 5) {
+            assertNull(parse(ParserCorpus.finder2Advertisement(ParserCorpus.FINDER2_DATA.copyOf(length))))
+        }
+        assertNotNull(parse(ParserCorpus.finder2Advertisement(ParserCorpus.FINDER2_DATA.copyOf(5))))
+    }
+
+    @Test
+    fun nullAndEmptyAreRejected() {
+        assertNull(parse(null))
+        assertNull(parse(ByteArray(0)))
+    }
+
+    @Test
+    fun noiseIsRejectedWithoutExceptions() {
+        for (advertisementBytes in ParserCorpus.noise(NOISE_SEED.toLong(), NOISE_COUNT)) {
+            assertFalse(parseDirect(advertisementBytes))
+            assertNull(parse(advertisementBytes))
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.paulpv.androidbletool
+
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.devices.pebblebee.Pebblebee
+import java.util.*
+
+/**
+ * Raw advertisement ([android.bluetooth.le.ScanRecord.getBytes]) fixtures shared by the parser fuzz and benchmark
+ * tests
+ */
+object ParserCorpus {
+    const val FINDER2_MAC_ADDRESS = 0x0E06E575F0AEL
+    const val BEACON_MAC_ADDRESS = 0xC0FFEE000001L
+
+    const val BEACON_REGION = "f7826da6-4fa2-4e98-8024-bc5b71e0893e"
+    const val EDDYSTONE_NAMESPACE = "edd1ebeac04e5defa017"
+
+    private val FLAGS = byteArrayOf(0x02, 0x01, 0x06)
+
+    private val FINDER2_NAME_AND_SERVICE = byteArrayOf(
+        0x05, 0x09, 'F'.toByte(), 'N'.toByte(), 'D'.toByte(), 'R'.toByte(), // complete local name
+        0x03, 0x03, 0x25, 0xFA.toByte() // complete 16 bit service UUIDs: PEBBLEBEE_FINDER_SERVICE
+    )
+
+    /**
+     * Finder2 data: mac[2..5], macExtra, actionSequenceAndData, claimed, actionCounter,
+     * temperatureCelsius (LE), batteryMilliVolts (LE), beaconPeriodCount, modelNumber
+     */
+    val FINDER2_DATA = byteArrayOf(
+        0xE5.toByte(), 0x75, 0xF0.toByte(), 0xAE.toByte(),
+        0x00,
+        0x39, // sequence 3, beeping, fast, short click
+        0x01,
+        0x07,
+        0x17, 0x00, // 23C
+        0xB8.toByte(), 0x0B, // 3000mV
+        0x02,
+        Pebblebee.DeviceModelNumber.FINDER2_0.toByte()
+    )
+
+    /**
+     * @return [FINDER2_DATA] for another Finder2 macAddress (same prefix as [FINDER2_MAC_ADDRESS]), with the given
+     * battery level
+     */
+    fun finder2Data(macAddress: Long, milliVolts: Int): ByteArray {
+        val data = FINDER2_DATA.copyOf()
+        for (i in 0..3) {
+            data[i] = (macAddress shr 8 * (3 - i)).toByte()
+        }
+        data[10] = milliVolts.toByte()
+        data[11] = (milliVolts shr 8).toByte()
+        return data
+    }
+
+    fun iBeaconData(region: String): ByteArray {
+        return BleToolParser.getIBeaconPrefix(region) + byteArrayOf(
+            0x00, 0x01, // major
+            0x00, 0x02, // minor
+            0xC5.toByte() // power
+        )
+    }
+
+    fun eddystoneUidData(namespace: String = EDDYSTONE_NAMESPACE): ByteArray {
+        val data = byteArrayOf(0x00, 0xEE.toByte()) + ByteArray(16) + byteArrayOf(0x00, 0x00)
+        for (i in 0 until 10) {
+            data[2 + i] = Integer.parseInt(namespace.substring(i * 2, i * 2 + 2), 16).toByte()
+        }
+        for (i in 0 until 6) {
+            data[12 + i] = (i + 1).toByte() // instance 010203040506
+        }
+        return data
+    }
+
+    /**
+     * "https://www.example.com/"
+     */
+    val EDDYSTONE_URL_DATA = byteArrayOf(0x10, 0xEB.toByte(), 0x01) + "example".toByteArray() + byteArrayOf(0x00)
+
+    fun eddystoneTlmData(milliVolts: Int): ByteArray {
+        return byteArrayOf(
+            0x20, 0x00,
+            (milliVolts shr 8).toByte(), milliVolts.toByte(),
+            0x17, 0x80.toByte(), // 23.5C
+            0x00, 0x00, 0x01, 0x00, // 256 advertisements
+            0x00, 0x00, 0x02, 0x00 // 51.2 seconds
+        )
+    }
+
+    fun altBeaconData(region: String = BEACON_REGION): ByteArray {
+        return byteArrayOf(0xBE.toByte(), 0xAC.toByte()) + BleToolParser.getIBeaconPrefix(region).copyOfRange(2, 18) + byteArrayOf(
+            0x00, 0x01, // major
+            0x00, 0x02, // minor
+            0xC5.toByte(), // reference rssi
+            0x00
+        )
+    }
+
+    /**
+     * @return one 16 bit service data AD structure
+     */
+    fun serviceData(serviceUuid16: Int, data: ByteArray): ByteArray {
+        return byteArrayOf(
+            (3 + data.size).toByte(),
+            0x16,
+            (serviceUuid16 and 0xFF).toByte(),
+            (serviceUuid16 shr 8 and 0xFF).toByte()
+        ) + data
+    }
+
+    fun eddystoneAdvertisement(data: ByteArray): ByteArray {
+        return FLAGS + byteArrayOf(0x03, 0x03, 0xAA.toByte(), 0xFE.toByte()) + serviceData(0xFEAA, data)
+    }
+
+    fun altBeaconAdvertisement(data: ByteArray = altBeaconData()): ByteArray {
+        return FLAGS + manufacturerSpecificData(BluetoothSigManufacturerIds.RADIUS_NETWORKS, data)
+    }
+
+    /**
+     * Advertisements that the [com.github.paulpv.androidbletool.devices.beacons.BeaconParser]s recognize for
+     * [BEACON_MAC_ADDRESS], in [BEACON_REGION] or [EDDYSTONE_NAMESPACE]
+     */
+    val BEACONS = listOf(
+        iBeaconAdvertisement(BEACON_REGION),
+        eddystoneAdvertisement(eddystoneUidData()),
+        eddystoneAdvertisement(EDDYSTONE_URL_DATA),
+        eddystoneAdvertisement(eddystoneTlmData(3000)),
+        altBeaconAdvertisement()
+    )
+
+    /**
+     * @return one manufacturer specific data AD structure
+     */
+    fun manufacturerSpecificData(manufacturerId: Int, data: ByteArray): ByteArray {
+        return byteArrayOf(
+            (3 + data.size).toByte(),
+            0xFF.toByte(),
+            (manufacturerId and 0xFF).toByte(),
+            (manufacturerId shr 8 and 0xFF).toByte()
+        ) + data
+    }
+
+    fun finder2Advertisement(data: ByteArray = FINDER2_DATA): ByteArray {
+        return FLAGS + FINDER2_NAME_AND_SERVICE + manufacturerSpecificData(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, data)
+    }
+
+    fun iBeaconAdvertisement(region: String): ByteArray {
+        return FLAGS + manufacturerSpecificData(BluetoothSigManufacturerIds.APPLE, iBeaconData(region))
+    }
+
+    /**
+     * Advertisements that [com.github.paulpv.androidbletool.devices.pebblebee.PebblebeeDeviceFinder2.Parser]
+     * recognizes for [FINDER2_MAC_ADDRESS]
+     */
+    val VALID = listOf(
+        finder2Advertisement(),
+        finder2Advertisement(FINDER2_DATA.copyOf(5)), // short form
+        iBeaconAdvertisement(Pebblebee.Regions.TRACKING_FINDER),
+        iBeaconAdvertisement(Pebblebee.Regions.TRACKING_STONE),
+        iBeaconAdvertisement(Pebblebee.Regions.INTERRUPT)
+    )
+
+    /**
+     * Every prefix of every [VALID] advertisement, plus every [VALID] advertisement with its manufacturer specific
+     * data truncated to every shorter length (with consistent AD structure lengths)
+     */
+    val TRUNCATED: List<ByteArray> by lazy {
+        val truncated = mutableListOf<ByteArray>()
+        for (advertisement in VALID) {
+            for (length in 0 until advertisement.size) {
+                truncated.add(advertisement.copyOf(length))
+            }
+        }
+        for (length in 0 until FINDER2_DATA.size) {
+            truncated.add(finder2Advertisement(FINDER2_DATA.copyOf(length)))
+        }
+        for (region in arrayOf(Pebblebee.Regions.TRACKING_FINDER, Pebblebee.Regions.INTERRUPT)) {
+            val data = iBeaconData(region)
+            for (length in 0 until data.size) {
+                truncated.add(FLAGS + manufacturerSpecificData(BluetoothSigManufacturerIds.APPLE, data.copyOf(length)))
+            }
+        }
+        truncated
+    }
+
+    /**
+     * @return count random advertisements, up to the 62 byte legacy maximum; half random bytes, half random
+     * manufacturer specific data under a manufacturer ID the parser is registered for
+     */
+    fun noise(seed: Long, count: Int): List<ByteArray> {
+        val random = Random(seed)
+        val noise = mutableListOf<ByteArray>()
+        for (i in 0 until count) {
+            if (i % 2 == 0) {
+                val bytes = ByteArray(random.nextInt(63))
+                random.nextBytes(bytes)
+                noise.add(bytes)
+            } else {
+                val data = ByteArray(random.nextInt(28))
+                random.nextBytes(data)
+                val manufacturerId = if (random.nextBoolean()) Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2 else BluetoothSigManufacturerIds.APPLE
+                noise.add(FLAGS + manufacturerSpecificData(manufacturerId, data))
+            }
+        }
+        return noise
+    }
+}
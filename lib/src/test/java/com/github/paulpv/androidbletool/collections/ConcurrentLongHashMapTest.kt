@@ -0,0 +1,90 @@
+package com.github.paulpv.androidbletool.collections
+
+import com.github.paulpv.androidbletool.utils.Allocations
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class ConcurrentLongHashMapTest {
+    private val map = ConcurrentLongHashMap<String>()
+
+    @Test
+    fun matchesHashMap() {
+        val expected = HashMap<Long, String>()
+        val random = Random(1)
+        for (i in 0 until 100000) {
+            // Includes 0 and negative keys, and enough removes to exercise slot reuse and rehashing
+            val key = random.nextInt(3000) - 10L
+            when (random.nextInt(4)) {
+                0 -> assertEquals(expected.put(key, "put$i"), map.put(key, "put$i"))
+                1 -> assertEquals(expected.remove(key), map.remove(key))
+                2 -> assertEquals(expected.putIfAbsent(key, "add$i") ?: "add$i", map.getOrAdd(key, "add$i"))
+                else -> assertEquals(expected[key], map[key])
+            }
+            assertEquals(expected.size, map.size())
+        }
+
+        var count = 0
+        val it = map.iterateValues()
+        while (it.hasNext()) {
+            assertTrue(expected.containsValue(it.next()))
+            it.remove()
+            count++
+        }
+        assertEquals(expected.size, count)
+        assertTrue(map.isEmpty)
+    }
+
+    @Test
+    fun replaceOnlyReplacesExpected() {
+        map.put(42, "a")
+        assertFalse(map.replace(42, "b", "c"))
+        assertTrue(map.replace(42, "a", "c"))
+        assertEquals("c", map[42])
+        assertNull(map.remove(42, "a"))
+        assertEquals("c", map.remove(42, "c"))
+    }
+
+    @Test
+    fun racingCreatorsAllGetTheSameValue() {
+        val threadCount = 8
+        val executor = Executors.newFixedThreadPool(threadCount)
+        try {
+            val futures = (0 until threadCount).map { thread ->
+                executor.submit(Callable {
+                    (1 until 20000L).map { key -> map.getOrCreate(key) { "$thread:$it" } }
+                })
+            }
+            val first = futures[0].get()
+            for (future in futures) {
+                val values = future.get()
+                for (i in values.indices) {
+                    assertSame(first[i], values[i])
+                }
+            }
+            assertEquals(19999, map.size())
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun getDoesNotAllocate() {
+        for (key in 1..1000L) {
+            map.put(key, key.toString())
+        }
+        var found = 0
+        for (i in 0 until 20000) {
+            if (map[(i % 2000).toLong()] != null) found++
+        }
+        val bytes = Allocations.count {
+            for (i in 0 until 100000) {
+                if (map[(i % 2000).toLong()] != null) found++
+            }
+        }
+        assertTrue(found > 0)
+        assertEquals(0L, bytes)
+    }
+}
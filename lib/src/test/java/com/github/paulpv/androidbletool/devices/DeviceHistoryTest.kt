@@ -0,0 +1,65 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.devices.DeviceHistory.Metrics
+import com.github.paulpv.androidbletool.utils.TimeSeries
+import org.junit.Assert.*
+import org.junit.Test
+
+class DeviceHistoryTest {
+    private val sizeBytes = DeviceHistory.getSizeBytes(Metrics.ALL).toLong()
+
+    @Test
+    fun poolCapsTotalBytes() {
+        val pool = DeviceHistory.Pool(sizeBytes * 2)
+        val first = pool.tryCreate()!!
+        assertNotNull(pool.tryCreate())
+        assertNull(pool.tryCreate())
+        assertEquals(sizeBytes * 2, pool.bytesUsed)
+        pool.release(first)
+        assertNotNull(pool.tryCreate())
+    }
+
+    @Test
+    fun poolGenerationCountChangesOnlyWhenRoomMayHaveBeenMade() {
+        val pool = DeviceHistory.Pool(sizeBytes)
+        val history = pool.tryCreate()!!
+        val generationCount = pool.generationCount
+        assertNull(pool.tryCreate())
+        assertEquals(generationCount, pool.generationCount)
+
+        pool.release(history)
+        assertNotEquals(generationCount, pool.generationCount)
+        val released = pool.generationCount
+        pool.maxBytes = sizeBytes * 2
+        assertNotEquals(released, pool.generationCount)
+    }
+
+    @Test
+    fun poolSizesBySelectedMetrics() {
+        val pool = DeviceHistory.Pool(sizeBytes, Metrics.SIGNAL_LEVEL_RSSI)
+        assertEquals(sizeBytes / 3, pool.tryCreate()!!.sizeBytes.toLong())
+        pool.metrics = 0
+        assertNull(pool.tryCreate())
+    }
+
+    @Test
+    fun recordsOnlySelectedPresentMetrics() {
+        val history = DeviceHistory.Pool(sizeBytes, Metrics.SIGNAL_LEVEL_RSSI or Metrics.BATTERY_LEVEL_MILLI_VOLTS).tryCreate()!!
+        val frame = TriggerFrame()
+        frame.setSignalLevelRssi(-60)
+        frame.setTemperatureCelsius(25)
+        history.record(frame, 1000)
+        frame.clear()
+        frame.setBatteryLevelMilliVolts(2900)
+        history.record(frame, 2000)
+
+        val elapsedMillis = LongArray(4)
+        val values = IntArray(4)
+        assertEquals(1, history.getRaw(Metrics.SIGNAL_LEVEL_RSSI, 0, elapsedMillis, values))
+        assertEquals(-60, values[0])
+        assertEquals(1, history.getRaw(Metrics.BATTERY_LEVEL_MILLI_VOLTS, 0, elapsedMillis, values))
+        assertEquals(2000L, elapsedMillis[0])
+        assertEquals(0, history.getRaw(Metrics.TEMPERATURE_CELSIUS, 0, elapsedMillis, values))
+        assertEquals(0, history.getBuckets(Metrics.TEMPERATURE_CELSIUS, TimeSeries.Resolution.MINUTE_1, 2000, values))
+    }
+}
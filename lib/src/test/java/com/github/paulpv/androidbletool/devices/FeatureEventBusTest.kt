@@ -0,0 +1,102 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.devices.FeatureEventBus.FeatureIds
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.Executor
+
+class FeatureEventBusTest {
+    private val bus = FeatureEventBus()
+
+    /**
+     * Runs nothing until [runAll], like a busy looper
+     */
+    private class QueueExecutor : Executor {
+        val tasks = ArrayDeque<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                tasks.poll()!!.run()
+            }
+        }
+    }
+
+    private class RecordingSubscriber : FeatureEventBus.Subscriber {
+        val batchSizes = mutableListOf<Int>()
+        val events = mutableListOf<String>()
+
+        override fun onFeatureEvents(batch: FeatureEventBus.Batch) {
+            batchSizes.add(batch.size)
+            for (i in 0 until batch.size) {
+                events.add("${batch.getMacAddress(i)}:${FeatureIds.toString(batch.getFeatureId(i))}:${batch.getOldValue(i)}->${batch.getNewValue(i)}")
+            }
+        }
+    }
+
+    @Test
+    fun eventsPublishedBeforeDeliveryArriveInOneBatch() {
+        val executor = QueueExecutor()
+        val subscriber = RecordingSubscriber()
+        bus.subscribe(FeatureIds.ALL, executor, subscriber)
+        bus.publish(1, FeatureIds.SHORT_CLICK, 0, 1)
+        bus.publish(2, FeatureIds.SIGNAL_LEVEL_RSSI, -70, -65)
+        bus.publish(1, FeatureIds.BEEP, 0, 1)
+        assertEquals(1, executor.tasks.size)
+        executor.runAll()
+        assertEquals(listOf(3), subscriber.batchSizes)
+        assertEquals(listOf("1:SHORT_CLICK:0->1", "2:SIGNAL_LEVEL_RSSI:-70->-65", "1:BEEP:0->1"), subscriber.events)
+    }
+
+    @Test
+    fun subscribersOnlyGetTheirFeaturesAndDevices() {
+        val executor = QueueExecutor()
+        val clicks = RecordingSubscriber()
+        val device2 = RecordingSubscriber()
+        bus.subscribe(FeatureIds.SHORT_CLICK, executor, clicks)
+        bus.subscribe(FeatureIds.ALL, executor, device2, longArrayOf(2))
+        bus.publish(1, FeatureIds.SHORT_CLICK, 0, 1)
+        bus.publish(2, FeatureIds.SHORT_CLICK, 0, 1)
+        bus.publish(2, FeatureIds.FLASH, 0, 1)
+        bus.publish(1, FeatureIds.FLASH, 0, 1)
+        executor.runAll()
+        assertEquals(listOf("1:SHORT_CLICK:0->1", "2:SHORT_CLICK:0->1"), clicks.events)
+        assertEquals(listOf("2:SHORT_CLICK:0->1", "2:FLASH:0->1"), device2.events)
+    }
+
+    @Test
+    fun eventsPublishedDuringDeliveryArriveInTheNextBatch() {
+        val executor = QueueExecutor()
+        val subscriber = object : FeatureEventBus.Subscriber {
+            val batchSizes = mutableListOf<Int>()
+
+            override fun onFeatureEvents(batch: FeatureEventBus.Batch) {
+                batchSizes.add(batch.size)
+                if (batchSizes.size == 1) {
+                    bus.publish(3, FeatureIds.FLASH, 1, 0)
+                    bus.publish(4, FeatureIds.FLASH, 1, 0)
+                }
+            }
+        }
+        bus.subscribe(FeatureIds.ALL, executor, subscriber)
+        bus.publish(3, FeatureIds.FLASH, 0, 1)
+        executor.runAll()
+        assertEquals(listOf(1, 2), subscriber.batchSizes)
+    }
+
+    @Test
+    fun unsubscribedSubscriberGetsNothingMore() {
+        val executor = QueueExecutor()
+        val subscriber = RecordingSubscriber()
+        val subscription = bus.subscribe(FeatureIds.ALL, executor, subscriber)
+        bus.publish(1, FeatureIds.BEEP, 0, 1)
+        bus.unsubscribe(subscription)
+        bus.publish(1, FeatureIds.BEEP, 1, 0)
+        executor.runAll()
+        assertTrue(subscriber.events.isEmpty())
+    }
+}
@@ -0,0 +1,254 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.BleDevice
+import org.junit.Assert.*
+import org.junit.Test
+
+class FleetCommandQueueTest {
+    companion object {
+        private const val ATTEMPT_TIMEOUT_MILLIS = 10000L
+        private const val RETRY_DELAY_MILLIS = 1000L
+    }
+
+    /**
+     * Runs nothing until [advance], like a busy looper, on a clock of its own
+     */
+    private class FakeExecutor : FleetCommandQueue.DelayedExecutor {
+        private class Task(val runAtMillis: Long, val sequence: Long, val command: Runnable)
+
+        private val tasks = mutableListOf<Task>()
+        private var sequence = 0L
+        var nowMillis = 0L
+            private set
+
+        override fun execute(command: Runnable) {
+            executeDelayed(command, 0)
+        }
+
+        override fun executeDelayed(command: Runnable, delayMillis: Long) {
+            tasks.add(Task(nowMillis + delayMillis, sequence++, command))
+        }
+
+        override fun remove(command: Runnable) {
+            tasks.removeAll { it.command === command }
+        }
+
+        /**
+         * Runs every task due within millis, in time then submission order, including the tasks that they submit
+         */
+        fun advance(millis: Long = 0) {
+            val untilMillis = nowMillis + millis
+            while (true) {
+                val task = tasks
+                    .filter { it.runAtMillis <= untilMillis }
+                    .minWith(compareBy<Task>({ it.runAtMillis }, { it.sequence })) ?: break
+                tasks.remove(task)
+                nowMillis = task.runAtMillis
+                task.command.run()
+            }
+            nowMillis = untilMillis
+        }
+    }
+
+    private class FakeDevice(val macAddress: Long, val priority: Int = 0)
+
+    private object FakeAdapter : FleetCommandQueue.Adapter<FakeDevice> {
+        override fun getMacAddress(device: FakeDevice): Long {
+            return device.macAddress
+        }
+
+        override fun getPriority(device: FakeDevice): Int {
+            return device.priority
+        }
+
+        override fun disconnect(device: FakeDevice) {
+        }
+    }
+
+    /**
+     * The attempts in progress of every [FakeCommand], by mac address; one at most per device
+     */
+    private val connected = LinkedHashMap<Long, BleDevice.RequestProgress>()
+
+    private inner class FakeCommand : FleetCommandQueue.Command<FakeDevice> {
+        override val name = "fake"
+
+        val started = mutableListOf<Long>()
+
+        override fun execute(device: FakeDevice, progress: BleDevice.RequestProgress): Boolean {
+            assertNull("${device.macAddress} run twice at once", connected.put(device.macAddress, progress))
+            started.add(device.macAddress)
+            return true
+        }
+    }
+
+    private class RecordingListener : FleetCommandQueue.Listener<FakeDevice> {
+        val completed = mutableListOf<String>()
+        var progress: FleetCommandQueue.Progress? = null
+        var completedProgressCount = 0
+
+        override fun onDeviceCompleted(job: FleetCommandQueue.Job<FakeDevice>, device: FakeDevice, success: Boolean, attempts: Int) {
+            completed.add("${device.macAddress}:$success:$attempts")
+        }
+
+        override fun onProgress(job: FleetCommandQueue.Job<FakeDevice>, progress: FleetCommandQueue.Progress) {
+            this.progress = progress
+            if (progress.isCompleted) {
+                completedProgressCount++
+            }
+        }
+    }
+
+    private val executor = FakeExecutor()
+
+    private fun newQueue(maxConnections: Int): FleetCommandQueue<FakeDevice> {
+        return FleetCommandQueue(executor, FakeAdapter, maxConnections, ATTEMPT_TIMEOUT_MILLIS)
+    }
+
+    private fun devices(vararg macAddresses: Long): List<FakeDevice> {
+        return macAddresses.map { FakeDevice(it) }
+    }
+
+    /**
+     * Ends the device's attempt in progress the way a command does: its result, then disconnected
+     */
+    private fun finish(macAddress: Long, success: Boolean) {
+        val progress = connected.remove(macAddress)!!
+        progress.onRequested(success)
+        progress.onDisconnected(success)
+        executor.advance()
+    }
+
+    @Test
+    fun highestPriorityStartsFirst() {
+        val command = FakeCommand()
+        newQueue(1).submit(command, listOf(FakeDevice(1, -80), FakeDevice(2, -50), FakeDevice(3, -65)))
+        executor.advance()
+        finish(2, true)
+        finish(3, true)
+        assertEquals(listOf(2L, 3L, 1L), command.started)
+    }
+
+    @Test
+    fun duplicatesRunOnce() {
+        val command = FakeCommand()
+        val listener = RecordingListener()
+        newQueue(4).submit(command, devices(1, 2, 1), listener)
+        executor.advance()
+        assertEquals(listOf(1L, 2L), command.started)
+        assertEquals(2, listener.progress!!.total)
+    }
+
+    @Test
+    fun noMoreThanMaxConnectionsInFlight() {
+        val command = FakeCommand()
+        val listener = RecordingListener()
+        newQueue(2).submit(command, devices(1, 2, 3, 4, 5), listener)
+        executor.advance()
+        assertEquals(listOf(1L, 2L), command.started)
+        assertEquals(2, listener.progress!!.inFlight)
+        finish(1, true)
+        assertEquals(listOf(1L, 2L, 3L), command.started)
+        assertEquals(2, listener.progress!!.inFlight)
+    }
+
+    @Test
+    fun sameDeviceNeverRunsInTwoJobsAtOnce() {
+        val queue = newQueue(4)
+        val first = FakeCommand()
+        val second = FakeCommand()
+        queue.submit(first, devices(1))
+        queue.submit(second, devices(1, 2))
+        executor.advance()
+        assertEquals(listOf(1L), first.started)
+        assertEquals(listOf(2L), second.started)
+        finish(1, true)
+        assertEquals(listOf(2L, 1L), second.started)
+    }
+
+    @Test
+    fun failuresAreRetriedBehindUntriedDevices() {
+        val command = FakeCommand()
+        val listener = RecordingListener()
+        newQueue(1).submit(command, devices(1, 2, 3), listener, maxAttempts = 2, retryDelayMillis = RETRY_DELAY_MILLIS)
+        executor.advance()
+        finish(1, false)
+        assertEquals(listOf(1L, 2L), command.started)
+        // Queued again after the delay, behind 3
+        executor.advance(RETRY_DELAY_MILLIS)
+        finish(2, true)
+        finish(3, true)
+        assertEquals(listOf(1L, 2L, 3L, 1L), command.started)
+        finish(1, false)
+        executor.advance(RETRY_DELAY_MILLIS)
+        assertEquals(listOf("2:true:1", "3:true:1", "1:false:2"), listener.completed)
+        assertEquals(4, listener.progress!!.attempts)
+    }
+
+    @Test
+    fun cancelFailsQueuedDevicesAndLetsStartedOnesFinish() {
+        val command = FakeCommand()
+        val listener = RecordingListener()
+        val job = newQueue(1).submit(command, devices(1, 2, 3), listener)
+        executor.advance()
+        job.cancel()
+        executor.advance()
+        assertEquals(listOf("2:false:0", "3:false:0"), listener.completed)
+        assertFalse(listener.progress!!.isCompleted)
+
+        finish(1, false)
+        assertEquals(listOf(1L), command.started)
+        assertEquals(listOf("2:false:0", "3:false:0", "1:false:1"), listener.completed)
+        assertTrue(listener.progress!!.isCompleted)
+        assertEquals(3, listener.progress!!.failed)
+    }
+
+    @Test
+    fun completionIsReportedOnce() {
+        val command = FakeCommand()
+        val listener = RecordingListener()
+        newQueue(2).submit(command, devices(1, 2), listener, maxAttempts = 1)
+        executor.advance()
+        finish(2, false)
+        finish(1, true)
+        assertEquals(listOf("2:false:1", "1:true:1"), listener.completed)
+        val progress = listener.progress!!
+        assertTrue(progress.isCompleted)
+        assertEquals(1, progress.succeeded)
+        assertEquals(1, progress.failed)
+        assertEquals(0, progress.inFlight)
+        assertEquals(1, listener.completedProgressCount)
+    }
+
+    @Test
+    fun timedOutDeviceIsHeldUntilItDisconnects() {
+        val queue = newQueue(4)
+        val first = FakeCommand()
+        val second = FakeCommand()
+        val listener = RecordingListener()
+        queue.submit(first, devices(1), listener, maxAttempts = 1)
+        queue.submit(second, devices(1))
+        executor.advance(ATTEMPT_TIMEOUT_MILLIS)
+        // Asked to disconnect, but not disconnected yet
+        assertTrue(listener.completed.isEmpty())
+        assertTrue(second.started.isEmpty())
+
+        finish(1, false)
+        assertEquals(listOf("1:false:1"), listener.completed)
+        assertEquals(listOf(1L), second.started)
+    }
+
+    @Test
+    fun timedOutDeviceThatNeverDisconnectsIsReleased() {
+        val queue = newQueue(4)
+        val first = FakeCommand()
+        val second = FakeCommand()
+        queue.submit(first, devices(1), maxAttempts = 1)
+        queue.submit(second, devices(1))
+        executor.advance(ATTEMPT_TIMEOUT_MILLIS)
+        assertTrue(second.started.isEmpty())
+        connected.remove(1)
+        executor.advance(ATTEMPT_TIMEOUT_MILLIS)
+        assertEquals(listOf(1L), second.started)
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.paulpv.androidbletool.devices
+
+import com.github.paulpv.androidbletool.devices.FleetStateTable.Column
+import org.junit.Assert.*
+import org.junit.Test
+
+class FleetStateTableTest {
+    private val table = FleetStateTable(capacity = 4)
+    private val frame = TriggerFrame()
+
+    private fun update(macAddress: Long, modelNumber: Int, milliVolts: Short, celsius: Short, rssiSmoothed: Int = -50): Int {
+        frame.clear()
+        frame.setSignalLevelRssi(rssiSmoothed - 5)
+        frame.setModelNumber(modelNumber)
+        frame.setBatteryLevelMilliVolts(milliVolts)
+        frame.setTemperatureCelsius(celsius)
+        return table.update(macAddress, frame, rssiSmoothed, 0L)
+    }
+
+    @Test
+    fun selectFiltersByRange() {
+        update(1L, 10, 2300, 20)
+        update(2L, 10, 2900, 21)
+        update(3L, 20, 2350, 22)
+        val lowBattery = table.select(Column.BATTERY_LEVEL_MILLI_VOLTS, Int.MIN_VALUE, 2399)
+        assertArrayEquals(longArrayOf(1L, 3L), lowBattery.toMacAddresses())
+        assertEquals(2, table.count(Column.BATTERY_LEVEL_MILLI_VOLTS, max = 2399))
+    }
+
+    @Test
+    fun selectWithinNarrowsInPlace() {
+        update(1L, 10, 2300, 20)
+        update(2L, 10, 2900, 21)
+        update(3L, 20, 2350, 22)
+        val selection = table.select(Column.MODEL_NUMBER, 10, 10)
+        table.select(Column.BATTERY_LEVEL_MILLI_VOLTS, 0, 2399, selection, selection)
+        assertArrayEquals(longArrayOf(1L), selection.toMacAddresses())
+    }
+
+    @Test
+    fun columnsNotReportedAreSkipped() {
+        update(1L, 10, 2300, 20)
+        frame.clear()
+        frame.setSignalLevelRssi(-70)
+        table.update(2L, frame, Features.FeatureSignalLevelRssi.SIGNAL_LEVEL_RSSI_UNDEFINED, 0L)
+        assertEquals(1, table.count(Column.BATTERY_LEVEL_MILLI_VOLTS))
+        assertEquals(1, table.count(Column.SIGNAL_LEVEL_RSSI_SMOOTHED))
+        assertEquals(2, table.count(Column.SIGNAL_LEVEL_RSSI))
+        assertFalse(table.has(table.getSlot(2L), Column.MODEL_NUMBER))
+    }
+
+    @Test
+    fun aggregateByGroupsAndSorts() {
+        update(1L, 20, 3000, 30)
+        update(2L, 10, 3000, 20)
+        update(3L, 20, 3000, 10)
+        update(4L, 10, 3000, 22)
+        update(5L, 30, 3000, -5)
+        val byModel = table.aggregateBy(Column.TEMPERATURE_CELSIUS, Column.MODEL_NUMBER)
+        assertEquals(listOf(10, 20, 30), byModel.keys.toList())
+        assertEquals(21.0, byModel[10]!!.average, 0.0)
+        assertEquals(2, byModel[20]!!.count)
+        assertEquals(10, byModel[20]!!.min)
+        assertEquals(30, byModel[20]!!.max)
+        assertEquals(-5L, byModel[30]!!.sum)
+
+        val all = table.aggregate(Column.TEMPERATURE_CELSIUS)
+        assertEquals(5, all.count)
+        assertEquals(77L, all.sum)
+    }
+
+    @Test
+    fun updateOverwritesSameSlot() {
+        val slot = update(1L, 10, 2300, 20)
+        assertEquals(slot, update(1L, 10, 2500, 20))
+        assertEquals(1, table.size)
+        assertEquals(2500, table.get(slot, Column.BATTERY_LEVEL_MILLI_VOLTS))
+    }
+
+    @Test
+    fun removedSlotsAreReusedAndStaleSelectionsSkipped() {
+        update(1L, 10, 2300, 20)
+        val slot = update(2L, 10, 2300, 20)
+        val selection = table.select(Column.MODEL_NUMBER, 10, 10)
+        assertTrue(table.remove(2L))
+        assertFalse(table.remove(2L))
+        assertEquals(FleetStateTable.NO_SLOT, table.getSlot(2L))
+        assertEquals(slot, update(3L, 10, 2300, 20))
+        // Slot now belongs to another device
+        assertEquals(1, table.count(Column.MODEL_NUMBER, within = selection))
+    }
+
+    @Test
+    fun growsPastInitialCapacity() {
+        for (macAddress in 1L..1000L) {
+            update(macAddress, (macAddress % 3).toInt(), (2000 + macAddress).toShort(), 20)
+        }
+        assertEquals(1000, table.size)
+        assertEquals(400, table.count(Column.BATTERY_LEVEL_MILLI_VOLTS, 2601, 3000))
+        assertEquals(334, table.count(Column.MODEL_NUMBER, 1, 1))
+    }
+
+    @Test
+    fun retainAllRemovesRejected() {
+        for (macAddress in 1L..10L) {
+            update(macAddress, 10, 3000, 20)
+        }
+        assertEquals(5, table.retainAll { it % 2 == 0L })
+        assertEquals(5, table.size)
+        assertArrayEquals(longArrayOf(2L, 4L, 6L, 8L, 10L), table.select(Column.MODEL_NUMBER, 10, 10).toMacAddresses())
+    }
+
+    @Test
+    fun scanVisitsEverySlotInUse() {
+        update(1L, 10, 3000, 20)
+        update(2L, 10, 3000, 20)
+        table.remove(1L)
+        val visited = mutableListOf<Long>()
+        table.scan(object : FleetStateTable.Visitor {
+            override fun visit(table: FleetStateTable, slot: Int) {
+                visited.add(table.getMacAddress(slot))
+            }
+        })
+        assertEquals(listOf(2L), visited)
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.paulpv.androidbletool.devices
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TriggerFrameTest {
+    private val last = TriggerFrame()
+    private val frame = TriggerFrame()
+
+    private fun next(rssi: Int, isShortClicked: Boolean, sequence: Byte, counter: Byte, milliVolts: Short): Int {
+        frame.clear()
+        frame.setSignalLevelRssi(rssi)
+        frame.setClicks(isShortClicked, isLongClicked = false, isDoubleClicked = false, sequence = sequence, counter = counter)
+        frame.setBatteryLevelMilliVolts(milliVolts)
+        val changed = last.diff(frame)
+        last.merge(frame)
+        return changed
+    }
+
+    @Test
+    fun diffFirstFrameIsAllPresent() {
+        val changed = next(-60, false, 0, 0, 3000)
+        assertEquals(frame.present, changed)
+    }
+
+    @Test
+    fun diffIdenticalFrameIsZero() {
+        next(-60, false, 0, 0, 3000)
+        assertEquals(0, next(-60, false, 0, 0, 3000))
+    }
+
+    @Test
+    fun diffOnlyChangedFields() {
+        next(-60, false, 0, 0, 3000)
+        assertEquals(TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS, next(-60, false, 0, 0, 2999))
+        assertEquals(TriggerFrame.SIGNAL_LEVEL_RSSI, next(-61, false, 0, 0, 2999))
+    }
+
+    @Test
+    fun diffNewClickWithSameButtonState() {
+        next(-60, true, 1, 5, 3000)
+        val changed = next(-60, true, 1, 6, 3000)
+        assertEquals(TriggerFrame.SHORT_CLICK or TriggerFrame.LONG_CLICK or TriggerFrame.DOUBLE_CLICK, changed)
+    }
+
+    @Test
+    fun mergeKeepsValuesNotPresent() {
+        next(-60, false, 0, 0, 3000)
+        frame.clear()
+        frame.setSignalLevelRssi(-70)
+        last.merge(frame)
+        assertEquals(-70, last.signalLevelRssi)
+        assertEquals(3000.toShort(), last.batteryLevelMilliVolts)
+        assertTrue(last.has(TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS))
+    }
+}
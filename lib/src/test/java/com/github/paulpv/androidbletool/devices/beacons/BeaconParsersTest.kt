@@ -0,0 +1,137 @@
+package com.github.paulpv.androidbletool.devices.beacons
+
+import com.github.paulpv.androidbletool.BleDevice
+import com.github.paulpv.androidbletool.BleDeviceFactory
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.ParserCorpus
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.BeaconType
+import com.github.paulpv.androidbletool.devices.pebblebee.Pebblebee
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class BeaconParsersTest {
+    private val frame = TriggerFrame()
+
+    private fun newParser(vararg parsers: BleToolParser.BleDeviceParser): BleToolParser {
+        return BleToolParser(BleDeviceFactory<BleDevice>(), listOf(*parsers))
+    }
+
+    private fun parse(parser: BleToolParser, advertisementBytes: ByteArray): BleToolParser.BleDeviceParser? {
+        return parser.parseAdvertisement(ParserCorpus.BEACON_MAC_ADDRESS, advertisementBytes, frame)
+    }
+
+    @Test
+    fun iBeaconRegion() {
+        val iBeaconParser = IBeaconParser(ParserCorpus.BEACON_REGION)
+        val parser = newParser(iBeaconParser)
+
+        assertSame(iBeaconParser, parse(parser, ParserCorpus.iBeaconAdvertisement(ParserCorpus.BEACON_REGION)))
+        val region = UUID.fromString(ParserCorpus.BEACON_REGION)
+        assertEquals(BeaconType.IBEACON, frame.beaconType)
+        assertEquals(region.mostSignificantBits, frame.beaconIdMostSignificantBits)
+        assertEquals(region.leastSignificantBits, frame.beaconIdLeastSignificantBits)
+        assertEquals(1, frame.beaconMajor)
+        assertEquals(2, frame.beaconMinor)
+        assertEquals((-59).toByte(), frame.beaconTxPower)
+
+        assertNull(parse(parser, ParserCorpus.iBeaconAdvertisement(Pebblebee.Regions.TRACKING_FINDER)))
+    }
+
+    @Test
+    fun iBeaconAnyRegion() {
+        val iBeaconParser = IBeaconParser()
+        val parser = newParser(iBeaconParser)
+        assertSame(iBeaconParser, parse(parser, ParserCorpus.iBeaconAdvertisement(Pebblebee.Regions.TRACKING_FINDER)))
+        assertTrue(frame.has(TriggerFrame.BEACON))
+        assertNull(parse(parser, ParserCorpus.altBeaconAdvertisement()))
+    }
+
+    @Test
+    fun eddystoneUid() {
+        val eddystoneParser = EddystoneParser(ParserCorpus.EDDYSTONE_NAMESPACE)
+        val parser = newParser(eddystoneParser)
+
+        assertSame(eddystoneParser, parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneUidData())))
+        val namespace = Beacons.getEddystoneNamespace(ParserCorpus.EDDYSTONE_NAMESPACE)
+        assertEquals(BeaconType.EDDYSTONE_UID, frame.beaconType)
+        assertEquals(namespace.mostSignificantBits, frame.beaconIdMostSignificantBits)
+        assertEquals(namespace.leastSignificantBits or 0x010203040506L, frame.beaconIdLeastSignificantBits)
+        assertEquals((-18).toByte(), frame.beaconTxPower)
+
+        assertNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneUidData("00000000000000000000"))))
+    }
+
+    @Test
+    fun eddystoneUrl() {
+        val parser = newParser(EddystoneParser())
+        assertNotNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.EDDYSTONE_URL_DATA)))
+        assertEquals("https://www.example.com/", frame.getBeaconUrl())
+        assertEquals((-21).toByte(), frame.beaconTxPower)
+
+        val tooLong = ParserCorpus.EDDYSTONE_URL_DATA.copyOf(3 + TriggerFrame.BEACON_URL_LENGTH_MAX + 1)
+        assertNull(parse(parser, ParserCorpus.eddystoneAdvertisement(tooLong)))
+    }
+
+    @Test
+    fun eddystoneTlm() {
+        val parser = newParser(EddystoneParser())
+        assertNotNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneTlmData(3000))))
+        assertEquals(3000.toShort(), frame.batteryLevelMilliVolts)
+        assertEquals(23.toShort(), frame.temperatureCelsius)
+        assertEquals(256L, frame.beaconAdvertisementCount)
+        assertEquals(512L, frame.beaconUptimeDeciseconds)
+
+        assertNotNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneTlmData(Beacons.Eddystone.TLM_BATTERY_NOT_SUPPORTED))))
+        assertFalse(frame.has(TriggerFrame.BATTERY_LEVEL_MILLI_VOLTS))
+
+        val encrypted = ParserCorpus.eddystoneTlmData(3000)
+        encrypted[1] = 0x01
+        assertNull(parse(parser, ParserCorpus.eddystoneAdvertisement(encrypted)))
+    }
+
+    @Test
+    fun eddystoneTlmRequiresNamespaceUid() {
+        val parser = newParser(EddystoneParser(ParserCorpus.EDDYSTONE_NAMESPACE))
+        val tlm = ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneTlmData(3000))
+        assertNull(parse(parser, tlm))
+        assertNotNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneUidData())))
+        assertNotNull(parse(parser, tlm))
+        assertTrue(frame.has(TriggerFrame.BEACON_TELEMETRY))
+    }
+
+    @Test
+    fun eddystoneNamespaceUidIsSharedByWorkers() {
+        val parser = newParser(EddystoneParser(ParserCorpus.EDDYSTONE_NAMESPACE))
+        val worker = parser.newWorker()!!
+        val tlm = ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneTlmData(3000))
+        assertNull(parse(worker, tlm))
+        assertNotNull(parse(parser, ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneUidData())))
+        assertNotNull(parse(worker, tlm))
+        assertNotNull(parse(parser.newWorker()!!, tlm))
+        assertTrue(frame.has(TriggerFrame.BEACON_TELEMETRY))
+    }
+
+    @Test
+    fun altBeacon() {
+        val altBeaconParser = AltBeaconParser(ParserCorpus.BEACON_REGION)
+        val parser = newParser(altBeaconParser)
+        assertSame(altBeaconParser, parse(parser, ParserCorpus.altBeaconAdvertisement()))
+        assertEquals(BeaconType.ALTBEACON, frame.beaconType)
+        assertEquals(UUID.fromString(ParserCorpus.BEACON_REGION).leastSignificantBits, frame.beaconIdLeastSignificantBits)
+        assertEquals(1, frame.beaconMajor)
+        assertEquals(2, frame.beaconMinor)
+
+        assertNull(parse(parser, ParserCorpus.altBeaconAdvertisement(ParserCorpus.altBeaconData(Pebblebee.Regions.TRACKING_FINDER))))
+    }
+
+    @Test
+    fun newInstance() {
+        for (beaconParser in arrayOf(IBeaconParser(ParserCorpus.BEACON_REGION), EddystoneParser(ParserCorpus.EDDYSTONE_NAMESPACE), AltBeaconParser())) {
+            val instance = beaconParser.newInstance()
+            assertNotSame(beaconParser, instance)
+            assertEquals(beaconParser.toString(), instance.toString())
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.paulpv.androidbletool.devices.pebblebee
+
+import com.github.paulpv.androidbletool.AdStructureCursor
+import com.github.paulpv.androidbletool.BleToolParser
+import com.github.paulpv.androidbletool.BleToolParser.BluetoothSigManufacturerIds
+import com.github.paulpv.androidbletool.devices.TriggerFrame
+import com.github.paulpv.androidbletool.devices.TriggerFrame.AdvertisementSpeed
+import com.github.paulpv.androidbletool.utils.Allocations
+import com.github.paulpv.androidbletool.utils.ByteArrayReader
+import org.junit.Assert.*
+import org.junit.Test
+
+class PebblebeeDeviceFinder2ParserTest {
+    companion object {
+        private const val MAC_ADDRESS = 0x0E06E575F0AEL
+
+        private const val WARMUP_ITERATIONS = 20000
+        private const val ITERATIONS = 10000
+
+        /**
+         * Finder2 data: mac[2..5], macExtra, actionSequenceAndData, claimed, actionCounter,
+         * temperatureCelsius (LE), batteryMilliVolts (LE), beaconPeriodCount, modelNumber
+         */
+        private val FINDER2_DATA = byteArrayOf(
+            0xE5.toByte(), 0x75, 0xF0.toByte(), 0xAE.toByte(),
+            0x00,
+            0x39, // sequence 3, beeping, fast, short click
+            0x01,
+            0x07,
+            0x17, 0x00, // 23C
+            0xB8.toByte(), 0x0B, // 3000mV
+            0x02,
+            Pebblebee.DeviceModelNumber.FINDER2_0.toByte()
+        )
+
+        private val IBEACON_DATA = BleToolParser.getIBeaconPrefix(Pebblebee.Regions.TRACKING_FINDER) + byteArrayOf(
+            0x00, 0x01, // major
+            0x00, 0x02, // minor
+            0xC5.toByte() // power
+        )
+
+        /**
+         * Raw advertisement ([android.bluetooth.le.ScanRecord.getBytes]) carrying FINDER2_DATA
+         */
+        private val FINDER2_ADVERTISEMENT = byteArrayOf(
+            0x02, 0x01, 0x06, // flags
+            0x05, 0x09, 'F'.toByte(), 'N'.toByte(), 'D'.toByte(), 'R'.toByte(), // complete local name
+            0x03, 0x03, 0x25, 0xFA.toByte(), // complete 16 bit service UUIDs: PEBBLEBEE_FINDER_SERVICE
+            (3 + FINDER2_DATA.size).toByte(), 0xFF.toByte(), 0x0E, 0x06 // manufacturer specific data PEBBLEBEE_FINDER2
+        ) + FINDER2_DATA
+
+        /**
+         * FINDER2_ADVERTISEMENT without its local name, as when the name is only in the scan response
+         */
+        private val FINDER2_ADVERTISEMENT_NAMELESS = FINDER2_ADVERTISEMENT.copyOfRange(0, 3) +
+                FINDER2_ADVERTISEMENT.copyOfRange(9, FINDER2_ADVERTISEMENT.size)
+    }
+
+    private val parser = PebblebeeDeviceFinder2.Parser()
+    private val reader = ByteArrayReader()
+    private val frame = TriggerFrame()
+    private val advertisement = AdStructureCursor()
+
+    private fun parse(manufacturerId: Int, data: ByteArray): Boolean {
+        frame.clear()
+        return parser.decode(MAC_ADDRESS, manufacturerId, reader.reset(data), frame)
+    }
+
+    private fun parseAdvertisement(advertisementBytes: ByteArray): Boolean {
+        val advertisement = advertisement.reset(advertisementBytes)
+        while (advertisement.moveToNext()) {
+            val manufacturerId = advertisement.manufacturerId
+            if (manufacturerId == -1) {
+                continue
+            }
+            frame.clear()
+            val reader = advertisement.readManufacturerSpecificData(reader)
+            if (parser.parseScan(MAC_ADDRESS, advertisement, manufacturerId, reader, frame)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun parseBoth() {
+        if (!parseAdvertisement(FINDER2_ADVERTISEMENT)) {
+            fail()
+        }
+        if (!parse(BluetoothSigManufacturerIds.APPLE, IBEACON_DATA)) {
+            fail()
+        }
+    }
+
+    @Test
+    fun parseData() {
+        assertTrue(parse(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, FINDER2_DATA))
+        assertEquals(0, reader.remaining())
+        assertTrue(frame.isBeepingAndFlashing)
+        assertTrue(frame.isShortClicked)
+        assertEquals(3.toByte(), frame.clickSequence)
+        assertEquals(7.toByte(), frame.clickCounter)
+        assertFalse(frame.isLongClicked)
+        assertEquals(23.toShort(), frame.temperatureCelsius)
+        assertEquals(3000.toShort(), frame.batteryLevelMilliVolts)
+        assertEquals(AdvertisementSpeed.FAST, frame.advertisementSpeed)
+        assertFalse(frame.has(TriggerFrame.MOTION or TriggerFrame.SIGNAL_LEVEL_RSSI))
+    }
+
+    @Test
+    fun parseDataShortForm() {
+        assertTrue(parse(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, FINDER2_DATA.copyOf(5)))
+        assertEquals(TriggerFrame.ADVERTISEMENT_SPEED, frame.present)
+        assertEquals(AdvertisementSpeed.SLOW, frame.advertisementSpeed)
+    }
+
+    @Test
+    fun parseDataRejectsTruncatedActionData() {
+        for (length in 6 until FINDER2_DATA.size) {
+            assertFalse(parse(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, FINDER2_DATA.copyOf(length)))
+        }
+        assertFalse(parse(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, FINDER2_DATA + byteArrayOf(0x00)))
+    }
+
+    @Test
+    fun parseDataRejectsOtherMacAddress() {
+        frame.clear()
+        assertFalse(parser.decode(MAC_ADDRESS + 1, Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, reader.reset(FINDER2_DATA), frame))
+    }
+
+    @Test
+    fun parseAdvertisement() {
+        assertTrue(parseAdvertisement(FINDER2_ADVERTISEMENT))
+        assertEquals(0, reader.remaining())
+        assertTrue(frame.isShortClicked)
+        assertEquals(3000.toShort(), frame.batteryLevelMilliVolts)
+    }
+
+    @Test
+    fun parseAdvertisementRejectsOtherName() {
+        val otherName = FINDER2_ADVERTISEMENT.copyOf()
+        otherName[5] = 'X'.toByte()
+        assertFalse(parseAdvertisement(otherName))
+    }
+
+    private fun identify(advertisementBytes: ByteArray, cachedDeviceName: String?): Boolean {
+        val advertisement = advertisement.reset(advertisementBytes)
+        assertTrue(advertisement.moveToFirst(AdStructureCursor.Types.MANUFACTURER_SPECIFIC_DATA))
+        return parser.identify(MAC_ADDRESS, advertisement, advertisement.manufacturerId, cachedDeviceName)
+    }
+
+    @Test
+    fun identifyFallsBackToTheCachedNameOnlyIfTheAdvertisementHasNone() {
+        assertFalse(identify(FINDER2_ADVERTISEMENT_NAMELESS, null))
+        assertTrue(identify(FINDER2_ADVERTISEMENT_NAMELESS, Pebblebee.DeviceCaseSensitiveName.FINDER))
+        assertFalse(identify(FINDER2_ADVERTISEMENT_NAMELESS, "Other"))
+
+        val otherName = FINDER2_ADVERTISEMENT.copyOf()
+        otherName[5] = 'X'.toByte()
+        assertFalse(identify(otherName, Pebblebee.DeviceCaseSensitiveName.FINDER))
+        assertTrue(identify(FINDER2_ADVERTISEMENT, "Other"))
+    }
+
+    @Test
+    fun parseAdvertisementRejectsMissingService() {
+        val otherService = FINDER2_ADVERTISEMENT.copyOf()
+        otherService[11] = 0x26
+        assertFalse(parseAdvertisement(otherService))
+    }
+
+    @Test
+    fun parseIBeacon() {
+        assertTrue(parse(BluetoothSigManufacturerIds.APPLE, IBEACON_DATA))
+        assertEquals(0, reader.remaining())
+        assertTrue(frame.has(TriggerFrame.SHORT_CLICK))
+        assertFalse(frame.isShortClicked)
+        assertTrue(frame.has(TriggerFrame.MOTION))
+        assertFalse(frame.isMotion)
+
+        val unknownRegion = IBEACON_DATA.copyOf()
+        unknownRegion[17] = 0x00
+        assertFalse(parse(BluetoothSigManufacturerIds.APPLE, unknownRegion))
+    }
+
+    @Test
+    fun parseAllocatesZeroBytesPerAdvertisement() {
+        for (i in 0 until WARMUP_ITERATIONS) {
+            parseBoth()
+        }
+
+        val bytes = Allocations.count {
+            for (i in 0 until ITERATIONS) {
+                parseBoth()
+            }
+        }
+
+        val bytesPerAdvertisement = bytes / (ITERATIONS * 2)
+        assertEquals(0L, bytesPerAdvertisement)
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.paulpv.androidbletool.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+
+class Log2HistogramTest {
+    @Test
+    fun bucketBoundaries() {
+        assertEquals(0, Log2Histogram.bucketOf(-1))
+        assertEquals(0, Log2Histogram.bucketOf(0))
+        assertEquals(1, Log2Histogram.bucketOf(1))
+        assertEquals(2, Log2Histogram.bucketOf(2))
+        assertEquals(2, Log2Histogram.bucketOf(3))
+        assertEquals(3, Log2Histogram.bucketOf(4))
+        assertEquals(10, Log2Histogram.bucketOf(1023))
+        assertEquals(11, Log2Histogram.bucketOf(1024))
+        assertEquals(Log2Histogram.BUCKETS - 1, Log2Histogram.bucketOf(Long.MAX_VALUE))
+
+        // Every value is below its bucket's upper bound, and at or above the previous bucket's
+        for (value in longArrayOf(1, 2, 3, 4, 7, 8, 1000, 1L shl 40, (1L shl 40) - 1)) {
+            val bucket = Log2Histogram.bucketOf(value)
+            assertTrue(value < Log2Histogram.bucketUpperBound(bucket))
+            assertTrue(value >= Log2Histogram.bucketUpperBound(bucket - 1))
+        }
+        assertEquals(Long.MAX_VALUE, Log2Histogram.bucketUpperBound(Log2Histogram.BUCKETS - 1))
+    }
+
+    @Test
+    fun percentilesAreBucketUpperBounds() {
+        val histogram = Log2Histogram()
+        assertEquals(0L, histogram.snapshot().percentile(50))
+        repeat(50) { histogram.record(1) }
+        repeat(40) { histogram.record(100) }
+        repeat(10) { histogram.record(1000) }
+        val snapshot = histogram.snapshot()
+        assertEquals(100L, snapshot.count)
+        assertEquals(140L, snapshot.mean)
+        assertEquals(2L, snapshot.percentile(0))
+        assertEquals(2L, snapshot.percentile(50))
+        assertEquals(128L, snapshot.percentile(51))
+        assertEquals(128L, snapshot.percentile(90))
+        assertEquals(1024L, snapshot.percentile(91))
+        assertEquals(1024L, snapshot.percentile(100))
+    }
+
+    @Test
+    fun concurrentRecordsAreAllCounted() {
+        val histogram = Log2Histogram()
+        val threadCount = 8
+        val records = 50000
+        val start = CountDownLatch(1)
+        val threads = List(threadCount) { index ->
+            Thread {
+                start.await()
+                for (i in 0 until records) {
+                    histogram.record(index.toLong())
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        start.countDown()
+        threads.forEach { it.join() }
+        val snapshot = histogram.snapshot()
+        assertEquals(threadCount.toLong() * records, snapshot.count)
+        assertEquals(records.toLong() * (0 until threadCount).sum(), snapshot.sum)
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.paulpv.androidbletool.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+
+class StripedCounterTest {
+    @Test
+    fun addsAndIncrements() {
+        val counter = StripedCounter()
+        assertEquals(0L, counter.sum())
+        counter.increment()
+        counter.add(41)
+        counter.add(-2)
+        assertEquals(40L, counter.sum())
+    }
+
+    @Test
+    fun concurrentIncrementsSumCorrectly() {
+        val counter = StripedCounter()
+        val threadCount = 16
+        val increments = 100000
+        val start = CountDownLatch(1)
+        val threads = List(threadCount) {
+            Thread {
+                start.await()
+                for (i in 0 until increments) {
+                    counter.increment()
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        start.countDown()
+        threads.forEach { it.join() }
+        assertEquals(threadCount.toLong() * increments, counter.sum())
+    }
+}
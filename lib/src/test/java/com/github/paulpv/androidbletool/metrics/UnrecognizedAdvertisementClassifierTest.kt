@@ -0,0 +1,74 @@
+package com.github.paulpv.androidbletool.metrics
+
+import com.github.paulpv.androidbletool.ParserCorpus
+import com.github.paulpv.androidbletool.devices.beacons.Beacons.Eddystone
+import com.github.paulpv.androidbletool.devices.pebblebee.Pebblebee
+import com.github.paulpv.androidbletool.utils.Allocations
+import org.junit.Assert.*
+import org.junit.Test
+
+class UnrecognizedAdvertisementClassifierTest {
+    private val classifier = UnrecognizedAdvertisementClassifier()
+
+    private val finder2Advertisement = ParserCorpus.finder2Advertisement()
+    private val eddystoneAdvertisement = ParserCorpus.eddystoneAdvertisement(ParserCorpus.eddystoneUidData())
+
+    private fun recordMix() {
+        for (i in 0 until 100) {
+            classifier.record(finder2Advertisement)
+        }
+        for (advertisement in ParserCorpus.noise(42, 200)) {
+            classifier.record(advertisement)
+        }
+        for (i in 0 until 20) {
+            classifier.record(eddystoneAdvertisement)
+        }
+    }
+
+    @Test
+    fun heavyHittersFindTheDominantShape() {
+        recordMix()
+        val snapshot = classifier.snapshot()
+        assertEquals(320L, snapshot.total)
+        val heavyHitter = snapshot.heavyHitters[0]
+        assertTrue(heavyHitter.count - heavyHitter.error >= 100)
+        assertEquals(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2, heavyHitter.manufacturerId)
+        assertArrayEquals(finder2Advertisement.copyOf(heavyHitter.example.size), heavyHitter.example)
+        for (i in 1 until snapshot.heavyHitters.size) {
+            assertTrue(snapshot.heavyHitters[i - 1].count >= snapshot.heavyHitters[i].count)
+        }
+    }
+
+    @Test
+    fun estimatesNeverUndercount() {
+        recordMix()
+        val heavyHitter = classifier.snapshot().heavyHitters[0]
+        assertTrue(classifier.estimateManufacturerId(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2) >= 100)
+        assertTrue(classifier.estimateLength(heavyHitter.length) >= 100)
+        assertTrue(classifier.estimateServiceUuid(Eddystone.SERVICE_UUID) >= 20)
+    }
+
+    @Test
+    fun clearForgetsEverything() {
+        recordMix()
+        classifier.clear()
+        val snapshot = classifier.snapshot()
+        assertEquals(0L, snapshot.total)
+        assertTrue(snapshot.heavyHitters.isEmpty())
+        assertEquals(0, classifier.estimateManufacturerId(Pebblebee.ManufacturerId.PEBBLEBEE_FINDER2))
+    }
+
+    @Test
+    fun recordDoesNotAllocate() {
+        val corpus = ParserCorpus.noise(7, 64) + finder2Advertisement + eddystoneAdvertisement
+        for (i in 0 until 20000) {
+            classifier.record(corpus[i % corpus.size])
+        }
+        val bytes = Allocations.count {
+            for (i in 0 until 100000) {
+                classifier.record(corpus[i % corpus.size])
+            }
+        }
+        assertEquals(0L, bytes)
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.paulpv.androidbletool.utils
+
+import org.junit.Assume.assumeTrue
+import java.lang.management.ManagementFactory
+
+/**
+ * Counts the bytes the calling thread allocates, for tests of paths that must not allocate; the calling test is
+ * skipped on JVMs that can not count them
+ */
+object Allocations {
+    /**
+     * @return the bytes that block allocated on the calling thread, less the cost of counting them
+     */
+    inline fun count(block: () -> Unit): Long {
+        val threadMXBean = getThreadMXBean()
+        val threadId = Thread.currentThread().id
+        val overhead = -threadMXBean.getThreadAllocatedBytes(threadId) + threadMXBean.getThreadAllocatedBytes(threadId)
+        val bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId)
+        block()
+        return threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore - overhead
+    }
+
+    fun getThreadMXBean(): com.sun.management.ThreadMXBean {
+        val threadMXBean = ManagementFactory.getThreadMXBean()
+        val isSupported = try {
+            threadMXBean is com.sun.management.ThreadMXBean &&
+                    threadMXBean.isThreadAllocatedMemorySupported &&
+                    threadMXBean.isThreadAllocatedMemoryEnabled
+        } catch (e: NoClassDefFoundError) {
+            false
+        }
+        assumeTrue("Per thread allocation counting is not supported", isSupported)
+        return threadMXBean as com.sun.management.ThreadMXBean
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.paulpv.androidbletool.utils
+
+import com.github.paulpv.androidbletool.utils.TimeSeries.Resolution
+import org.junit.Assert.*
+import org.junit.Test
+
+class TimeSeriesTest {
+    private val timeSeries = TimeSeries(rawCapacity = 8)
+
+    @Test
+    fun rawKeepsTheNewestSamplesOldestFirst() {
+        for (i in 0 until 10) {
+            timeSeries.add(i * 1000L, -40 - i)
+        }
+        val elapsedMillis = LongArray(16)
+        val values = IntArray(16)
+        assertEquals(8, timeSeries.getRaw(0, elapsedMillis, values))
+        assertEquals(2000L, elapsedMillis[0])
+        assertEquals(-42, values[0])
+        assertEquals(-49, values[7])
+
+        assertEquals(3, timeSeries.getRaw(7000, elapsedMillis, values))
+        assertEquals(7000L, elapsedMillis[0])
+
+        // Out arrays smaller than the samples get the newest ones
+        assertEquals(2, timeSeries.getRaw(0, LongArray(2), values))
+        assertEquals(-48, values[0])
+    }
+
+    @Test
+    fun bucketsAreMeansOldestFirst() {
+        timeSeries.add(0, 10)
+        timeSeries.add(5000, 20)
+        timeSeries.add(10000, 30)
+        timeSeries.add(35000, 40)
+        val means = IntArray(4)
+        val counts = IntArray(4)
+        assertEquals(4, timeSeries.getBuckets(Resolution.SECONDS_10, 39999, means, counts))
+        assertArrayEquals(intArrayOf(15, 30, TimeSeries.MISSING, 40), means)
+        assertArrayEquals(intArrayOf(2, 1, 0, 1), counts)
+
+        val mean = IntArray(1)
+        assertEquals(1, timeSeries.getBuckets(Resolution.MINUTE_1, 59999, mean))
+        assertEquals(25, mean[0])
+    }
+
+    @Test
+    fun bucketsOlderThanTheSpanAreCleared() {
+        timeSeries.add(0, 10)
+        val span = Resolution.SECONDS_10.spanMillis
+        timeSeries.add(span, 20)
+        val means = IntArray(Resolution.SECONDS_10.bucketCount + 10)
+        assertEquals(Resolution.SECONDS_10.bucketCount, timeSeries.getBuckets(Resolution.SECONDS_10, span, means))
+        assertEquals(20, means[Resolution.SECONDS_10.bucketCount - 1])
+        for (i in 0 until Resolution.SECONDS_10.bucketCount - 1) {
+            assertEquals(TimeSeries.MISSING, means[i])
+        }
+        // Too old for the ring any more
+        timeSeries.add(0, 99)
+        timeSeries.getBuckets(Resolution.SECONDS_10, span, means)
+        assertEquals(TimeSeries.MISSING, means[0])
+    }
+
+    @Test
+    fun bucketsAfterTheLatestSampleAreMissing() {
+        timeSeries.add(0, 10)
+        val means = IntArray(2)
+        timeSeries.getBuckets(Resolution.MINUTE_1, 60000, means)
+        assertArrayEquals(intArrayOf(10, TimeSeries.MISSING), means)
+    }
+
+    @Test
+    fun sizeBytesIsFixed() {
+        assertEquals(8 * 10 + (360 + 1440) * 6, timeSeries.sizeBytes)
+    }
+
+    @Test
+    fun addDoesNotAllocate() {
+        for (i in 0 until 10000) {
+            timeSeries.add(i * 100L, i and 0xFF)
+        }
+        val bytes = Allocations.count {
+            for (i in 10000 until 110000) {
+                timeSeries.add(i * 100L, i and 0xFF)
+            }
+        }
+        assertEquals(0L, bytes)
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.paulpv.androidbletool.utils
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TimingWheelTest {
+    private val wheel = TimingWheel(100, 16)
+
+    private class CountingTimer : TimingWheel.Timer() {
+        var count = 0
+        var elapsedMillis = -1L
+
+        override fun onExpired(elapsedMillis: Long) {
+            count++
+            this.elapsedMillis = elapsedMillis
+        }
+    }
+
+    @Test
+    fun firesOnceAtItsDeadlineNeverEarly() {
+        val timer = CountingTimer()
+        wheel.schedule(timer, 250, 1000)
+        assertTrue(timer.isScheduled)
+        assertEquals(0, wheel.advance(1200))
+        assertEquals(0, timer.count)
+        assertEquals(1, wheel.advance(1300))
+        assertEquals(1, timer.count)
+        assertEquals(300, timer.elapsedMillis)
+        assertFalse(timer.isScheduled)
+        assertEquals(0, wheel.advance(5000))
+        assertEquals(1, timer.count)
+    }
+
+    @Test
+    fun rescheduleMovesTheDeadline() {
+        val timer = CountingTimer()
+        wheel.schedule(timer, 500, 0)
+        wheel.schedule(timer, 500, 400)
+        assertEquals(1, wheel.size)
+        assertEquals(0, wheel.advance(800))
+        assertEquals(1, wheel.advance(900))
+    }
+
+    @Test
+    fun cancelledTimerNeverFires() {
+        val timer = CountingTimer()
+        wheel.schedule(timer, 100, 0)
+        assertTrue(wheel.cancel(timer))
+        assertFalse(wheel.cancel(timer))
+        assertEquals(0, wheel.size)
+        assertEquals(0, wheel.advance(1000))
+        assertEquals(0, timer.count)
+    }
+
+    @Test
+    fun timersBeyondOneRevolutionWaitForTheirRound() {
+        // 16 buckets of 100ms; 1 revolution is 1.6 seconds
+        val near = CountingTimer()
+        val far = CountingTimer()
+        wheel.schedule(near, 500, 0)
+        wheel.schedule(far, 2100, 0)
+        assertEquals(1, wheel.advance(500))
+        assertEquals(0, far.count)
+        assertEquals(0, wheel.advance(2000))
+        assertEquals(1, wheel.advance(2100))
+        assertEquals(1, far.count)
+    }
+
+    @Test
+    fun lateAdvanceFiresEverythingExpiredInOneBatch() {
+        val timers = List(1000) { CountingTimer() }
+        for ((i, timer) in timers.withIndex()) {
+            wheel.schedule(timer, (i % 50) * 100L, 0)
+        }
+        assertEquals(1000, wheel.size)
+        // Several revolutions late
+        assertEquals(1000, wheel.advance(10000))
+        assertEquals(0, wheel.size)
+        assertTrue(timers.all { it.count == 1 })
+    }
+
+    @Test
+    fun timerRescheduledByAnotherTimerFiresLater() {
+        val second = CountingTimer()
+        val first = object : TimingWheel.Timer() {
+            override fun onExpired(elapsedMillis: Long) {
+                wheel.schedule(second, 1000, 100)
+            }
+        }
+        wheel.schedule(first, 100, 0)
+        wheel.schedule(second, 100, 0)
+        // second expires in the same batch as first, but first reschedules it before it fires (or after it fired)
+        wheel.advance(100)
+        assertTrue(second.isScheduled)
+        wheel.advance(1100)
+        assertTrue(second.count >= 1)
+        assertFalse(second.isScheduled)
+    }
+}